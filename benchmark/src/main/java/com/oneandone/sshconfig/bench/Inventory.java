@@ -0,0 +1,152 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.bench;
+
+import com.oneandone.sshconfig.bind.Host;
+import com.oneandone.sshconfig.file.JsonHostWriter;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Deterministic synthetic host inventories for the benchmarks.
+ * The same size always yields the same hosts, so runs of different
+ * versions can be compared.
+ * @author Stephan Fuhrmann
+ */
+public final class Inventory {
+    /** Every n-th host has an additional IPv6 address. */
+    private static final int IPV6_EVERY = 4;
+
+    /** The number of different groups. */
+    private static final int GROUPS = 16;
+
+    /** Fixed creation date of all hosts. */
+    private static final long CREATED_AT = 1_500_000_000_000L;
+
+    /** Mask of the lowest byte. */
+    private static final int BYTE_MASK = 0xff;
+
+    /** Mask of an IPv6 group. */
+    private static final int GROUP_MASK = 0xffff;
+
+    /** No instance allowed. */
+    private Inventory() {
+    }
+
+    /** Creates a host.
+     * @param i the number of the host.
+     * @return the host with the number.
+     */
+    public static Host host(final int i) {
+        Host h = new Host();
+        h.setId(new UUID(0, i));
+        h.setName("host" + i);
+        h.setFqdn("host" + i + ".dc" + (i % GROUPS) + ".example.com");
+        String ipv4 = "10." + ((i >>> 16) & BYTE_MASK)
+                + "." + ((i >>> 8) & BYTE_MASK)
+                + "." + (i & BYTE_MASK);
+        if (i % IPV6_EVERY == 0) {
+            h.setIps(new String[] {ipv4,
+                "2001:db8::" + Integer.toHexString(i >>> 16)
+                + ":" + Integer.toHexString(i & GROUP_MASK)});
+        } else {
+            h.setIps(new String[] {ipv4});
+        }
+        h.setCreatedAt(new Date(CREATED_AT));
+        h.setUpdatedAt(new Date(CREATED_AT));
+        h.setEnabled(true);
+        h.setUser("admin");
+        h.setGroup("dc" + (i % GROUPS));
+        h.setSshServerVersion("SSH-2.0-OpenSSH_8.9p1");
+        return h;
+    }
+
+    /** Creates hosts.
+     * @param count the number of hosts.
+     * @return the hosts 0 to count - 1.
+     */
+    public static List<Host> hosts(final int count) {
+        List<Host> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(host(i));
+        }
+        return result;
+    }
+
+    /** Writes a database file.
+     * @param file the file to write.
+     * @param count the number of hosts.
+     * @throws IOException if writing fails.
+     */
+    public static void writeDatabase(final Path file, final int count)
+            throws IOException {
+        try (OutputStream out = new BufferedOutputStream(
+                Files.newOutputStream(file));
+             JsonHostWriter writer = new JsonHostWriter(out)) {
+            for (int i = 0; i < count; i++) {
+                writer.write(host(i));
+            }
+        }
+    }
+
+    /** Creates human-maintained ssh config lines.
+     * @param count the number of hosts to create entries for.
+     * @return the config lines.
+     */
+    public static List<String> plainConfig(final int count) {
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            result.add("Host manual" + i);
+            result.add("\tHostname manual" + i + ".example.org");
+            result.add("\tUser root");
+            result.add("");
+        }
+        return result;
+    }
+
+    /** Deletes a directory tree.
+     * @param dir the directory to delete.
+     * @throws IOException if deleting fails.
+     */
+    public static void delete(final Path dir) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(final Path file,
+                    final BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(final Path d,
+                    final IOException exc) throws IOException {
+                Files.delete(d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
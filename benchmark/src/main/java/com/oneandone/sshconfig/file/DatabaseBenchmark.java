@@ -0,0 +1,147 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.file;
+
+import com.oneandone.sshconfig.bench.Inventory;
+import com.oneandone.sshconfig.bind.Host;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks loading, saving and merging the host database.
+ * @author Stephan Fuhrmann
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DatabaseBenchmark {
+    /** Every n-th host of the update gets a new address. */
+    private static final int CHANGE_EVERY = 10;
+
+    /** The number of hosts in the database. */
+    @Param({"1000", "10000", "100000", "1000000"})
+    private int hosts;
+
+    /** The temporary directory of the database. */
+    private Path dir;
+
+    /** The database file. */
+    private Path file;
+
+    /** The loaded database for saving. */
+    private Database database;
+
+    /** The hosts of the loaded database. */
+    private List<Host> list;
+
+    /** The database to merge {@link #changes} into, fresh for each
+     * iteration. */
+    private Database target;
+
+    /** Hosts to merge: every tenth changed, one percent new. */
+    private List<Host> changes;
+
+    /** Writes the database file.
+     * @throws IOException if writing fails.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("db-benchmark");
+        file = dir.resolve("db.json");
+        Inventory.writeDatabase(file, hosts);
+        database = Database.fromPath(file);
+        list = new ArrayList<>(database.getList());
+        changes = new ArrayList<>();
+        for (int i = 0; i < hosts; i++) {
+            Host h = Inventory.host(i);
+            if (i % CHANGE_EVERY == 0) {
+                h.setIps(new String[] {"192.168.0.1"});
+            }
+            changes.add(h);
+        }
+        for (int i = hosts; i < hosts + hosts / 100; i++) {
+            changes.add(Inventory.host(i));
+        }
+    }
+
+    /** Loads a fresh database to merge into.
+     * @throws IOException if loading fails.
+     */
+    @Setup(Level.Iteration)
+    public void setUpIteration() throws IOException {
+        target = Database.fromPath(file);
+    }
+
+    /** Deletes the database files.
+     * @throws IOException if deleting fails.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Inventory.delete(dir);
+    }
+
+    /** Loads, validates and indexes the database file.
+     * @return the loaded database.
+     * @throws IOException if loading fails.
+     */
+    @Benchmark
+    public Database fromPath() throws IOException {
+        return Database.fromPath(file);
+    }
+
+    /** Validates and writes the database file, including the backup.
+     * @throws IOException if saving fails.
+     */
+    @Benchmark
+    public void save() throws IOException {
+        database.replace(list);
+        database.save();
+    }
+
+    /** Merges changed and new hosts into a database.
+     * Runs once per iteration, since merging changes the database.
+     * @return the number of changed hosts.
+     * @throws IOException never, there is no journal.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Measurement(iterations = 10)
+    public int update() throws IOException {
+        return target.update(changes);
+    }
+}
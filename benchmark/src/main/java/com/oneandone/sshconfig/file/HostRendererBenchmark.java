@@ -0,0 +1,181 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.file;
+
+import com.oneandone.sshconfig.bench.Inventory;
+import com.oneandone.sshconfig.bind.Host;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.jboss.logging.MDC;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Benchmarks the template renderer against the former
+ * {@code String.format} based generation of the host entries.
+ * Run with {@code -prof gc} to compare the allocation rates.
+ * @author Stephan Fuhrmann
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class HostRendererBenchmark {
+    /** The logger of the former generation. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(HostRendererBenchmark.class);
+
+    /** The number of hosts to render. */
+    @Param({"1000", "10000", "100000", "1000000"})
+    private int hosts;
+
+    /** The hosts to render. */
+    private List<Host> list;
+
+    /** Creates the hosts. */
+    @Setup(Level.Trial)
+    public void setUp() {
+        list = Inventory.hosts(hosts);
+    }
+
+    /** A writer that only counts the characters. */
+    private static final class CountingWriter extends Writer {
+        /** The number of characters written. */
+        private long count;
+
+        @Override
+        public void write(final char[] cbuf, final int off, final int len) {
+            count += len;
+        }
+
+        @Override
+        public void write(final String str, final int off, final int len) {
+            count += len;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /** The generation of one entry before the template renderer.
+     * @param h the host to generate.
+     * @return the lines of the entry.
+     */
+    private static List<String> legacyEntry(final Host h) {
+        MDC.put("id", h.getId());
+        MDC.put("name", h.getName());
+        if (Boolean.FALSE.equals(h.getEnabled())) {
+            LOG.info("Skipping {}, disabled", h.getName());
+            return new ArrayList<>();
+        }
+
+        List<String> hostData = new ArrayList<>();
+        hostData.add(String.format("# <<< BEGIN{%s}",
+                h.getId().toString()));
+        hostData.add(String.format("Host %s", h.getName()));
+        hostData.add(String.format("\tHostname %s", h.getFqdn()));
+        Stream.of(h.getIps()).forEach(
+                ip -> hostData.add(String.format("\tHostname %s", ip)));
+        if (h.getUser() != null) {
+            hostData.add(String.format("\tUser %s", h.getUser()));
+        }
+
+        hostData.add(String.format("# >>> END{%s}", h.getId().toString()));
+
+        LOG.debug("Host entry: {}", hostData);
+        return hostData;
+    }
+
+    /** Generates the lines of all hosts like before the renderer.
+     * @return the generated lines.
+     */
+    @Benchmark
+    public List<String> legacyLines() {
+        List<String> result = new ArrayList<>();
+        for (Host h : list) {
+            result.addAll(legacyEntry(h));
+        }
+        MDC.remove("id");
+        MDC.remove("name");
+        return result;
+    }
+
+    /** Generates the lines of all hosts with the renderer.
+     * @return the generated lines.
+     */
+    @Benchmark
+    public List<String> renderLines() {
+        return SSHConfig.generateOwnEntries(list);
+    }
+
+    /** Writes all hosts like the former streaming rewrite.
+     * @return the number of characters written.
+     * @throws IOException never.
+     */
+    @Benchmark
+    public long legacyWriter() throws IOException {
+        CountingWriter writer = new CountingWriter();
+        for (Host h : list) {
+            for (String line : legacyEntry(h)) {
+                writer.write(line);
+                writer.write(System.lineSeparator());
+            }
+        }
+        MDC.remove("id");
+        MDC.remove("name");
+        return writer.count;
+    }
+
+    /** Writes all hosts with the renderer like the streaming rewrite.
+     * @return the number of characters written.
+     * @throws IOException never.
+     */
+    @Benchmark
+    public long renderWriter() throws IOException {
+        CountingWriter writer = new CountingWriter();
+        HostBlockRenderer renderer =
+                new HostBlockRenderer(HostTemplate.DEFAULT);
+        for (Host h : list) {
+            renderer.render(h, writer);
+        }
+        return writer.count;
+    }
+}
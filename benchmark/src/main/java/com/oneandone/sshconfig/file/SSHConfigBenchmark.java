@@ -0,0 +1,143 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.file;
+
+import com.oneandone.sshconfig.bench.Inventory;
+import com.oneandone.sshconfig.bind.Host;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks splitting, generating, updating and writing the ssh config.
+ * @author Stephan Fuhrmann
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SSHConfigBenchmark {
+    /** The number of human-maintained host entries. */
+    private static final int PLAIN_HOSTS = 100;
+
+    /** The number of generated host entries. */
+    @Param({"1000", "10000", "100000", "1000000"})
+    private int hosts;
+
+    /** The temporary directory of the config files. */
+    private Path dir;
+
+    /** The existing ssh config with plain and generated entries. */
+    private Path file;
+
+    /** The file to save to. */
+    private Path out;
+
+    /** The hosts of the generated entries. */
+    private List<Host> list;
+
+    /** A config with own entries, ready to save. */
+    private SSHConfig pushed;
+
+    /** The loaded existing config. */
+    private SSHConfig loaded;
+
+    /** Writes the existing ssh config.
+     * @throws IOException if writing fails.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("sshconfig-benchmark");
+        file = dir.resolve("config");
+        out = dir.resolve("config.out");
+        list = Inventory.hosts(hosts);
+        List<String> lines = new ArrayList<>(
+                Inventory.plainConfig(PLAIN_HOSTS));
+        lines.addAll(SSHConfig.generateOwnEntries(list));
+        Files.write(file, lines, StandardCharsets.UTF_8);
+        pushed = SSHConfig.fromPath(file);
+        pushed.pushOwn(list);
+        loaded = SSHConfig.fromPath(file);
+    }
+
+    /** Deletes the config files.
+     * @throws IOException if deleting fails.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Inventory.delete(dir);
+    }
+
+    /** Finds and hashes the generated entries.
+     * @return the entries found.
+     */
+    @Benchmark
+    public List<SSHConfig.Entry> findOwnEntries() {
+        return loaded.findOwnEntries();
+    }
+
+    /** Updates the generated entries with unchanged hosts. */
+    @Benchmark
+    public void pushOwn() {
+        loaded.pushOwn(list);
+    }
+
+    /** Generates the entries of all hosts.
+     * @return the generated lines.
+     */
+    @Benchmark
+    public List<String> generateOwnEntries() {
+        return SSHConfig.generateOwnEntries(list);
+    }
+
+    /** Writes the config, including the backup.
+     * @throws IOException if writing fails.
+     */
+    @Benchmark
+    public void save() throws IOException {
+        Files.deleteIfExists(out);
+        pushed.save(true, true, out);
+    }
+
+    /** Saves the unchanged config, which only compares it to the file.
+     * @throws IOException if reading fails.
+     */
+    @Benchmark
+    public void saveUnchanged() throws IOException {
+        pushed.save(true, true, file);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.file;
+
+import com.oneandone.sshconfig.bench.Inventory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks splitting a large ssh config where generated entries
+ * and hand-written entries alternate, which is the worst case for
+ * removing the generated lines one by one.
+ * @author Stephan Fuhrmann
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SSHConfigSplitBenchmark {
+    /** The number of lines of the config. */
+    @Param({"500000"})
+    private int lines;
+
+    /** The temporary directory of the config file. */
+    private Path dir;
+
+    /** The config file. */
+    private Path file;
+
+    /** A freshly loaded config, once per iteration. */
+    private SSHConfig loaded;
+
+    /** Writes a config alternating one generated and one
+     * hand-written host entry.
+     * @throws IOException if writing fails.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("sshconfig-split-benchmark");
+        file = dir.resolve("config");
+        List<String> content = new ArrayList<>(lines);
+        for (int i = 0; content.size() < lines; i++) {
+            content.addAll(SSHConfig.generateOwnEntries(
+                    Collections.singletonList(Inventory.host(i))));
+            content.addAll(Inventory.plainConfig(1));
+        }
+        Files.write(file, content.subList(0, lines),
+                StandardCharsets.UTF_8);
+    }
+
+    /** Loads the config, since removing entries changes it.
+     * @throws IOException if loading fails.
+     */
+    @Setup(Level.Iteration)
+    public void setUpIteration() throws IOException {
+        loaded = SSHConfig.fromPath(file);
+    }
+
+    /** Deletes the config file.
+     * @throws IOException if deleting fails.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Inventory.delete(dir);
+    }
+
+    /** Splits the generated entries from the plain ones.
+     * @return the entries found.
+     */
+    @Benchmark
+    public List<SSHConfig.Entry> findOwnEntries() {
+        return loaded.findOwnEntries();
+    }
+}
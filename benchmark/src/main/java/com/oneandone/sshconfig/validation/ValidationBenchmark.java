@@ -0,0 +1,92 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.validation;
+
+import com.oneandone.sshconfig.bench.Inventory;
+import com.oneandone.sshconfig.bind.Host;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks bean validation of hosts and the address validator.
+ * @author Stephan Fuhrmann
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ValidationBenchmark {
+    /** The number of hosts to validate. */
+    @Param({"1000", "10000", "100000", "1000000"})
+    private int hosts;
+
+    /** The hosts to validate. */
+    private List<Host> list;
+
+    /** The validation delegate. */
+    private ValidationDelegate delegate;
+
+    /** The address validator. */
+    private IpAddressValidator validator;
+
+    /** Creates the hosts. */
+    @Setup(Level.Trial)
+    public void setUp() {
+        list = Inventory.hosts(hosts);
+        delegate = new ValidationDelegate();
+        validator = new IpAddressValidator();
+        // bootstrap outside of the measurement
+        delegate.verify(list.get(0));
+    }
+
+    /** Verifies all hosts one by one, like the database does. */
+    @Benchmark
+    public void verify() {
+        for (Host h : list) {
+            delegate.verify(h);
+        }
+    }
+
+    /** Checks the addresses of all hosts.
+     * @return the number of hosts with valid addresses.
+     */
+    @Benchmark
+    public int ipAddressValidator() {
+        int valid = 0;
+        for (Host h : list) {
+            if (validator.isValid(h.getIps(), null)) {
+                valid++;
+            }
+        }
+        return valid;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates executors for blocking I/O like DNS lookups.
+ * The common fork join pool is sized to the number of CPUs,
+ * which is far too small for tasks that mostly wait on the network.
+ * @author Stephan Fuhrmann
+ */
+@Slf4j
+final class IoExecutors {
+
+    /** The default number of concurrent I/O tasks. */
+    static final int DEFAULT_PARALLELISM = 64;
+
+    /** The name prefix of the I/O threads. */
+    private static final String THREAD_PREFIX = "ssh-config-io-";
+
+    /** No instance allowed. */
+    private IoExecutors() {
+        // no instance
+    }
+
+    /** Creates an executor running at most the given number of tasks
+     * at the same time.
+     * @param parallelism the number of tasks to run concurrently.
+     * @param virtual whether to use virtual threads. Falls back to
+     *                platform threads if the JDK has no virtual threads.
+     * @return a new executor. The caller is responsible for shutting
+     * it down.
+     * @throws IllegalArgumentException if the parallelism is not
+     * positive.
+     */
+    static ExecutorService newExecutor(final int parallelism,
+            final boolean virtual) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException(
+                    "parallelism must be positive: " + parallelism);
+        }
+        ThreadFactory threadFactory = null;
+        if (virtual) {
+            threadFactory = virtualThreadFactory();
+        }
+        if (threadFactory == null) {
+            threadFactory = platformThreadFactory();
+        }
+        log.debug("Creating I/O executor with parallelism {}", parallelism);
+        return Executors.newFixedThreadPool(parallelism, threadFactory);
+    }
+
+    /** Creates a factory for daemon platform threads.
+     * @return the thread factory.
+     */
+    private static ThreadFactory platformThreadFactory() {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, THREAD_PREFIX + counter.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /** Creates a factory for virtual threads using reflection, since
+     * they only exist in newer JDKs.
+     * @return the thread factory or {@code null} if the running JDK
+     * has no virtual threads.
+     */
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> ofVirtual = Class.forName(
+                    "java.lang.Thread$Builder$OfVirtual");
+            builder = ofVirtual.getMethod("name", String.class, long.class)
+                    .invoke(builder, THREAD_PREFIX, 0L);
+            return (ThreadFactory) ofVirtual.getMethod("factory")
+                    .invoke(builder);
+        } catch (NoSuchMethodException | ClassNotFoundException
+                | IllegalAccessException | InvocationTargetException
+                | UnsupportedOperationException ex) {
+            log.warn("Virtual threads are not available, using platform"
+                    + " threads: {}", ex.toString());
+            return null;
+        }
+    }
+}
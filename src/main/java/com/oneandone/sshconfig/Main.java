@@ -15,29 +15,69 @@
  */
 package com.oneandone.sshconfig;
 
+import com.oneandone.sshconfig.daemon.DaemonClient;
+import com.oneandone.sshconfig.daemon.DaemonCommand;
+import com.oneandone.sshconfig.daemon.DaemonRequest;
+import com.oneandone.sshconfig.daemon.DaemonServer;
+import com.oneandone.sshconfig.dns.CachingResolver;
+import com.oneandone.sshconfig.dns.JdkResolver;
+import com.oneandone.sshconfig.dns.RateLimitedResolver;
+import com.oneandone.sshconfig.dns.ResolvConf;
+import com.oneandone.sshconfig.dns.Resolver;
+import com.oneandone.sshconfig.dns.StubResolver;
+import com.oneandone.sshconfig.file.HostReader;
+import com.oneandone.sshconfig.file.JsonHostWriter;
 import com.oneandone.sshconfig.file.SSHConfig;
 import com.oneandone.sshconfig.file.Database;
+import com.oneandone.sshconfig.file.DatabaseFormat;
+import com.oneandone.sshconfig.file.DatabaseLock;
+import com.oneandone.sshconfig.file.HostTemplate;
+import com.oneandone.sshconfig.file.SearchIndex;
+import com.oneandone.sshconfig.limit.TokenBucket;
+import com.oneandone.sshconfig.metrics.Counter;
+import com.oneandone.sshconfig.metrics.Gauge;
+import com.oneandone.sshconfig.metrics.Histogram;
+import com.oneandone.sshconfig.metrics.Metrics;
+import com.oneandone.sshconfig.metrics.StatsFormat;
 
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import lombok.extern.slf4j.Slf4j;
 import com.oneandone.sshconfig.bind.Host;
-import org.slf4j.MDC;
+import com.oneandone.sshconfig.validation.IpAddresses;
 import static java.util.stream.Collectors.toList;
 
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Stream;
 
 /**
@@ -49,18 +89,122 @@ public final class Main implements AutoCloseable {
     /** The default TCP port to use. */
     public static final int SSH_PORT = 22;
 
+    /** The time of the DNS lookups of updated hosts. */
+    private static final Histogram DNS_TIME = Metrics.histogram(
+            "sshconfig_update_dns_seconds",
+            "Time to resolve the fqdn of an updated host.");
+
+    /** The number of failed DNS lookups of updated hosts. */
+    private static final Counter DNS_FAILURES = Metrics.counter(
+            "sshconfig_update_dns_failures_total",
+            "Updated hosts whose fqdn did not resolve.");
+
+    /** The time from the start of the update of a host to its end. */
+    private static final Histogram HOST_TIME = Metrics.histogram(
+            "sshconfig_update_host_seconds",
+            "Time to resolve and probe an updated host.");
+
+    /** The number of updated hosts. */
+    private static final Counter UPDATED = Metrics.counter(
+            "sshconfig_update_hosts_total",
+            "Hosts whose update is done.");
+
+    /** The number of updated hosts that were not reachable. */
+    private static final Counter UNREACHABLE = Metrics.counter(
+            "sshconfig_update_unreachable_total",
+            "Updated hosts that were disabled as unreachable.");
+
+    /** The duration of the last update. */
+    private static final Gauge UPDATE_DURATION = Metrics.gauge(
+            "sshconfig_update_duration_seconds",
+            "Duration of the last update.");
+
+    /** The throughput of the last update. */
+    private static final Gauge UPDATE_RATE = Metrics.gauge(
+            "sshconfig_update_hosts_per_second",
+            "Hosts updated per second in the last update.");
+
+    /** The duration of the run. */
+    private static final Gauge RUN_DURATION = Metrics.gauge(
+            "sshconfig_run_duration_seconds",
+            "Duration of the program run.");
+
+    /** Whether the run succeeded. */
+    private static final Gauge RUN_SUCCESS = Metrics.gauge(
+            "sshconfig_run_success",
+            "1 if the program run succeeded, 0 otherwise.");
+
     /** The status line to output the current progress with. */
     private final StatusLine statusLine;
 
     /** The command line parameters. */
     private final Params params;
 
+    /** The executor for blocking DNS lookups. */
+    private final ExecutorService executor;
+
+    /** The resolver caching DNS lookups next to the database. */
+    private final CachingResolver resolver;
+
+    /** The built-in DNS client, or {@code null} if the system
+     * resolver is used. */
+    private final StubResolver stubResolver;
+
+    /** The resolver limiting the rate of DNS lookups, or {@code null}
+     * if there is no limit. */
+    private final RateLimitedResolver rateLimitedResolver;
+
     /** Constructs an instance.
      * @param inParams the command line parameters to use.
+     * @throws IOException if the stub resolver can not be set up.
      * */
-    public Main(final Params inParams) {
+    public Main(final Params inParams) throws IOException {
         this.params = Objects.requireNonNull(inParams);
         this.statusLine = new StatusLine(System.err);
+        this.executor = IoExecutors.newExecutor(
+                params.getParallelism(),
+                params.isVirtualThreads());
+        Path cacheFile = null;
+        if (params.getDnsTtl() > 0) {
+            cacheFile = params.getDb().resolveSibling(
+                    params.getDb().getFileName() + ".dns");
+        }
+        Resolver delegate = new JdkResolver(executor);
+        if (params.isStubResolver() || params.getDnsServer() != null) {
+            stubResolver = new StubResolver(resolvConf(), executor);
+            delegate = stubResolver;
+        } else {
+            stubResolver = null;
+        }
+        if (params.getDnsRate() > 0) {
+            rateLimitedResolver = new RateLimitedResolver(delegate,
+                    new TokenBucket(params.getDnsRate()));
+            delegate = rateLimitedResolver;
+        } else {
+            rateLimitedResolver = null;
+        }
+        this.resolver = new CachingResolver(
+                delegate,
+                cacheFile,
+                params.getDnsTtl(),
+                params.getDnsNegativeTtl());
+    }
+
+    /** Gets the configuration of the stub resolver.
+     * @return the configuration from {@code /etc/resolv.conf},
+     * with the name server replaced if one was given.
+     * @throws IOException if the configuration can not be read.
+     */
+    private ResolvConf resolvConf() throws IOException {
+        ResolvConf conf = ResolvConf.read(ResolvConf.DEFAULT_PATH);
+        if (params.getDnsServer() == null) {
+            return conf;
+        }
+        return new ResolvConf(
+                Collections.singletonList(
+                        ResolvConf.parseNameserver(params.getDnsServer())),
+                conf.getSearch(),
+                conf.getNdots());
     }
 
     /** Discover a list of hosts by their DNS name. Will only
@@ -71,54 +215,76 @@ public final class Main implements AutoCloseable {
      */
     private List<Host> discover(final List<String> discover) {
         log.debug("Discovering started for {} args", discover.size());
+        resolver.load();
+        statusLine.begin("discover", discover.size());
 
-        return discover
+        List<CompletableFuture<Optional<Host>>> futures = discover
+                .stream()
+                .map(this::ignorantDiscover)
+                .collect(toList());
+        List<Host> result = futures
                 .stream()
-                .parallel()
-                .map(discoverMe -> ignorantDiscover(discoverMe))
+                .map(CompletableFuture::join)
                 .filter(Optional::isPresent)
                 .map(Optional::get)
                 .collect(toList());
+        statusLine.end();
+        return result;
     }
 
     /** Discover a single host using DNS. Silently ignores DNS / IO errors.
      * @param in the FQDN / IP to try to discover.
-     * @return the Host generated or {@linkplain Optional#empty() empty}
-     * result if an error occured.
+     * @return the future Host generated or {@linkplain Optional#empty()
+     * empty} result if an error occured.
      */
-    private Optional<Host> ignorantDiscover(final String in) {
-        try {
-            MDC.put("in", in);
-            if (in.isEmpty()) {
-                return Optional.empty();
-            }
-
-            return Optional.of(discover(in));
-        } catch (UnknownHostException ex) {
-            log.warn(in, ex);
-            return Optional.empty();
-        } finally {
-            MDC.remove("in");
+    private CompletableFuture<Optional<Host>> ignorantDiscover(
+            final String in) {
+        if (in.isEmpty()) {
+            statusLine.failed();
+            return CompletableFuture.completedFuture(Optional.empty());
         }
+        return discover(in)
+                .thenApply(h -> {
+                    statusLine.done();
+                    return Optional.of(h);
+                })
+                .exceptionally(ex -> {
+                    log.warn(in, ex);
+                    statusLine.failed();
+                    return Optional.<Host>empty();
+                });
     }
 
     /** Discover a single host by DNS.
+     * The canonical name is the name of the first address.
      * @param in a dns resolvable name.
-     * @return the discovered host entry.
-     * @throws UnknownHostException if the host could not be resolved
-     * by domain name service.
+     * @return the future discovered host entry. Completes exceptionally
+     * with an {@link java.net.UnknownHostException} if the host could
+     * not be resolved by domain name service.
+     */
+    private CompletableFuture<Host> discover(final String in) {
+        return resolver.lookup(in)
+                .thenCompose(all -> resolver.reverse(all[0])
+                        .thenApply(fqdn -> newHost(in, fqdn, all)));
+    }
+
+    /** Creates a discovered host.
+     * @param in the name the host was discovered by.
+     * @param fqdn the canonical name of the host.
+     * @param all all addresses of the host.
+     * @return the new host entry.
      */
-    private Host discover(final String in) throws UnknownHostException {
-        InetAddress address = InetAddress.getByName(in);
+    private Host newHost(final String in,
+            final String fqdn,
+            final InetAddress[] all) {
         Host result = new Host();
         result.setId(UUID.randomUUID());
-        result.setFqdn(address.getCanonicalHostName());
-        InetAddress[] all = InetAddress.getAllByName(in);
+        result.setFqdn(fqdn);
         List<String> allIps = Stream.of(all)
                 .map(InetAddress::getHostAddress)
                 .collect(toList());
         result.setIps(allIps.toArray(new String[all.length]));
-        statusLine.printf("%s -> %s", in, allIps.toString());
+        log.debug("{} -> {}", in, allIps);
         int idx = in.indexOf('.');
         if (idx != -1) {
             result.setName(in.substring(0, idx));
@@ -132,67 +298,295 @@ public final class Main implements AutoCloseable {
         return result;
     }
 
-    /** Discover a single host by DNS.
+    /** Update the given hosts using DNS and SSH probing.
+     * The DNS lookups go through the caching {@link #resolver},
+     * the SSH servers are probed with a non-blocking
+     * {@link SSHHostProber}. The hosts are probed in the order of the
+     * {@link UpdateScheduler}, and no new probes are started once the
+     * time budget is used up.
+     * Hosts that are known to respond are probed with a shorter
+     * timeout from {@link ProbeTimeouts}.
+     * Every probed host is merged into the database on the calling
+     * thread as soon as its probe is done, so a journaled database
+     * keeps the progress of a crashed run.
+     * @param database the database to merge the probed hosts into.
      * @param hosts the list of hosts to update.
-     * @throws UnknownHostException if the host could not be resolved
-     * by domain name service.
+     * @param maxAge the {@link Params#getMaxAge() seconds since the
+     *               last probe} of the hosts to update.
+     * @param timeBudget the {@link Params#getTimeBudget() seconds to
+     *                   start probes for}, 0 for no limit.
+     * @return the number of hosts that changed.
+     * @throws IOException if merging a host or closing the prober fails.
      */
-    private void update(final List<Host> hosts) {
-        AtomicInteger atomicInteger = new AtomicInteger();
-        hosts.stream()
-                .parallel()
-                .forEach(h -> {
-            try {
-                updateFqdn(h);
-                updateServerAndReachability(h);
-                int val = atomicInteger.addAndGet(1);
-                statusLine.printf("%d/%d. %s -> %s",
-                        val,
-                        hosts.size(),
-                        h.getName(),
-                        h.getSshServerVersion());
-            } finally {
-                h.setUpdatedAt(new Date());
+    private int update(final Database database,
+            final List<Host> hosts,
+            final long maxAge,
+            final long timeBudget) throws IOException {
+        long start = System.currentTimeMillis();
+        long deadline = Long.MAX_VALUE;
+        if (timeBudget > 0) {
+            deadline = start + TimeUnit.SECONDS.toMillis(timeBudget);
+        }
+        UpdateScheduler scheduler = new UpdateScheduler(hosts,
+                TimeUnit.SECONDS.toMillis(maxAge), start);
+        int due = scheduler.size();
+        log.info("{} of {} hosts are due for an update", due, hosts.size());
+
+        ProbeTimeouts timeouts = new ProbeTimeouts(hosts,
+                SSHHostData.TIMEOUT);
+        BlockingQueue<Host> probed = new LinkedBlockingQueue<>();
+        resolver.load();
+        TokenBucket probeRate = null;
+        if (params.getProbeRate() > 0) {
+            probeRate = new TokenBucket(params.getProbeRate());
+        }
+        int changed = 0;
+        int done = 0;
+        statusLine.begin("update", due);
+        try (SSHHostProber prober = new SSHHostProber(
+                params.getMaxSockets(), SSHHostData.TIMEOUT,
+                probeRate, params.getSubnetLimit())) {
+            int inFlight = 0;
+            while (true) {
+                while (inFlight < params.getMaxSockets()
+                        && scheduler.hasNext()
+                        && System.currentTimeMillis() < deadline) {
+                    update(prober, timeouts, scheduler.next(), probed);
+                    inFlight++;
+                }
+                if (inFlight == 0) {
+                    break;
+                }
+                Host h = probed.take();
+                inFlight--;
+                done++;
+                changed += database.update(Collections.singletonList(h));
             }
-        });
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while probing");
+        } finally {
+            statusLine.end();
+        }
+        long duration = System.currentTimeMillis() - start;
+        UPDATE_DURATION.set(duration / (double) TimeUnit.SECONDS.toMillis(1));
+        if (duration > 0) {
+            UPDATE_RATE.set(done * (double) TimeUnit.SECONDS.toMillis(1)
+                    / duration);
+        }
+        if (scheduler.hasNext()) {
+            log.info("Time budget used up, {} due hosts left for the"
+                    + " next run", scheduler.size());
+        }
+        return changed;
     }
 
-    /** Updates the fully-qualified domain name of the host.
+    /** Starts the update of a single host.
+     * @param prober the prober to probe the SSH server with.
+     * @param timeouts the timeouts to probe with.
+     * @param h the host to update.
+     * @param probed the queue to add the host to when it is done,
+     *               even if the update failed.
+     */
+    private void update(final SSHHostProber prober,
+            final ProbeTimeouts timeouts,
+            final Host h,
+            final BlockingQueue<Host> probed) {
+        long start = System.nanoTime();
+        updateFqdn(h)
+            .thenApply(addresses -> preferReachable(h, addresses))
+            .thenCompose(addresses -> updateServerAndReachability(
+                    prober, h, addresses, timeouts))
+            .whenComplete((result, ex) -> {
+                if (ex != null) {
+                    log.warn("Updating " + h.getName() + " failed", ex);
+                }
+                HOST_TIME.recordSince(start);
+                UPDATED.inc();
+                if (ex != null || Boolean.FALSE.equals(h.getEnabled())) {
+                    statusLine.failed();
+                } else {
+                    statusLine.done();
+                }
+                probed.add(h);
+            });
+    }
+
+    /** Updates the IPs or, if the name does not resolve any more,
+     * the fully-qualified domain name of the host.
      * @param h the host to update the FQDN of.
+     * @return the future SSH server addresses of the host.
      */
-    private void updateFqdn(final Host h) {
-        try {
-            InetAddress[] all = InetAddress.getAllByName(h.getFqdn());
-            List<String> allIps = Stream.of(all)
-                    .map(InetAddress::getHostAddress)
-                    .collect(toList());
-            h.setIps(allIps.toArray(new String[all.length]));
-        } catch (UnknownHostException ex) {
-            try {
-                InetAddress inetAddress = InetAddress.getByName(h.getIps()[0]);
-                h.setFqdn(inetAddress.getCanonicalHostName());
-            } catch (UnknownHostException e2) {
-                // if FQDN not resolvable, use the IP as last fallback
-                log.warn("Host " + h.getName() + " not found", e2);
+    private CompletableFuture<List<InetSocketAddress>> updateFqdn(
+            final Host h) {
+        long start = System.nanoTime();
+        return resolver.lookup(h.getFqdn())
+                .whenComplete((all, ex) -> {
+                    DNS_TIME.recordSince(start);
+                    if (ex != null) {
+                        DNS_FAILURES.inc();
+                    }
+                })
+                .thenApply(all -> {
+                    List<String> allIps = Stream.of(all)
+                            .map(InetAddress::getHostAddress)
+                            .collect(toList());
+                    h.setIps(allIps.toArray(new String[all.length]));
+                    return CompletableFuture.completedFuture(
+                            Stream.of(all)
+                                .map(a -> new InetSocketAddress(a, SSH_PORT))
+                                .collect(toList()));
+                })
+                .exceptionally(ex -> updateFqdnFromIp(h))
+                .thenCompose(Function.identity());
+    }
+
+    /** Updates the fully-qualified domain name of the host from
+     * the name of its first IP.
+     * @param h the host to update the FQDN of.
+     * @return the future SSH server addresses of the host, that are
+     * all of its IPs.
+     */
+    private CompletableFuture<List<InetSocketAddress>> updateFqdnFromIp(
+            final Host h) {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        if (h.getIps() != null) {
+            for (String ip : h.getIps()) {
+                InetAddress address = IpAddresses.toInetAddress(null, ip);
+                if (address != null) {
+                    addresses.add(new InetSocketAddress(address, SSH_PORT));
+                }
+            }
+        }
+        if (addresses.isEmpty()) {
+            // if FQDN not resolvable, use the IP as last fallback
+            log.warn("Host " + h.getName() + " not found");
+            if (h.getIps() != null && h.getIps().length > 0) {
                 h.setFqdn(h.getIps()[0]); // this sucks
             }
+            return CompletableFuture.completedFuture(
+                    Collections.singletonList(
+                            InetSocketAddress.createUnresolved(
+                                    h.getFqdn(), SSH_PORT)));
         }
+        return resolver.reverse(addresses.get(0).getAddress())
+                .thenApply(fqdn -> {
+                    h.setFqdn(fqdn);
+                    return addresses;
+                });
+    }
+
+    /** Orders the addresses of a host for probing.
+     * The address that answered the last probe comes first.
+     * @param h the host to probe.
+     * @param addresses the addresses of the host.
+     * @return the addresses in the order of preference.
+     */
+    private static List<InetSocketAddress> preferReachable(final Host h,
+            final List<InetSocketAddress> addresses) {
+        List<InetSocketAddress> result = new ArrayList<>(addresses);
+        for (int i = 0; i < result.size(); i++) {
+            InetAddress address = result.get(i).getAddress();
+            if (address != null
+                    && address.getHostAddress().equals(h.getReachableIp())) {
+                result.add(0, result.remove(i));
+                break;
+            }
+        }
+        return result;
     }
 
     /** Updates the SSH server version and the reachability information.
-     * Unreachable hosts will be {@link Host#enabled disabled}.
+     * All addresses of the host are raced against each other, see
+     * {@link SSHHostProber#probeAny(List, long)}.
+     * Hosts without any reachable address within the full timeout
+     * will be {@link Host#enabled disabled}. A miss of a shorter
+     * timeout derived from the latencies only counts as a failure,
+     * so the host is probed with the full timeout next time.
+     * The latency of a successful probe is added to the
+     * {@link Host#getLatencies() latencies} of the host, and the
+     * reachability of the probed addresses is kept in
+     * {@link Host#getReachableIp()} and {@link Host#getUnreachableIps()}.
+     * @param prober the prober to probe the SSH server with.
      * @param h the host to update the data form.
+     * @param addresses the SSH server addresses of the host in the
+     *                  order of preference.
+     * @param timeouts the timeouts to probe with.
+     * @return a future completing with the updated host once the
+     * probe is done.
      */
-    private void updateServerAndReachability(final Host h) {
-        try {
-            SSHHostData sshHostData = SSHHostData.from(
-                    new InetSocketAddress(h.getFqdn(), SSH_PORT));
-            h.setSshServerVersion(sshHostData.getServerId());
-        } catch (IOException ex) {
-            log.warn("Host " + h.getName() + " is not reachable. Disabling.",
-                    ex);
-            h.setEnabled(false);
+    private CompletableFuture<Host> updateServerAndReachability(
+            final SSHHostProber prober,
+            final Host h,
+            final List<InetSocketAddress> addresses,
+            final ProbeTimeouts timeouts) {
+        long timeoutMillis = timeouts.timeoutFor(h,
+                addresses.get(0).getAddress());
+        boolean full = timeouts.isFull(timeoutMillis);
+        return prober.probeAny(addresses, timeoutMillis)
+                .handle((sshHostData, ex) -> {
+                    h.setCheckedAt(new Date());
+                    if (ex == null) {
+                        h.setSshServerVersion(sshHostData.getServerId());
+                        h.setFailures(0);
+                        h.addLatency((int) Math.min(Integer.MAX_VALUE,
+                                sshHostData.getLatencyMillis()));
+                        h.setReachableIp(
+                                ipOf(sshHostData.getAddress()));
+                        h.setUnreachableIps(
+                                ipsOf(sshHostData.getUnreachable()));
+                    } else if (full) {
+                        log.warn("Host " + h.getName()
+                                + " is not reachable within "
+                                + timeoutMillis + " ms. Disabling.", ex);
+                        UNREACHABLE.inc();
+                        h.setEnabled(false);
+                        addFailure(h, addresses);
+                    } else {
+                        log.info("Host " + h.getName()
+                                + " is not reachable within "
+                                + timeoutMillis + " ms, retrying with the"
+                                + " full timeout next time", ex);
+                        addFailure(h, addresses);
+                    }
+                    return h;
+                });
+    }
+
+    /** Counts a failed probe of a host.
+     * @param h the host whose probe failed.
+     * @param addresses the probed addresses of the host.
+     */
+    private static void addFailure(final Host h,
+            final List<InetSocketAddress> addresses) {
+        int failures = 0;
+        if (h.getFailures() != null) {
+            failures = h.getFailures();
+        }
+        h.setFailures(failures + 1);
+        h.setUnreachableIps(ipsOf(addresses));
+    }
+
+    /** Gets the IP of a socket address like in {@link Host#getIps()}.
+     * @param address the socket address.
+     * @return the IP or {@code null} if the address is unresolved.
+     */
+    private static String ipOf(final InetSocketAddress address) {
+        if (address.getAddress() == null) {
+            return null;
         }
+        return address.getAddress().getHostAddress();
+    }
+
+    /** Gets the IPs of socket addresses like in {@link Host#getIps()}.
+     * @param addresses the socket addresses.
+     * @return the IPs of the resolved addresses.
+     */
+    private static String[] ipsOf(final List<InetSocketAddress> addresses) {
+        return addresses.stream()
+                .map(Main::ipOf)
+                .filter(Objects::nonNull)
+                .toArray(String[]::new);
     }
 
     /** Import a database from a {@link Params#getArguments() file}
@@ -218,28 +612,115 @@ public final class Main implements AutoCloseable {
 
     /** Export the database to the {@link Params#getArguments() file}
      * or to the output stream.
-     * @param database the database to write.
+     * @param database the database to write or {@code null} to stream
+     *                 the hosts from the database file with bounded
+     *                 memory.
      * @throws IOException if the writing fails.
      * */
     private void export(final Database database) throws IOException {
-        List<Host> list;
-        list = database.getList()
-                    .stream()
-                    .filter(h -> params.getUser() == null
-                            || params.getUser().equals(h.getUser()))
-                    .filter(h -> params.getGroup() == null
-                            || params.getGroup().equals(h.getGroup()))
-                    .collect(toList());
-
         if (params.getArguments().isEmpty()) {
-            Database.save(new OutputStreamWriter(System.out), list);
+            export(database, new OutputStreamWriter(System.out));
         } else {
             try (FileWriter w = new FileWriter(params.getArguments().get(0))) {
-                Database.save(w, list);
+                export(database, w);
             }
         }
     }
 
+    /** Export the database filtered by user and group to a writer.
+     * @param database the database to write or {@code null} to stream
+     *                 the hosts from the database file.
+     * @param writer the writer to write to. Will not be closed.
+     * @throws IOException if the writing fails.
+     * */
+    private void export(final Database database,
+            final Writer writer) throws IOException {
+        export(database, writer, params.getUser(), params.getGroup());
+    }
+
+    /** Export the database filtered by user and group to a writer.
+     * @param database the database to write or {@code null} to stream
+     *                 the hosts from the database file.
+     * @param writer the writer to write to. Will not be closed.
+     * @param user the user to filter by or {@code null}.
+     * @param group the group to filter by or {@code null}.
+     * @throws IOException if the writing fails.
+     * */
+    private void export(final Database database,
+            final Writer writer,
+            final String user,
+            final String group) throws IOException {
+        Predicate<Host> filter = h ->
+                (user == null || user.equals(h.getUser()))
+                && (group == null || group.equals(h.getGroup()));
+
+        if (database != null) {
+            List<Host> list = database.getList()
+                    .stream()
+                    .filter(filter)
+                    .collect(toList());
+            Database.save(writer, list);
+            return;
+        }
+
+        try (HostReader hostReader = Database.stream(params.getDb(),
+                databaseFormat());
+             JsonHostWriter hostWriter = new JsonHostWriter(writer)) {
+            while (hostReader.hasNext()) {
+                Host h = hostReader.next();
+                if (filter.test(h)) {
+                    hostWriter.write(h);
+                }
+            }
+        }
+    }
+
+    /** Gets the format of the database file.
+     * @return the format given on the command line or the one
+     * matching the file name.
+     */
+    private DatabaseFormat databaseFormat() {
+        return databaseFormat(params);
+    }
+
+    /** Gets the format of the database file.
+     * @param params the command line parameters.
+     * @return the format given on the command line or the one
+     * matching the file name.
+     */
+    private static DatabaseFormat databaseFormat(final Params params) {
+        if (params.getFormat() != null) {
+            return params.getFormat();
+        }
+        return DatabaseFormat.forPath(params.getDb());
+    }
+
+    /** Prints the names of the hosts matching the
+     * {@link Params#getQuery() query} from the search index.
+     * The index is only rebuilt from the database if it misses
+     * changes of the database, so a query normally neither parses
+     * the database nor validates hosts.
+     * @param params the command line parameters.
+     * @throws IOException if reading the index or database fails.
+     */
+    private static void query(final Params params) throws IOException {
+        Path indexFile = SearchIndex.pathOf(params.getDb());
+        if (!SearchIndex.isCurrent(indexFile, params.getDb())) {
+            log.info("Rebuilding search index {}", indexFile);
+            try (Database database = Database.readOnly(params.getDb(),
+                    databaseFormat(params))) {
+                database.saveIndex();
+            }
+        }
+        PrintStream out = new PrintStream(new BufferedOutputStream(
+                new FileOutputStream(FileDescriptor.out)), false);
+        for (String name : SearchIndex.open(indexFile)
+                .query(params.getQuery())) {
+            out.println(name);
+        }
+        out.flush();
+    }
+
     /** Entry point for the program.
      * @param args the command line arguments for parsing with {@link Params}.
      */
@@ -249,43 +730,335 @@ public final class Main implements AutoCloseable {
             return;
         }
 
+        if (params.getQuery() != null) {
+            try {
+                query(params);
+            } catch (IOException e) {
+                e.printStackTrace();
+                log.warn("Got exception", e);
+            }
+            return;
+        }
+
+        long started = System.nanoTime();
+        boolean success = false;
+        DatabaseLock lock = null;
+        Database database = null;
         try (Main main = new Main(params)) {
-            Database database = Database.fromPath(params.getDb());
-            if (params.isDiscover()) {
-                List<Host> hosts = main.discover(params.getArguments());
-                database.update(hosts);
-                database.save();
+            // the ssh config and the stats are still written locally
+            boolean forwarded = !params.isDaemon() && forward(params);
+            if (!forwarded && (params.isDaemon()
+                    || params.isDiscover()
+                    || params.isUpdate()
+                    || params.isUpdateAll()
+                    || params.isImporting())) {
+                lock = DatabaseLock.acquire(params.getDb());
+                database = Database.fromPath(params.getDb(),
+                        main.databaseFormat(), params.isJournal());
+            } else if (Database.hasJournal(params.getDb())) {
+                // the hosts of the journal are not in the file
+                database = Database.readOnly(params.getDb(),
+                        main.databaseFormat());
             }
-            if (params.isUpdate() || params.isUpdateAll()) {
-                List<Host> hosts = new ArrayList<>(database.getList());
-                if (params.isUpdateAll()) {
-                    hosts.stream().forEach(h -> h.setEnabled(true));
-                }
-                main.update(hosts);
-                database.update(hosts);
-                database.save();
+            if (!forwarded) {
+                main.runOperations(database);
             }
-            if (params.isImporting()) {
-                main.importing(database);
-                database.save();
+
+            HostTemplate template = HostTemplate.DEFAULT;
+            if (params.getTemplate() != null) {
+                template = HostTemplate.fromPath(params.getTemplate());
             }
-            if (params.isExport()) {
-                main.export(database);
+            if (params.getSshConfig() != null && database != null) {
+                main.writeSshConfig(database, template);
+            } else if (params.getSshConfig() != null) {
+                try (HostReader hosts = Database.stream(params.getDb(),
+                        main.databaseFormat())) {
+                    SSHConfig.rewrite(params.getSshConfig(), hosts,
+                            template);
+                }
             }
-
-            if (params.getSshConfig() != null) {
-                SSHConfig sshc = SSHConfig.fromPath(params.getSshConfig());
-                sshc.pushOwn(database.getList());
-                sshc.save();
+            if (params.isDaemon()) {
+                main.serve(database, template);
             }
+            success = true;
         } catch (Exception e) {
             e.printStackTrace();
             log.warn("Got exception", e);
+        } finally {
+            closeQuietly(database);
+            closeQuietly(lock);
+            RUN_DURATION.set((System.nanoTime() - started)
+                    / (double) TimeUnit.SECONDS.toNanos(1));
+            RUN_SUCCESS.set(success ? 1 : 0);
+            writeStats(params);
+        }
+    }
+
+    /** Runs the operations of the command line on the database.
+     * @param database the database to run the operations on.
+     * @throws IOException if an operation fails.
+     */
+    private void runOperations(final Database database)
+            throws IOException {
+        if (params.isDiscover()) {
+            List<Host> hosts = discover(params.getArguments());
+            database.update(hosts);
+            database.save();
+        }
+        if (params.isUpdate() || params.isUpdateAll()) {
+            update(database, hostsToUpdate(database, params.isUpdateAll()),
+                    params.getMaxAge(), params.getTimeBudget());
+            database.save();
+        }
+        if (params.isImporting()) {
+            importing(database);
+            database.save();
+        }
+        if (params.isExport()) {
+            export(database);
+        }
+        if (params.getConvert() != null) {
+            int count = Database.convert(params.getDb(),
+                    databaseFormat(), params.getConvert(),
+                    DatabaseFormat.forPath(params.getConvert()));
+            log.info("Converted {} hosts to {}", count,
+                    params.getConvert());
+        }
+    }
+
+    /** Selects the hosts to update. These are all hosts, the
+     * {@link UpdateScheduler} probes the disabled hosts less often
+     * by their failures.
+     * @param database the database to select the hosts from.
+     * @param all whether to enable the disabled hosts again.
+     * @return the hosts to update.
+     */
+    private static List<Host> hostsToUpdate(final Database database,
+            final boolean all) {
+        // the database list creates new hosts on every access
+        List<Host> hosts = new ArrayList<>(database.getList());
+        if (all) {
+            hosts.stream().forEach(h -> h.setEnabled(true));
+        }
+        return hosts;
+    }
+
+    /** Pushes the hosts of the database into the ssh config.
+     * The file is only written if its content changes.
+     * @param database the database with the hosts.
+     * @param template the template of the entries.
+     * @throws IOException if reading or writing the ssh config fails.
+     */
+    private void writeSshConfig(final Database database,
+            final HostTemplate template) throws IOException {
+        SSHConfig sshc = SSHConfig.fromPath(params.getSshConfig());
+        sshc.pushOwn(database.getList(), template);
+        sshc.save();
+    }
+
+    /** Sends the operations of the command line to a running daemon
+     * of the database.
+     * Only discover, update and export are run by the daemon, with the
+     * {@link Params#getMaxAge() maximum age} and the
+     * {@link Params#getTimeBudget() time budget} of the command line.
+     * Writing the ssh config and the stats is left to the caller.
+     * @param params the command line parameters.
+     * @return {@code true} if the daemon ran the operations,
+     * {@code false} if they have to be run locally.
+     * @throws IOException if talking to the daemon fails or an
+     * operation failed.
+     */
+    private static boolean forward(final Params params) throws IOException {
+        if (params.isImporting() || params.getConvert() != null) {
+            return false;
+        }
+        List<DaemonRequest> requests = new ArrayList<>();
+        if (params.isDiscover()) {
+            requests.add(new DaemonRequest(DaemonCommand.DISCOVER,
+                    params.getUser(), params.getGroup(),
+                    params.getArguments()));
+        }
+        if (params.isUpdate() || params.isUpdateAll()) {
+            requests.add(new DaemonRequest(params.isUpdateAll()
+                    ? DaemonCommand.REFRESH_ALL : DaemonCommand.REFRESH,
+                    null, null, Collections.emptyList(),
+                    params.getMaxAge(), params.getTimeBudget()));
+        }
+        if (params.isExport()) {
+            requests.add(new DaemonRequest(DaemonCommand.EXPORT,
+                    params.getUser(), params.getGroup(),
+                    Collections.emptyList()));
+        }
+        Path file = DaemonServer.pathOf(params.getDb());
+        if (requests.isEmpty() || !Files.exists(file)) {
+            return false;
+        }
+        for (int i = 0; i < requests.size(); i++) {
+            DaemonRequest request = requests.get(i);
+            boolean sent;
+            if (request.getCommand() == DaemonCommand.EXPORT
+                    && !params.getArguments().isEmpty()) {
+                try (OutputStream out = Files.newOutputStream(
+                        Paths.get(params.getArguments().get(0)))) {
+                    sent = DaemonClient.send(file, request, out);
+                }
+            } else {
+                sent = DaemonClient.send(file, request, System.out);
+            }
+            if (!sent && i > 0) {
+                throw new IOException("The daemon of " + params.getDb()
+                        + " stopped");
+            }
+            if (!sent) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Keeps serving the requests of clients until the process ends.
+     * Enabled hosts are updated every
+     * {@link Params#getRefreshInterval() refresh interval}.
+     * When the process is asked to end, the running request is
+     * finished first, so the database is not cut off while saving.
+     * @param database the database to keep in memory.
+     * @param template the template of the ssh config entries.
+     * @throws IOException if the server can not be started.
+     */
+    private void serve(final Database database,
+            final HostTemplate template) throws IOException {
+        CountDownLatch stopped = new CountDownLatch(1);
+        try (DaemonServer server = DaemonServer.start(
+                DaemonServer.pathOf(params.getDb()))) {
+            Runtime.getRuntime().addShutdownHook(new Thread(
+                    () -> stop(server, stopped), "daemon-shutdown"));
+            server.serve((request, out) ->
+                    handle(database, template, request, out),
+                    TimeUnit.SECONDS.toMillis(params.getRefreshInterval()));
+        } finally {
+            stopped.countDown();
+        }
+    }
+
+    /** Stops a daemon from a shutdown hook and waits until it has
+     * finished its running request and is closed.
+     * @param server the server to stop.
+     * @param stopped released once the server is closed.
+     */
+    private static void stop(final DaemonServer server,
+            final CountDownLatch stopped) {
+        try {
+            server.stop();
+        } catch (IOException e) {
+            log.warn("Stopping the daemon failed", e);
+        }
+        try {
+            stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Runs a request of a daemon client.
+     * The database is saved after every change, and the ssh config is
+     * pushed again if hosts changed.
+     * @param database the database in memory.
+     * @param template the template of the ssh config entries.
+     * @param request the request to run.
+     * @param out the writer for the output of the request.
+     * @throws IOException if the request fails.
+     */
+    private void handle(final Database database,
+            final HostTemplate template,
+            final DaemonRequest request,
+            final Writer out) throws IOException {
+        int changed;
+        switch (request.getCommand()) {
+            case DISCOVER:
+                List<Host> hosts = discover(request.getArguments());
+                for (Host h : hosts) {
+                    h.setUser(request.getUser());
+                    h.setGroup(request.getGroup());
+                }
+                changed = database.update(hosts);
+                break;
+            case REFRESH:
+            case REFRESH_ALL:
+                changed = update(database, hostsToUpdate(database,
+                        request.getCommand() == DaemonCommand.REFRESH_ALL),
+                        orDefault(request.getMaxAge(), params.getMaxAge()),
+                        orDefault(request.getTimeBudget(),
+                                params.getTimeBudget()));
+                break;
+            case EXPORT:
+                export(database, out, request.getUser(), request.getGroup());
+                return;
+            default:
+                throw new IllegalArgumentException("Unknown command "
+                        + request.getCommand());
+        }
+        database.save();
+        resolver.save();
+        log.info("{} changed {} hosts", request.getCommand(), changed);
+        if (changed > 0 && params.getSshConfig() != null) {
+            writeSshConfig(database, template);
+        }
+        writeStats(params);
+    }
+
+    /** Gets a value of a request or the default.
+     * @param value the value of the request or {@code null}.
+     * @param defaultValue the value to use if the request has none.
+     * @return the value of the request, or the default.
+     */
+    private static long orDefault(final Long value,
+            final long defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        return value;
+    }
+
+    /** Writes the metrics to the {@link Params#getStats() stats file}
+     * if there is one, and logs failures.
+     * @param params the command line parameters.
+     */
+    private static void writeStats(final Params params) {
+        if (params.getStats() == null) {
+            return;
+        }
+        try {
+            Metrics.write(params.getStats(),
+                    StatsFormat.forPath(params.getStats()));
+        } catch (IOException e) {
+            log.warn("Writing the stats failed", e);
+        }
+    }
+
+    /** Closes a database or its lock and logs failures.
+     * @param closeable the database or lock to close or {@code null}.
+     */
+    private static void closeQuietly(final Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            log.warn("Closing the database failed", e);
         }
     }
 
     @Override
     public void close() throws Exception {
+        resolver.save();
+        if (stubResolver != null) {
+            stubResolver.close();
+        }
+        if (rateLimitedResolver != null) {
+            rateLimitedResolver.close();
+        }
+        executor.shutdownNow();
         statusLine.close();
     }
 }
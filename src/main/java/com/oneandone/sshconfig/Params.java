@@ -15,6 +15,8 @@
  */
 package com.oneandone.sshconfig;
 
+import com.oneandone.sshconfig.dns.CachingResolver;
+import com.oneandone.sshconfig.file.DatabaseFormat;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
@@ -33,6 +35,8 @@ import org.kohsuke.args4j.Option;
  */
 @Slf4j
 public final class Params {
+    /** The default seconds between two refreshes of the daemon. */
+    public static final long DEFAULT_REFRESH_INTERVAL = 900;
 
     /** Whether to show the command line help. */
     @Getter
@@ -61,6 +65,23 @@ public final class Params {
                     + " (includes disabled).")
     private boolean updateAll;
 
+    /** The seconds since the last probe before a host is due again. */
+    @Getter
+    @Option(name = "-max-age",
+            usage = "Only update hosts that were not probed for this many"
+                    + " seconds, the most out-of-date first. Hosts with"
+                    + " failed probes wait up to 64 times longer.",
+            metaVar = "SECONDS")
+    private long maxAge;
+
+    /** The seconds an update may take. */
+    @Getter
+    @Option(name = "-time-budget",
+            usage = "Stop starting new probes after this many seconds and"
+                    + " save the progress. 0 means no limit.",
+            metaVar = "SECONDS")
+    private long timeBudget;
+
     /** Import into the database. */
     @Getter
     @Option(name = "-import", aliases = {"-i"},
@@ -77,6 +98,16 @@ public final class Params {
                     + "can be used for filtering.")
     private boolean export;
 
+    /** The pattern of the host names to print. */
+    @Getter
+    @Option(name = "-query", aliases = {"-q"},
+            usage = "Print the names of the enabled hosts whose name,"
+                    + " fqdn or group starts with the pattern, or contains"
+                    + " it if the pattern starts with *. Reads the search"
+                    + " index next to the database.",
+            metaVar = "PATTERN")
+    private String query;
+
     /** The user to set for the host entries. */
     @Getter
     @Option(name = "-user", aliases = {"-U"},
@@ -99,12 +130,153 @@ public final class Params {
             usage = "The database to use.", metaVar = "FILE")
     private Path db;
 
+    /** The format of the database. */
+    @Getter
+    @Option(name = "-format",
+            usage = "The format of the database. Defaults to BINARY for"
+                    + " files ending with .bin, JSON otherwise.",
+            metaVar = "FORMAT")
+    private DatabaseFormat format;
+
+    /** The file to convert the database to. */
+    @Getter
+    @Option(name = "-convert",
+            usage = "Convert the database to the file without loss."
+                    + " Writes BINARY if the file ends with .bin,"
+                    + " JSON otherwise.",
+            metaVar = "FILE")
+    private Path convert;
+
+    /** Whether to append changed hosts to a journal. */
+    @Getter
+    @Option(name = "-journal",
+            usage = "Append changed hosts to a journal next to the"
+                    + " database instead of rewriting the database"
+                    + " on every save.")
+    private boolean journal;
+
+    /** Whether to keep running and serve requests of clients. */
+    @Getter
+    @Option(name = "-daemon",
+            usage = "Keep the database in memory, refresh the hosts"
+                    + " periodically and serve the discover, update and"
+                    + " export commands of later calls.")
+    private boolean daemon;
+
+    /** The seconds between two refreshes of the daemon. */
+    @Getter
+    @Option(name = "-refresh-interval",
+            usage = "The seconds between two updates of the daemon."
+                    + " 0 means no periodic updates.",
+            metaVar = "SECONDS")
+    private long refreshInterval = DEFAULT_REFRESH_INTERVAL;
+
+    /** The file to write the metrics of the run to. */
+    @Getter
+    @Option(name = "-stats",
+            usage = "Write the timings and counters of the run to the"
+                    + " file. Writes the Prometheus text format if the"
+                    + " file ends with .prom, JSON otherwise.",
+            metaVar = "FILE")
+    private Path stats;
+
     /** The ssh config to write to. */
     @Getter
     @Option(name = "-sshcfg", aliases = {"-s"},
             usage = "The ssh config to update.", metaVar = "FILE")
     private Path sshConfig;
 
+    /** The template of the generated ssh config entries. */
+    @Getter
+    @Option(name = "-template",
+            usage = "The template of the generated ssh config entries."
+                    + " Defaults to Host, Hostname and User lines.",
+            metaVar = "FILE")
+    private Path template;
+
+    /** The maximum number of sockets to open at the same time
+     * when probing SSH servers. */
+    @Getter
+    @Option(name = "-max-sockets",
+            usage = "The maximum number of concurrently open sockets"
+                    + " when probing SSH servers.",
+            metaVar = "N")
+    private int maxSockets = SSHHostProber.DEFAULT_MAX_SOCKETS;
+
+    /** The maximum number of new connections per second
+     * when probing SSH servers. */
+    @Getter
+    @Option(name = "-probe-rate",
+            usage = "The maximum number of SSH servers to connect to per"
+                    + " second. 0 means no limit.",
+            metaVar = "N")
+    private int probeRate;
+
+    /** The maximum number of sockets to open to one subnet at the
+     * same time when probing SSH servers. */
+    @Getter
+    @Option(name = "-subnet-limit",
+            usage = "The maximum number of concurrently open sockets to"
+                    + " one /24 IPv4 or /64 IPv6 subnet when probing SSH"
+                    + " servers. 0 means no limit.",
+            metaVar = "N")
+    private int subnetLimit;
+
+    /** The number of concurrent DNS lookups and other blocking
+     * I/O tasks. */
+    @Getter
+    @Option(name = "-parallelism",
+            usage = "The number of concurrent DNS lookups.",
+            metaVar = "N")
+    private int parallelism = IoExecutors.DEFAULT_PARALLELISM;
+
+    /** Whether to use virtual threads for blocking I/O. */
+    @Getter
+    @Option(name = "-virtual-threads",
+            usage = "Use virtual threads for DNS lookups if the JDK"
+                    + " supports them.")
+    private boolean virtualThreads;
+
+    /** The time to live of cached DNS lookups in seconds. */
+    @Getter
+    @Option(name = "-dns-ttl",
+            usage = "The seconds to cache DNS lookups in a file next to"
+                    + " the database. 0 disables the cache file.",
+            metaVar = "SECONDS")
+    private long dnsTtl = CachingResolver.DEFAULT_TTL_SECONDS;
+
+    /** The time to live of cached failed DNS lookups in seconds. */
+    @Getter
+    @Option(name = "-dns-negative-ttl",
+            usage = "The seconds to cache failed DNS lookups.",
+            metaVar = "SECONDS")
+    private long dnsNegativeTtl = CachingResolver.DEFAULT_NEGATIVE_TTL_SECONDS;
+
+    /** The maximum number of DNS lookups per second. */
+    @Getter
+    @Option(name = "-dns-rate",
+            usage = "The maximum number of DNS lookups per second that"
+                    + " are not answered from the cache. 0 means no"
+                    + " limit.",
+            metaVar = "N")
+    private int dnsRate;
+
+    /** Whether to use the built-in asynchronous stub resolver. */
+    @Getter
+    @Option(name = "-stub-resolver",
+            usage = "Resolve with the built-in asynchronous DNS client"
+                    + " instead of the system resolver.")
+    private boolean stubResolver;
+
+    /** The name server for the stub resolver. */
+    @Getter
+    @Option(name = "-dns-server",
+            usage = "The name server for the built-in DNS client, like"
+                    + " 10.0.0.1 or [::1]:5353. Implies -stub-resolver."
+                    + " Defaults to the ones in /etc/resolv.conf.",
+            metaVar = "ADDRESS")
+    private String dnsServer;
+
     /** Host IPs / FQDNs to update the database with.
      * @see #discover
      */
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig;
+
+import com.oneandone.sshconfig.bind.Host;
+import com.oneandone.sshconfig.validation.IpAddresses;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Derives the probe timeout of a host from the latencies of its
+ * earlier probes.
+ * A host with enough {@link Host#getLatencies() latencies} gets a high
+ * percentile of them times a factor, a host without gets the same
+ * for all latencies of its /24 IPv4 or /64 IPv6 subnet.
+ * The timeouts are kept between {@link #FLOOR_MILLIS} and the
+ * default timeout. Hosts whose last probe failed, and hosts without
+ * enough latencies whose subnet has too few samples as well, get the
+ * default timeout, so a host is only failed fast while it or its
+ * subnet is known to respond. A host that misses a derived timeout
+ * stays enabled and gets the default timeout on its next probe, see
+ * {@link #isFull(long)}.
+ * @author Stephan Fuhrmann
+ */
+final class ProbeTimeouts {
+    /** The number of latencies needed to derive a timeout. */
+    static final int MIN_SAMPLES = 3;
+
+    /** The percentile of the latencies the timeout is based on. */
+    static final int PERCENTILE = 90;
+
+    /** The factor between the percentile and the timeout. */
+    static final int FACTOR = 4;
+
+    /** The lowest timeout in milliseconds. Longer than the initial
+     * TCP retransmission timeout of one second, so a single lost
+     * SYN does not fail a probe. */
+    static final long FLOOR_MILLIS = 1500;
+
+    /** The number of percents. */
+    private static final int HUNDRED = 100;
+
+    /** The latencies of a subnet. */
+    private static final class Samples {
+        /** The latencies, the first {@link #count} are used. */
+        private int[] values = new int[Host.MAX_LATENCIES];
+
+        /** The number of latencies. */
+        private int count;
+
+        /** Adds latencies.
+         * @param latencies the latencies to add.
+         */
+        private void addAll(final int[] latencies) {
+            if (count + latencies.length > values.length) {
+                values = Arrays.copyOf(values,
+                        Math.max(count + latencies.length,
+                                2 * values.length));
+            }
+            System.arraycopy(latencies, 0, values, count, latencies.length);
+            count += latencies.length;
+        }
+    }
+
+    /** The timeout without history, also the highest timeout. */
+    private final long ceilingMillis;
+
+    /** The timeouts of the subnets. */
+    private final Map<Long, Long> subnets = new HashMap<>();
+
+    /** Creates the timeouts.
+     * @param hosts the hosts whose latencies give the
+     *              timeouts of their subnets.
+     * @param defaultMillis the timeout in milliseconds of hosts
+     *                      without history and the highest timeout.
+     */
+    ProbeTimeouts(final Collection<Host> hosts, final long defaultMillis) {
+        this.ceilingMillis = defaultMillis;
+        Map<Long, Samples> samples = new HashMap<>();
+        byte[] address = new byte[IpAddresses.IPV6_LENGTH];
+        for (Host h : hosts) {
+            if (h.getLatencies() == null || h.getIps() == null
+                    || h.getIps().length == 0) {
+                continue;
+            }
+            int length = IpAddresses.parse(h.getIps()[0], address);
+            if (length == -1) {
+                continue;
+            }
+            samples.computeIfAbsent(
+                    IpAddresses.subnet(address, length),
+                    k -> new Samples()).addAll(h.getLatencies());
+        }
+        for (Map.Entry<Long, Samples> entry : samples.entrySet()) {
+            Samples s = entry.getValue();
+            if (s.count >= MIN_SAMPLES) {
+                subnets.put(entry.getKey(), timeout(s.values, s.count));
+            }
+        }
+    }
+
+    /** Calculates the timeout of latencies.
+     * @param latencies the latencies, reordered by this method.
+     * @param count the number of latencies to use.
+     * @return the percentile times the factor, within the limits.
+     */
+    private long timeout(final int[] latencies, final int count) {
+        Arrays.sort(latencies, 0, count);
+        int rank = (count * PERCENTILE + HUNDRED - 1) / HUNDRED;
+        long result = (long) latencies[rank - 1] * FACTOR;
+        return Math.max(FLOOR_MILLIS, Math.min(ceilingMillis, result));
+    }
+
+    /** Whether a timeout is the full timeout. Only a probe that
+     * failed with the full timeout shows a host is unreachable.
+     * @param timeoutMillis a timeout from
+     *                      {@link #timeoutFor(Host, InetAddress)}.
+     * @return {@code true} if the timeout is not derived from latencies.
+     */
+    boolean isFull(final long timeoutMillis) {
+        return timeoutMillis >= ceilingMillis;
+    }
+
+    /** Gets the timeout to probe a host with.
+     * @param h the host to probe.
+     * @param probed the address to probe, or {@code null} if unknown.
+     * @return the connect and read timeout in milliseconds.
+     */
+    long timeoutFor(final Host h, final InetAddress probed) {
+        if (h.getFailures() != null && h.getFailures() > 0) {
+            return ceilingMillis;
+        }
+        int[] latencies = h.getLatencies();
+        if (latencies != null && latencies.length >= MIN_SAMPLES) {
+            return timeout(latencies.clone(), latencies.length);
+        }
+        if (probed == null) {
+            return ceilingMillis;
+        }
+        byte[] bytes = probed.getAddress();
+        return subnets.getOrDefault(
+                IpAddresses.subnet(bytes, bytes.length), ceilingMillis);
+    }
+}
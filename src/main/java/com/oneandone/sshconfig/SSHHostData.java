@@ -25,6 +25,10 @@ import java.io.InputStreamReader;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /** Data gathered directly from the SSH server.
  * @author Stephan Fuhrmann
@@ -32,7 +36,7 @@ import java.nio.charset.StandardCharsets;
 public final class SSHHostData {
 
     /** The default connect timeout in milliseconds. */
-    private static final int TIMEOUT = 5000;
+    static final int TIMEOUT = 5000;
 
     /** The SSH id version string of the server. */
     @Getter @Setter(AccessLevel.PRIVATE)
@@ -42,10 +46,58 @@ public final class SSHHostData {
     @Getter @Setter(AccessLevel.PRIVATE)
     private InetSocketAddress address;
 
+    /** The milliseconds from opening the connection until the
+     * identification string was read. */
+    @Getter @Setter(AccessLevel.PRIVATE)
+    private long latencyMillis;
+
+    /** The addresses of the server that failed before this one
+     * answered, see {@link SSHHostProber#probeAny(List, long)}. */
+    @Getter @Setter(AccessLevel.PRIVATE)
+    private List<InetSocketAddress> unreachable = Collections.emptyList();
+
     /** Private constructor. */
     private SSHHostData() {
     }
 
+    /**
+     * Creates a SSHHostData from already gathered data.
+     * @param serverAddress the socket address of the server.
+     * @param serverId the SSH id version string of the server.
+     * @param latency the milliseconds it took to read the
+     *                identification string.
+     * @return the initialized SSH host data.
+     */
+    static SSHHostData of(final InetSocketAddress serverAddress,
+            final String serverId,
+            final long latency) {
+        SSHHostData result = new SSHHostData();
+        result.setServerId(serverId);
+        result.setAddress(serverAddress);
+        result.setLatencyMillis(latency);
+        return result;
+    }
+
+    /**
+     * Creates a SSHHostData from already gathered data of a host
+     * with several addresses.
+     * @param serverAddress the socket address that answered.
+     * @param serverId the SSH id version string of the server.
+     * @param latency the milliseconds it took to read the
+     *                identification string.
+     * @param failed the addresses that failed before.
+     * @return the initialized SSH host data.
+     */
+    static SSHHostData of(final InetSocketAddress serverAddress,
+            final String serverId,
+            final long latency,
+            final List<InetSocketAddress> failed) {
+        SSHHostData result = of(serverAddress, serverId, latency);
+        result.setUnreachable(
+                Collections.unmodifiableList(new ArrayList<>(failed)));
+        return result;
+    }
+
     /**
      * Initializes a SSHHostData from a server address.
      * @param serverAddress the socket address of the server. Usually
@@ -57,8 +109,11 @@ public final class SSHHostData {
     public static SSHHostData from(
             final InetSocketAddress serverAddress) throws IOException {
         SSHHostData result = new SSHHostData();
+        long start = System.nanoTime();
         try (Socket socket = new Socket()) {
             socket.connect(serverAddress, TIMEOUT);
+            long connected = System.nanoTime();
+            SSHHostProber.CONNECT_TIME.record(connected - start);
             socket.setSoTimeout(TIMEOUT);
             InputStream inputStream = socket.getInputStream();
             InputStreamReader inputStreamReader = new InputStreamReader(
@@ -73,8 +128,11 @@ public final class SSHHostData {
                 }
                 myServerId.append((char) c);
             }
+            SSHHostProber.BANNER_TIME.recordSince(connected);
             result.setServerId(myServerId.toString());
             result.setAddress(serverAddress);
+            result.setLatencyMillis(TimeUnit.NANOSECONDS.toMillis(
+                    System.nanoTime() - start));
         }
         return result;
     }
@@ -0,0 +1,813 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig;
+
+import com.oneandone.sshconfig.limit.TokenBucket;
+import com.oneandone.sshconfig.metrics.Counter;
+import com.oneandone.sshconfig.metrics.Histogram;
+import com.oneandone.sshconfig.metrics.Metrics;
+import com.oneandone.sshconfig.validation.IpAddresses;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.Inet6Address;
+import java.net.InetSocketAddress;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Non-blocking prober for SSH server banners.
+ * A single selector thread multiplexes all connects and banner reads,
+ * so thousands of hosts can be probed at once without a thread
+ * per host.
+ * The number of sockets open at the same time is capped, further
+ * probes are queued until a socket becomes free.
+ * Optionally the rate of new connections and the number of open
+ * sockets per /24 IPv4 or /64 IPv6 subnet are limited too, so the
+ * firewalls in front of a subnet are not flooded.
+ * The addresses of a multi-homed host can be raced against each other
+ * with staggered starts like the Happy Eyeballs algorithm of RFC 8305,
+ * see {@link #probeAny(List, long)}.
+ * @author Stephan Fuhrmann
+ */
+@Slf4j
+public final class SSHHostProber implements AutoCloseable {
+
+    /** The default maximum number of concurrently open sockets. */
+    public static final int DEFAULT_MAX_SOCKETS = 1024;
+
+    /** The maximum banner line length to read.
+     * RFC 4253 limits the identification string to 255 characters,
+     * but some servers send longer lines before it.
+     */
+    private static final int MAX_BANNER_LENGTH = 8192;
+
+    /** The size of the read buffer. */
+    private static final int BUFFER_SIZE = 256;
+
+    /** Bytes from this value on are not US-ASCII. */
+    private static final int ASCII_LIMIT = 0x80;
+
+    /** The character non US-ASCII bytes are decoded to. */
+    private static final char REPLACEMENT = '\uFFFD';
+
+    /** The delay between the starts of the probes of a race
+     * in milliseconds, as recommended by RFC 8305. */
+    public static final long STAGGER_MILLIS = 250;
+
+    /** The name of the failure counters. */
+    static final String FAILURES = "sshconfig_probe_failures_total";
+
+    /** The help of the failure counters. */
+    private static final String FAILURES_HELP =
+            "Failed SSH probes by cause.";
+
+    /** The label of the failure counters. */
+    private static final String CAUSE = "cause";
+
+    /** The time from opening a socket to the established connection. */
+    static final Histogram CONNECT_TIME = Metrics.histogram(
+            "sshconfig_probe_connect_seconds",
+            "Time to establish the TCP connection to an SSH server.");
+
+    /** The time from the established connection to the banner. */
+    static final Histogram BANNER_TIME = Metrics.histogram(
+            "sshconfig_probe_banner_seconds",
+            "Time from the TCP connection to the SSH banner.");
+
+    /** The number of opened sockets. */
+    private static final Counter PROBES = Metrics.counter(
+            "sshconfig_probes_total",
+            "SSH probes that opened a socket.");
+
+    /** The maximum number of concurrently open sockets. */
+    private final int maxSockets;
+
+    /** The default connect and read timeout in milliseconds. */
+    private final long timeoutMillis;
+
+    /** The bucket with a token for every connect, or {@code null}
+     * for no rate limit. */
+    private final TokenBucket connectRate;
+
+    /** The maximum number of open sockets per subnet, or 0 for
+     * no limit. */
+    private final int subnetLimit;
+
+    /** The number of open sockets by subnet. Selector thread only. */
+    private final Map<Long, Integer> openBySubnet = new HashMap<>();
+
+    /** Probes waiting for a free socket in their subnet, by subnet.
+     * Selector thread only. */
+    private final Map<Long, Queue<Probe>> blocked = new HashMap<>();
+
+    /** The selector multiplexing all sockets. */
+    private final Selector selector;
+
+    /** Probes submitted by callers, not yet seen by the selector thread. */
+    private final Queue<Probe> submitted = new ConcurrentLinkedQueue<>();
+
+    /** Races submitted by callers, not yet seen by the selector thread. */
+    private final Queue<Race> submittedRaces = new ConcurrentLinkedQueue<>();
+
+    /** Races with addresses not probed yet. Selector thread only. */
+    private final Set<Race> racing = new LinkedHashSet<>();
+
+    /** Probes waiting for a free socket. Selector thread only. */
+    private final ArrayDeque<Probe> waiting = new ArrayDeque<>();
+
+    /** Probes with an open socket. Selector thread only. */
+    private final Set<Probe> active = new LinkedHashSet<>();
+
+    /** The selector thread. */
+    private final Thread thread;
+
+    /** Read buffer shared by all probes. Selector thread only. */
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /** Whether this prober was closed. */
+    private volatile boolean closed;
+
+    /** State of a single probe. */
+    private static final class Probe {
+        /** The address to connect to. */
+        private final InetSocketAddress address;
+
+        /** The connect and read timeout in nanoseconds. */
+        private final long timeoutNanos;
+
+        /** The future to complete with the result. */
+        private final CompletableFuture<SSHHostData> future =
+                new CompletableFuture<>();
+
+        /** The channel, once opened. */
+        private SocketChannel channel;
+
+        /** The subnet of the address, see {@link IpAddresses#subnet}. */
+        private final long subnet;
+
+        /** Whether the probe is counted in {@link #openBySubnet}. */
+        private boolean counted;
+
+        /** Point in time when the channel was opened,
+         * in {@link System#nanoTime()} units. */
+        private long started;
+
+        /** Point in time when the connection was established,
+         * in {@link System#nanoTime()} units, or 0 before. */
+        private long connected;
+
+        /** Point in time when the current phase times out,
+         * in {@link System#nanoTime()} units. */
+        private long deadline;
+
+        /** The banner characters read so far. */
+        private final StringBuilder banner = new StringBuilder();
+
+        /** Constructs a probe.
+         * @param inAddress the address to connect to.
+         * @param inTimeoutMillis the connect and read timeout in
+         *                        milliseconds.
+         */
+        private Probe(final InetSocketAddress inAddress,
+                final long inTimeoutMillis) {
+            this.address = inAddress;
+            this.timeoutNanos =
+                    TimeUnit.MILLISECONDS.toNanos(inTimeoutMillis);
+            if (inAddress.getAddress() != null) {
+                byte[] bytes = inAddress.getAddress().getAddress();
+                this.subnet = IpAddresses.subnet(bytes, bytes.length);
+            } else {
+                this.subnet = 0;
+            }
+        }
+    }
+
+    /** State of a race between the addresses of a host. */
+    private static final class Race {
+        /** The addresses in the order to probe them. */
+        private final List<InetSocketAddress> addresses;
+
+        /** The connect and read timeout of each probe in milliseconds. */
+        private final long timeoutMillis;
+
+        /** The future to complete with the first banner. */
+        private final CompletableFuture<SSHHostData> future =
+                new CompletableFuture<>();
+
+        /** The started probes that are not done yet. */
+        private final List<Probe> running = new ArrayList<>();
+
+        /** The addresses whose probe failed. */
+        private final List<InetSocketAddress> failed = new ArrayList<>();
+
+        /** The index of the next address to probe. */
+        private int next;
+
+        /** Point in time when the next address is probed,
+         * in {@link System#nanoTime()} units. */
+        private long nextStart;
+
+        /** Constructs a race.
+         * @param inAddresses the addresses in the order to probe them.
+         * @param inTimeoutMillis the timeout of each probe.
+         */
+        private Race(final List<InetSocketAddress> inAddresses,
+                final long inTimeoutMillis) {
+            this.addresses = inAddresses;
+            this.timeoutMillis = inTimeoutMillis;
+        }
+    }
+
+    /** Constructs a prober with default settings. */
+    public SSHHostProber() {
+        this(DEFAULT_MAX_SOCKETS, SSHHostData.TIMEOUT);
+    }
+
+    /** Constructs a prober.
+     * @param inMaxSockets the maximum number of sockets to have open
+     *                     at the same time.
+     * @param inTimeoutMillis the connect timeout and the banner read
+     *                        timeout in milliseconds.
+     * @throws IllegalArgumentException if one of the arguments is not
+     * positive.
+     */
+    public SSHHostProber(final int inMaxSockets, final long inTimeoutMillis) {
+        this(inMaxSockets, inTimeoutMillis, null, 0);
+    }
+
+    /** Constructs a prober with limits.
+     * @param inMaxSockets the maximum number of sockets to have open
+     *                     at the same time.
+     * @param inTimeoutMillis the connect timeout and the banner read
+     *                        timeout in milliseconds.
+     * @param inConnectRate the bucket with a token for every connect,
+     *                      or {@code null} for no rate limit.
+     * @param inSubnetLimit the maximum number of sockets to have open
+     *                      to a /24 IPv4 or /64 IPv6 subnet at the same
+     *                      time, or 0 for no limit.
+     * @throws IllegalArgumentException if one of the numbers is not
+     * positive, or negative for the subnet limit.
+     */
+    public SSHHostProber(final int inMaxSockets,
+            final long inTimeoutMillis,
+            final TokenBucket inConnectRate,
+            final int inSubnetLimit) {
+        if (inSubnetLimit < 0) {
+            throw new IllegalArgumentException(
+                    "subnetLimit must not be negative: " + inSubnetLimit);
+        }
+        if (inMaxSockets <= 0) {
+            throw new IllegalArgumentException(
+                    "maxSockets must be positive: " + inMaxSockets);
+        }
+        if (inTimeoutMillis <= 0) {
+            throw new IllegalArgumentException(
+                    "timeoutMillis must be positive: " + inTimeoutMillis);
+        }
+        this.maxSockets = inMaxSockets;
+        this.timeoutMillis = inTimeoutMillis;
+        this.connectRate = inConnectRate;
+        this.subnetLimit = inSubnetLimit;
+        try {
+            this.selector = Selector.open();
+        } catch (IOException ex) {
+            throw new IllegalStateException("Can not open selector", ex);
+        }
+        this.thread = new Thread(this::run, "ssh-prober");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Probes the SSH server at the given address for its identification
+     * string.
+     * @param serverAddress the socket address of the server. Usually
+     * points to TCP port 22.
+     * @return a future for the SSH host data. Completes exceptionally
+     * with an {@link IOException} if the server could not be connected
+     * to or did not send its banner in time.
+     */
+    public CompletableFuture<SSHHostData> probe(
+            final InetSocketAddress serverAddress) {
+        return probe(serverAddress, timeoutMillis);
+    }
+
+    /**
+     * Probes the SSH server at the given address for its identification
+     * string with a timeout of its own.
+     * @param serverAddress the socket address of the server. Usually
+     * points to TCP port 22.
+     * @param probeTimeoutMillis the connect timeout and the banner
+     *                           read timeout of this probe in
+     *                           milliseconds.
+     * @return a future for the SSH host data. Completes exceptionally
+     * with an {@link IOException} if the server could not be connected
+     * to or did not send its banner in time.
+     * @throws IllegalArgumentException if the timeout is not positive.
+     */
+    public CompletableFuture<SSHHostData> probe(
+            final InetSocketAddress serverAddress,
+            final long probeTimeoutMillis) {
+        if (probeTimeoutMillis <= 0) {
+            throw new IllegalArgumentException(
+                    "timeoutMillis must be positive: " + probeTimeoutMillis);
+        }
+        Probe probe = new Probe(Objects.requireNonNull(serverAddress),
+                probeTimeoutMillis);
+        if (closed) {
+            probe.future.completeExceptionally(
+                    new IOException("Prober is closed"));
+            return probe.future;
+        }
+        submitted.add(probe);
+        if (closed && submitted.remove(probe)) {
+            probe.future.completeExceptionally(
+                    new IOException("Prober is closed"));
+        }
+        selector.wakeup();
+        return probe.future;
+    }
+
+    /**
+     * Probes the addresses of a host until one sends its
+     * identification string.
+     * IPv6 and IPv4 addresses are interleaved, starting with the
+     * family of the first address and keeping the order within each
+     * family. The next address is probed as soon as the probe before
+     * fails, or {@link #STAGGER_MILLIS} after it started. The first
+     * banner wins and the other probes are cancelled.
+     * @param serverAddresses the socket addresses of the server in the
+     * order of preference. Usually point to TCP port 22.
+     * @param probeTimeoutMillis the connect timeout and the banner
+     *                           read timeout of each probe in
+     *                           milliseconds.
+     * @return a future for the SSH host data of the first address that
+     * answered, listing the addresses that failed before in
+     * {@link SSHHostData#getUnreachable()}. Completes exceptionally
+     * with the {@link IOException} of the last probe if no address
+     * answered.
+     * @throws IllegalArgumentException if there are no addresses or
+     * the timeout is not positive.
+     */
+    public CompletableFuture<SSHHostData> probeAny(
+            final List<InetSocketAddress> serverAddresses,
+            final long probeTimeoutMillis) {
+        if (serverAddresses.isEmpty()) {
+            throw new IllegalArgumentException("No addresses to probe");
+        }
+        if (probeTimeoutMillis <= 0) {
+            throw new IllegalArgumentException(
+                    "timeoutMillis must be positive: " + probeTimeoutMillis);
+        }
+        Race race = new Race(interleave(serverAddresses),
+                probeTimeoutMillis);
+        if (closed) {
+            race.future.completeExceptionally(
+                    new IOException("Prober is closed"));
+            return race.future;
+        }
+        submittedRaces.add(race);
+        if (closed && submittedRaces.remove(race)) {
+            race.future.completeExceptionally(
+                    new IOException("Prober is closed"));
+        }
+        selector.wakeup();
+        return race.future;
+    }
+
+    /** Interleaves IPv6 and IPv4 addresses.
+     * @param addresses the addresses in the order of preference.
+     * @return the addresses alternating between the families, starting
+     * with the family of the first address.
+     */
+    static List<InetSocketAddress> interleave(
+            final List<InetSocketAddress> addresses) {
+        List<InetSocketAddress> first = new ArrayList<>();
+        List<InetSocketAddress> second = new ArrayList<>();
+        boolean firstIsV6 = isIpv6(addresses.get(0));
+        for (InetSocketAddress address : addresses) {
+            if (isIpv6(address) == firstIsV6) {
+                first.add(address);
+            } else {
+                second.add(address);
+            }
+        }
+        List<InetSocketAddress> result = new ArrayList<>(addresses.size());
+        for (int i = 0; i < Math.max(first.size(), second.size()); i++) {
+            if (i < first.size()) {
+                result.add(first.get(i));
+            }
+            if (i < second.size()) {
+                result.add(second.get(i));
+            }
+        }
+        return result;
+    }
+
+    /** Whether an address is an IPv6 address.
+     * @param address the address to check.
+     * @return {@code true} for resolved IPv6 addresses.
+     */
+    private static boolean isIpv6(final InetSocketAddress address) {
+        return address.getAddress() instanceof Inet6Address;
+    }
+
+    /** The selector thread loop. */
+    private void run() {
+        try {
+            while (!closed) {
+                drainSubmitted();
+                startDueRaces();
+                startWaiting();
+                selector.select(millisToNextDeadline());
+                Iterator<SelectionKey> keys =
+                        selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    handle(key);
+                }
+                expire();
+            }
+        } catch (IOException | ClosedSelectorException ex) {
+            log.warn("Selector failed", ex);
+        } finally {
+            failAll(new IOException("Prober is closed"));
+        }
+    }
+
+    /** Moves submitted probes to the waiting queue and starts the
+     * first probe of submitted races. */
+    private void drainSubmitted() {
+        Probe probe;
+        while ((probe = submitted.poll()) != null) {
+            waiting.add(probe);
+        }
+        Race race;
+        while ((race = submittedRaces.poll()) != null) {
+            startNext(race);
+        }
+    }
+
+    /** Starts the next probe of the races whose stagger delay
+     * is over. */
+    private void startDueRaces() {
+        long now = System.nanoTime();
+        for (Race race : new ArrayList<>(racing)) {
+            if (now - race.nextStart >= 0) {
+                startNext(race);
+            }
+        }
+    }
+
+    /** Queues the probe of the next address of a race.
+     * @param race the race to continue.
+     */
+    private void startNext(final Race race) {
+        Probe probe = new Probe(race.addresses.get(race.next++),
+                race.timeoutMillis);
+        race.running.add(probe);
+        probe.future.whenComplete(
+                (data, ex) -> settle(race, probe, data, ex));
+        race.nextStart = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(STAGGER_MILLIS);
+        if (race.next < race.addresses.size()) {
+            racing.add(race);
+        } else {
+            racing.remove(race);
+        }
+        waiting.add(probe);
+    }
+
+    /** Handles a probe of a race that is done.
+     * @param race the race of the probe.
+     * @param probe the probe that is done.
+     * @param data the result of the probe or {@code null} if it failed.
+     * @param ex the failure of the probe or {@code null}.
+     */
+    private void settle(final Race race, final Probe probe,
+            final SSHHostData data, final Throwable ex) {
+        race.running.remove(probe);
+        if (race.future.isDone()) {
+            return;
+        }
+        if (ex == null) {
+            racing.remove(race);
+            race.future.complete(SSHHostData.of(data.getAddress(),
+                    data.getServerId(), data.getLatencyMillis(),
+                    race.failed));
+            for (Probe other : new ArrayList<>(race.running)) {
+                release(other);
+                other.future.cancel(false);
+            }
+            return;
+        }
+        race.failed.add(probe.address);
+        if (race.next < race.addresses.size() && !closed) {
+            startNext(race);
+        } else if (race.running.isEmpty()) {
+            racing.remove(race);
+            race.future.completeExceptionally(ex);
+        }
+    }
+
+    /** Starts connects for waiting probes as long as sockets are free
+     * and the limits allow. Probes whose subnet has no free socket
+     * are put aside until a socket of the subnet is released. */
+    private void startWaiting() {
+        while (active.size() < maxSockets && !waiting.isEmpty()) {
+            Probe probe = waiting.peek();
+            if (probe.future.isDone()) {
+                waiting.poll();
+                continue;
+            }
+            if (probe.address.isUnresolved()) {
+                waiting.poll();
+                Metrics.counter(FAILURES, FAILURES_HELP,
+                        CAUSE, "unresolved").inc();
+                probe.future.completeExceptionally(
+                        new UnknownHostException(
+                                probe.address.getHostString()));
+                continue;
+            }
+            if (subnetLimit > 0
+                    && openBySubnet.getOrDefault(probe.subnet, 0)
+                        >= subnetLimit) {
+                waiting.poll();
+                blocked.computeIfAbsent(probe.subnet,
+                        k -> new ArrayDeque<>()).add(probe);
+                continue;
+            }
+            if (connectRate != null && !connectRate.tryAcquire()) {
+                return;
+            }
+            waiting.poll();
+            try {
+                probe.channel = SocketChannel.open();
+                probe.channel.configureBlocking(false);
+                probe.started = System.nanoTime();
+                probe.deadline = probe.started + probe.timeoutNanos;
+                active.add(probe);
+                probe.counted = true;
+                openBySubnet.merge(probe.subnet, 1, Integer::sum);
+                PROBES.inc();
+                if (probe.channel.connect(probe.address)) {
+                    connected(probe);
+                    probe.channel.register(selector,
+                            SelectionKey.OP_READ, probe);
+                } else {
+                    probe.channel.register(selector,
+                            SelectionKey.OP_CONNECT, probe);
+                }
+            } catch (IOException ex) {
+                fail(probe, ex);
+            }
+        }
+    }
+
+    /** Handles a ready selection key.
+     * @param key the key that is ready.
+     */
+    private void handle(final SelectionKey key) {
+        Probe probe = (Probe) key.attachment();
+        try {
+            if (!key.isValid()) {
+                return;
+            }
+            if (key.isConnectable()) {
+                probe.channel.finishConnect();
+                connected(probe);
+                probe.deadline = probe.connected + probe.timeoutNanos;
+                key.interestOps(SelectionKey.OP_READ);
+            } else if (key.isReadable()) {
+                read(probe);
+            }
+        } catch (IOException ex) {
+            fail(probe, ex);
+        }
+    }
+
+    /** Marks the connection of a probe as established.
+     * @param probe the connected probe.
+     */
+    private static void connected(final Probe probe) {
+        probe.connected = System.nanoTime();
+        CONNECT_TIME.record(probe.connected - probe.started);
+    }
+
+    /** Reads available banner bytes from the channel.
+     * The banner is complete on the first CR or LF or at the end
+     * of the stream.
+     * @param probe the probe to read for.
+     * @throws IOException if reading fails.
+     */
+    private void read(final Probe probe) throws IOException {
+        buffer.clear();
+        int count;
+        while ((count = probe.channel.read(buffer)) > 0) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                int b = Byte.toUnsignedInt(buffer.get());
+                if (b == '\n' || b == '\r'
+                        || probe.banner.length() >= MAX_BANNER_LENGTH) {
+                    succeed(probe);
+                    return;
+                }
+                if (b < ASCII_LIMIT) {
+                    probe.banner.append((char) b);
+                } else {
+                    probe.banner.append(REPLACEMENT);
+                }
+            }
+            buffer.clear();
+        }
+        if (count == -1) {
+            succeed(probe);
+        }
+    }
+
+    /** Fails all probes whose deadline has passed. */
+    private void expire() {
+        long now = System.nanoTime();
+        List<Probe> expired = new ArrayList<>();
+        for (Probe probe : active) {
+            if (now - probe.deadline >= 0) {
+                expired.add(probe);
+            }
+        }
+        for (Probe probe : expired) {
+            fail(probe, new SocketTimeoutException(
+                    "Timeout probing " + probe.address));
+        }
+    }
+
+    /** Calculates the select timeout.
+     * @return milliseconds until the next deadline, staggered start or
+     * connect token, at least 1, or 0 for an infinite wait if there
+     * is nothing to wait for.
+     */
+    private long millisToNextDeadline() {
+        boolean throttled = connectRate != null && !waiting.isEmpty()
+                && active.size() < maxSockets;
+        if (active.isEmpty() && racing.isEmpty() && !throttled) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        long next = Long.MAX_VALUE;
+        if (throttled) {
+            next = connectRate.nanosUntilAvailable();
+        }
+        for (Probe probe : active) {
+            next = Math.min(next, probe.deadline - now);
+        }
+        for (Race race : racing) {
+            next = Math.min(next, race.nextStart - now);
+        }
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(next) + 1);
+    }
+
+    /** Completes a probe successfully.
+     * @param probe the probe to complete.
+     */
+    private void succeed(final Probe probe) {
+        BANNER_TIME.recordSince(probe.connected);
+        release(probe);
+        probe.future.complete(SSHHostData.of(
+                probe.address, probe.banner.toString(),
+                TimeUnit.NANOSECONDS.toMillis(
+                        System.nanoTime() - probe.started)));
+    }
+
+    /** Completes a probe exceptionally.
+     * @param probe the probe to complete.
+     * @param ex the cause of the failure.
+     */
+    private void fail(final Probe probe, final IOException ex) {
+        Metrics.counter(FAILURES, FAILURES_HELP,
+                CAUSE, causeOf(ex, probe.connected != 0)).inc();
+        release(probe);
+        probe.future.completeExceptionally(ex);
+    }
+
+    /** Gets the cause of a failed probe for the
+     * {@link #FAILURES failure counters}.
+     * @param ex the exception the probe failed with.
+     * @param connected whether the connection was established.
+     * @return a short name of the cause.
+     */
+    static String causeOf(final IOException ex, final boolean connected) {
+        if (ex instanceof SocketTimeoutException) {
+            return connected ? "banner_timeout" : "connect_timeout";
+        }
+        if (ex instanceof ConnectException) {
+            return "refused";
+        }
+        if (ex instanceof NoRouteToHostException) {
+            return "unreachable";
+        }
+        if (ex instanceof UnknownHostException) {
+            return "unresolved";
+        }
+        return "io";
+    }
+
+    /** Closes the socket of a probe and frees its slot.
+     * @param probe the probe to release.
+     */
+    private void release(final Probe probe) {
+        active.remove(probe);
+        if (probe.counted) {
+            probe.counted = false;
+            openBySubnet.merge(probe.subnet, -1, Integer::sum);
+            if (openBySubnet.get(probe.subnet) == 0) {
+                openBySubnet.remove(probe.subnet);
+            }
+            Queue<Probe> queue = blocked.get(probe.subnet);
+            if (queue != null) {
+                Probe next = queue.poll();
+                while (next != null && next.future.isDone()) {
+                    next = queue.poll();
+                }
+                if (next != null) {
+                    waiting.addFirst(next);
+                }
+                if (queue.isEmpty()) {
+                    blocked.remove(probe.subnet);
+                }
+            }
+        }
+        if (probe.channel != null) {
+            try {
+                probe.channel.close();
+            } catch (IOException ex) {
+                log.debug("Error closing channel", ex);
+            }
+        }
+    }
+
+    /** Fails all outstanding probes.
+     * @param ex the exception to fail with.
+     */
+    private void failAll(final IOException ex) {
+        closed = true;
+        drainSubmitted();
+        racing.clear();
+        for (Probe probe : new ArrayList<>(active)) {
+            fail(probe, ex);
+        }
+        for (Queue<Probe> queue : blocked.values()) {
+            waiting.addAll(queue);
+        }
+        blocked.clear();
+        for (Probe probe : new ArrayList<>(waiting)) {
+            probe.future.completeExceptionally(ex);
+        }
+        waiting.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        selector.close();
+    }
+}
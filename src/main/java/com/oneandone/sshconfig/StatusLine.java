@@ -16,64 +16,228 @@
 package com.oneandone.sshconfig;
 
 import java.io.PrintStream;
+import java.util.Locale;
 import java.util.Objects;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
 
 /**
- * Status line on console.
+ * Progress line on console.
+ * The workers only count their finished tasks with {@link #done()} and
+ * {@link #failed()}, which neither lock nor write. A ticker thread
+ * redraws the line {@link #FRAMES_PER_SECOND} times a second with the
+ * finished and total tasks, the tasks per second, the failures and
+ * the estimated time left.
+ * Nothing is drawn if there is no console, so logs and pipes do not
+ * fill up with carriage returns.
  * @author Stephan Fuhrmann
  * */
 public final class StatusLine implements AutoCloseable {
-    /** Width of last printed line in characters. */
-    private int width;
+    /** The number of redraws per second. */
+    static final int FRAMES_PER_SECOND = 10;
+
+    /** The seconds of a minute and the minutes of an hour. */
+    private static final int SIXTY = 60;
+
+    /** Numbers below need a leading zero to have two digits. */
+    private static final int TEN = 10;
 
     /** Stream to print to. */
     private final PrintStream out;
 
-    /** Is there the need for a finishing linefeed?
-     * */
-    private boolean dirty;
+    /** Whether to draw the line at all. */
+    private final boolean enabled;
+
+    /** The clock in {@link System#nanoTime()} units. */
+    private final LongSupplier clock;
+
+    /** The number of finished tasks, including the failed ones. */
+    private final LongAdder done = new LongAdder();
+
+    /** The number of failed tasks. */
+    private final LongAdder failures = new LongAdder();
+
+    /** The line being drawn. Ticker thread only. */
+    private final StringBuilder line = new StringBuilder();
+
+    /** The name of the current tasks. */
+    private volatile String task = "";
+
+    /** The number of current tasks. */
+    private volatile long total;
+
+    /** The start of the current tasks in {@link #clock} units. */
+    private volatile long started;
+
+    /** The thread redrawing the line, created with the first tasks. */
+    private ScheduledExecutorService ticker;
+
+    /** The periodic redraw of the current tasks, or {@code null} if
+     * there are none. */
+    private ScheduledFuture<?> frames;
+
+    /** Width of last printed line in characters. */
+    private int width;
 
     /**
-     * Constructs a new instance.
+     * Constructs a new instance that only draws if there is a console.
      * @param printStream the print stream to write to.
      */
     public StatusLine(final PrintStream printStream) {
+        this(printStream, System.console() != null, System::nanoTime);
+    }
+
+    /**
+     * Constructs a new instance.
+     * @param printStream the print stream to write to.
+     * @param inEnabled whether to draw the line.
+     * @param inClock the clock in {@link System#nanoTime()} units.
+     */
+    StatusLine(final PrintStream printStream,
+            final boolean inEnabled,
+            final LongSupplier inClock) {
         this.out = Objects.requireNonNull(printStream);
+        this.enabled = inEnabled;
+        this.clock = Objects.requireNonNull(inClock);
     }
 
-    /** Format and print a String.
-     * @param format the format String similar to
-     * {@link String#format(java.lang.String, java.lang.Object...) }.
-     * @param args the optional arguments for the format.
-     * @see String#format(String, Object...)
-     * */
-    public void printf(final String format,
-            final Object... args) {
-        print(String.format(format, args));
+    /** Starts showing the progress of new tasks. Ends the
+     * previous tasks.
+     * @param name the name of the tasks, like {@code update}.
+     * @param count the number of tasks.
+     */
+    public synchronized void begin(final String name, final long count) {
+        end();
+        task = Objects.requireNonNull(name);
+        total = count;
+        done.reset();
+        failures.reset();
+        started = clock.getAsLong();
+        if (!enabled) {
+            return;
+        }
+        if (ticker == null) {
+            ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "status-line");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        long period = TimeUnit.SECONDS.toMillis(1) / FRAMES_PER_SECOND;
+        frames = ticker.scheduleAtFixedRate(this::tick,
+                0, period, TimeUnit.MILLISECONDS);
     }
 
-    /** Print a String.
-     * @param str the String to print.
-     * */
-    public synchronized void print(final String str) {
+    /** Counts a finished task. */
+    public void done() {
+        done.increment();
+    }
+
+    /** Counts a failed task. It is finished, too. */
+    public void failed() {
+        failures.increment();
+        done.increment();
+    }
+
+    /** Stops showing the progress of the current tasks. Draws the
+     * line a last time and ends it. */
+    public synchronized void end() {
+        if (frames == null) {
+            return;
+        }
+        frames.cancel(false);
+        frames = null;
+        draw();
+        out.print("\n");
+        out.flush();
+        width = 0;
+    }
+
+    /** Draws a frame unless the tasks ended meanwhile. */
+    private synchronized void tick() {
+        if (frames != null) {
+            draw();
+        }
+    }
+
+    /** Draws the line over the previous one. */
+    private synchronized void draw() {
         int lastWidth = width;
-        String fill = "";
-        if (str.length() < lastWidth) {
-            fill = IntStream.range(0, lastWidth - str.length())
-                    .mapToObj(s -> " ")
-                    .collect(Collectors.joining());
+        render(clock.getAsLong());
+        width = line.length();
+        for (int i = width; i < lastWidth; i++) {
+            line.append(' ');
+        }
+        line.insert(0, '\r');
+        out.print(line);
+        out.flush();
+    }
+
+    /** Renders the progress of the current tasks into {@link #line}.
+     * @param now the current time in {@link #clock} units.
+     * @return the rendered line.
+     */
+    String render(final long now) {
+        long finished = done.sum();
+        long count = total;
+        line.setLength(0);
+        line.append(task).append(": ")
+            .append(finished).append('/').append(count);
+        double seconds = (now - started)
+                / (double) TimeUnit.SECONDS.toNanos(1);
+        double rate = 0;
+        if (seconds > 0) {
+            rate = finished / seconds;
+        }
+        line.append(", ")
+            .append(String.format(Locale.ROOT, "%.1f", rate))
+            .append("/s, ")
+            .append(failures.sum()).append(" failed, ETA ");
+        if (finished >= count) {
+            appendDuration(0);
+        } else if (finished == 0) {
+            line.append('?');
+        } else {
+            appendDuration((long) Math.ceil((count - finished) / rate));
+        }
+        return line.toString();
+    }
+
+    /** Appends a duration like {@code 1:02:03} or {@code 2:03}
+     * to {@link #line}.
+     * @param seconds the duration in seconds.
+     */
+    private void appendDuration(final long seconds) {
+        long minutes = seconds / SIXTY;
+        if (minutes >= SIXTY) {
+            line.append(minutes / SIXTY).append(':');
+            appendTwoDigits(minutes % SIXTY);
+        } else {
+            line.append(minutes);
+        }
+        line.append(':');
+        appendTwoDigits(seconds % SIXTY);
+    }
+
+    /** Appends a number below 100 with two digits to {@link #line}.
+     * @param value the number.
+     */
+    private void appendTwoDigits(final long value) {
+        if (value < TEN) {
+            line.append('0');
         }
-        out.print("\r" + str + fill);
-        dirty = true;
-        width = str.length();
+        line.append(value);
     }
 
     @Override
-    public void close() throws Exception {
-        if (dirty) {
-            out.print("\n");
+    public synchronized void close() {
+        end();
+        if (ticker != null) {
+            ticker.shutdownNow();
         }
         out.flush();
     }
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig;
+
+import com.oneandone.sshconfig.bind.Host;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Orders hosts for probing, the most out-of-date hosts first.
+ * The staleness of a host is the time since its last probe, or since
+ * its last update if it was never probed. The staleness is halved for
+ * every failed probe in a row, so hosts that keep failing are retried
+ * less often.
+ * @author Stephan Fuhrmann
+ */
+final class UpdateScheduler implements Iterator<Host> {
+    /** The maximum number of halvings of the staleness
+     * for failed probes. */
+    static final int MAX_BACKOFF = 6;
+
+    /** A host with its staleness. */
+    private static final class Entry implements Comparable<Entry> {
+        /** The host to probe. */
+        private final Host host;
+
+        /** The staleness of the host in milliseconds. */
+        private final long staleness;
+
+        /** Creates an entry.
+         * @param inHost the host to probe.
+         * @param inStaleness the staleness of the host.
+         */
+        private Entry(final Host inHost, final long inStaleness) {
+            this.host = inHost;
+            this.staleness = inStaleness;
+        }
+
+        @Override
+        public int compareTo(final Entry o) {
+            return Long.compare(o.staleness, staleness);
+        }
+    }
+
+    /** The due hosts, the stalest first. */
+    private final PriorityQueue<Entry> queue;
+
+    /** Creates a scheduler.
+     * @param hosts the hosts to schedule.
+     * @param maxAge the staleness in milliseconds a host needs to have
+     *               to be due. 0 makes every host due.
+     * @param now the current time in epoch milliseconds.
+     */
+    UpdateScheduler(final Collection<Host> hosts,
+            final long maxAge,
+            final long now) {
+        List<Entry> due = new ArrayList<>();
+        for (Host h : hosts) {
+            long staleness = staleness(h, now);
+            if (staleness >= maxAge) {
+                due.add(new Entry(h, staleness));
+            }
+        }
+        queue = new PriorityQueue<>(due);
+    }
+
+    /** Gets the staleness of a host.
+     * @param h the host to get the staleness of.
+     * @param now the current time in epoch milliseconds.
+     * @return the milliseconds since the last probe or update,
+     * halved for every failed probe.
+     */
+    static long staleness(final Host h, final long now) {
+        Date last = h.getCheckedAt();
+        if (last == null) {
+            last = h.getUpdatedAt();
+        }
+        if (last == null) {
+            return Long.MAX_VALUE;
+        }
+        int backoff = 0;
+        if (h.getFailures() != null) {
+            backoff = Math.max(0, Math.min(MAX_BACKOFF, h.getFailures()));
+        }
+        return Math.max(0, now - last.getTime()) >> backoff;
+    }
+
+    /** Gets the number of due hosts not returned yet.
+     * @return the number of remaining hosts.
+     */
+    int size() {
+        return queue.size();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !queue.isEmpty();
+    }
+
+    @Override
+    public Host next() {
+        Entry entry = queue.poll();
+        if (entry == null) {
+            throw new NoSuchElementException();
+        }
+        return entry.host;
+    }
+}
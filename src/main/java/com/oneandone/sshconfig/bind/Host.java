@@ -17,12 +17,17 @@ package com.oneandone.sshconfig.bind;
 
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.LinkedHashSet;
 import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.PastOrPresent;
 import javax.validation.constraints.Pattern;
+import javax.validation.constraints.PositiveOrZero;
 import javax.validation.constraints.Size;
 
 import com.fasterxml.jackson.annotation.JsonPropertyOrder;
@@ -48,9 +53,17 @@ import lombok.Setter;
         "createdAt",
         "updatedAt",
         "ips",
-        "sshServerVersion" })
+        "sshServerVersion",
+        "checkedAt",
+        "failures",
+        "latencies",
+        "reachableIp",
+        "unreachableIps" })
 public final class Host {
 
+    /** The maximum number of {@link #latencies} kept per host. */
+    public static final int MAX_LATENCIES = 8;
+
     /** The unique ID of the host. */
     @Getter @Setter @NotNull
     private UUID id;
@@ -91,6 +104,39 @@ public final class Host {
     @Getter @Setter @Pattern(regexp = "[^ ]{1,}")
     private String group;
 
+    /** The date this host was last probed. Not written if the host
+     * was never probed. */
+    @Getter @Setter @PastOrPresent
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Date checkedAt;
+
+    /** The number of failed probes since the last successful one.
+     * Not written if the host was never probed. */
+    @Getter @Setter @PositiveOrZero
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Integer failures;
+
+    /** The latencies of the last successful probes in milliseconds,
+     * from opening the connection until the SSH banner was read,
+     * oldest first. At most {@link #MAX_LATENCIES} are kept.
+     * Not written if the host never answered a probe. */
+    @Getter @Setter @Size(max = MAX_LATENCIES)
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private int[] latencies;
+
+    /** The IP address that answered the last successful probe.
+     * Not written if the host never answered a probe. */
+    @Getter @Setter @IpAddress
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String reachableIp;
+
+    /** The IP addresses that did not answer the last probe.
+     * Addresses not tried because another one answered first are
+     * not listed. Not written if empty. */
+    @Getter @Setter @IpAddress
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    private String[] unreachableIps;
+
     /** Constructs a new empty host entry. */
     public Host() {
         id = UUID.randomUUID();
@@ -99,6 +145,44 @@ public final class Host {
         enabled = true;
     }
 
+    /** Constructs a new enabled host entry with a known id.
+     * Unlike {@link #Host()}, no random id is generated.
+     * @param inId the identifier to use.
+     */
+    public Host(final UUID inId) {
+        id = Objects.requireNonNull(inId);
+        createdAt = new Date();
+        updatedAt = createdAt;
+        enabled = true;
+    }
+
+    /** Constructs a copy of another host entry.
+     * @param other the host to copy.
+     */
+    public Host(final Host other) {
+        this.id = other.id;
+        this.fqdn = other.fqdn;
+        this.name = other.name;
+        if (other.ips != null) {
+            this.ips = other.ips.clone();
+        }
+        this.createdAt = other.createdAt;
+        this.updatedAt = other.updatedAt;
+        this.sshServerVersion = other.sshServerVersion;
+        this.enabled = other.enabled;
+        this.user = other.user;
+        this.group = other.group;
+        this.checkedAt = other.checkedAt;
+        this.failures = other.failures;
+        if (other.latencies != null) {
+            this.latencies = other.latencies.clone();
+        }
+        this.reachableIp = other.reachableIp;
+        if (other.unreachableIps != null) {
+            this.unreachableIps = other.unreachableIps.clone();
+        }
+    }
+
     /**
     /** Constructs a new host entry.
      * @param inId the identifier to use.
@@ -123,33 +207,109 @@ public final class Host {
     }
 
     /** Update this host from another host.
+     * The {@link #updatedAt} date is only touched if something
+     * actually changed. The fields of probing are left alone,
+     * see {@link #updateProbeFrom(Host)}.
      * @param from the host to update from.
+     * @return the JSON property names of the fields that changed.
+     * Empty if nothing changed.
      * */
-    public void updateHostFrom(final Host from) {
-        setUpdatedAt(new Date());
-        if (from.getFqdn() != null) {
+    public Set<String> updateHostFrom(final Host from) {
+        Set<String> changed = new LinkedHashSet<>();
+        if (from.getFqdn() != null
+                && !from.getFqdn().equals(fqdn)) {
             setFqdn(from.getFqdn());
+            changed.add("fqdn");
         }
-        if (from.getName() != null) {
+        if (from.getName() != null
+                && !from.getName().equals(name)) {
             setName(from.getName());
+            changed.add("name");
         }
-        if (from.getIps() != null) {
+        if (from.getIps() != null
+                && !Arrays.equals(from.getIps(), ips)) {
             setIps(from.getIps());
+            changed.add("ips");
         }
-        if (from.getEnabled() != null) {
+        if (from.getEnabled() != null
+                && !from.getEnabled().equals(enabled)) {
             setEnabled(from.getEnabled());
+            changed.add("enabled");
         }
-        if (from.getSshServerVersion() != null) {
+        if (from.getSshServerVersion() != null
+                && !from.getSshServerVersion().equals(sshServerVersion)) {
             setSshServerVersion(from.getSshServerVersion());
-            if (from.getEnabled() == Boolean.FALSE) {
-                setEnabled(from.getEnabled());
-            }
+            changed.add("sshServerVersion");
         }
-        if (from.getUser() != null) {
+        if (from.getUser() != null
+                && !from.getUser().equals(user)) {
             setUser(from.getUser());
+            changed.add("user");
         }
-        if (from.getGroup() != null) {
+        if (from.getGroup() != null
+                && !from.getGroup().equals(group)) {
             setGroup(from.getGroup());
+            changed.add("group");
+        }
+        if (!changed.isEmpty()) {
+            setUpdatedAt(new Date());
+        }
+        return changed;
+    }
+
+    /** Update the bookkeeping of probing from another host.
+     * These are the {@link #checkedAt}, {@link #failures},
+     * {@link #latencies}, {@link #reachableIp} and
+     * {@link #unreachableIps}. They change with nearly every probe,
+     * but are no change of the host itself, so the {@link #updatedAt}
+     * date is not touched.
+     * @param from the host to update from.
+     * @return {@code true} if a field changed.
+     * */
+    public boolean updateProbeFrom(final Host from) {
+        boolean changed = false;
+        if (from.getCheckedAt() != null
+                && !from.getCheckedAt().equals(checkedAt)) {
+            setCheckedAt(from.getCheckedAt());
+            changed = true;
+        }
+        if (from.getFailures() != null
+                && !from.getFailures().equals(failures)) {
+            setFailures(from.getFailures());
+            changed = true;
+        }
+        if (from.getLatencies() != null
+                && !Arrays.equals(from.getLatencies(), latencies)) {
+            setLatencies(from.getLatencies());
+            changed = true;
+        }
+        if (from.getReachableIp() != null
+                && !from.getReachableIp().equals(reachableIp)) {
+            setReachableIp(from.getReachableIp());
+            changed = true;
+        }
+        if (from.getUnreachableIps() != null
+                && !Arrays.equals(from.getUnreachableIps(), unreachableIps)) {
+            setUnreachableIps(from.getUnreachableIps());
+            changed = true;
+        }
+        return changed;
+    }
+
+    /** Adds the latency of a successful probe to the
+     * {@link #latencies}, dropping the oldest one if there are
+     * {@link #MAX_LATENCIES} already.
+     * @param millis the latency in milliseconds.
+     */
+    public void addLatency(final int millis) {
+        if (latencies == null) {
+            latencies = new int[] {millis};
+            return;
         }
+        int keep = Math.min(latencies.length, MAX_LATENCIES - 1);
+        int[] result = Arrays.copyOfRange(latencies,
+                latencies.length - keep, latencies.length + 1);
+        result[keep] = millis;
+        latencies = result;
     }
 }
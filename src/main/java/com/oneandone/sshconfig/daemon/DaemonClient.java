@@ -0,0 +1,101 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.daemon;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Sends requests to a running {@link DaemonServer}.
+ * Needs neither the database nor the JSON and validation libraries,
+ * so a command answered by the server starts fast.
+ * @author Stephan Fuhrmann
+ */
+@Slf4j
+public final class DaemonClient {
+    /** The milliseconds to wait for the connection to the server. */
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+
+    /** No instances. */
+    private DaemonClient() {
+    }
+
+    /** Sends a request to the server and copies its output.
+     * @param file the file with the port and token of the server, see
+     *             {@link DaemonServer#pathOf(Path)}.
+     * @param request the request to send.
+     * @param out the stream to copy the output of the command to.
+     * @return {@code true} if the server ran the request,
+     * {@code false} if there is no server running.
+     * @throws IOException if talking to the server fails or the
+     * command failed.
+     */
+    public static boolean send(final Path file,
+            final DaemonRequest request,
+            final OutputStream out) throws IOException {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(file, StandardCharsets.US_ASCII);
+        } catch (NoSuchFileException ex) {
+            return false;
+        }
+        if (lines.size() < 2) {
+            log.debug("Ignoring incomplete daemon file {}", file);
+            return false;
+        }
+        int port;
+        try {
+            port = Integer.parseInt(lines.get(0));
+        } catch (NumberFormatException ex) {
+            log.debug("Ignoring daemon file {} without port", file);
+            return false;
+        }
+        try (Socket socket = new Socket()) {
+            try {
+                socket.connect(new InetSocketAddress(
+                        InetAddress.getLoopbackAddress(), port),
+                        CONNECT_TIMEOUT_MILLIS);
+            } catch (ConnectException ex) {
+                log.debug("No daemon listening on port {}, stale {}",
+                        port, file);
+                return false;
+            }
+            DataOutputStream dataOut = new DataOutputStream(
+                    new BufferedOutputStream(socket.getOutputStream()));
+            dataOut.writeUTF(lines.get(1));
+            request.writeTo(dataOut);
+            dataOut.flush();
+            FramedOutputStream.copy(new DataInputStream(
+                    new BufferedInputStream(socket.getInputStream())), out);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.daemon;
+
+/**
+ * The operations a {@link DaemonServer} runs for its clients.
+ * @author Stephan Fuhrmann
+ */
+public enum DaemonCommand {
+    /** Discover the hosts of the arguments and add them. */
+    DISCOVER,
+    /** Update the enabled hosts that are due. */
+    REFRESH,
+    /** Update all hosts that are due, including the disabled ones. */
+    REFRESH_ALL,
+    /** Write the hosts as JSON, filtered by user and group. */
+    EXPORT
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.daemon;
+
+import lombok.Getter;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A command sent by a client to the {@link DaemonServer}.
+ * @author Stephan Fuhrmann
+ */
+public final class DaemonRequest {
+    /** The most arguments of a request. */
+    private static final int MAX_ARGUMENTS = 0x100000;
+
+    /** The operation to run. */
+    @Getter
+    private final DaemonCommand command;
+
+    /** The user to set or filter by, or {@code null}. */
+    @Getter
+    private final String user;
+
+    /** The group to set or filter by, or {@code null}. */
+    @Getter
+    private final String group;
+
+    /** The names to discover. */
+    @Getter
+    private final List<String> arguments;
+
+    /** The seconds since the last probe of the hosts to refresh, or
+     * {@code null} for the value the daemon was started with. */
+    @Getter
+    private final Long maxAge;
+
+    /** The seconds a refresh may start probes for, or {@code null}
+     * for the value the daemon was started with. */
+    @Getter
+    private final Long timeBudget;
+
+    /** Creates a request with the refresh limits of the daemon.
+     * @param inCommand the operation to run.
+     * @param inUser the user to set or filter by, or {@code null}.
+     * @param inGroup the group to set or filter by, or {@code null}.
+     * @param inArguments the names to discover.
+     */
+    public DaemonRequest(final DaemonCommand inCommand,
+            final String inUser,
+            final String inGroup,
+            final List<String> inArguments) {
+        this(inCommand, inUser, inGroup, inArguments, null, null);
+    }
+
+    /** Creates a request.
+     * @param inCommand the operation to run.
+     * @param inUser the user to set or filter by, or {@code null}.
+     * @param inGroup the group to set or filter by, or {@code null}.
+     * @param inArguments the names to discover.
+     * @param inMaxAge the seconds since the last probe of the hosts
+     *                 to refresh, or {@code null} for the daemon value.
+     * @param inTimeBudget the seconds a refresh may start probes for,
+     *                     or {@code null} for the daemon value.
+     */
+    public DaemonRequest(final DaemonCommand inCommand,
+            final String inUser,
+            final String inGroup,
+            final List<String> inArguments,
+            final Long inMaxAge,
+            final Long inTimeBudget) {
+        this.command = Objects.requireNonNull(inCommand);
+        this.user = inUser;
+        this.group = inGroup;
+        this.arguments = Collections.unmodifiableList(
+                new ArrayList<>(inArguments));
+        this.maxAge = inMaxAge;
+        this.timeBudget = inTimeBudget;
+    }
+
+    /** Writes the request.
+     * @param out the stream to write to.
+     * @throws IOException if writing fails.
+     */
+    void writeTo(final DataOutputStream out) throws IOException {
+        out.writeUTF(command.name());
+        writeNullable(out, user);
+        writeNullable(out, group);
+        out.writeInt(arguments.size());
+        for (String argument : arguments) {
+            out.writeUTF(argument);
+        }
+        writeNullable(out, maxAge);
+        writeNullable(out, timeBudget);
+    }
+
+    /** Reads a request written with {@link #writeTo(DataOutputStream)}.
+     * @param in the stream to read from.
+     * @return the request.
+     * @throws IOException if reading fails or the request is malformed.
+     */
+    static DaemonRequest readFrom(final DataInputStream in)
+            throws IOException {
+        DaemonCommand command;
+        try {
+            command = DaemonCommand.valueOf(in.readUTF());
+        } catch (IllegalArgumentException ex) {
+            throw new IOException("Unknown command", ex);
+        }
+        String user = readNullable(in);
+        String group = readNullable(in);
+        int count = in.readInt();
+        if (count < 0 || count > MAX_ARGUMENTS) {
+            throw new IOException("Bad number of arguments " + count);
+        }
+        List<String> arguments = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            arguments.add(in.readUTF());
+        }
+        Long maxAge = readNullableLong(in);
+        Long timeBudget = readNullableLong(in);
+        return new DaemonRequest(command, user, group, arguments,
+                maxAge, timeBudget);
+    }
+
+    /** Writes a string that may be {@code null}.
+     * @param out the stream to write to.
+     * @param value the string or {@code null}.
+     * @throws IOException if writing fails.
+     */
+    private static void writeNullable(final DataOutputStream out,
+            final String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    /** Reads a string written with
+     * {@link #writeNullable(DataOutputStream, String)}.
+     * @param in the stream to read from.
+     * @return the string or {@code null}.
+     * @throws IOException if reading fails.
+     */
+    private static String readNullable(final DataInputStream in)
+            throws IOException {
+        if (in.readBoolean()) {
+            return in.readUTF();
+        }
+        return null;
+    }
+
+    /** Writes a number that may be {@code null}.
+     * @param out the stream to write to.
+     * @param value the number or {@code null}.
+     * @throws IOException if writing fails.
+     */
+    private static void writeNullable(final DataOutputStream out,
+            final Long value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value);
+        }
+    }
+
+    /** Reads a number written with
+     * {@link #writeNullable(DataOutputStream, Long)}.
+     * @param in the stream to read from.
+     * @return the number or {@code null}.
+     * @throws IOException if reading fails.
+     */
+    private static Long readNullableLong(final DataInputStream in)
+            throws IOException {
+        if (in.readBoolean()) {
+            return in.readLong();
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return command + " " + arguments;
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.daemon;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Objects;
+
+/**
+ * Serves {@link DaemonRequest requests} of {@link DaemonClient clients}
+ * on a loopback socket, one at a time.
+ * The port and a random token are written to a file next to the
+ * database that only the owner can read. A client has to send the
+ * token first, so only the owner of the database can use the server.
+ * Between the requests, the server runs a {@link DaemonCommand#REFRESH}
+ * periodically.
+ * @author Stephan Fuhrmann
+ */
+@Slf4j
+public final class DaemonServer implements Closeable {
+    /** Suffix for the file with the port and token. */
+    private static final String DAEMON_SUFFIX = ".daemon";
+
+    /** The number of random bytes of a token. */
+    private static final int TOKEN_BYTES = 32;
+
+    /** The milliseconds to wait for a client to send its request. */
+    static final int READ_TIMEOUT_MILLIS = 10000;
+
+    /** Runs the commands of the requests. */
+    public interface Handler {
+        /** Runs the command of a request.
+         * @param request the request to run.
+         * @param out the writer for the output of the command.
+         * @throws IOException if the command fails.
+         */
+        void handle(DaemonRequest request, Writer out) throws IOException;
+    }
+
+    /** The socket accepting the clients. */
+    private final ServerSocket serverSocket;
+
+    /** The file with the port and token. */
+    private final Path file;
+
+    /** The token the clients have to send. */
+    private final String token;
+
+    /** The port the server listens on. */
+    @Getter
+    private final int port;
+
+    /** Whether the server was closed. */
+    private volatile boolean closed;
+
+    /** Creates a server.
+     * @param inServerSocket the socket accepting the clients.
+     * @param inFile the file with the port and token.
+     * @param inToken the token the clients have to send.
+     */
+    private DaemonServer(final ServerSocket inServerSocket,
+            final Path inFile,
+            final String inToken) {
+        this.serverSocket = inServerSocket;
+        this.file = inFile;
+        this.token = inToken;
+        this.port = inServerSocket.getLocalPort();
+    }
+
+    /** Gets the file with the port and token of the server of a
+     * database.
+     * @param database the database file.
+     * @return the daemon file next to the database.
+     */
+    public static Path pathOf(final Path database) {
+        return database.resolveSibling(
+                database.getFileName() + DAEMON_SUFFIX);
+    }
+
+    /** Starts listening on a free loopback port and writes the
+     * port and a new token to a file.
+     * @param file the file to write the port and token to, see
+     *             {@link #pathOf(Path)}.
+     * @return the server.
+     * @throws IOException if listening or writing the file fails.
+     */
+    public static DaemonServer start(final Path file) throws IOException {
+        byte[] random = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(random);
+        String token = Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(random);
+        ServerSocket serverSocket = new ServerSocket(0, 0,
+                InetAddress.getLoopbackAddress());
+        try {
+            writeFile(Objects.requireNonNull(file),
+                    serverSocket.getLocalPort(), token);
+        } catch (IOException ex) {
+            serverSocket.close();
+            throw ex;
+        }
+        log.info("Listening on port {}, see {}",
+                serverSocket.getLocalPort(), file);
+        return new DaemonServer(serverSocket, file, token);
+    }
+
+    /** Writes the port and token to a new file that only the owner
+     * can read, if the file system supports POSIX permissions.
+     * @param file the file to write.
+     * @param port the port of the server.
+     * @param token the token of the server.
+     * @throws IOException if writing fails.
+     */
+    private static void writeFile(final Path file,
+            final int port,
+            final String token) throws IOException {
+        Files.deleteIfExists(file);
+        if (file.getFileSystem().supportedFileAttributeViews()
+                .contains("posix")) {
+            Files.createFile(file, PosixFilePermissions.asFileAttribute(
+                    PosixFilePermissions.fromString("rw-------")));
+        } else {
+            Files.createFile(file);
+        }
+        Files.write(file, Arrays.asList(Integer.toString(port), token),
+                StandardCharsets.US_ASCII);
+    }
+
+    /** Serves requests until the server is {@link #stop() stopped}.
+     * A request that is running when the server is stopped is
+     * finished first.
+     * @param handler the handler running the commands.
+     * @param refreshMillis the milliseconds between two
+     *                      {@link DaemonCommand#REFRESH refreshes},
+     *                      or 0 to never refresh.
+     * @throws IOException if accepting clients fails.
+     */
+    public void serve(final Handler handler, final long refreshMillis)
+            throws IOException {
+        long nextRefresh = Long.MAX_VALUE;
+        if (refreshMillis > 0) {
+            nextRefresh = System.currentTimeMillis() + refreshMillis;
+        }
+        while (!closed) {
+            long wait = nextRefresh - System.currentTimeMillis();
+            if (wait <= 0) {
+                refresh(handler);
+                nextRefresh = System.currentTimeMillis() + refreshMillis;
+                continue;
+            }
+            serverSocket.setSoTimeout(nextRefresh == Long.MAX_VALUE
+                    ? 0 : (int) Math.min(wait, Integer.MAX_VALUE));
+            try (Socket socket = serverSocket.accept()) {
+                answer(socket, handler);
+            } catch (SocketTimeoutException ex) {
+                log.trace("No request before the next refresh");
+            } catch (SocketException ex) {
+                if (closed) {
+                    break;
+                }
+                log.warn("Serving a client failed", ex);
+            } catch (IOException ex) {
+                log.warn("Serving a client failed", ex);
+            }
+        }
+    }
+
+    /** Runs a periodic refresh. Failures are logged only, so the
+     * next refresh gets another chance.
+     * @param handler the handler running the commands.
+     */
+    private static void refresh(final Handler handler) {
+        DaemonRequest request = new DaemonRequest(DaemonCommand.REFRESH,
+                null, null, Collections.emptyList());
+        try {
+            handler.handle(request, new StringWriter());
+        } catch (IOException | RuntimeException ex) {
+            log.warn("Periodic refresh failed", ex);
+        }
+    }
+
+    /** Reads a request from a client, runs it and sends the output.
+     * @param socket the socket of the client.
+     * @param handler the handler running the command.
+     * @throws IOException if talking to the client fails.
+     */
+    private void answer(final Socket socket, final Handler handler)
+            throws IOException {
+        socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(socket.getInputStream()));
+        FramedOutputStream out =
+                new FramedOutputStream(socket.getOutputStream());
+        byte[] received = in.readUTF().getBytes(StandardCharsets.US_ASCII);
+        if (!MessageDigest.isEqual(received,
+                token.getBytes(StandardCharsets.US_ASCII))) {
+            log.warn("Rejecting client with a wrong token");
+            out.fail("Wrong token");
+            return;
+        }
+        DaemonRequest request = DaemonRequest.readFrom(in);
+        log.info("Running {}", request);
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        try {
+            handler.handle(request, writer);
+            writer.flush();
+        } catch (IOException | RuntimeException ex) {
+            log.warn("Running " + request + " failed", ex);
+            writer.flush();
+            out.fail(String.valueOf(ex.getMessage()));
+            return;
+        }
+        out.finish();
+    }
+
+    /** Stops accepting clients, so {@link #serve(Handler, long)}
+     * returns after the running request. Can be called from
+     * any thread.
+     * @throws IOException if closing the socket fails.
+     */
+    public void stop() throws IOException {
+        closed = true;
+        serverSocket.close();
+    }
+
+    /** Stops serving and deletes the file with the port and token.
+     * @throws IOException if closing the socket or deleting fails.
+     */
+    @Override
+    public void close() throws IOException {
+        stop();
+        Files.deleteIfExists(file);
+    }
+}
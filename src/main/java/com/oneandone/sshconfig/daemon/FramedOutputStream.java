@@ -0,0 +1,147 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.daemon;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The answer of the {@link DaemonServer} to a request.
+ * The output of the command is split into frames of an int length
+ * and that many bytes. A frame of length {@link #END} ends the
+ * answer of a successful command, a frame of length {@link #FAILED}
+ * followed by a message ends the answer of a failed command.
+ * So the output can be streamed while the command runs, and the
+ * client still learns whether it was complete.
+ * @author Stephan Fuhrmann
+ */
+final class FramedOutputStream extends OutputStream {
+    /** The largest frame to write. */
+    static final int FRAME_SIZE = 8192;
+
+    /** The length marking the end of a successful answer. */
+    static final int END = 0;
+
+    /** The length marking the end of a failed answer. */
+    static final int FAILED = -1;
+
+    /** The stream to write the frames to. */
+    private final DataOutputStream out;
+
+    /** The bytes of the next frame. */
+    private final byte[] buffer = new byte[FRAME_SIZE];
+
+    /** The number of bytes in {@link #buffer}. */
+    private int count;
+
+    /** Creates a stream.
+     * @param inOut the stream to write the frames to.
+     */
+    FramedOutputStream(final OutputStream inOut) {
+        this.out = new DataOutputStream(inOut);
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        if (count == buffer.length) {
+            writeFrame();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len)
+            throws IOException {
+        int offset = off;
+        int remaining = len;
+        while (remaining > 0) {
+            if (count == buffer.length) {
+                writeFrame();
+            }
+            int n = Math.min(remaining, buffer.length - count);
+            System.arraycopy(b, offset, buffer, count, n);
+            count += n;
+            offset += n;
+            remaining -= n;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writeFrame();
+        out.flush();
+    }
+
+    /** Writes the buffered bytes as a frame if there are any.
+     * @throws IOException if writing fails.
+     */
+    private void writeFrame() throws IOException {
+        if (count > 0) {
+            out.writeInt(count);
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+
+    /** Ends the answer of a successful command.
+     * @throws IOException if writing fails.
+     */
+    void finish() throws IOException {
+        writeFrame();
+        out.writeInt(END);
+        out.flush();
+    }
+
+    /** Ends the answer of a failed command.
+     * @param message the reason of the failure.
+     * @throws IOException if writing fails.
+     */
+    void fail(final String message) throws IOException {
+        writeFrame();
+        out.writeInt(FAILED);
+        out.writeUTF(message);
+        out.flush();
+    }
+
+    /** Copies the output of an answer.
+     * @param in the stream to read the frames from.
+     * @param target the stream to copy the output to.
+     * @throws IOException if reading or writing fails, or if the
+     * answer ends with a failure.
+     */
+    static void copy(final DataInputStream in, final OutputStream target)
+            throws IOException {
+        byte[] bytes = new byte[FRAME_SIZE];
+        while (true) {
+            int length = in.readInt();
+            if (length == END) {
+                target.flush();
+                return;
+            }
+            if (length == FAILED) {
+                target.flush();
+                throw new IOException(in.readUTF());
+            }
+            if (length < 0 || length > FRAME_SIZE) {
+                throw new IOException("Bad frame length " + length);
+            }
+            in.readFully(bytes, 0, length);
+            target.write(bytes, 0, length);
+        }
+    }
+}
@@ -0,0 +1,419 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.dns;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.oneandone.sshconfig.validation.IpAddresses;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Resolver caching the results of another resolver.
+ * Forward and reverse results are kept until they expire, failed
+ * lookups are kept for a shorter time. Concurrent requests for the
+ * same name share a single lookup of the delegate.
+ * The cache can be persisted to a file, so later runs only need
+ * to look up stale entries.
+ * @author Stephan Fuhrmann
+ */
+@Slf4j
+public final class CachingResolver implements Resolver {
+    /** The default time to live of successful lookups in seconds. */
+    public static final long DEFAULT_TTL_SECONDS = 3600;
+
+    /** The default time to live of failed lookups in seconds. */
+    public static final long DEFAULT_NEGATIVE_TTL_SECONDS = 300;
+
+    /** The mapper for the cache file. */
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /** The resolver doing the real lookups. */
+    private final Resolver delegate;
+
+    /** The file to persist the cache in, or {@code null}. */
+    private final Path file;
+
+    /** Whether the cache file was loaded already. */
+    private boolean loaded;
+
+    /** The time to live of successful lookups in milliseconds. */
+    private final long ttlMillis;
+
+    /** The time to live of failed lookups in milliseconds. */
+    private final long negativeTtlMillis;
+
+    /** The clock returning the current time in milliseconds. */
+    private final LongSupplier clock;
+
+    /** Cached forward lookups by lower case name. */
+    private final ConcurrentMap<String, Entry> forward =
+            new ConcurrentHashMap<>();
+
+    /** Cached reverse lookups by address literal. */
+    private final ConcurrentMap<String, Entry> reverse =
+            new ConcurrentHashMap<>();
+
+    /** Running forward lookups by lower case name. */
+    private final ConcurrentMap<String, CompletableFuture<InetAddress[]>>
+            forwardInFlight = new ConcurrentHashMap<>();
+
+    /** Running reverse lookups by address literal. */
+    private final ConcurrentMap<String, CompletableFuture<String>>
+            reverseInFlight = new ConcurrentHashMap<>();
+
+    /** Whether the cache changed since loading or saving. */
+    private volatile boolean dirty;
+
+    /** Creates a caching resolver.
+     * @param inDelegate the resolver doing the real lookups.
+     * @param inFile the file to persist the cache in, or {@code null}
+     *               to only cache in memory.
+     * @param inTtlSeconds the time to live of successful lookups
+     *                     in seconds.
+     * @param inNegativeTtlSeconds the time to live of failed lookups
+     *                             in seconds.
+     */
+    public CachingResolver(final Resolver inDelegate,
+            final Path inFile,
+            final long inTtlSeconds,
+            final long inNegativeTtlSeconds) {
+        this(inDelegate, inFile,
+                TimeUnit.SECONDS.toMillis(inTtlSeconds),
+                TimeUnit.SECONDS.toMillis(inNegativeTtlSeconds),
+                System::currentTimeMillis);
+    }
+
+    /** Creates a caching resolver.
+     * @param inDelegate the resolver doing the real lookups.
+     * @param inFile the file to persist the cache in, or {@code null}.
+     * @param inTtlMillis the time to live of successful lookups.
+     * @param inNegativeTtlMillis the time to live of failed lookups.
+     * @param inClock the clock returning the current time in
+     *                milliseconds.
+     */
+    CachingResolver(final Resolver inDelegate,
+            final Path inFile,
+            final long inTtlMillis,
+            final long inNegativeTtlMillis,
+            final LongSupplier inClock) {
+        this.delegate = Objects.requireNonNull(inDelegate);
+        this.file = inFile;
+        this.ttlMillis = inTtlMillis;
+        this.negativeTtlMillis = inNegativeTtlMillis;
+        this.clock = Objects.requireNonNull(inClock);
+    }
+
+    @Override
+    public CompletableFuture<InetAddress[]> lookup(final String name) {
+        if (IpAddresses.isLiteral(name)) {
+            return delegate.lookup(name);
+        }
+        String key = name.toLowerCase(Locale.ROOT);
+        Entry entry = forward.get(key);
+        if (entry != null && entry.getExpires() > clock.getAsLong()) {
+            if (entry.getValues().isEmpty()) {
+                return failed(new UnknownHostException(name));
+            }
+            return CompletableFuture.completedFuture(
+                    toAddresses(name, entry.getValues()));
+        }
+        return coalesce(forwardInFlight, key,
+                () -> delegate.lookup(name),
+                (addresses, ex) -> {
+                    if (ex == null) {
+                        List<String> values = new ArrayList<>();
+                        for (InetAddress address : addresses) {
+                            values.add(address.getHostAddress());
+                        }
+                        store(forward, key, values, ttlMillis);
+                    } else if (ex instanceof UnknownHostException) {
+                        store(forward, key, Collections.emptyList(),
+                                negativeTtlMillis);
+                    }
+                });
+    }
+
+    @Override
+    public CompletableFuture<String> reverse(final InetAddress address) {
+        String key = address.getHostAddress();
+        Entry entry = reverse.get(key);
+        if (entry != null && !entry.getValues().isEmpty()
+                && entry.getExpires() > clock.getAsLong()) {
+            return CompletableFuture.completedFuture(
+                    entry.getValues().get(0));
+        }
+        return coalesce(reverseInFlight, key,
+                () -> delegate.reverse(address),
+                (name, ex) -> {
+                    if (ex == null) {
+                        // the literal is returned if there is no name
+                        long ttl = ttlMillis;
+                        if (name.equals(key)) {
+                            ttl = negativeTtlMillis;
+                        }
+                        store(reverse, key,
+                                Collections.singletonList(name), ttl);
+                    }
+                });
+    }
+
+    /** Callback for storing the result of a lookup.
+     * @param <T> the result type.
+     */
+    @FunctionalInterface
+    private interface ResultConsumer<T> {
+        /** Stores a result.
+         * @param value the result or {@code null} if the lookup failed.
+         * @param ex the unwrapped exception or {@code null} if the lookup
+         *           succeeded.
+         */
+        void accept(T value, Throwable ex);
+    }
+
+    /** Starts a lookup unless one for the key is already running.
+     * @param inFlight the running lookups.
+     * @param key the key of the lookup.
+     * @param start starts the lookup of the delegate.
+     * @param cache stores the result before it is published.
+     * @param <T> the result type.
+     * @return the future of the running lookup.
+     */
+    private static <T> CompletableFuture<T> coalesce(
+            final ConcurrentMap<String, CompletableFuture<T>> inFlight,
+            final String key,
+            final Supplier<CompletableFuture<T>> start,
+            final ResultConsumer<T> cache) {
+        CompletableFuture<T> promise = new CompletableFuture<>();
+        CompletableFuture<T> running = inFlight.putIfAbsent(key, promise);
+        if (running != null) {
+            return running;
+        }
+        CompletableFuture<T> lookup;
+        try {
+            lookup = start.get();
+        } catch (RuntimeException ex) {
+            inFlight.remove(key, promise);
+            promise.completeExceptionally(ex);
+            return promise;
+        }
+        lookup.whenComplete((value, ex) -> {
+            Throwable cause = unwrap(ex);
+            cache.accept(value, cause);
+            // remove after caching so no caller misses both
+            inFlight.remove(key, promise);
+            if (cause == null) {
+                promise.complete(value);
+            } else {
+                promise.completeExceptionally(cause);
+            }
+        });
+        return promise;
+    }
+
+    /** Stores a cache entry.
+     * @param map the map to store the entry in.
+     * @param key the key of the entry.
+     * @param values the addresses or names, empty for failed lookups.
+     * @param ttl the time to live in milliseconds.
+     */
+    private void store(final Map<String, Entry> map,
+            final String key,
+            final List<String> values,
+            final long ttl) {
+        Entry entry = new Entry();
+        entry.setValues(values);
+        entry.setExpires(clock.getAsLong() + ttl);
+        map.put(key, entry);
+        dirty = true;
+    }
+
+    /** Unwraps the exception of a completion stage.
+     * @param ex the exception or {@code null}.
+     * @return the cause of a {@link CompletionException} or the
+     * exception itself.
+     */
+    private static Throwable unwrap(final Throwable ex) {
+        if (ex instanceof CompletionException && ex.getCause() != null) {
+            return ex.getCause();
+        }
+        return ex;
+    }
+
+    /** Creates an exceptionally completed future.
+     * @param ex the exception to complete with.
+     * @param <T> the result type.
+     * @return the failed future.
+     */
+    private static <T> CompletableFuture<T> failed(final Throwable ex) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        result.completeExceptionally(ex);
+        return result;
+    }
+
+    /** Converts cached address literals to addresses.
+     * @param name the name the addresses were looked up for.
+     * @param literals the address literals.
+     * @return the addresses carrying the looked up name.
+     */
+    private static InetAddress[] toAddresses(final String name,
+            final List<String> literals) {
+        InetAddress[] result = new InetAddress[literals.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = IpAddresses.toInetAddress(name, literals.get(i));
+        }
+        return result;
+    }
+
+    /** Loads the cache file if there is one.
+     * An unreadable cache file is ignored, since the cache can always
+     * be rebuilt from the domain name service.
+     * Only the first call reads the file, later calls keep the
+     * cache in memory, which is at least as fresh as the file.
+     */
+    public void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (file == null || !Files.exists(file)) {
+            return;
+        }
+        try {
+            CacheFile content = MAPPER.readValue(file.toFile(),
+                    CacheFile.class);
+            putValid(forward, content.getForward());
+            putValid(reverse, content.getReverse());
+            log.debug("Loaded {} forward and {} reverse entries from {}",
+                    forward.size(), reverse.size(), file);
+        } catch (IOException ex) {
+            log.warn("Ignoring unreadable DNS cache " + file, ex);
+        }
+    }
+
+    /** Adds the loaded entries that are usable.
+     * @param map the map to add the entries to.
+     * @param loaded the loaded entries, may be {@code null}.
+     */
+    private static void putValid(final Map<String, Entry> map,
+            final Map<String, Entry> loaded) {
+        if (loaded == null) {
+            return;
+        }
+        for (Map.Entry<String, Entry> e : loaded.entrySet()) {
+            List<String> values = e.getValue().getValues();
+            if (values != null && values.stream()
+                    .allMatch(v -> v != null)) {
+                map.put(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    /** Saves the cache file if the cache changed. Expired entries
+     * are not saved. The file is written to a unique temporary file
+     * and replaced atomically. If saving fails, the cache stays
+     * changed, so a later save tries again.
+     * @throws IOException if writing the file fails.
+     */
+    public void save() throws IOException {
+        if (file == null || !dirty) {
+            return;
+        }
+        // cleared before taking the entries, so entries added meanwhile
+        // mark the cache changed again
+        dirty = false;
+        long now = clock.getAsLong();
+        CacheFile content = new CacheFile();
+        content.setForward(unexpired(forward, now));
+        content.setReverse(unexpired(reverse, now));
+        Path tmp = null;
+        try {
+            tmp = Files.createTempFile(file.toAbsolutePath().getParent(),
+                    file.getFileName() + ".", ".tmp");
+            MAPPER.writeValue(tmp.toFile(), content);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException ex) {
+            dirty = true;
+            if (tmp != null) {
+                Files.deleteIfExists(tmp);
+            }
+            throw ex;
+        }
+        log.debug("Saved {} forward and {} reverse entries to {}",
+                content.getForward().size(),
+                content.getReverse().size(), file);
+    }
+
+    /** Copies the entries that did not expire.
+     * @param map the entries to copy.
+     * @param now the current time in milliseconds.
+     * @return the copy of the unexpired entries.
+     */
+    private static Map<String, Entry> unexpired(
+            final Map<String, Entry> map, final long now) {
+        Map<String, Entry> result = new HashMap<>();
+        for (Map.Entry<String, Entry> e : map.entrySet()) {
+            if (e.getValue().getExpires() > now) {
+                result.put(e.getKey(), e.getValue());
+            }
+        }
+        return result;
+    }
+
+    /** A cached lookup result. */
+    static final class Entry {
+        /** The address literals or the name, empty for failed lookups. */
+        @Getter @Setter
+        private List<String> values;
+
+        /** The expiry time in milliseconds since the epoch. */
+        @Getter @Setter
+        private long expires;
+    }
+
+    /** The content of the cache file. */
+    static final class CacheFile {
+        /** The forward lookups by lower case name. */
+        @Getter @Setter
+        private Map<String, Entry> forward;
+
+        /** The reverse lookups by address literal. */
+        @Getter @Setter
+        private Map<String, Entry> reverse;
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.dns;
+
+import lombok.Getter;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encoder and decoder of the DNS messages of RFC 1035
+ * needed for A, AAAA and PTR lookups.
+ * @author Stephan Fuhrmann
+ */
+final class DnsMessage {
+    /** Record type of IPv4 addresses. */
+    static final int TYPE_A = 1;
+
+    /** Record type of domain name pointers. */
+    static final int TYPE_PTR = 12;
+
+    /** Record type of IPv6 addresses. */
+    static final int TYPE_AAAA = 28;
+
+    /** Record type of the EDNS pseudo record. */
+    private static final int TYPE_OPT = 41;
+
+    /** The internet class. */
+    private static final int CLASS_IN = 1;
+
+    /** Response code for a name that does not exist. */
+    static final int RCODE_NXDOMAIN = 3;
+
+    /** The largest response to accept over UDP. Recommended by
+     * the DNS flag day 2020 to avoid fragmentation. */
+    static final int MAX_UDP_SIZE = 1232;
+
+    /** The largest message size. */
+    static final int MAX_SIZE = 65535;
+
+    /** Flag of a response. */
+    private static final int FLAG_QR = 0x8000;
+
+    /** Flag of a truncated response. */
+    private static final int FLAG_TC = 0x0200;
+
+    /** Flag asking for recursion. */
+    private static final int FLAG_RD = 0x0100;
+
+    /** Mask of the response code. */
+    private static final int RCODE_MASK = 0x000f;
+
+    /** Mask of a compression pointer. */
+    private static final int POINTER = 0xc0;
+
+    /** Mask of the transaction id. */
+    static final int ID_MASK = 0xffff;
+
+    /** The maximum length of a label. */
+    private static final int MAX_LABEL = 63;
+
+    /** The maximum length of a name. */
+    private static final int MAX_NAME = 255;
+
+    /** The maximum number of labels followed when decompressing. */
+    private static final int MAX_JUMPS = 128;
+
+    /** Bits in a nibble of a reverse IPv6 name. */
+    private static final int NIBBLE_BITS = 4;
+
+    /** Mask of a nibble. */
+    private static final int NIBBLE_MASK = 0x0f;
+
+    /** The radix of hexadecimal digits. */
+    private static final int HEX = 16;
+
+    /** No instance allowed. */
+    private DnsMessage() {
+        // no instance
+    }
+
+    /** A decoded response. */
+    static final class Response {
+        /** The transaction id. */
+        @Getter
+        private int id;
+
+        /** The response code. */
+        @Getter
+        private int rcode;
+
+        /** Whether the response was truncated. */
+        @Getter
+        private boolean truncated;
+
+        /** The name of the question, or {@code null}. */
+        @Getter
+        private String questionName;
+
+        /** The type of the question. */
+        @Getter
+        private int questionType;
+
+        /** The addresses of the answer records of the question type. */
+        @Getter
+        private final List<byte[]> addresses = new ArrayList<>();
+
+        /** The names of the answer PTR records. */
+        @Getter
+        private final List<String> names = new ArrayList<>();
+    }
+
+    /** Encodes a query asking for recursion.
+     * @param id the transaction id.
+     * @param name the name to query, with or without trailing dot.
+     * @param type the record type to query.
+     * @return the message, ready to read.
+     * @throws IllegalArgumentException if the name is not a valid
+     * domain name.
+     */
+    static ByteBuffer query(final int id,
+            final String name,
+            final int type) {
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_UDP_SIZE);
+        buffer.putShort((short) id);
+        buffer.putShort((short) FLAG_RD);
+        buffer.putShort((short) 1); // questions
+        buffer.putShort((short) 0); // answers
+        buffer.putShort((short) 0); // authorities
+        buffer.putShort((short) 1); // additional EDNS record
+        putName(buffer, name);
+        buffer.putShort((short) type);
+        buffer.putShort((short) CLASS_IN);
+        // EDNS0 announcing the UDP payload size
+        buffer.put((byte) 0);
+        buffer.putShort((short) TYPE_OPT);
+        buffer.putShort((short) MAX_UDP_SIZE);
+        buffer.putInt(0);
+        buffer.putShort((short) 0);
+        buffer.flip();
+        return buffer;
+    }
+
+    /** Encodes a domain name without compression.
+     * @param buffer the buffer to write to.
+     * @param name the name, with or without trailing dot.
+     */
+    private static void putName(final ByteBuffer buffer, final String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.US_ASCII);
+        int length = bytes.length;
+        if (length > 0 && bytes[length - 1] == '.') {
+            length--;
+        }
+        if (length + 2 > MAX_NAME) {
+            throw new IllegalArgumentException("Name too long: " + name);
+        }
+        int start = 0;
+        while (start < length) {
+            int end = start;
+            while (end < length && bytes[end] != '.') {
+                end++;
+            }
+            int label = end - start;
+            if (label == 0 || label > MAX_LABEL) {
+                throw new IllegalArgumentException("Bad label: " + name);
+            }
+            buffer.put((byte) label);
+            buffer.put(bytes, start, label);
+            start = end + 1;
+        }
+        buffer.put((byte) 0);
+    }
+
+    /** Decodes a response.
+     * @param buffer the message, ready to read.
+     * @return the decoded response.
+     * @throws IOException if the message is malformed or no response.
+     */
+    static Response parse(final ByteBuffer buffer) throws IOException {
+        try {
+            Response result = new Response();
+            result.id = Short.toUnsignedInt(buffer.getShort());
+            int flags = Short.toUnsignedInt(buffer.getShort());
+            if ((flags & FLAG_QR) == 0) {
+                throw new IOException("Not a response");
+            }
+            result.truncated = (flags & FLAG_TC) != 0;
+            result.rcode = flags & RCODE_MASK;
+            int questions = Short.toUnsignedInt(buffer.getShort());
+            int answers = Short.toUnsignedInt(buffer.getShort());
+            buffer.getShort(); // authorities
+            buffer.getShort(); // additional
+            for (int i = 0; i < questions; i++) {
+                String name = getName(buffer);
+                int type = Short.toUnsignedInt(buffer.getShort());
+                buffer.getShort(); // class
+                if (i == 0) {
+                    result.questionName = name;
+                    result.questionType = type;
+                }
+            }
+            if (result.truncated) {
+                // the answers may be cut off anywhere
+                return result;
+            }
+            for (int i = 0; i < answers; i++) {
+                getName(buffer);
+                int type = Short.toUnsignedInt(buffer.getShort());
+                buffer.getShort(); // class
+                buffer.getInt(); // ttl
+                int length = Short.toUnsignedInt(buffer.getShort());
+                int end = buffer.position() + length;
+                if (type == result.questionType
+                        && (type == TYPE_A || type == TYPE_AAAA)) {
+                    byte[] address = new byte[length];
+                    buffer.get(address);
+                    result.addresses.add(address);
+                } else if (type == result.questionType
+                        && type == TYPE_PTR) {
+                    result.names.add(getName(buffer));
+                }
+                buffer.position(end);
+            }
+            return result;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException
+                | IllegalArgumentException ex) {
+            throw new IOException("Malformed DNS message", ex);
+        }
+    }
+
+    /** Decodes a possibly compressed domain name.
+     * @param buffer the buffer positioned at the name. Will be positioned
+     *               after the name.
+     * @return the name without trailing dot, empty for the root.
+     * @throws IOException if the name is malformed.
+     */
+    private static String getName(final ByteBuffer buffer)
+            throws IOException {
+        StringBuilder result = new StringBuilder();
+        int position = buffer.position();
+        int after = -1;
+        for (int jumps = 0; jumps < MAX_JUMPS; jumps++) {
+            int length = Byte.toUnsignedInt(buffer.get(position));
+            if ((length & POINTER) == POINTER) {
+                if (after == -1) {
+                    after = position + 2;
+                }
+                position = ((length & ~POINTER) << Byte.SIZE)
+                        | Byte.toUnsignedInt(buffer.get(position + 1));
+                continue;
+            }
+            if (length > MAX_LABEL) {
+                throw new IOException("Bad label length " + length);
+            }
+            if (length == 0) {
+                if (after == -1) {
+                    after = position + 1;
+                }
+                buffer.position(after);
+                return result.toString();
+            }
+            if (result.length() > 0) {
+                result.append('.');
+            }
+            for (int i = 1; i <= length; i++) {
+                result.append((char) Byte.toUnsignedInt(
+                        buffer.get(position + i)));
+            }
+            position += length + 1;
+        }
+        throw new IOException("Compression loop in DNS name");
+    }
+
+    /** Gets the reverse lookup name of an address.
+     * @param address the address.
+     * @return the name in {@code in-addr.arpa} or {@code ip6.arpa}.
+     */
+    static String reverseName(final InetAddress address) {
+        byte[] bytes = address.getAddress();
+        StringBuilder result = new StringBuilder();
+        if (bytes.length == Integer.BYTES) {
+            for (int i = bytes.length - 1; i >= 0; i--) {
+                result.append(Byte.toUnsignedInt(bytes[i])).append('.');
+            }
+            return result.append("in-addr.arpa").toString();
+        }
+        for (int i = bytes.length - 1; i >= 0; i--) {
+            int b = Byte.toUnsignedInt(bytes[i]);
+            result.append(Character.forDigit(b & NIBBLE_MASK, HEX))
+                    .append('.')
+                    .append(Character.forDigit(b >>> NIBBLE_BITS, HEX))
+                    .append('.');
+        }
+        return result.append("ip6.arpa").toString();
+    }
+}
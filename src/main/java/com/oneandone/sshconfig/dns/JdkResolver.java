@@ -0,0 +1,57 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.dns;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Resolver using the blocking resolver of the JDK.
+ * The lookups are run on the given executor.
+ * @author Stephan Fuhrmann
+ */
+public final class JdkResolver implements Resolver {
+    /** The executor to run the blocking lookups on. */
+    private final Executor executor;
+
+    /** Creates a resolver.
+     * @param inExecutor the executor to run the blocking lookups on.
+     */
+    public JdkResolver(final Executor inExecutor) {
+        this.executor = Objects.requireNonNull(inExecutor);
+    }
+
+    @Override
+    public CompletableFuture<InetAddress[]> lookup(final String name) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return InetAddress.getAllByName(name);
+            } catch (UnknownHostException ex) {
+                throw new CompletionException(ex);
+            }
+        }, executor);
+    }
+
+    @Override
+    public CompletableFuture<String> reverse(final InetAddress address) {
+        return CompletableFuture.supplyAsync(
+                address::getCanonicalHostName, executor);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.dns;
+
+import com.oneandone.sshconfig.limit.TokenBucket;
+
+import java.io.Closeable;
+import java.net.InetAddress;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Resolver limiting the rate of lookups of another resolver.
+ * Lookups beyond the rate are delayed, not rejected, so a burst of
+ * lookups turns into a steady stream of queries to the name servers.
+ * Put it below a {@link CachingResolver}, so cache hits are not
+ * limited.
+ * @author Stephan Fuhrmann
+ */
+public final class RateLimitedResolver implements Resolver, Closeable {
+    /** The resolver doing the real lookups. */
+    private final Resolver delegate;
+
+    /** The bucket with a token for every lookup. */
+    private final TokenBucket bucket;
+
+    /** The timer starting delayed lookups. */
+    private final ScheduledExecutorService timer =
+            Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "dns-rate-limit");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /** Creates a rate limited resolver.
+     * @param inDelegate the resolver doing the real lookups.
+     * @param inBucket the bucket with a token for every lookup.
+     */
+    public RateLimitedResolver(final Resolver inDelegate,
+            final TokenBucket inBucket) {
+        this.delegate = Objects.requireNonNull(inDelegate);
+        this.bucket = Objects.requireNonNull(inBucket);
+    }
+
+    @Override
+    public CompletableFuture<InetAddress[]> lookup(final String name) {
+        return limit(() -> delegate.lookup(name));
+    }
+
+    @Override
+    public CompletableFuture<String> reverse(final InetAddress address) {
+        return limit(() -> delegate.reverse(address));
+    }
+
+    /** Starts a lookup once the bucket has a token for it.
+     * @param lookup starts the lookup.
+     * @param <T> the type of the result.
+     * @return the future result of the lookup.
+     */
+    private <T> CompletableFuture<T> limit(
+            final Supplier<CompletableFuture<T>> lookup) {
+        long delay = bucket.reserve();
+        if (delay == 0) {
+            return lookup.get();
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        timer.schedule(() -> lookup.get().whenComplete((value, ex) -> {
+            if (ex != null) {
+                result.completeExceptionally(ex);
+            } else {
+                result.complete(value);
+            }
+        }), delay, TimeUnit.NANOSECONDS);
+        return result;
+    }
+
+    @Override
+    public void close() {
+        timer.shutdownNow();
+    }
+}
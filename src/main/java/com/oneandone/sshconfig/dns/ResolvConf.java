@@ -0,0 +1,203 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.dns;
+
+import com.oneandone.sshconfig.validation.IpAddresses;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The name servers and search domains of the stub resolver,
+ * usually read from {@code /etc/resolv.conf}.
+ * @author Stephan Fuhrmann
+ */
+@Slf4j
+public final class ResolvConf {
+    /** The default location of the resolver configuration. */
+    public static final Path DEFAULT_PATH = Paths.get("/etc/resolv.conf");
+
+    /** The DNS port. */
+    public static final int DNS_PORT = 53;
+
+    /** The default number of dots that make a name absolute. */
+    private static final int DEFAULT_NDOTS = 1;
+
+    /** The name servers to query in order. */
+    @Getter
+    private final List<InetSocketAddress> nameservers;
+
+    /** The domains to append to relative names in order. */
+    @Getter
+    private final List<String> search;
+
+    /** Names with at least this many dots are tried as is first. */
+    @Getter
+    private final int ndots;
+
+    /** Creates a configuration.
+     * @param inNameservers the name servers to query in order.
+     * @param inSearch the domains to append to relative names.
+     * @param inNdots names with at least this many dots are tried
+     *                as is first.
+     */
+    public ResolvConf(final List<InetSocketAddress> inNameservers,
+            final List<String> inSearch,
+            final int inNdots) {
+        if (inNameservers.isEmpty()) {
+            throw new IllegalArgumentException("No name servers");
+        }
+        this.nameservers = Collections.unmodifiableList(
+                new ArrayList<>(inNameservers));
+        this.search = Collections.unmodifiableList(
+                new ArrayList<>(inSearch));
+        this.ndots = inNdots;
+    }
+
+    /** Reads a configuration file. Unknown lines are ignored.
+     * If the file is missing or lists no name server, the local host
+     * is used, like the C library does.
+     * @param path the file to read.
+     * @return the configuration.
+     * @throws IOException if reading the file fails.
+     */
+    public static ResolvConf read(final Path path) throws IOException {
+        List<InetSocketAddress> nameservers = new ArrayList<>();
+        List<String> search = new ArrayList<>();
+        int ndots = DEFAULT_NDOTS;
+        List<String> lines = Collections.emptyList();
+        if (Files.exists(path)) {
+            lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+        }
+        for (String line : lines) {
+            String[] words = line.trim().split("\\s+");
+            if (words[0].startsWith("#") || words[0].startsWith(";")) {
+                continue;
+            }
+            switch (words[0]) {
+                case "nameserver":
+                    if (words.length > 1) {
+                        InetAddress address =
+                                IpAddresses.toInetAddress(null, words[1]);
+                        if (address != null) {
+                            nameservers.add(new InetSocketAddress(
+                                    address, DNS_PORT));
+                        }
+                    }
+                    break;
+                case "domain":
+                case "search":
+                    // the last search or domain line wins
+                    search.clear();
+                    search.addAll(Arrays.asList(words)
+                            .subList(1, words.length));
+                    break;
+                case "options":
+                    ndots = parseNdots(words, ndots);
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (nameservers.isEmpty()) {
+            log.debug("No name server in {}, using the local host", path);
+            nameservers.add(new InetSocketAddress(
+                    InetAddress.getLoopbackAddress(), DNS_PORT));
+        }
+        return new ResolvConf(nameservers, search, ndots);
+    }
+
+    /** Parses the {@code ndots} option.
+     * @param words the words of the options line.
+     * @param ndots the current value.
+     * @return the new value.
+     */
+    private static int parseNdots(final String[] words, final int ndots) {
+        int result = ndots;
+        for (String word : words) {
+            if (word.startsWith("ndots:")) {
+                try {
+                    result = Integer.parseInt(
+                            word.substring("ndots:".length()));
+                } catch (NumberFormatException ex) {
+                    log.debug("Ignoring bad option {}", word);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Parses a name server address like {@code 10.0.0.1},
+     * {@code 10.0.0.1:5353} or {@code [::1]:5353}.
+     * @param text the text to parse.
+     * @return the socket address.
+     * @throws IllegalArgumentException if the text is no address.
+     */
+    public static InetSocketAddress parseNameserver(final String text) {
+        InetAddress address = IpAddresses.toInetAddress(null, text);
+        if (address != null) {
+            return new InetSocketAddress(address, DNS_PORT);
+        }
+        int colon = text.lastIndexOf(':');
+        if (colon != -1) {
+            address = IpAddresses.toInetAddress(null,
+                    text.substring(0, colon));
+            if (address != null) {
+                try {
+                    return new InetSocketAddress(address,
+                            Integer.parseInt(text.substring(colon + 1)));
+                } catch (NumberFormatException ex) {
+                    // reported below
+                }
+            }
+        }
+        throw new IllegalArgumentException("Not a name server address: "
+                + text);
+    }
+
+    /** Gets the names to try for a name in order.
+     * @param name the name to look up.
+     * @return the absolute names to query.
+     */
+    public List<String> candidates(final String name) {
+        if (name.endsWith(".")) {
+            return Collections.singletonList(name);
+        }
+        List<String> result = new ArrayList<>();
+        long dots = name.chars().filter(c -> c == '.').count();
+        if (dots >= ndots) {
+            result.add(name);
+        }
+        for (String domain : search) {
+            result.add(name + "." + domain);
+        }
+        if (dots < ndots) {
+            result.add(name);
+        }
+        return result;
+    }
+}
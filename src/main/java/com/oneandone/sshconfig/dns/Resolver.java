@@ -0,0 +1,42 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.dns;
+
+import java.net.InetAddress;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Asynchronous name resolution.
+ * Failed lookups complete the future exceptionally, usually with an
+ * {@link java.net.UnknownHostException}.
+ * @author Stephan Fuhrmann
+ */
+public interface Resolver {
+    /** Looks up all addresses of a name, like
+     * {@link InetAddress#getAllByName(String)}.
+     * @param name the host name or address literal to look up.
+     * @return a future for all addresses of the name, in resolver order.
+     */
+    CompletableFuture<InetAddress[]> lookup(String name);
+
+    /** Looks up the canonical name of an address, like
+     * {@link InetAddress#getCanonicalHostName()}.
+     * @param address the address to look up.
+     * @return a future for the name of the address, or its literal
+     * if it has no name.
+     */
+    CompletableFuture<String> reverse(InetAddress address);
+}
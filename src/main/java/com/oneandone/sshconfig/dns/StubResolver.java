@@ -0,0 +1,585 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.dns;
+
+import com.oneandone.sshconfig.validation.IpAddresses;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Non-blocking DNS stub resolver.
+ * A single selector thread sends the queries of all lookups over
+ * one UDP socket and matches the responses by transaction id,
+ * so thousands of lookups can be outstanding without a thread
+ * per lookup.
+ * Unanswered queries are retried with the next name server,
+ * truncated responses are repeated over TCP on the executor.
+ * @author Stephan Fuhrmann
+ */
+@Slf4j
+public final class StubResolver implements Resolver, AutoCloseable {
+    /** The default maximum number of outstanding queries. */
+    public static final int DEFAULT_MAX_IN_FLIGHT = 512;
+
+    /** The default time to wait for a response in milliseconds. */
+    public static final long DEFAULT_TIMEOUT_MILLIS = 1000;
+
+    /** The default number of attempts per query. */
+    public static final int DEFAULT_ATTEMPTS = 3;
+
+    /** The number of different transaction ids. */
+    private static final int IDS = DnsMessage.ID_MASK + 1;
+
+    /** The name servers and search domains. */
+    private final ResolvConf conf;
+
+    /** The executor for TCP fallback queries. */
+    private final Executor executor;
+
+    /** The maximum number of outstanding queries. */
+    private final int maxInFlight;
+
+    /** The time to wait for a response in milliseconds. */
+    private final long timeoutMillis;
+
+    /** The number of attempts per query. */
+    private final int attempts;
+
+    /** The UDP socket for all queries. */
+    private final DatagramChannel channel;
+
+    /** The selector of the UDP socket. */
+    private final Selector selector;
+
+    /** The selection key of the UDP socket. */
+    private final SelectionKey key;
+
+    /** Queries submitted by callers, not yet seen by the selector thread. */
+    private final Queue<Query> submitted = new ConcurrentLinkedQueue<>();
+
+    /** Queries waiting for a transaction id. Selector thread only. */
+    private final Queue<Query> waiting = new ArrayDeque<>();
+
+    /** Queries waiting to be sent. Selector thread only. */
+    private final Queue<Query> outgoing = new ArrayDeque<>();
+
+    /** Queries waiting for a response by id. Selector thread only. */
+    private final Map<Integer, Query> pending = new HashMap<>();
+
+    /** The source of transaction ids. Selector thread only. */
+    private final Random random = new SecureRandom();
+
+    /** Receive buffer. Selector thread only. */
+    private final ByteBuffer buffer =
+            ByteBuffer.allocate(DnsMessage.MAX_UDP_SIZE);
+
+    /** The selector thread. */
+    private final Thread thread;
+
+    /** Whether this resolver was closed. */
+    private volatile boolean closed;
+
+    /** State of a single query. */
+    private static final class Query {
+        /** The absolute name to query. */
+        private final String name;
+
+        /** The name to query without trailing dot. */
+        private final String question;
+
+        /** The record type to query. */
+        private final int type;
+
+        /** The future to complete with the response. */
+        private final CompletableFuture<DnsMessage.Response> future =
+                new CompletableFuture<>();
+
+        /** The transaction id. */
+        private int id;
+
+        /** The encoded query. */
+        private ByteBuffer message;
+
+        /** The number of sends so far. */
+        private int sent;
+
+        /** The name server of the last send. */
+        private InetSocketAddress server;
+
+        /** Point in time when the current attempt times out,
+         * in {@link System#nanoTime()} units. */
+        private long deadline;
+
+        /** Constructs a query.
+         * @param inName the absolute name to query.
+         * @param inType the record type to query.
+         */
+        private Query(final String inName, final int inType) {
+            this.name = inName;
+            if (inName.endsWith(".")) {
+                this.question = inName.substring(0, inName.length() - 1);
+            } else {
+                this.question = inName;
+            }
+            this.type = inType;
+        }
+    }
+
+    /** Constructs a resolver with default settings.
+     * @param inConf the name servers and search domains.
+     * @param inExecutor the executor for TCP fallback queries.
+     * @throws IOException if the UDP socket can not be opened.
+     */
+    public StubResolver(final ResolvConf inConf,
+            final Executor inExecutor) throws IOException {
+        this(inConf, inExecutor, DEFAULT_MAX_IN_FLIGHT,
+                DEFAULT_TIMEOUT_MILLIS, DEFAULT_ATTEMPTS);
+    }
+
+    /** Constructs a resolver.
+     * @param inConf the name servers and search domains.
+     * @param inExecutor the executor for TCP fallback queries.
+     * @param inMaxInFlight the maximum number of outstanding queries.
+     * @param inTimeoutMillis the time to wait for a response.
+     * @param inAttempts the number of attempts per query.
+     * @throws IOException if the UDP socket can not be opened.
+     * @throws IllegalArgumentException if one of the numbers is not
+     * positive or there are too many queries in flight.
+     */
+    public StubResolver(final ResolvConf inConf,
+            final Executor inExecutor,
+            final int inMaxInFlight,
+            final long inTimeoutMillis,
+            final int inAttempts) throws IOException {
+        if (inMaxInFlight <= 0 || inMaxInFlight > IDS / 2) {
+            throw new IllegalArgumentException(
+                    "Illegal maxInFlight: " + inMaxInFlight);
+        }
+        if (inTimeoutMillis <= 0 || inAttempts <= 0) {
+            throw new IllegalArgumentException(
+                    "timeout and attempts must be positive");
+        }
+        this.conf = Objects.requireNonNull(inConf);
+        this.executor = Objects.requireNonNull(inExecutor);
+        this.maxInFlight = inMaxInFlight;
+        this.timeoutMillis = inTimeoutMillis;
+        this.attempts = inAttempts;
+        this.channel = DatagramChannel.open();
+        this.channel.configureBlocking(false);
+        this.channel.bind(null);
+        this.selector = Selector.open();
+        this.key = channel.register(selector, SelectionKey.OP_READ);
+        this.thread = new Thread(this::run, "dns-resolver");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    @Override
+    public CompletableFuture<InetAddress[]> lookup(final String name) {
+        InetAddress literal = IpAddresses.toInetAddress(null, name);
+        if (literal != null) {
+            return CompletableFuture.completedFuture(
+                    new InetAddress[] {literal});
+        }
+        return lookup(name, conf.candidates(name), 0);
+    }
+
+    /** Looks up the addresses of a name, trying the candidates
+     * until one has addresses. A failed query of one address family
+     * counts as no addresses of that family, the lookup only fails
+     * if the queries of both families fail.
+     * @param name the name to look up.
+     * @param candidates the absolute names to try.
+     * @param index the index of the candidate to try.
+     * @return the future addresses.
+     */
+    private CompletableFuture<InetAddress[]> lookup(final String name,
+            final List<String> candidates,
+            final int index) {
+        if (index == candidates.size()) {
+            return failed(new UnknownHostException(name));
+        }
+        String candidate = candidates.get(index);
+        CompletableFuture<DnsMessage.Response> v4 =
+                query(candidate, DnsMessage.TYPE_A);
+        CompletableFuture<DnsMessage.Response> v6 =
+                query(candidate, DnsMessage.TYPE_AAAA);
+        return CompletableFuture.allOf(v4, v6)
+                .handle((ignored, ex) -> ex)
+                .thenCompose(ex -> {
+                    if (v4.isCompletedExceptionally()
+                            && v6.isCompletedExceptionally()) {
+                        return failed(ex);
+                    }
+                    // IPv4 first like the JDK resolver by default
+                    List<InetAddress> result = new ArrayList<>();
+                    addAll(result, name, v4);
+                    addAll(result, name, v6);
+                    if (result.isEmpty()) {
+                        return lookup(name, candidates, index + 1);
+                    }
+                    return CompletableFuture.completedFuture(
+                            result.toArray(new InetAddress[result.size()]));
+                });
+    }
+
+    /** Adds the addresses of a response.
+     * @param list the list to add to.
+     * @param name the host name to attach to the addresses.
+     * @param response the completed response. Adds nothing if the
+     *                 query failed.
+     */
+    private static void addAll(final List<InetAddress> list,
+            final String name,
+            final CompletableFuture<DnsMessage.Response> response) {
+        if (response.isCompletedExceptionally()) {
+            log.debug("Ignoring failed query for {}", name);
+            return;
+        }
+        for (byte[] address : response.join().getAddresses()) {
+            try {
+                list.add(InetAddress.getByAddress(name, address));
+            } catch (UnknownHostException ex) {
+                log.debug("Ignoring address of illegal length", ex);
+            }
+        }
+    }
+
+    @Override
+    public CompletableFuture<String> reverse(final InetAddress address) {
+        String literal = address.getHostAddress();
+        return query(DnsMessage.reverseName(address), DnsMessage.TYPE_PTR)
+                .thenCompose(response -> {
+                    if (response.getNames().isEmpty()) {
+                        return CompletableFuture.completedFuture(literal);
+                    }
+                    // like the JDK, only trust names resolving back
+                    String name = response.getNames().get(0);
+                    return lookup(name + ".").thenApply(all -> {
+                        for (InetAddress a : all) {
+                            if (a.equals(address)) {
+                                return name;
+                            }
+                        }
+                        return literal;
+                    });
+                })
+                .exceptionally(ex -> literal);
+    }
+
+    /** Sends a query to the name servers.
+     * @param name the absolute name to query.
+     * @param type the record type to query.
+     * @return the future response. Completes exceptionally with a
+     * {@link SocketTimeoutException} if no name server answered.
+     */
+    CompletableFuture<DnsMessage.Response> query(final String name,
+            final int type) {
+        Query query = new Query(name, type);
+        if (closed) {
+            query.future.completeExceptionally(
+                    new IOException("Resolver is closed"));
+            return query.future;
+        }
+        submitted.add(query);
+        if (closed && submitted.remove(query)) {
+            query.future.completeExceptionally(
+                    new IOException("Resolver is closed"));
+        }
+        selector.wakeup();
+        return query.future;
+    }
+
+    /** The selector thread loop. */
+    private void run() {
+        try {
+            while (!closed) {
+                drainSubmitted();
+                startWaiting();
+                send();
+                selector.select(millisToNextDeadline());
+                if (key.isValid() && key.isReadable()) {
+                    receive();
+                }
+                selector.selectedKeys().clear();
+                expire();
+            }
+        } catch (IOException | ClosedSelectorException ex) {
+            log.warn("Selector failed", ex);
+        } finally {
+            failAll(new IOException("Resolver is closed"));
+        }
+    }
+
+    /** Moves submitted queries to the waiting queue. */
+    private void drainSubmitted() {
+        Query query;
+        while ((query = submitted.poll()) != null) {
+            waiting.add(query);
+        }
+    }
+
+    /** Assigns ids to waiting queries as long as the limit allows. */
+    private void startWaiting() {
+        while (pending.size() < maxInFlight && !waiting.isEmpty()) {
+            Query query = waiting.poll();
+            int id;
+            do {
+                id = random.nextInt(IDS);
+            } while (pending.containsKey(id));
+            try {
+                query.message = DnsMessage.query(id, query.name, query.type);
+            } catch (IllegalArgumentException ex) {
+                query.future.completeExceptionally(
+                        new UnknownHostException(ex.getMessage()));
+                continue;
+            }
+            query.id = id;
+            pending.put(id, query);
+            outgoing.add(query);
+        }
+    }
+
+    /** Sends outgoing queries until the socket buffer is full.
+     * @throws IOException if the socket failed.
+     */
+    private void send() throws IOException {
+        while (!outgoing.isEmpty()) {
+            Query query = outgoing.peek();
+            if (query.future.isDone()) {
+                outgoing.poll();
+                continue;
+            }
+            List<InetSocketAddress> servers = conf.getNameservers();
+            InetSocketAddress server =
+                    servers.get(query.sent % servers.size());
+            query.message.rewind();
+            if (channel.send(query.message, server) == 0) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            outgoing.poll();
+            query.server = server;
+            query.sent++;
+            query.deadline = System.nanoTime()
+                    + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        }
+        key.interestOps(SelectionKey.OP_READ);
+    }
+
+    /** Receives all available responses.
+     * @throws IOException if the socket failed.
+     */
+    private void receive() throws IOException {
+        while (true) {
+            buffer.clear();
+            SocketAddress from = channel.receive(buffer);
+            if (from == null) {
+                return;
+            }
+            buffer.flip();
+            DnsMessage.Response response;
+            try {
+                response = DnsMessage.parse(buffer);
+            } catch (IOException ex) {
+                log.debug("Ignoring bad response from {}", from, ex);
+                continue;
+            }
+            Query query = pending.get(response.getId());
+            if (query == null
+                    || !conf.getNameservers().contains(from)
+                    || query.type != response.getQuestionType()
+                    || !query.question.equalsIgnoreCase(
+                            response.getQuestionName())) {
+                log.debug("Ignoring unexpected response from {}", from);
+                continue;
+            }
+            pending.remove(query.id);
+            if (response.isTruncated()) {
+                queryTcp(query, (InetSocketAddress) from);
+            } else {
+                query.future.complete(response);
+            }
+        }
+    }
+
+    /** Repeats a query over TCP on the executor.
+     * @param query the query to repeat.
+     * @param server the name server to ask.
+     */
+    private void queryTcp(final Query query, final InetSocketAddress server) {
+        ByteBuffer message = query.message.duplicate();
+        message.rewind();
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return tcp(server, message, query.id);
+            } catch (IOException ex) {
+                throw new CompletionException(ex);
+            }
+        }, executor).whenComplete((response, ex) -> {
+            if (ex == null) {
+                query.future.complete(response);
+            } else {
+                query.future.completeExceptionally(ex.getCause());
+            }
+        });
+    }
+
+    /** Sends a query over TCP and reads the response.
+     * @param server the name server to ask.
+     * @param message the encoded query.
+     * @param id the transaction id of the query.
+     * @return the response.
+     * @throws IOException if the query failed.
+     */
+    private DnsMessage.Response tcp(final InetSocketAddress server,
+            final ByteBuffer message,
+            final int id) throws IOException {
+        try (Socket socket = new Socket()) {
+            int timeout = (int) timeoutMillis;
+            socket.connect(server, timeout);
+            socket.setSoTimeout(timeout);
+            byte[] bytes = new byte[message.remaining()];
+            message.get(bytes);
+            DataOutputStream out =
+                    new DataOutputStream(socket.getOutputStream());
+            out.writeShort(bytes.length);
+            out.write(bytes);
+            out.flush();
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            byte[] answer = new byte[in.readUnsignedShort()];
+            in.readFully(answer);
+            DnsMessage.Response response =
+                    DnsMessage.parse(ByteBuffer.wrap(answer));
+            if (response.getId() != id) {
+                throw new IOException("Transaction id mismatch from "
+                        + server);
+            }
+            return response;
+        }
+    }
+
+    /** Retries or fails all queries whose deadline has passed. */
+    private void expire() {
+        long now = System.nanoTime();
+        List<Query> expired = new ArrayList<>();
+        for (Query query : pending.values()) {
+            if (query.sent > 0 && now - query.deadline >= 0) {
+                expired.add(query);
+            }
+        }
+        for (Query query : expired) {
+            if (query.sent < attempts) {
+                // sent again to the next name server, which also
+                // renews the deadline
+                query.deadline = now
+                        + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+                outgoing.add(query);
+            } else {
+                pending.remove(query.id);
+                query.future.completeExceptionally(
+                        new SocketTimeoutException("No answer for "
+                                + query.name + " from " + query.server));
+            }
+        }
+    }
+
+    /** Calculates the select timeout.
+     * @return milliseconds until the next deadline, at least 1, or 0
+     * for an infinite wait if there are no pending queries.
+     */
+    private long millisToNextDeadline() {
+        long now = System.nanoTime();
+        long next = Long.MAX_VALUE;
+        for (Query query : pending.values()) {
+            if (query.sent > 0) {
+                next = Math.min(next, query.deadline - now);
+            }
+        }
+        if (next == Long.MAX_VALUE) {
+            return 0;
+        }
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(next) + 1);
+    }
+
+    /** Creates an exceptionally completed future.
+     * @param ex the exception to complete with.
+     * @param <T> the result type.
+     * @return the failed future.
+     */
+    private static <T> CompletableFuture<T> failed(final Throwable ex) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        result.completeExceptionally(ex);
+        return result;
+    }
+
+    /** Fails all outstanding queries.
+     * @param ex the exception to fail with.
+     */
+    private void failAll(final IOException ex) {
+        drainSubmitted();
+        for (Query query : pending.values()) {
+            query.future.completeExceptionally(ex);
+        }
+        pending.clear();
+        for (Query query : waiting) {
+            query.future.completeExceptionally(ex);
+        }
+        waiting.clear();
+        outgoing.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        selector.close();
+        channel.close();
+    }
+}
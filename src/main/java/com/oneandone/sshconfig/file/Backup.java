@@ -40,8 +40,7 @@ final class Backup {
      * @throws IOException if renaming fails.
      */
     public static void moveToBackup(final Path p) throws IOException {
-        Path parent = p.getParent();
-        Path backup = parent.resolve(p.getFileName() + BACKUP_SUFFIX);
+        Path backup = p.resolveSibling(p.getFileName() + BACKUP_SUFFIX);
 
         if (!Files.exists(p)) {
             log.debug("Does not exist, not backing up: {}", p);
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.file;
+
+/**
+ * Constants of the binary database format, version 4.
+ * <p>
+ * The file starts with the int {@link #MAGIC}, the short
+ * {@link #VERSION} and a reserved short. Each host follows as the
+ * byte {@link #RECORD} and the varint bit set of the present fields,
+ * then the present fields in this order:
+ * the id as two longs, the creation and update dates as epoch
+ * millisecond longs, the fqdn and the name as strings,
+ * the user, the group and the ssh server version as string table
+ * references, and the IP addresses as varint count followed by
+ * the addresses, the date of the last probe as epoch millisecond long,
+ * the varint number of failed probes, the probe latencies as
+ * varint count followed by the varint milliseconds, the address
+ * that answered the last probe and the addresses that did not as
+ * varint count followed by the addresses.
+ * Version 3 files are the same without the last two fields,
+ * version 2 files also lack the latencies and version 1 files
+ * also lack the date of the last probe and the failures.
+ * Strings are a varint byte length followed by the
+ * UTF-8 bytes. A string table reference is either 0 followed by
+ * a string that is appended to the table, or the index in the table
+ * plus one. An address is an {@code IP_} tag byte followed by
+ * the 4 or 16 raw bytes, or a string table reference for addresses
+ * that would not be written back the same way.
+ * The file ends with the byte {@link #END}, the int number of hosts
+ * and the int CRC32 of all bytes before it.
+ * </p>
+ * All numbers are big endian.
+ * @author Stephan Fuhrmann
+ */
+final class BinaryFormat {
+    /** The magic number starting a file, {@code "SSHC"}. */
+    static final int MAGIC = 0x53534843;
+
+    /** The version written. Readers reject newer versions. */
+    static final int VERSION = 4;
+
+    /** The size of the magic, the version and the reserved short. */
+    static final int HEADER_SIZE = 8;
+
+    /** The size of the host count and the checksum. */
+    static final int TRAILER_SIZE = 8;
+
+    /** The tag of a host record. */
+    static final byte RECORD = 1;
+
+    /** The tag of the end of the hosts. */
+    static final byte END = 0;
+
+    /** Field bit of the id. */
+    static final int HAS_ID = 0x0001;
+
+    /** Field bit of the creation date. */
+    static final int HAS_CREATED = 0x0002;
+
+    /** Field bit of the update date. */
+    static final int HAS_UPDATED = 0x0004;
+
+    /** Field bit of the fully qualified domain name. */
+    static final int HAS_FQDN = 0x0008;
+
+    /** Field bit of the name. */
+    static final int HAS_NAME = 0x0010;
+
+    /** Field bit telling that the name is not stored, because it is
+     * the first label of the fqdn. */
+    static final int NAME_IS_LABEL = 0x0020;
+
+    /** Field bit telling that the name is not stored, because it
+     * equals the fqdn. */
+    static final int NAME_IS_FQDN = 0x0040;
+
+    /** Field bit of the enabled flag. */
+    static final int HAS_ENABLED = 0x0080;
+
+    /** Field bit of the value of the enabled flag. */
+    static final int ENABLED = 0x0100;
+
+    /** Field bit of the user. */
+    static final int HAS_USER = 0x0200;
+
+    /** Field bit of the group. */
+    static final int HAS_GROUP = 0x0400;
+
+    /** Field bit of the ssh server version. */
+    static final int HAS_VERSION = 0x0800;
+
+    /** Field bit of the IP addresses. */
+    static final int HAS_IPS = 0x1000;
+
+    /** Field bit of the date of the last probe. */
+    static final int HAS_CHECKED = 0x2000;
+
+    /** Field bit of the number of failed probes. */
+    static final int HAS_FAILURES = 0x4000;
+
+    /** Field bit of the probe latencies. */
+    static final int HAS_LATENCIES = 0x8000;
+
+    /** Field bit of the address that answered the last probe. */
+    static final int HAS_REACHABLE_IP = 0x10000;
+
+    /** Field bit of the addresses that did not answer the last probe. */
+    static final int HAS_UNREACHABLE_IPS = 0x20000;
+
+    /** Address tag of an address kept as string table reference. */
+    static final byte IP_TEXT = 0;
+
+    /** Address tag of a dotted quad IPv4 address. */
+    static final byte IP_V4 = 1;
+
+    /** Address tag of a compressed IPv6 address like {@code 1::2}. */
+    static final byte IP_V6 = 2;
+
+    /** Address tag of a full IPv6 address like {@code 1:0:0:0:0:0:0:2}
+     * as given by {@link java.net.InetAddress#getHostAddress()}. */
+    static final byte IP_V6_FULL = 3;
+
+    /** The payload bits of a varint byte. */
+    static final int VARINT_BITS = 7;
+
+    /** The payload mask of a varint byte. */
+    static final int VARINT_MASK = 0x7f;
+
+    /** The continuation bit of a varint byte. */
+    static final int VARINT_MORE = 0x80;
+
+    /** No instance allowed. */
+    private BinaryFormat() {
+        // no instance
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.file;
+
+import com.oneandone.sshconfig.bind.Host;
+import com.oneandone.sshconfig.validation.IpAddresses;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * Reads hosts in the {@link BinaryFormat binary database format}.
+ * The whole input is checked against its checksum before the first
+ * host is returned.
+ * @author Stephan Fuhrmann
+ */
+final class BinaryHostReader implements HostReader {
+    /** The id of hosts stored without id before it is removed. */
+    private static final UUID NO_ID = new UUID(0, 0);
+
+    /** The input, positioned at the next record tag. */
+    private final ByteBuffer buffer;
+
+    /** The string table in order of appearance. */
+    private final List<String> table = new ArrayList<>();
+
+    /** Scratch space of an IPv4 address. */
+    private final byte[] ipv4 = new byte[IpAddresses.IPV4_LENGTH];
+
+    /** Scratch space of an IPv6 address. */
+    private final byte[] ipv6 = new byte[IpAddresses.IPV6_LENGTH];
+
+    /** Scratch space of strings if the input has no array. */
+    private byte[] chars = new byte[IpAddresses.IPV6_LENGTH];
+
+    /** The number of hosts read. */
+    private int count;
+
+    /** Whether the buffer points to the start of the next host. */
+    private boolean hasNext;
+
+    /** Creates a reader on bytes.
+     * @param input the bytes from the file start to the file end.
+     * @throws IOException if the input is no valid binary database.
+     */
+    BinaryHostReader(final ByteBuffer input) throws IOException {
+        this.buffer = input.slice();
+        int size = buffer.remaining();
+        if (size < BinaryFormat.HEADER_SIZE + 1 + BinaryFormat.TRAILER_SIZE
+                || buffer.getInt(0) != BinaryFormat.MAGIC) {
+            throw new IOException("Not a binary host database");
+        }
+        int version = Short.toUnsignedInt(buffer.getShort(Integer.BYTES));
+        if (version > BinaryFormat.VERSION) {
+            throw new IOException("Unsupported binary database version "
+                    + version);
+        }
+        CRC32 crc = new CRC32();
+        ByteBuffer checked = buffer.duplicate();
+        checked.limit(size - Integer.BYTES);
+        crc.update(checked);
+        if ((int) crc.getValue() != buffer.getInt(size - Integer.BYTES)) {
+            throw new IOException("Checksum mismatch, the binary database"
+                    + " is damaged");
+        }
+        buffer.limit(size - Integer.BYTES);
+        buffer.position(BinaryFormat.HEADER_SIZE);
+        advance();
+    }
+
+    /** Opens a file by mapping it into memory.
+     * @param f the file to read.
+     * @return the reader.
+     * @throws IOException if the file is no valid binary database.
+     */
+    static BinaryHostReader open(final Path f) throws IOException {
+        try (FileChannel channel =
+                     FileChannel.open(f, StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            return new BinaryHostReader(channel.map(
+                    FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /** Moves to the next record.
+     * @throws IOException if the input is malformed.
+     */
+    private void advance() throws IOException {
+        byte tag = buffer.get();
+        if (tag == BinaryFormat.RECORD) {
+            hasNext = true;
+        } else if (tag == BinaryFormat.END) {
+            hasNext = false;
+            int expected = buffer.getInt();
+            if (expected != count) {
+                throw new IOException("Expected " + expected
+                        + " hosts, but found " + count);
+            }
+        } else {
+            throw new IOException("Bad record tag " + tag + " at "
+                    + (buffer.position() - 1));
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return hasNext;
+    }
+
+    @Override
+    public Host next() {
+        if (!hasNext) {
+            throw new NoSuchElementException();
+        }
+        try {
+            Host result = readHost();
+            count++;
+            advance();
+            return result;
+        } catch (IOException ex) {
+            hasNext = false;
+            throw new UncheckedIOException(ex);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException
+                | IllegalArgumentException ex) {
+            hasNext = false;
+            throw new UncheckedIOException(new IOException(
+                    "Malformed host record " + count, ex));
+        }
+    }
+
+    /** Reads the fields of a host record.
+     * @return the host.
+     * @throws IOException if the record is malformed.
+     */
+    private Host readHost() throws IOException {
+        int fields = getVarint();
+        Host h;
+        if ((fields & BinaryFormat.HAS_ID) != 0) {
+            h = new Host(new UUID(buffer.getLong(), buffer.getLong()));
+        } else {
+            h = new Host(NO_ID);
+            h.setId(null);
+        }
+        h.setCreatedAt(getDate(fields, BinaryFormat.HAS_CREATED));
+        h.setUpdatedAt(getDate(fields, BinaryFormat.HAS_UPDATED));
+        String fqdn = null;
+        if ((fields & BinaryFormat.HAS_FQDN) != 0) {
+            fqdn = getString();
+            h.setFqdn(fqdn);
+        }
+        if ((fields & BinaryFormat.NAME_IS_FQDN) != 0) {
+            h.setName(fqdn);
+        } else if ((fields & BinaryFormat.NAME_IS_LABEL) != 0) {
+            h.setName(fqdn.substring(0, fqdn.indexOf('.')));
+        } else if ((fields & BinaryFormat.HAS_NAME) != 0) {
+            h.setName(getString());
+        }
+        if ((fields & BinaryFormat.HAS_ENABLED) != 0) {
+            h.setEnabled((fields & BinaryFormat.ENABLED) != 0);
+        } else {
+            h.setEnabled(null);
+        }
+        if ((fields & BinaryFormat.HAS_USER) != 0) {
+            h.setUser(getReference());
+        }
+        if ((fields & BinaryFormat.HAS_GROUP) != 0) {
+            h.setGroup(getReference());
+        }
+        if ((fields & BinaryFormat.HAS_VERSION) != 0) {
+            h.setSshServerVersion(getReference());
+        }
+        if ((fields & BinaryFormat.HAS_IPS) != 0) {
+            h.setIps(getAddresses());
+        }
+        h.setCheckedAt(getDate(fields, BinaryFormat.HAS_CHECKED));
+        if ((fields & BinaryFormat.HAS_FAILURES) != 0) {
+            h.setFailures(getVarint());
+        }
+        if ((fields & BinaryFormat.HAS_LATENCIES) != 0) {
+            int[] latencies = new int[getVarint()];
+            for (int i = 0; i < latencies.length; i++) {
+                latencies[i] = getVarint();
+            }
+            h.setLatencies(latencies);
+        }
+        if ((fields & BinaryFormat.HAS_REACHABLE_IP) != 0) {
+            h.setReachableIp(getAddress());
+        }
+        if ((fields & BinaryFormat.HAS_UNREACHABLE_IPS) != 0) {
+            h.setUnreachableIps(getAddresses());
+        }
+        return h;
+    }
+
+    /** Gets a varint count followed by as many addresses.
+     * @return the addresses.
+     * @throws IOException if an address is malformed.
+     */
+    private String[] getAddresses() throws IOException {
+        String[] result = new String[getVarint()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = getAddress();
+        }
+        return result;
+    }
+
+    /** Gets an optional date.
+     * @param fields the field bits of the record.
+     * @param bit the bit of the date.
+     * @return the date or {@code null} if it is not present.
+     */
+    private Date getDate(final int fields, final int bit) {
+        if ((fields & bit) == 0) {
+            return null;
+        }
+        return new Date(buffer.getLong());
+    }
+
+    /** Gets an unsigned varint.
+     * @return the value.
+     * @throws IOException if the varint is too long.
+     */
+    private int getVarint() throws IOException {
+        int result = 0;
+        for (int shift = 0; shift < Integer.SIZE;
+                shift += BinaryFormat.VARINT_BITS) {
+            byte b = buffer.get();
+            result |= (b & BinaryFormat.VARINT_MASK) << shift;
+            if ((b & BinaryFormat.VARINT_MORE) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Malformed varint at " + buffer.position());
+    }
+
+    /** Gets a string.
+     * @return the string.
+     * @throws IOException if the string is malformed.
+     */
+    private String getString() throws IOException {
+        int length = getVarint();
+        if (buffer.hasArray()) {
+            String result = new String(buffer.array(),
+                    buffer.arrayOffset() + buffer.position(), length,
+                    StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+            return result;
+        }
+        if (chars.length < length) {
+            chars = new byte[Math.max(length, 2 * chars.length)];
+        }
+        buffer.get(chars, 0, length);
+        return new String(chars, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /** Gets a string table reference.
+     * @return the referenced string.
+     * @throws IOException if the reference is malformed.
+     */
+    private String getReference() throws IOException {
+        int index = getVarint();
+        if (index == 0) {
+            String result = getString();
+            table.add(result);
+            return result;
+        }
+        if (index > table.size()) {
+            throw new IOException("Bad string reference " + index);
+        }
+        return table.get(index - 1);
+    }
+
+    /** Gets an IP address.
+     * @return the address as text.
+     * @throws IOException if the address is malformed.
+     */
+    private String getAddress() throws IOException {
+        byte tag = buffer.get();
+        switch (tag) {
+            case BinaryFormat.IP_V4:
+                buffer.get(ipv4);
+                return IpAddresses.format(ipv4, false);
+            case BinaryFormat.IP_V6:
+                buffer.get(ipv6);
+                return IpAddresses.format(ipv6, true);
+            case BinaryFormat.IP_V6_FULL:
+                buffer.get(ipv6);
+                return IpAddresses.format(ipv6, false);
+            case BinaryFormat.IP_TEXT:
+                return getReference();
+            default:
+                throw new IOException("Bad address tag " + tag);
+        }
+    }
+
+    @Override
+    public void close() {
+        hasNext = false;
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.file;
+
+import com.oneandone.sshconfig.bind.Host;
+import com.oneandone.sshconfig.validation.IpAddresses;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Writes hosts in the {@link BinaryFormat binary database format}.
+ * The target is flushed, but not closed, when this writer is closed.
+ * @author Stephan Fuhrmann
+ */
+final class BinaryHostWriter implements HostWriter {
+    /** The number of bytes to collect before writing them. */
+    private static final int BUFFER_SIZE = 65536;
+
+    /** The size of a varint int at most. */
+    private static final int MAX_VARINT = 5;
+
+    /** The size of a record without strings and addresses at most. */
+    private static final int MAX_FIXED_RECORD = 1 + MAX_VARINT
+            + 2 * Long.BYTES + 2 * Long.BYTES + MAX_VARINT;
+
+    /** The output to write to. */
+    private final OutputStream out;
+
+    /** The checksum of the bytes written. */
+    private final CRC32 crc = new CRC32();
+
+    /** The string table as index by string. */
+    private final Map<String, Integer> table = new HashMap<>();
+
+    /** Scratch space of a parsed address. */
+    private final byte[] address = new byte[IpAddresses.IPV6_LENGTH];
+
+    /** The bytes not written yet. */
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /** The number of hosts written. */
+    private int count;
+
+    /** Creates a writer and writes the header.
+     * @param inOut the output to write to.
+     */
+    BinaryHostWriter(final OutputStream inOut) {
+        this.out = inOut;
+        buffer.putInt(BinaryFormat.MAGIC);
+        buffer.putShort((short) BinaryFormat.VERSION);
+        buffer.putShort((short) 0);
+    }
+
+    @Override
+    public void write(final Host host) throws IOException {
+        int fields = fields(host);
+        ensure(MAX_FIXED_RECORD);
+        buffer.put(BinaryFormat.RECORD);
+        putVarint(fields);
+        if (host.getId() != null) {
+            buffer.putLong(host.getId().getMostSignificantBits());
+            buffer.putLong(host.getId().getLeastSignificantBits());
+        }
+        if (host.getCreatedAt() != null) {
+            buffer.putLong(host.getCreatedAt().getTime());
+        }
+        if (host.getUpdatedAt() != null) {
+            buffer.putLong(host.getUpdatedAt().getTime());
+        }
+        if (host.getFqdn() != null) {
+            putString(host.getFqdn());
+        }
+        int nameBits = BinaryFormat.HAS_NAME | BinaryFormat.NAME_IS_LABEL
+                | BinaryFormat.NAME_IS_FQDN;
+        if ((fields & nameBits) == BinaryFormat.HAS_NAME) {
+            putString(host.getName());
+        }
+        if (host.getUser() != null) {
+            putReference(host.getUser());
+        }
+        if (host.getGroup() != null) {
+            putReference(host.getGroup());
+        }
+        if (host.getSshServerVersion() != null) {
+            putReference(host.getSshServerVersion());
+        }
+        if (host.getIps() != null) {
+            ensure(MAX_VARINT);
+            putVarint(host.getIps().length);
+            for (String ip : host.getIps()) {
+                putAddress(ip);
+            }
+        }
+        ensure(Long.BYTES + MAX_VARINT);
+        if (host.getCheckedAt() != null) {
+            buffer.putLong(host.getCheckedAt().getTime());
+        }
+        if (host.getFailures() != null) {
+            putVarint(host.getFailures());
+        }
+        if (host.getLatencies() != null) {
+            ensure(MAX_VARINT * (1 + host.getLatencies().length));
+            putVarint(host.getLatencies().length);
+            for (int latency : host.getLatencies()) {
+                putVarint(latency);
+            }
+        }
+        if (host.getReachableIp() != null) {
+            putAddress(host.getReachableIp());
+        }
+        if (host.getUnreachableIps() != null) {
+            ensure(MAX_VARINT);
+            putVarint(host.getUnreachableIps().length);
+            for (String ip : host.getUnreachableIps()) {
+                putAddress(ip);
+            }
+        }
+        count++;
+        if (buffer.position() >= BUFFER_SIZE) {
+            flushBuffer();
+        }
+    }
+
+    /** Gets the field bits of a host.
+     * @param host the host to write.
+     * @return the bit set of the present fields.
+     */
+    private static int fields(final Host host) {
+        int fields = 0;
+        if (host.getId() != null) {
+            fields |= BinaryFormat.HAS_ID;
+        }
+        if (host.getCreatedAt() != null) {
+            fields |= BinaryFormat.HAS_CREATED;
+        }
+        if (host.getUpdatedAt() != null) {
+            fields |= BinaryFormat.HAS_UPDATED;
+        }
+        String fqdn = host.getFqdn();
+        String name = host.getName();
+        if (fqdn != null) {
+            fields |= BinaryFormat.HAS_FQDN;
+        }
+        if (name != null) {
+            fields |= BinaryFormat.HAS_NAME;
+            if (name.equals(fqdn)) {
+                fields |= BinaryFormat.NAME_IS_FQDN;
+            } else if (fqdn != null
+                    && fqdn.indexOf('.') == name.length()
+                    && fqdn.startsWith(name)) {
+                fields |= BinaryFormat.NAME_IS_LABEL;
+            }
+        }
+        if (host.getEnabled() != null) {
+            fields |= BinaryFormat.HAS_ENABLED;
+            if (host.getEnabled()) {
+                fields |= BinaryFormat.ENABLED;
+            }
+        }
+        if (host.getUser() != null) {
+            fields |= BinaryFormat.HAS_USER;
+        }
+        if (host.getGroup() != null) {
+            fields |= BinaryFormat.HAS_GROUP;
+        }
+        if (host.getSshServerVersion() != null) {
+            fields |= BinaryFormat.HAS_VERSION;
+        }
+        if (host.getIps() != null) {
+            fields |= BinaryFormat.HAS_IPS;
+        }
+        if (host.getCheckedAt() != null) {
+            fields |= BinaryFormat.HAS_CHECKED;
+        }
+        if (host.getFailures() != null) {
+            fields |= BinaryFormat.HAS_FAILURES;
+        }
+        if (host.getLatencies() != null) {
+            fields |= BinaryFormat.HAS_LATENCIES;
+        }
+        if (host.getReachableIp() != null) {
+            fields |= BinaryFormat.HAS_REACHABLE_IP;
+        }
+        if (host.getUnreachableIps() != null) {
+            fields |= BinaryFormat.HAS_UNREACHABLE_IPS;
+        }
+        return fields;
+    }
+
+    /** Makes room in the buffer.
+     * @param size the number of bytes to make room for.
+     */
+    private void ensure(final int size) {
+        if (buffer.remaining() < size) {
+            ByteBuffer larger = ByteBuffer.allocate(
+                    Math.max(2 * buffer.capacity(),
+                            buffer.position() + size));
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        }
+    }
+
+    /** Puts an unsigned varint.
+     * @param value the value to put.
+     */
+    private void putVarint(final int value) {
+        int rest = value;
+        while ((rest & ~BinaryFormat.VARINT_MASK) != 0) {
+            buffer.put((byte) ((rest & BinaryFormat.VARINT_MASK)
+                    | BinaryFormat.VARINT_MORE));
+            rest >>>= BinaryFormat.VARINT_BITS;
+        }
+        buffer.put((byte) rest);
+    }
+
+    /** Puts a string.
+     * @param s the string to put.
+     */
+    private void putString(final String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        ensure(MAX_VARINT + bytes.length);
+        putVarint(bytes.length);
+        buffer.put(bytes);
+    }
+
+    /** Puts a string table reference, adding the string to the
+     * table if it is new.
+     * @param s the string to put.
+     */
+    private void putReference(final String s) {
+        Integer index = table.get(s);
+        if (index != null) {
+            ensure(MAX_VARINT);
+            putVarint(index + 1);
+            return;
+        }
+        table.put(s, table.size());
+        ensure(1);
+        putVarint(0);
+        putString(s);
+    }
+
+    /** Puts an IP address.
+     * @param ip the address to put.
+     */
+    private void putAddress(final String ip) {
+        int length = IpAddresses.parse(ip, address);
+        ensure(1 + IpAddresses.IPV6_LENGTH);
+        if (length == IpAddresses.IPV4_LENGTH
+                && ip.equals(IpAddresses.format(
+                        Arrays.copyOf(address, length), false))) {
+            buffer.put(BinaryFormat.IP_V4);
+            buffer.put(address, 0, length);
+        } else if (length == IpAddresses.IPV6_LENGTH
+                && ip.equals(IpAddresses.format(address, true))) {
+            buffer.put(BinaryFormat.IP_V6);
+            buffer.put(address);
+        } else if (length == IpAddresses.IPV6_LENGTH
+                && ip.equals(IpAddresses.format(address, false))) {
+            buffer.put(BinaryFormat.IP_V6_FULL);
+            buffer.put(address);
+        } else {
+            buffer.put(BinaryFormat.IP_TEXT);
+            putReference(ip);
+        }
+    }
+
+    /** Writes the collected bytes.
+     * @throws IOException if writing fails.
+     */
+    private void flushBuffer() throws IOException {
+        crc.update(buffer.array(), 0, buffer.position());
+        out.write(buffer.array(), 0, buffer.position());
+        buffer.clear();
+    }
+
+    /** Writes the end of the hosts and flushes the output.
+     * @throws IOException if writing fails.
+     */
+    @Override
+    public void close() throws IOException {
+        ensure(1 + Integer.BYTES);
+        buffer.put(BinaryFormat.END);
+        buffer.putInt(count);
+        flushBuffer();
+        buffer.putInt((int) crc.getValue());
+        out.write(buffer.array(), 0, buffer.position());
+        buffer.clear();
+        out.flush();
+    }
+}
@@ -0,0 +1,546 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.file;
+
+import com.oneandone.sshconfig.bind.Host;
+import com.oneandone.sshconfig.validation.IpAddresses;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.UUID;
+
+/**
+ * A list of hosts stored in columns of primitive arrays instead of
+ * {@link Host} objects. Ids and dates are stored as longs and IP
+ * addresses as their 4 or 16 address bytes. Users, groups and ssh
+ * server versions go through a dictionary, and names that are the
+ * first label of the fqdn are not stored at all.
+ * {@link #get(int)} creates a new {@link Host} on every call,
+ * so changes to it need to be stored with {@link #set(int, Host)}.
+ * Not thread safe.
+ * @author Stephan Fuhrmann
+ */
+final class CompactHostList extends AbstractList<Host>
+        implements RandomAccess {
+    /** The capacity of a new list. */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** The stored value of a {@code null} date. */
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    /** The stored value of a {@code null} number of failures. */
+    private static final int NO_FAILURES = Integer.MIN_VALUE;
+
+    /** The stored value of a {@code null} string. */
+    private static final int NO_STRING = -1;
+
+    /** Flag of a host that has an id. */
+    private static final byte HAS_ID = 0x01;
+
+    /** Flag of a host whose enabled state is not {@code null}. */
+    private static final byte HAS_ENABLED = 0x02;
+
+    /** Flag of an enabled host. */
+    private static final byte ENABLED = 0x04;
+
+    /** Flag of a host whose name is the first label of the fqdn. */
+    private static final byte NAME_IS_LABEL = 0x08;
+
+    /** The multiplier of {@link String#hashCode()}. */
+    private static final int STRING_HASH_MULTIPLIER = 31;
+
+    /** The addresses of a host without addresses. */
+    private static final byte[] NO_IPS = new byte[0];
+
+    /** Strings shared by many hosts, by index. */
+    private final List<String> dictionary = new ArrayList<>();
+
+    /** Indexes into {@link #dictionary} by string. */
+    private final Map<String, Integer> dictionaryIndex = new HashMap<>();
+
+    /** Scratch space to parse an address into. */
+    private final byte[] address = new byte[IpAddresses.IPV6_LENGTH];
+
+    /** Scratch space to format an IPv4 address from. */
+    private final byte[] ipv4 = new byte[IpAddresses.IPV4_LENGTH];
+
+    /** The number of hosts. */
+    private int size;
+
+    /** The most significant bits of the ids. */
+    private long[] idMost = new long[INITIAL_CAPACITY];
+
+    /** The least significant bits of the ids. */
+    private long[] idLeast = new long[INITIAL_CAPACITY];
+
+    /** The creation dates in epoch milliseconds. */
+    private long[] createdAt = new long[INITIAL_CAPACITY];
+
+    /** The update dates in epoch milliseconds. */
+    private long[] updatedAt = new long[INITIAL_CAPACITY];
+
+    /** The dates of the last probes in epoch milliseconds. */
+    private long[] checkedAt = new long[INITIAL_CAPACITY];
+
+    /** The numbers of failed probes. */
+    private int[] failures = new int[INITIAL_CAPACITY];
+
+    /** The probe latencies, {@code null} if there are none. */
+    private int[][] latencies = new int[INITIAL_CAPACITY][];
+
+    /** The packed addresses that answered the last probes. */
+    private byte[][] reachableIps = new byte[INITIAL_CAPACITY][];
+
+    /** The packed addresses that did not answer the last probes. */
+    private byte[][] unreachableIps = new byte[INITIAL_CAPACITY][];
+
+    /** The flags of the hosts. */
+    private byte[] flags = new byte[INITIAL_CAPACITY];
+
+    /** The fully qualified domain names. */
+    private String[] fqdns = new String[INITIAL_CAPACITY];
+
+    /** The names unless they are the first label of the fqdn. */
+    private String[] names = new String[INITIAL_CAPACITY];
+
+    /** The dictionary index of the users. */
+    private int[] users = new int[INITIAL_CAPACITY];
+
+    /** The dictionary index of the groups. */
+    private int[] groups = new int[INITIAL_CAPACITY];
+
+    /** The dictionary index of the ssh server versions. */
+    private int[] versions = new int[INITIAL_CAPACITY];
+
+    /** The packed addresses, see {@link #packIps(String[])}. */
+    private byte[][] ips = new byte[INITIAL_CAPACITY][];
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Host get(final int row) {
+        checkRow(row);
+        Host h;
+        if ((flags[row] & HAS_ID) != 0) {
+            h = new Host(new UUID(idMost[row], idLeast[row]));
+        } else {
+            h = new Host();
+            h.setId(null);
+        }
+        h.setFqdn(fqdns[row]);
+        h.setName(name(row));
+        h.setIps(unpackIps(ips[row]));
+        h.setCreatedAt(date(createdAt[row]));
+        h.setUpdatedAt(date(updatedAt[row]));
+        h.setSshServerVersion(string(versions[row]));
+        if ((flags[row] & HAS_ENABLED) != 0) {
+            h.setEnabled((flags[row] & ENABLED) != 0);
+        } else {
+            h.setEnabled(null);
+        }
+        h.setUser(string(users[row]));
+        h.setGroup(string(groups[row]));
+        h.setCheckedAt(date(checkedAt[row]));
+        if (failures[row] != NO_FAILURES) {
+            h.setFailures(failures[row]);
+        }
+        if (latencies[row] != null) {
+            h.setLatencies(latencies[row].clone());
+        }
+        if (reachableIps[row] != null) {
+            h.setReachableIp(unpackIps(reachableIps[row])[0]);
+        }
+        h.setUnreachableIps(unpackIps(unreachableIps[row]));
+        return h;
+    }
+
+    @Override
+    public Host set(final int row, final Host h) {
+        Host previous = get(row);
+        store(row, h);
+        return previous;
+    }
+
+    @Override
+    public void add(final int row, final Host h) {
+        if (row < 0 || row > size) {
+            throw new IndexOutOfBoundsException("Row " + row
+                    + ", size " + size);
+        }
+        if (size == flags.length) {
+            grow();
+        }
+        if (row < size) {
+            shift(row, row + 1, size - row);
+        }
+        size++;
+        modCount++;
+        store(row, h);
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(fqdns, 0, size, null);
+        Arrays.fill(names, 0, size, null);
+        Arrays.fill(ips, 0, size, null);
+        Arrays.fill(latencies, 0, size, null);
+        Arrays.fill(reachableIps, 0, size, null);
+        Arrays.fill(unreachableIps, 0, size, null);
+        size = 0;
+        modCount++;
+    }
+
+    /** Gets the fully qualified domain name of a host without
+     * creating the host.
+     * @param row the row of the host.
+     * @return the fqdn, possibly {@code null}.
+     */
+    String fqdn(final int row) {
+        checkRow(row);
+        return fqdns[row];
+    }
+
+    /** Gets the name of a host without creating the host.
+     * @param row the row of the host.
+     * @return the name, possibly {@code null}.
+     */
+    String name(final int row) {
+        checkRow(row);
+        if ((flags[row] & NAME_IS_LABEL) != 0) {
+            return fqdns[row].substring(0, fqdns[row].indexOf('.'));
+        }
+        return names[row];
+    }
+
+    /** Gets the hash code of the name of a host without creating
+     * the name.
+     * @param row the row of the host.
+     * @return the {@link String#hashCode()} of the name, or 0 for
+     * {@code null}.
+     */
+    int nameHash(final int row) {
+        checkRow(row);
+        if ((flags[row] & NAME_IS_LABEL) == 0) {
+            return names[row] == null ? 0 : names[row].hashCode();
+        }
+        String fqdn = fqdns[row];
+        int hash = 0;
+        for (int i = 0; fqdn.charAt(i) != '.'; i++) {
+            hash = STRING_HASH_MULTIPLIER * hash + fqdn.charAt(i);
+        }
+        return hash;
+    }
+
+    /** Compares the name of a host without creating the name.
+     * @param row the row of the host.
+     * @param name the name to compare with, may be {@code null}.
+     * @return whether the host has the name.
+     */
+    boolean nameEquals(final int row, final String name) {
+        checkRow(row);
+        if ((flags[row] & NAME_IS_LABEL) == 0) {
+            return names[row] == null
+                    ? name == null : names[row].equals(name);
+        }
+        String fqdn = fqdns[row];
+        return name != null
+                && fqdn.length() > name.length()
+                && fqdn.charAt(name.length()) == '.'
+                && fqdn.startsWith(name);
+    }
+
+    /** Whether a host has an id.
+     * @param row the row of the host.
+     * @return {@code true} if the id is not {@code null}.
+     */
+    boolean hasId(final int row) {
+        checkRow(row);
+        return (flags[row] & HAS_ID) != 0;
+    }
+
+    /** Gets the most significant bits of the id of a host.
+     * @param row the row of the host.
+     * @return the bits, 0 if the host has no id.
+     */
+    long idMost(final int row) {
+        checkRow(row);
+        return idMost[row];
+    }
+
+    /** Gets the least significant bits of the id of a host.
+     * @param row the row of the host.
+     * @return the bits, 0 if the host has no id.
+     */
+    long idLeast(final int row) {
+        checkRow(row);
+        return idLeast[row];
+    }
+
+    /** Checks that a row exists.
+     * @param row the row to check.
+     * @throws IndexOutOfBoundsException if there is no such row.
+     */
+    private void checkRow(final int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row
+                    + ", size " + size);
+        }
+    }
+
+    /** Stores the fields of a host in a row.
+     * @param row the row to store to.
+     * @param h the host to store.
+     */
+    private void store(final int row, final Host h) {
+        byte flag = 0;
+        if (h.getId() != null) {
+            flag |= HAS_ID;
+            idMost[row] = h.getId().getMostSignificantBits();
+            idLeast[row] = h.getId().getLeastSignificantBits();
+        } else {
+            idMost[row] = 0;
+            idLeast[row] = 0;
+        }
+        if (h.getEnabled() != null) {
+            flag |= HAS_ENABLED;
+            if (h.getEnabled()) {
+                flag |= ENABLED;
+            }
+        }
+        String fqdn = h.getFqdn();
+        String name = h.getName();
+        int dot = fqdn != null ? fqdn.indexOf('.') : -1;
+        if (name != null && dot == name.length() && fqdn.startsWith(name)) {
+            flag |= NAME_IS_LABEL;
+            name = null;
+        }
+        flags[row] = flag;
+        fqdns[row] = fqdn;
+        names[row] = name;
+        createdAt[row] = millis(h.getCreatedAt());
+        updatedAt[row] = millis(h.getUpdatedAt());
+        users[row] = intern(h.getUser());
+        groups[row] = intern(h.getGroup());
+        versions[row] = intern(h.getSshServerVersion());
+        ips[row] = packIps(h.getIps());
+        checkedAt[row] = millis(h.getCheckedAt());
+        if (h.getFailures() != null) {
+            failures[row] = h.getFailures();
+        } else {
+            failures[row] = NO_FAILURES;
+        }
+        if (h.getLatencies() != null) {
+            latencies[row] = h.getLatencies().clone();
+        } else {
+            latencies[row] = null;
+        }
+        if (h.getReachableIp() != null) {
+            reachableIps[row] = packIps(new String[] {h.getReachableIp()});
+        } else {
+            reachableIps[row] = null;
+        }
+        unreachableIps[row] = packIps(h.getUnreachableIps());
+    }
+
+    /** Doubles the capacity of all columns. */
+    private void grow() {
+        int capacity = 2 * flags.length;
+        idMost = Arrays.copyOf(idMost, capacity);
+        idLeast = Arrays.copyOf(idLeast, capacity);
+        createdAt = Arrays.copyOf(createdAt, capacity);
+        updatedAt = Arrays.copyOf(updatedAt, capacity);
+        checkedAt = Arrays.copyOf(checkedAt, capacity);
+        failures = Arrays.copyOf(failures, capacity);
+        latencies = Arrays.copyOf(latencies, capacity);
+        reachableIps = Arrays.copyOf(reachableIps, capacity);
+        unreachableIps = Arrays.copyOf(unreachableIps, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+        fqdns = Arrays.copyOf(fqdns, capacity);
+        names = Arrays.copyOf(names, capacity);
+        users = Arrays.copyOf(users, capacity);
+        groups = Arrays.copyOf(groups, capacity);
+        versions = Arrays.copyOf(versions, capacity);
+        ips = Arrays.copyOf(ips, capacity);
+    }
+
+    /** Moves rows within all columns.
+     * @param from the first row to move.
+     * @param to the row to move the first row to.
+     * @param count the number of rows to move.
+     */
+    private void shift(final int from, final int to, final int count) {
+        System.arraycopy(idMost, from, idMost, to, count);
+        System.arraycopy(idLeast, from, idLeast, to, count);
+        System.arraycopy(createdAt, from, createdAt, to, count);
+        System.arraycopy(updatedAt, from, updatedAt, to, count);
+        System.arraycopy(checkedAt, from, checkedAt, to, count);
+        System.arraycopy(failures, from, failures, to, count);
+        System.arraycopy(latencies, from, latencies, to, count);
+        System.arraycopy(reachableIps, from, reachableIps, to, count);
+        System.arraycopy(unreachableIps, from, unreachableIps, to, count);
+        System.arraycopy(flags, from, flags, to, count);
+        System.arraycopy(fqdns, from, fqdns, to, count);
+        System.arraycopy(names, from, names, to, count);
+        System.arraycopy(users, from, users, to, count);
+        System.arraycopy(groups, from, groups, to, count);
+        System.arraycopy(versions, from, versions, to, count);
+        System.arraycopy(ips, from, ips, to, count);
+    }
+
+    /** Converts a date to stored milliseconds.
+     * @param date the date, may be {@code null}.
+     * @return the epoch milliseconds or {@link #NO_DATE}.
+     */
+    private static long millis(final Date date) {
+        return date != null ? date.getTime() : NO_DATE;
+    }
+
+    /** Converts stored milliseconds to a date.
+     * @param millis the epoch milliseconds or {@link #NO_DATE}.
+     * @return the date, may be {@code null}.
+     */
+    private static Date date(final long millis) {
+        return millis != NO_DATE ? new Date(millis) : null;
+    }
+
+    /** Gets the dictionary index of a string, adding it if needed.
+     * @param s the string, may be {@code null}.
+     * @return the index or {@link #NO_STRING}.
+     */
+    private int intern(final String s) {
+        if (s == null) {
+            return NO_STRING;
+        }
+        Integer index = dictionaryIndex.get(s);
+        if (index == null) {
+            index = dictionary.size();
+            dictionary.add(s);
+            dictionaryIndex.put(s, index);
+        }
+        return index;
+    }
+
+    /** Gets a string from the dictionary.
+     * @param index the index or {@link #NO_STRING}.
+     * @return the string, may be {@code null}.
+     */
+    private String string(final int index) {
+        return index != NO_STRING ? dictionary.get(index) : null;
+    }
+
+    /** Packs addresses like the {@link BinaryFormat binary format}:
+     * each address is an {@code IP_} tag byte followed by the address
+     * bytes, or by the int dictionary index of addresses that would
+     * not be formatted back to the same text.
+     * @param in the addresses, may be {@code null}.
+     * @return the packed addresses or {@code null}.
+     */
+    private byte[] packIps(final String[] in) {
+        if (in == null) {
+            return null;
+        }
+        if (in.length == 0) {
+            return NO_IPS;
+        }
+        byte[] result = new byte[in.length * (1 + IpAddresses.IPV6_LENGTH)];
+        int pos = 0;
+        for (String ip : in) {
+            int length = IpAddresses.parse(ip, address);
+            byte tag;
+            if (length == IpAddresses.IPV4_LENGTH) {
+                System.arraycopy(address, 0, ipv4, 0, length);
+            }
+            if (length == IpAddresses.IPV4_LENGTH
+                    && ip.equals(IpAddresses.format(ipv4, false))) {
+                tag = BinaryFormat.IP_V4;
+            } else if (length == IpAddresses.IPV6_LENGTH
+                    && ip.equals(IpAddresses.format(address, true))) {
+                tag = BinaryFormat.IP_V6;
+            } else if (length == IpAddresses.IPV6_LENGTH
+                    && ip.equals(IpAddresses.format(address, false))) {
+                tag = BinaryFormat.IP_V6_FULL;
+            } else {
+                tag = BinaryFormat.IP_TEXT;
+                length = Integer.BYTES;
+                int index = intern(ip);
+                for (int i = 0; i < length; i++) {
+                    address[i] = (byte) (index >>> (Byte.SIZE * i));
+                }
+            }
+            result[pos++] = tag;
+            System.arraycopy(address, 0, result, pos, length);
+            pos += length;
+        }
+        return Arrays.copyOf(result, pos);
+    }
+
+    /** Unpacks addresses packed by {@link #packIps(String[])}.
+     * @param in the packed addresses or {@code null}.
+     * @return the addresses as text or {@code null}.
+     */
+    private String[] unpackIps(final byte[] in) {
+        if (in == null) {
+            return null;
+        }
+        int count = 0;
+        for (int pos = 0; pos < in.length; pos += 1 + length(in[pos])) {
+            count++;
+        }
+        String[] result = new String[count];
+        int pos = 0;
+        for (int i = 0; i < count; i++) {
+            byte tag = in[pos++];
+            int length = length(tag);
+            if (tag == BinaryFormat.IP_TEXT) {
+                int index = 0;
+                for (int j = 0; j < length; j++) {
+                    index |= Byte.toUnsignedInt(in[pos + j]) << (Byte.SIZE * j);
+                }
+                result[i] = dictionary.get(index);
+            } else {
+                byte[] bytes = Arrays.copyOfRange(in, pos, pos + length);
+                result[i] = IpAddresses.format(bytes,
+                        tag == BinaryFormat.IP_V6);
+            }
+            pos += length;
+        }
+        return result;
+    }
+
+    /** Gets the length of a packed address after its tag.
+     * @param tag the {@code IP_} tag of the address.
+     * @return the number of bytes following the tag.
+     */
+    private static int length(final byte tag) {
+        switch (tag) {
+            case BinaryFormat.IP_V4:
+                return IpAddresses.IPV4_LENGTH;
+            case BinaryFormat.IP_TEXT:
+                return Integer.BYTES;
+            default:
+                return IpAddresses.IPV6_LENGTH;
+        }
+    }
+}
@@ -15,14 +15,19 @@
  */
 package com.oneandone.sshconfig.file;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.oneandone.sshconfig.bind.Host;
+import com.oneandone.sshconfig.metrics.Histogram;
+import com.oneandone.sshconfig.metrics.Metrics;
 import com.oneandone.sshconfig.validation.ValidationDelegate;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
 import java.io.Writer;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -31,45 +36,101 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
 
 /**
  * Stores all {@link Host} records to a file.
+ * Optionally, changed hosts are appended to a {@link Journal} next to
+ * the file instead of rewriting the whole file on every save.
+ * A {@link SearchIndex} of the host names is kept next to the file.
  * @author Stephan Fuhrmann
  */
 @Slf4j
-public final class Database {
+public final class Database implements Closeable {
+    /** The minimum bytes of the journal before it is compacted. */
+    private static final long MIN_COMPACT_SIZE = 0x100000;
+
+    /** The time to read the file and replay the journal. */
+    private static final Histogram READ_TIME = Metrics.histogram(
+            "sshconfig_database_read_seconds",
+            "Time to read the database and replay its journal.");
+
+    /** The time to validate all hosts before writing the file. */
+    private static final Histogram VALIDATE_TIME = Metrics.histogram(
+            "sshconfig_database_validate_seconds",
+            "Time to validate all hosts before writing the database.");
+
+    /** The time to write the file. */
+    private static final Histogram WRITE_TIME = Metrics.histogram(
+            "sshconfig_database_write_seconds",
+            "Time to write the database file.");
+
+    /** The time to write the search index. */
+    private static final Histogram INDEX_TIME = Metrics.histogram(
+            "sshconfig_index_write_seconds",
+            "Time to write the search index.");
+
     /** The file to load/store to. */
     private final Path database;
 
+    /** The format of the {@link #database} file. */
+    private final DatabaseFormat format;
+
     /** The current version of the host list. */
-    private List<Host> list;
+    private final CompactHostList list = new CompactHostList();
+
+    /** Indexes on {@link #list}. */
+    private final HostIndex index = new HostIndex(list);
 
     /** Bean validation delegate. */
     private ValidationDelegate validationDelegate;
 
+    /** Whether the hosts differ from the file and journal contents. */
+    private boolean dirty;
+
+    /** Whether the hosts differ from the search index file. */
+    private boolean indexStale;
+
+    /** The journal to append changed hosts to, or {@code null} if
+     * every save rewrites the file. */
+    private Journal journal;
+
+    /** Whether the database may not be saved, because it was read
+     * without holding the {@link DatabaseLock}. */
+    private boolean readOnly;
+
     /** Creates a database referring to the given file system path.
      * @param inDatabase the file system path to relate to.
+     * @param inFormat the format of the file.
      */
-    private Database(final Path inDatabase) {
+    private Database(final Path inDatabase, final DatabaseFormat inFormat) {
         this.validationDelegate = new ValidationDelegate();
         this.database = Objects.requireNonNull(inDatabase);
+        this.format = Objects.requireNonNull(inFormat);
     }
 
-    /** Clean up hosts, generate synthetical fields. */
-    private void sanitize() {
-        for (Host h : list) {
-            if (h.getCreatedAt() == null) {
-                h.setCreatedAt(new Date());
-            }
-            if (h.getUpdatedAt() == null) {
-                h.setUpdatedAt(h.getCreatedAt());
-            }
-            if (h.getEnabled() == null) {
-                h.setEnabled(Boolean.TRUE);
-            }
-
-            validationDelegate.verify(h);
+    /** Clean up a host read from the file, generate synthetical fields
+     * and append it to the list.
+     * Marks the database dirty if the host was changed.
+     * @param h the host to clean up and append.
+     */
+    private void sanitizeAndAdd(final Host h) {
+        if (h.getCreatedAt() == null) {
+            h.setCreatedAt(new Date());
+            dirty = true;
+        }
+        if (h.getUpdatedAt() == null) {
+            h.setUpdatedAt(h.getCreatedAt());
+            dirty = true;
+        }
+        if (h.getEnabled() == null) {
+            h.setEnabled(Boolean.TRUE);
+            dirty = true;
         }
+        list.add(h);
     }
 
     /** Read list of hosts from a file.
@@ -79,46 +140,302 @@ public final class Database {
      * @throws javax.validation.ValidationException if the list is invalid.
      */
     public static List<Host> readList(final Reader reader) throws IOException {
-        ObjectMapper mapper = new ObjectMapper();
-        List<Host> hostList = mapper.readValue(
-                reader,
-                new TypeReference<List<Host>>() {
-                });
+        List<Host> hostList = new ArrayList<>();
+        try (JsonHostReader hostReader = new JsonHostReader(reader)) {
+            readAll(hostReader, hostList::add);
+        }
         ValidationDelegate validationDelegate = new ValidationDelegate();
-        validationDelegate.verify(hostList);
+        for (Host h : hostList) {
+            validationDelegate.verify(h);
+        }
         return hostList;
     }
 
+    /** Reads all remaining hosts of a streaming reader.
+     * @param hostReader the reader to read from.
+     * @param consumer the consumer of the hosts read.
+     * @throws IOException if reading fails.
+     */
+    private static void readAll(final HostReader hostReader,
+            final Consumer<Host> consumer) throws IOException {
+        try {
+            while (hostReader.hasNext()) {
+                consumer.accept(hostReader.next());
+            }
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    /** Open a database file for streaming the hosts one by one.
+     * The format is chosen by the {@link DatabaseFormat#forPath(Path)
+     * file name}.
+     * @param f the path to read the database from.
+     * @return a reader iterating the hosts of the file, or no hosts
+     * if the file does not exist. Needs to be closed by the caller.
+     * @throws IOException if the database exists, but couldn't be read.
+     * @see #stream(Path, DatabaseFormat)
+     */
+    public static HostReader stream(final Path f) throws IOException {
+        return stream(f, DatabaseFormat.forPath(f));
+    }
+
+    /** Open a database file for streaming the hosts one by one.
+     * Use this instead of {@link #fromPath(Path, DatabaseFormat)}
+     * to process large databases with bounded memory.
+     * @param f the path to read the database from.
+     * @param fileFormat the format of the file.
+     * @return a reader iterating the hosts of the file, or no hosts
+     * if the file does not exist. Needs to be closed by the caller.
+     * @throws IOException if the database exists, but couldn't be read.
+     */
+    public static HostReader stream(final Path f,
+            final DatabaseFormat fileFormat) throws IOException {
+        if (Files.exists(f)) {
+            return fileFormat.reader(f);
+        }
+        return new JsonHostReader(new StringReader("[]"));
+    }
+
     /** Read database from a file.
+     * The format is chosen by the {@link DatabaseFormat#forPath(Path)
+     * file name}.
      * @param f the path to read the database from.
      * @return the read database if the file exists or an empty database.
      * @throws IOException if the database exists, but couldn't be read.
+     * @see #fromPath(Path, DatabaseFormat)
      */
     public static Database fromPath(final Path f) throws IOException {
-        Database db = new Database(f);
-        if (Files.exists(f)) {
-            ObjectMapper mapper = new ObjectMapper();
-            db.list = mapper.readValue(
-                    f.toFile(),
-                    new TypeReference<List<Host>>() { });
-            // db.sanitize();
-        } else {
-            db.list = new ArrayList<>();
+        return fromPath(f, DatabaseFormat.forPath(f));
+    }
+
+    /** Read database from a file.
+     * @param f the path to read the database from.
+     * @param fileFormat the format to read and save the file in.
+     * @return the read database if the file exists or an empty database.
+     * @throws IOException if the database exists, but couldn't be read.
+     */
+    public static Database fromPath(final Path f,
+            final DatabaseFormat fileFormat) throws IOException {
+        return fromPath(f, fileFormat, false);
+    }
+
+    /** Read database from a file and replay its journal.
+     * Without journaling, a journal left by an earlier run is replayed
+     * and merged into the file on the next {@link #save()}.
+     * @param f the path to read the database from.
+     * @param fileFormat the format to read and save the file in.
+     * @param journaled whether to append changed hosts to the journal
+     *                  and only rewrite the file when compacting.
+     *                  The database needs to be closed then.
+     * @return the read database if the file exists or an empty database.
+     * @throws IOException if the database exists, but couldn't be read.
+     */
+    public static Database fromPath(final Path f,
+            final DatabaseFormat fileFormat,
+            final boolean journaled) throws IOException {
+        return read(f, fileFormat, journaled, false);
+    }
+
+    /** Read database from a file and replay its journal in memory
+     * for reading only. Neither the file nor the journal are changed,
+     * so no {@link DatabaseLock} is needed, and {@link #save()} fails.
+     * Another process may append to the journal meanwhile, its later
+     * records are not seen.
+     * @param f the path to read the database from.
+     * @param fileFormat the format of the file.
+     * @return the read database if the file exists or an empty database.
+     * @throws IOException if the database exists, but couldn't be read.
+     */
+    public static Database readOnly(final Path f,
+            final DatabaseFormat fileFormat) throws IOException {
+        return read(f, fileFormat, false, true);
+    }
+
+    /** Read database from a file and replay its journal.
+     * @param f the path to read the database from.
+     * @param fileFormat the format to read and save the file in.
+     * @param journaled whether to append changed hosts to the journal.
+     * @param inReadOnly whether saving is forbidden.
+     * @return the read database if the file exists or an empty database.
+     * @throws IOException if the database exists, but couldn't be read.
+     */
+    private static Database read(final Path f,
+            final DatabaseFormat fileFormat,
+            final boolean journaled,
+            final boolean inReadOnly) throws IOException {
+        long start = System.nanoTime();
+        Database db = new Database(f, fileFormat);
+        db.readOnly = inReadOnly;
+        try (HostReader hostReader = stream(f, fileFormat)) {
+            readAll(hostReader, db::sanitizeAndAdd);
         }
+        db.reindex();
+        db.indexStale = !SearchIndex.isCurrent(SearchIndex.pathOf(f), f);
+        Path journalFile = Journal.pathOf(f);
+        if (journaled) {
+            db.journal = Journal.open(journalFile, db::replay);
+        } else if (Files.exists(journalFile)) {
+            Journal.replay(journalFile, db::replay);
+            db.dirty = !inReadOnly;
+        }
+        READ_TIME.recordSince(start);
         return db;
     }
 
-    /** Save database to a file.
+    /** Whether a database file has a journal that is not merged yet.
+     * Streaming the file does not see the hosts of the journal.
+     * @param f the path of the database file.
+     * @return {@code true} if there is a journal next to the file.
+     */
+    public static boolean hasJournal(final Path f) {
+        return Files.exists(Journal.pathOf(f));
+    }
+
+    /** Applies a host of the journal. Replaces the host with the same
+     * id or adds it, so replaying a host twice changes nothing.
+     * @param h the host read from the journal.
+     */
+    private void replay(final Host h) {
+        Integer row = index.rowById(h.getId());
+        if (row == null) {
+            list.add(h);
+            index.add(list.size() - 1);
+        } else {
+            set(row, h);
+        }
+    }
+
+    /** Save database to a file. Does nothing if no host changed
+     * since the database was read or last saved.
+     * With a journal, the file is only rewritten when the journal
+     * grew over half the size of the file, and the journal is
+     * emptied afterwards.
+     * The search index is written whenever it misses changes.
+     * Other processes must be kept out with a {@link DatabaseLock}.
      * @throws IOException if the database could not be written.
+     * @throws IllegalStateException if the database was read
+     * {@link #readOnly(Path, DatabaseFormat) for reading only}.
      * @see #database
+     * @see #isDirty()
      */
     public void save() throws IOException {
-        validationDelegate.verify(list);
-        sanitize();
+        if (readOnly) {
+            throw new IllegalStateException("The database " + database
+                    + " was read for reading only");
+        }
+        if (journal != null && !dirty) {
+            journal.force();
+            long fileSize = Files.exists(database) ? Files.size(database) : 0;
+            if (journal.size() < Math.max(MIN_COMPACT_SIZE, fileSize / 2)) {
+                log.debug("Journal has {} bytes, not compacting {}",
+                        journal.size(), database);
+                saveIndex();
+                return;
+            }
+            log.info("Compacting journal with {} bytes into {}",
+                    journal.size(), database);
+        } else if (!dirty && Files.exists(database)) {
+            log.debug("Database unchanged, not saving {}", database);
+            saveIndex();
+            return;
+        }
+        long start = System.nanoTime();
+        for (Host h : list) {
+            validationDelegate.verify(h);
+        }
+        VALIDATE_TIME.recordSince(start);
 
-        ObjectMapper mapper = new ObjectMapper();
+        start = System.nanoTime();
         Backup.moveToBackup(database);
-        mapper.writeValue(database.toFile(), list);
+        try (OutputStream os = new BufferedOutputStream(
+                Files.newOutputStream(database));
+             HostWriter hostWriter = format.writer(os)) {
+            for (Host h : list) {
+                hostWriter.write(h);
+            }
+        }
+        WRITE_TIME.recordSince(start);
+        dirty = false;
+        if (journal != null) {
+            journal.reset();
+        } else {
+            Files.deleteIfExists(Journal.pathOf(database));
+        }
+        indexStale = true;
+        saveIndex();
+    }
+
+    /** Writes the {@link SearchIndex} if it misses changes.
+     * Called by {@link #save()}, so only needed to write the index
+     * without saving the database.
+     * @throws IOException if writing fails.
+     */
+    public void saveIndex() throws IOException {
+        if (!indexStale) {
+            return;
+        }
+        long start = System.nanoTime();
+        SearchIndex.write(SearchIndex.pathOf(database), list);
+        INDEX_TIME.recordSince(start);
+        indexStale = false;
+    }
+
+    /** Closes the journal. Unsaved changes that are not in the
+     * journal are lost.
+     * @throws IOException if closing the journal fails.
+     */
+    @Override
+    public void close() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+    }
+
+    /** Converts a database file to another file without loss.
+     * The hosts are streamed one by one and neither sanitized
+     * nor validated.
+     * @param from the file to read.
+     * @param fromFormat the format of the file to read.
+     * @param to the file to write. An existing file is backed up.
+     * @param toFormat the format of the file to write.
+     * @return the number of hosts converted.
+     * @throws IOException if reading or writing fails.
+     */
+    public static int convert(final Path from,
+            final DatabaseFormat fromFormat,
+            final Path to,
+            final DatabaseFormat toFormat) throws IOException {
+        if (Files.exists(to) && Files.isSameFile(from, to)) {
+            throw new IOException("Can not convert " + from
+                    + " to itself");
+        }
+        int count = 0;
+        try (HostReader hostReader = stream(from, fromFormat)) {
+            Backup.moveToBackup(to);
+            try (OutputStream os = new BufferedOutputStream(
+                    Files.newOutputStream(to));
+                 HostWriter hostWriter = toFormat.writer(os)) {
+                while (hostReader.hasNext()) {
+                    hostWriter.write(hostReader.next());
+                    count++;
+                }
+            }
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+        return count;
+    }
+
+    /** Whether the hosts in memory differ from the database file
+     * and its journal.
+     * @return {@code true} if hosts were added or changed since the
+     * database was read or last saved, and the changes are not in
+     * the journal.
+     */
+    public boolean isDirty() {
+        return dirty;
     }
 
     /** Save database to a writer.
@@ -130,35 +447,146 @@ public final class Database {
      */
     public static void save(final Writer output,
                      final List<Host> hostList) throws IOException {
-        ValidationDelegate validationDelegate = new ValidationDelegate();
-        validationDelegate.verify(hostList);
-        ObjectMapper mapper = new ObjectMapper();
-        mapper.writeValue(output, hostList);
+        try (JsonHostWriter hostWriter = new JsonHostWriter(output)) {
+            for (Host h : hostList) {
+                hostWriter.write(h);
+            }
+        }
+    }
+
+    /** Rebuilds the {@link #index} from the {@link #list}. */
+    private void reindex() {
+        index.clear();
+        for (int row = 0; row < list.size(); row++) {
+            index.add(row);
+        }
+    }
+
+    /** Replaces the host in a row and updates the {@link #index}.
+     * @param row the row to replace.
+     * @param h the new state of the host.
+     */
+    private void set(final int row, final Host h) {
+        index.remove(row);
+        list.set(row, h);
+        index.add(row);
+    }
+
+    /** Finds the row of a known host. Hosts are matched by fqdn first
+     * and by id second, so a host whose fqdn changed is still found.
+     * @param h the host to find.
+     * @return the row of the known host or {@code null} if the host
+     * is unknown.
+     */
+    private Integer rowOf(final Host h) {
+        Integer row = index.rowByFqdn(h.getFqdn());
+        if (row == null) {
+            row = index.rowById(h.getId());
+        }
+        return row;
     }
 
     /** Update internal database with the given list of hosts.
      * Hosts will either be updated or inserted.
      * @param in the hosts to update. Known hosts will not be added, unknown
      * hosts will be added.
+     * Changes of the {@link Host#updateProbeFrom(Host) probing fields}
+     * alone are saved, but not counted.
+     * @return the number of hosts that were added or actually changed.
+     * @throws IOException if appending to the journal fails.
      */
-    public void update(final List<Host> in) {
+    public int update(final List<Host> in) throws IOException {
         log.debug("Updating {} hosts with {} inputs",
                 list.size(), in.size());
+        int changedHosts = 0;
+        boolean touched = false;
         for (Host h : in) {
             validationDelegate.verify(h);
-            int index = list.indexOf(h);
-            if (index == -1) {
+            Integer row = rowOf(h);
+            if (row == null) {
                 log.info("Adding unknown host {}", h.getFqdn());
                 list.add(h);
+                index.add(list.size() - 1);
+                journal(h);
+                changedHosts++;
             } else {
-                log.info("Updating known host {}", h.getFqdn());
-                Host update = list.get(index);
-                update.updateHostFrom(h);
+                Host update = list.get(row);
+                Set<String> changed = update.updateHostFrom(h);
+                boolean probed = update.updateProbeFrom(h);
+                if (!changed.isEmpty()) {
+                    log.info("Updating known host {}, changed {}",
+                            h.getFqdn(), changed);
+                    changedHosts++;
+                } else {
+                    log.debug("Known host {} unchanged", h.getFqdn());
+                }
+                if (!changed.isEmpty() || probed) {
+                    set(row, update);
+                    journal(update);
+                    touched = true;
+                }
             }
         }
+        if (changedHosts > 0) {
+            indexStale = true;
+        }
+        if ((changedHosts > 0 || touched) && journal == null) {
+            dirty = true;
+        }
+        return changedHosts;
+    }
+
+    /** Appends a changed host to the journal if there is one.
+     * @param h the host in its new state.
+     * @throws IOException if appending fails.
+     */
+    private void journal(final Host h) throws IOException {
+        if (journal != null) {
+            journal.append(h);
+        }
+    }
+
+    /** Finds a host by its id.
+     * @param id the id of the host.
+     * @return a copy of the host or an empty optional if there is none.
+     */
+    public Optional<Host> findById(final UUID id) {
+        Integer row = index.rowById(id);
+        if (row == null) {
+            return Optional.empty();
+        }
+        return Optional.of(list.get(row));
+    }
+
+    /** Finds a host by its fully qualified domain name.
+     * @param fqdn the fully qualified domain name of the host.
+     * @return a copy of the host or an empty optional if there is none.
+     */
+    public Optional<Host> findByFqdn(final String fqdn) {
+        Integer row = index.rowByFqdn(fqdn);
+        if (row == null) {
+            return Optional.empty();
+        }
+        return Optional.of(list.get(row));
+    }
+
+    /** Finds all hosts with the given name.
+     * @param name the human readable name of the hosts.
+     * @return copies of the hosts in database order, possibly empty.
+     */
+    public List<Host> findByName(final String name) {
+        List<Integer> rows = index.rowsByName(name);
+        List<Host> result = new ArrayList<>(rows.size());
+        for (Integer row : rows) {
+            result.add(list.get(row));
+        }
+        return result;
     }
 
     /** Get a read only list view on the database.
+     * The hosts of the view are created on every access, so changing
+     * them does not change the database. Use {@link #update(List)}
+     * for that.
      * @return a read-only view on the list of hosts.
      */
     public List<Host> getList() {
@@ -171,5 +599,8 @@ public final class Database {
     public void replace(final List<Host> replacement) {
         list.clear();
         list.addAll(replacement);
+        reindex();
+        dirty = true;
+        indexStale = true;
     }
 }
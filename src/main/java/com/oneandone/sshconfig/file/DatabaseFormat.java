@@ -0,0 +1,76 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.file;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * The storage formats of a {@link Database} file.
+ * @author Stephan Fuhrmann
+ */
+public enum DatabaseFormat {
+    /** A pretty JSON array of hosts. */
+    JSON,
+    /** The compact {@link BinaryFormat binary format}. */
+    BINARY;
+
+    /** The file name extension of the binary format. */
+    public static final String BINARY_EXTENSION = ".bin";
+
+    /** Gets the format of a file from its name.
+     * @param f the file.
+     * @return {@link #BINARY} if the file name ends with
+     * {@link #BINARY_EXTENSION}, {@link #JSON} otherwise.
+     */
+    public static DatabaseFormat forPath(final Path f) {
+        Path name = f.getFileName();
+        if (name != null && name.toString().endsWith(BINARY_EXTENSION)) {
+            return BINARY;
+        }
+        return JSON;
+    }
+
+    /** Opens an existing file for reading.
+     * @param f the file to read.
+     * @return a reader iterating the hosts of the file.
+     * Needs to be closed by the caller.
+     * @throws IOException if the file couldn't be read.
+     */
+    public HostReader reader(final Path f) throws IOException {
+        if (this == BINARY) {
+            return BinaryHostReader.open(f);
+        }
+        return new JsonHostReader(
+                new BufferedInputStream(Files.newInputStream(f)));
+    }
+
+    /** Creates a writer.
+     * @param out the output to write to.
+     * @return a writer for the hosts. Needs to be closed by the caller
+     * to complete the output.
+     * @throws IOException if writing the start fails.
+     */
+    public HostWriter writer(final OutputStream out) throws IOException {
+        if (this == BINARY) {
+            return new BinaryHostWriter(out);
+        }
+        return new JsonHostWriter(out);
+    }
+}
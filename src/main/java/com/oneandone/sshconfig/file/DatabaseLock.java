@@ -0,0 +1,103 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.file;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An exclusive lock of a database file against other processes.
+ * Every process that saves a database or its journal holds the lock,
+ * so two processes never append to the same journal or compact it
+ * under each other.
+ * The lock is held on a {@code .lock} file next to the database,
+ * because the database file itself is replaced on every save.
+ * The lock file is not deleted, deleting it would let a later process
+ * lock a new file while the old one is still locked.
+ * @author Stephan Fuhrmann
+ */
+public final class DatabaseLock implements Closeable {
+    /** Suffix for the lock file. */
+    private static final String LOCK_SUFFIX = ".lock";
+
+    /** The channel of the lock file. */
+    private final FileChannel channel;
+
+    /** The lock on {@link #channel}. */
+    private final FileLock lock;
+
+    /** Creates a held lock.
+     * @param inChannel the channel of the lock file.
+     * @param inLock the lock on the channel.
+     */
+    private DatabaseLock(final FileChannel inChannel, final FileLock inLock) {
+        this.channel = inChannel;
+        this.lock = inLock;
+    }
+
+    /** Gets the lock file of a database file.
+     * @param database the database file.
+     * @return the lock file next to the database.
+     */
+    public static Path pathOf(final Path database) {
+        return database.resolveSibling(
+                database.getFileName() + LOCK_SUFFIX);
+    }
+
+    /** Locks a database file. Does not wait for another process
+     * holding the lock.
+     * @param database the database file to lock.
+     * @return the held lock.
+     * @throws IOException if the lock is held by another process or
+     * the lock file can not be opened.
+     */
+    public static DatabaseLock acquire(final Path database)
+            throws IOException {
+        FileChannel channel = FileChannel.open(pathOf(database),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = channel.tryLock();
+        } catch (IOException | OverlappingFileLockException ex) {
+            channel.close();
+            throw new IOException("Can not lock " + database, ex);
+        }
+        if (lock == null) {
+            channel.close();
+            throw new IOException("The database " + database
+                    + " is in use by another process");
+        }
+        return new DatabaseLock(channel, lock);
+    }
+
+    /** Releases the lock.
+     * @throws IOException if releasing fails.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            lock.release();
+        } finally {
+            channel.close();
+        }
+    }
+}
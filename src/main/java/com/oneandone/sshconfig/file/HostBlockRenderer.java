@@ -0,0 +1,113 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.file;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.oneandone.sshconfig.bind.Host;
+
+/**
+ * Renders the own entries of hosts including their markers
+ * into a reused buffer.
+ * Not thread safe, use one renderer per thread.
+ * @author Stephan Fuhrmann
+ */
+final class HostBlockRenderer {
+    /** The line separator to write. */
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    /** The closing of the begin and end markers. */
+    private static final String MARKER_END = "}\n";
+
+    /** The template of the entries. */
+    private final HostTemplate template;
+
+    /** The entry rendered last. */
+    private final StringBuilder buffer = new StringBuilder();
+
+    /** The characters of the entry to write. */
+    private char[] chars = new char[0];
+
+    /** Creates a renderer.
+     * @param inTemplate the template of the entries.
+     */
+    HostBlockRenderer(final HostTemplate inTemplate) {
+        this.template = inTemplate;
+    }
+
+    /** Renders the entry of a host.
+     * @param h the host to render.
+     * @return the lines of the entry, each terminated by {@code '\n'}.
+     * Only valid until the next call.
+     */
+    CharSequence render(final Host h) {
+        buffer.setLength(0);
+        String id = h.getId().toString();
+        buffer.append(SSHConfig.ENTRY_BEGIN_PREFIX)
+                .append(id)
+                .append(MARKER_END);
+        template.appendTo(buffer, h, id);
+        buffer.append(SSHConfig.ENTRY_END_PREFIX)
+                .append(id)
+                .append(MARKER_END);
+        return buffer;
+    }
+
+    /** Renders the entry of a host and writes it with the platform
+     * line separator.
+     * @param h the host to render.
+     * @param out the writer to write to.
+     * @throws IOException if writing fails.
+     */
+    void render(final Host h, final Writer out) throws IOException {
+        render(h);
+        int length = buffer.length();
+        if (chars.length < length) {
+            chars = new char[Math.max(length, 2 * chars.length)];
+        }
+        buffer.getChars(0, length, chars, 0);
+        if ("\n".equals(LINE_SEPARATOR)) {
+            out.write(chars, 0, length);
+            return;
+        }
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            if (chars[i] == '\n') {
+                out.write(chars, start, i - start);
+                out.write(LINE_SEPARATOR);
+                start = i + 1;
+            }
+        }
+    }
+
+    /** Gets the lines of the entry rendered last.
+     * @return the lines without line terminators.
+     */
+    List<String> lines() {
+        List<String> result = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < buffer.length(); i++) {
+            if (buffer.charAt(i) == '\n') {
+                result.add(buffer.substring(start, i));
+                start = i + 1;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,404 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.file;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Hash indexes on the rows of the database host list.
+ * Maps the id, fqdn and name of each host to its row number.
+ * The indexes are open addressing tables of row numbers that
+ * read the keys from the {@link CompactHostList}, so they need
+ * no objects per host.
+ * A row needs to be {@link #remove(int) removed} before its host
+ * is replaced and {@link #add(int) added} again afterwards.
+ * If several rows share a key, the first row wins like in
+ * {@link List#indexOf(Object)}. The further rows are chained, so the
+ * next one takes over when the first one is removed.
+ * @author Stephan Fuhrmann
+ */
+final class HostIndex {
+    /** The capacity of a new table, a power of two. */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** Multiplier spreading the hash codes over the table. */
+    private static final int SPREAD = 0x9E3779B9;
+
+    /** The value of an empty slot or a missing row. */
+    private static final int NONE = 0;
+
+    /** Spreads a hash code over the bits of a table index.
+     * @param hash the hash code of a key.
+     * @return the spread hash code.
+     */
+    private static int spread(final int hash) {
+        int h = hash * SPREAD;
+        return h ^ (h >>> (Integer.SIZE / 2));
+    }
+
+    /** An open addressing hash table with linear probing that
+     * stores the first row number plus one of each key.
+     * The further rows with the same key are chained in
+     * ascending order.
+     * @param <K> the type of the keys.
+     */
+    private abstract static class Table<K> {
+        /** The row numbers plus one, or {@link #NONE} if empty. */
+        private int[] slots = new int[INITIAL_CAPACITY];
+
+        /** The number of used slots. */
+        private int count;
+
+        /** The next row with the same key plus one, by row. */
+        private int[] next = new int[INITIAL_CAPACITY];
+
+        /** Gets the key of a row.
+         * @param row the row.
+         * @return the key, possibly {@code null}.
+         */
+        abstract K keyOf(int row);
+
+        /** Gets the hash code of a key.
+         * @param key the key, possibly {@code null}.
+         * @return the hash code.
+         */
+        abstract int hashOf(K key);
+
+        /** Gets the hash code of the key of a row like
+         * {@link #hashOf(Object)}, without creating the key.
+         * @param row the row.
+         * @return the hash code.
+         */
+        abstract int hashOf(int row);
+
+        /** Whether a row has a key.
+         * @param row the row.
+         * @param key the key, possibly {@code null}.
+         * @return {@code true} if the key of the row equals the key.
+         */
+        abstract boolean hasKey(int row, K key);
+
+        /** Finds the slot of a key.
+         * @param key the key to find.
+         * @return the slot of the key or the empty slot to put it in.
+         */
+        final int slotOf(final K key) {
+            int mask = slots.length - 1;
+            int slot = spread(hashOf(key)) & mask;
+            while (slots[slot] != NONE && !hasKey(slots[slot] - 1, key)) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        /** Gets the row in a slot.
+         * @param slot the slot.
+         * @return the row or -1 if the slot is empty.
+         */
+        final int rowAt(final int slot) {
+            return slots[slot] - 1;
+        }
+
+        /** Puts a row into a slot, replacing the row there.
+         * @param slot the slot found with {@link #slotOf(Object)}.
+         * @param row the row to put.
+         */
+        final void put(final int slot, final int row) {
+            boolean added = slots[slot] == NONE;
+            slots[slot] = row + 1;
+            if (added && ++count * 2 > slots.length) {
+                resize();
+            }
+        }
+
+        /** Empties a slot and moves the following rows of the
+         * probe sequence back, so no deleted markers are needed.
+         * @param slot the slot to empty.
+         */
+        final void delete(final int slot) {
+            int mask = slots.length - 1;
+            int hole = slot;
+            slots[hole] = NONE;
+            count--;
+            for (int i = (hole + 1) & mask; slots[i] != NONE;
+                    i = (i + 1) & mask) {
+                int home = spread(hashOf(slots[i] - 1)) & mask;
+                if (((i - home) & mask) >= ((i - hole) & mask)) {
+                    slots[hole] = slots[i];
+                    slots[i] = NONE;
+                    hole = i;
+                }
+            }
+        }
+
+        /** Doubles the number of slots. */
+        private void resize() {
+            int[] old = slots;
+            slots = new int[2 * old.length];
+            int mask = slots.length - 1;
+            for (int value : old) {
+                if (value != NONE) {
+                    int slot = spread(hashOf(value - 1)) & mask;
+                    while (slots[slot] != NONE) {
+                        slot = (slot + 1) & mask;
+                    }
+                    slots[slot] = value;
+                }
+            }
+        }
+
+        /** Removes all rows. */
+        final void clear() {
+            slots = new int[INITIAL_CAPACITY];
+            count = 0;
+            next = new int[INITIAL_CAPACITY];
+        }
+
+        /** Adds a row to the chain of its key.
+         * @param row the row to add.
+         */
+        final void addRow(final int row) {
+            if (row >= next.length) {
+                next = Arrays.copyOf(next,
+                        Math.max(row + 1, 2 * next.length));
+            }
+            int slot = slotOf(keyOf(row));
+            int first = rowAt(slot);
+            if (first == -1 || row < first) {
+                next[row] = first + 1;
+                put(slot, row);
+                return;
+            }
+            int prev = first;
+            while (next[prev] != NONE && next[prev] - 1 < row) {
+                prev = next[prev] - 1;
+            }
+            if (next[prev] - 1 != row && prev != row) {
+                next[row] = next[prev];
+                next[prev] = row + 1;
+            }
+        }
+
+        /** Removes a row from the chain of its key.
+         * @param row the row to remove.
+         */
+        final void removeRow(final int row) {
+            int slot = slotOf(keyOf(row));
+            int first = rowAt(slot);
+            if (first == row) {
+                if (next[row] == NONE) {
+                    delete(slot);
+                } else {
+                    put(slot, next[row] - 1);
+                }
+            } else if (first != -1) {
+                int prev = first;
+                while (next[prev] != NONE && next[prev] - 1 != row) {
+                    prev = next[prev] - 1;
+                }
+                if (next[prev] - 1 == row) {
+                    next[prev] = next[row];
+                }
+            }
+            if (row < next.length) {
+                next[row] = NONE;
+            }
+        }
+
+        /** Finds the first row of a key.
+         * @param key the key to look for.
+         * @return the row or -1 if there is none.
+         */
+        final int first(final K key) {
+            return rowAt(slotOf(key));
+        }
+
+        /** Gets the next row with the same key.
+         * @param row a row of the key.
+         * @return the next row or -1 if there is none.
+         */
+        final int next(final int row) {
+            return next[row] - 1;
+        }
+    }
+
+    /** The indexed hosts. */
+    private final CompactHostList hosts;
+
+    /** Row numbers by host id. */
+    private final Table<UUID> byId = new Table<UUID>() {
+        @Override
+        UUID keyOf(final int row) {
+            if (!hosts.hasId(row)) {
+                return null;
+            }
+            return new UUID(hosts.idMost(row), hosts.idLeast(row));
+        }
+
+        @Override
+        int hashOf(final UUID key) {
+            return Objects.hashCode(key);
+        }
+
+        @Override
+        int hashOf(final int row) {
+            if (!hosts.hasId(row)) {
+                return 0;
+            }
+            return Long.hashCode(hosts.idMost(row) ^ hosts.idLeast(row));
+        }
+
+        @Override
+        boolean hasKey(final int row, final UUID key) {
+            if (key == null) {
+                return !hosts.hasId(row);
+            }
+            return hosts.hasId(row)
+                    && hosts.idMost(row) == key.getMostSignificantBits()
+                    && hosts.idLeast(row) == key.getLeastSignificantBits();
+        }
+    };
+
+    /** Row numbers by fully qualified domain name. */
+    private final Table<String> byFqdn = new Table<String>() {
+        @Override
+        String keyOf(final int row) {
+            return hosts.fqdn(row);
+        }
+
+        @Override
+        int hashOf(final String key) {
+            return Objects.hashCode(key);
+        }
+
+        @Override
+        int hashOf(final int row) {
+            return Objects.hashCode(hosts.fqdn(row));
+        }
+
+        @Override
+        boolean hasKey(final int row, final String key) {
+            return Objects.equals(hosts.fqdn(row), key);
+        }
+    };
+
+    /** Row numbers by name. Names are not unique. */
+    private final Table<String> byName = new Table<String>() {
+        @Override
+        String keyOf(final int row) {
+            return hosts.name(row);
+        }
+
+        @Override
+        int hashOf(final String key) {
+            return Objects.hashCode(key);
+        }
+
+        @Override
+        int hashOf(final int row) {
+            return hosts.nameHash(row);
+        }
+
+        @Override
+        boolean hasKey(final int row, final String key) {
+            return hosts.nameEquals(row, key);
+        }
+    };
+
+    /** Creates an empty index.
+     * @param inHosts the hosts to index the rows of.
+     */
+    HostIndex(final CompactHostList inHosts) {
+        this.hosts = inHosts;
+    }
+
+    /** Indexes a row of the host list.
+     * @param row the row that was added or replaced.
+     */
+    void add(final int row) {
+        byId.addRow(row);
+        byFqdn.addRow(row);
+        byName.addRow(row);
+    }
+
+    /** Removes a row from the index before its host is replaced.
+     * @param row the row to remove.
+     */
+    void remove(final int row) {
+        byId.removeRow(row);
+        byFqdn.removeRow(row);
+        byName.removeRow(row);
+    }
+
+    /** Removes all rows from the index. */
+    void clear() {
+        byId.clear();
+        byFqdn.clear();
+        byName.clear();
+    }
+
+    /** Finds the row of a host by id.
+     * @param id the id to look for.
+     * @return the row or {@code null} if there is none.
+     */
+    Integer rowById(final UUID id) {
+        return find(byId, id);
+    }
+
+    /** Finds the row of a host by fully qualified domain name.
+     * @param fqdn the fqdn to look for.
+     * @return the row or {@code null} if there is none.
+     */
+    Integer rowByFqdn(final String fqdn) {
+        return find(byFqdn, fqdn);
+    }
+
+    /** Finds the row of a key in a table.
+     * @param table the table to look in.
+     * @param key the key to look for.
+     * @param <K> the type of the keys.
+     * @return the row or {@code null} if there is none.
+     */
+    private static <K> Integer find(final Table<K> table, final K key) {
+        int row = table.first(key);
+        if (row == -1) {
+            return null;
+        }
+        return row;
+    }
+
+    /** Finds the rows of all hosts with the given name.
+     * @param name the name to look for.
+     * @return the rows in ascending order, possibly empty.
+     */
+    List<Integer> rowsByName(final String name) {
+        int row = byName.first(name);
+        if (row == -1) {
+            return Collections.emptyList();
+        }
+        List<Integer> rows = new ArrayList<>();
+        while (row != -1) {
+            rows.add(row);
+            row = byName.next(row);
+        }
+        return Collections.unmodifiableList(rows);
+    }
+}
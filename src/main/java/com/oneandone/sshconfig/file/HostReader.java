@@ -0,0 +1,31 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.file;
+
+import com.oneandone.sshconfig.bind.Host;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * Reads the {@link Host} records of a database file one host at a time.
+ * I/O errors while iterating are thrown as
+ * {@link java.io.UncheckedIOException}.
+ * @author Stephan Fuhrmann
+ * @see DatabaseFormat#reader(java.nio.file.Path)
+ */
+public interface HostReader extends Iterator<Host>, Closeable {
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.file;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.oneandone.sshconfig.bind.Host;
+
+/**
+ * A precompiled template of the ssh config entry of a host.
+ * The template is a list of lines with the placeholders
+ * {@code {name}}, {@code {fqdn}}, {@code {ip}}, {@code {user}},
+ * {@code {group}} and {@code {id}}.
+ * A line is left out if one of its placeholders has no value,
+ * and a line with {@code {ip}} is repeated for every IP address.
+ * A line {@code @group NAME} starts lines that are only added for
+ * hosts of the group, for example {@code Port}, {@code IdentityFile}
+ * or {@code ProxyJump} directives. Blank lines are ignored.
+ * @author Stephan Fuhrmann
+ */
+public final class HostTemplate {
+    /** The prefix of a line starting the lines of a group. */
+    private static final String GROUP_PREFIX = "@group ";
+
+    /** The template giving the classic entries. */
+    public static final HostTemplate DEFAULT = parse(Arrays.asList(
+            "Host {name}",
+            "\tHostname {fqdn}",
+            "\tHostname {ip}",
+            "\tUser {user}"));
+
+    /** The placeholders of a template. */
+    private enum Field {
+        /** The human readable name. */
+        NAME,
+        /** The fully qualified domain name. */
+        FQDN,
+        /** One IP address, repeating the line. */
+        IP,
+        /** The user. */
+        USER,
+        /** The group. */
+        GROUP,
+        /** The unique id. */
+        ID;
+
+        /** Gets the value of the field.
+         * @param h the host to get the value of.
+         * @param id the id of the host as text.
+         * @param ip the current IP address.
+         * @return the value or {@code null} if the host has none.
+         */
+        private String value(final Host h, final String id,
+                final String ip) {
+            switch (this) {
+                case NAME:
+                    return h.getName();
+                case FQDN:
+                    return h.getFqdn();
+                case IP:
+                    return ip;
+                case USER:
+                    return h.getUser();
+                case GROUP:
+                    return h.getGroup();
+                default:
+                    return id;
+            }
+        }
+    }
+
+    /** A compiled line of the template. */
+    private static final class Line {
+        /** The text before, between and after the fields. */
+        private final String[] literals;
+
+        /** The fields in the order of appearance. */
+        private final Field[] fields;
+
+        /** Whether the line is repeated for every IP address. */
+        private final boolean perIp;
+
+        /** Compiles a line.
+         * @param line the template line.
+         * @param number the line number for error messages.
+         * @throws IllegalArgumentException if the line has an
+         * unknown placeholder.
+         */
+        private Line(final String line, final int number) {
+            List<String> literalList = new ArrayList<>();
+            List<Field> fieldList = new ArrayList<>();
+            int start = 0;
+            int open = line.indexOf('{');
+            while (open != -1) {
+                int close = line.indexOf('}', open);
+                if (close == -1) {
+                    break;
+                }
+                String name = line.substring(open + 1, close);
+                Field field = null;
+                for (Field f : Field.values()) {
+                    if (f.name().equalsIgnoreCase(name)) {
+                        field = f;
+                    }
+                }
+                if (field == null) {
+                    throw new IllegalArgumentException("Unknown placeholder {"
+                            + name + "} in template line " + number);
+                }
+                literalList.add(line.substring(start, open));
+                fieldList.add(field);
+                start = close + 1;
+                open = line.indexOf('{', start);
+            }
+            literalList.add(line.substring(start));
+            this.literals = literalList.toArray(new String[0]);
+            this.fields = fieldList.toArray(new Field[0]);
+            this.perIp = fieldList.contains(Field.IP);
+        }
+
+        /** Appends the line for a host.
+         * @param out the buffer to append to.
+         * @param h the host to render.
+         * @param id the id of the host as text.
+         */
+        private void appendTo(final StringBuilder out, final Host h,
+                final String id) {
+            if (!perIp) {
+                appendTo(out, h, id, null);
+                return;
+            }
+            if (h.getIps() != null) {
+                for (String ip : h.getIps()) {
+                    appendTo(out, h, id, ip);
+                }
+            }
+        }
+
+        /** Appends the line for a host and one IP address.
+         * @param out the buffer to append to.
+         * @param h the host to render.
+         * @param id the id of the host as text.
+         * @param ip the IP address or {@code null}.
+         */
+        private void appendTo(final StringBuilder out, final Host h,
+                final String id, final String ip) {
+            for (Field f : fields) {
+                if (f.value(h, id, ip) == null) {
+                    return;
+                }
+            }
+            out.append(literals[0]);
+            for (int i = 0; i < fields.length; i++) {
+                out.append(fields[i].value(h, id, ip));
+                out.append(literals[i + 1]);
+            }
+            out.append('\n');
+        }
+    }
+
+    /** The lines for every host. */
+    private final List<Line> hostLines;
+
+    /** The additional lines by group name. */
+    private final Map<String, List<Line>> groupLines;
+
+    /** Creates a template.
+     * @param inHostLines the lines for every host.
+     * @param inGroupLines the additional lines by group name.
+     */
+    private HostTemplate(final List<Line> inHostLines,
+            final Map<String, List<Line>> inGroupLines) {
+        this.hostLines = inHostLines;
+        this.groupLines = inGroupLines;
+    }
+
+    /** Reads and compiles a template file.
+     * @param f the file to read.
+     * @return the compiled template.
+     * @throws IOException if reading the file fails.
+     * @throws IllegalArgumentException if the template is malformed.
+     */
+    public static HostTemplate fromPath(final Path f) throws IOException {
+        return parse(Files.readAllLines(f, StandardCharsets.UTF_8));
+    }
+
+    /** Compiles a template.
+     * @param lines the lines of the template.
+     * @return the compiled template.
+     * @throws IllegalArgumentException if the template is malformed.
+     */
+    public static HostTemplate parse(final List<String> lines) {
+        List<Line> host = new ArrayList<>();
+        Map<String, List<Line>> groups = new HashMap<>();
+        List<Line> current = host;
+        int number = 0;
+        for (String line : lines) {
+            number++;
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            if (line.startsWith(GROUP_PREFIX)) {
+                String group = line.substring(GROUP_PREFIX.length()).trim();
+                if (group.isEmpty()) {
+                    throw new IllegalArgumentException(
+                            "Missing group name in template line " + number);
+                }
+                current = groups.computeIfAbsent(group,
+                        k -> new ArrayList<>());
+                continue;
+            }
+            current.add(new Line(line, number));
+        }
+        return new HostTemplate(host, groups);
+    }
+
+    /** Appends the lines of a host without the entry markers.
+     * Each line is terminated with {@code '\n'}.
+     * @param out the buffer to append to.
+     * @param h the host to render.
+     * @param id the id of the host as text.
+     */
+    void appendTo(final StringBuilder out, final Host h, final String id) {
+        for (Line line : hostLines) {
+            line.appendTo(out, h, id);
+        }
+        if (h.getGroup() != null) {
+            for (Line line : groupLines.getOrDefault(h.getGroup(),
+                    Collections.<Line>emptyList())) {
+                line.appendTo(out, h, id);
+            }
+        }
+    }
+}
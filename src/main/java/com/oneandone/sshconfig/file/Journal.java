@@ -0,0 +1,246 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.file;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.oneandone.sshconfig.bind.Host;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of host changes next to a database file.
+ * Every record is the complete state of one host, so replaying
+ * a record twice gives the same result as replaying it once.
+ * A record is an int length, an int CRC32 and the host as JSON.
+ * The log is written through a memory mapping, so records
+ * survive a crash of the program as soon as they are appended.
+ * The length is written last, and a zero length or a bad checksum
+ * ends the replay.
+ * @author Stephan Fuhrmann
+ */
+@Slf4j
+final class Journal implements Closeable {
+    /** Suffix for the journal file. A constant, so using it does
+     * not initialize the JSON mappers of this class. */
+    static final String JOURNAL_SUFFIX = ".journal";
+
+    /** The bytes of the file to map at once when appending. */
+    private static final int MAP_SIZE = 0x100000;
+
+    /** The size of the length and checksum of a record. */
+    private static final int RECORD_HEADER = 2 * Integer.BYTES;
+
+    /** The reader for a single host. */
+    private static final ObjectReader HOST_READER =
+            JsonHostReader.MAPPER.readerFor(Host.class);
+
+    /** The writer for a single host. */
+    private static final ObjectWriter HOST_WRITER =
+            JsonHostReader.MAPPER.writerFor(Host.class);
+
+    /** The journal file. */
+    private final Path file;
+
+    /** The channel of the journal file. */
+    private final FileChannel channel;
+
+    /** The file position of {@link #mapped}. */
+    private long mappedPosition;
+
+    /** The mapping that records are appended to. */
+    private MappedByteBuffer mapped;
+
+    /** The file position of the next record. */
+    private long size;
+
+    /** The checksum of records. */
+    private final CRC32 crc = new CRC32();
+
+    /** Opens a journal file, creating it if it does not exist.
+     * @param inFile the journal file.
+     * @throws IOException if opening the file fails.
+     */
+    private Journal(final Path inFile) throws IOException {
+        this.file = inFile;
+        this.channel = FileChannel.open(file,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+    }
+
+    /** Gets the journal file of a database file.
+     * @param database the database file.
+     * @return the journal file next to the database.
+     */
+    static Path pathOf(final Path database) {
+        return database.resolveSibling(
+                database.getFileName() + JOURNAL_SUFFIX);
+    }
+
+    /** Replays the records of a journal file without opening it
+     * for appending.
+     * @param f the journal file.
+     * @param consumer the consumer of the hosts in order of appending.
+     * @return the number of hosts replayed, 0 if the file does not exist.
+     * @throws IOException if reading the file fails.
+     */
+    static int replay(final Path f, final Consumer<Host> consumer)
+            throws IOException {
+        if (!Files.exists(f)) {
+            return 0;
+        }
+        try (Journal journal = new Journal(f)) {
+            return journal.replay(consumer);
+        }
+    }
+
+    /** Opens a journal file for appending after replaying its records.
+     * @param f the journal file.
+     * @param consumer the consumer of the hosts in order of appending.
+     * @return the opened journal, positioned after the last good record.
+     * @throws IOException if reading the file fails.
+     */
+    static Journal open(final Path f, final Consumer<Host> consumer)
+            throws IOException {
+        Journal journal = new Journal(f);
+        try {
+            journal.replay(consumer);
+        } catch (IOException | RuntimeException ex) {
+            journal.channel.close();
+            throw ex;
+        }
+        return journal;
+    }
+
+    /** Replays the records and sets {@link #size} to the end of the
+     * last good record.
+     * @param consumer the consumer of the hosts in order of appending.
+     * @return the number of hosts replayed.
+     * @throws IOException if a record can not be parsed.
+     */
+    private int replay(final Consumer<Host> consumer) throws IOException {
+        long length = channel.size();
+        if (length == 0) {
+            return 0;
+        }
+        ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY,
+                0, length);
+        byte[] bytes = new byte[0];
+        int count = 0;
+        while (in.remaining() >= RECORD_HEADER) {
+            int recordLength = in.getInt(in.position());
+            if (recordLength <= 0
+                    || recordLength > in.remaining() - RECORD_HEADER) {
+                break;
+            }
+            int checksum = in.getInt(in.position() + Integer.BYTES);
+            if (bytes.length < recordLength) {
+                bytes = new byte[Math.max(recordLength, 2 * bytes.length)];
+            }
+            in.position(in.position() + RECORD_HEADER);
+            in.get(bytes, 0, recordLength);
+            crc.reset();
+            crc.update(bytes, 0, recordLength);
+            if ((int) crc.getValue() != checksum) {
+                log.warn("Damaged record at {} in {}, ignoring the rest",
+                        size, file);
+                break;
+            }
+            consumer.accept(HOST_READER.readValue(bytes, 0, recordLength));
+            size = in.position();
+            count++;
+        }
+        log.debug("Replayed {} hosts from {}", count, file);
+        return count;
+    }
+
+    /** Appends the state of a host.
+     * @param h the host to append.
+     * @throws IOException if writing the record fails.
+     */
+    void append(final Host h) throws IOException {
+        byte[] bytes = HOST_WRITER.writeValueAsBytes(h);
+        int needed = RECORD_HEADER + bytes.length;
+        if (mapped == null
+                || size + needed > mappedPosition + mapped.capacity()) {
+            mappedPosition = size;
+            mapped = channel.map(FileChannel.MapMode.READ_WRITE,
+                    size, Math.max(MAP_SIZE, needed + Integer.BYTES));
+        }
+        crc.reset();
+        crc.update(bytes, 0, bytes.length);
+        int offset = (int) (size - mappedPosition);
+        mapped.position(offset + RECORD_HEADER);
+        mapped.put(bytes);
+        mapped.putInt(offset + Integer.BYTES, (int) crc.getValue());
+        mapped.putInt(offset, bytes.length);
+        size += needed;
+    }
+
+    /** Gets the size of the records in the journal.
+     * @return the bytes of all good records.
+     */
+    long size() {
+        return size;
+    }
+
+    /** Writes the appended records to the storage device.
+     * Appended records already survive a crash of the program,
+     * this also makes them survive a crash of the system.
+     */
+    void force() {
+        if (mapped != null) {
+            mapped.force();
+        }
+    }
+
+    /** Removes all records, for example after they were written
+     * to the database file.
+     * @throws IOException if truncating the file fails.
+     */
+    void reset() throws IOException {
+        mapped = null;
+        size = 0;
+        mappedPosition = 0;
+        channel.truncate(0);
+        channel.force(true);
+    }
+
+    /** Cuts the unused end of the mapping off the file and closes it.
+     * @throws IOException if truncating the file fails.
+     */
+    @Override
+    public void close() throws IOException {
+        force();
+        mapped = null;
+        try {
+            channel.truncate(size);
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.file;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.oneandone.sshconfig.bind.Host;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads a JSON array of {@link Host} records one host at a time.
+ * Only the current host is held in memory, so arbitrarily large
+ * databases can be processed with bounded memory.
+ * I/O errors while iterating are thrown as
+ * {@link UncheckedIOException}.
+ * @author Stephan Fuhrmann
+ */
+public final class JsonHostReader implements HostReader {
+    /** The shared mapper. Mappers are thread safe once configured. */
+    static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /** The reader for a single host. */
+    private static final ObjectReader HOST_READER =
+            MAPPER.readerFor(Host.class);
+
+    /** The parser of the JSON input. */
+    private final JsonParser parser;
+
+    /** Whether the parser points to the start of the next host. */
+    private boolean hasNext;
+
+    /** Creates a reader for JSON text.
+     * @param reader the input to read. Will be closed when this
+     *               host reader is closed.
+     * @throws IOException if the input does not start with a JSON array.
+     */
+    public JsonHostReader(final Reader reader) throws IOException {
+        this(MAPPER.getFactory().createParser(reader));
+    }
+
+    /** Creates a reader for JSON bytes.
+     * @param inputStream the input to read. Will be closed when this
+     *                    host reader is closed.
+     * @throws IOException if the input does not start with a JSON array.
+     */
+    public JsonHostReader(final InputStream inputStream) throws IOException {
+        this(MAPPER.getFactory().createParser(inputStream));
+    }
+
+    /** Creates a reader on a parser.
+     * @param inParser the parser to read from.
+     * @throws IOException if the input does not start with a JSON array.
+     */
+    private JsonHostReader(final JsonParser inParser) throws IOException {
+        this.parser = inParser;
+        if (parser.nextToken() != JsonToken.START_ARRAY) {
+            parser.close();
+            throw new IOException("Expected a JSON array of hosts at "
+                    + parser.getCurrentLocation());
+        }
+        advance();
+    }
+
+    /** Moves the parser to the start of the next host.
+     * @throws IOException if the input is not a valid array of hosts.
+     */
+    private void advance() throws IOException {
+        JsonToken token = parser.nextToken();
+        if (token == JsonToken.START_OBJECT) {
+            hasNext = true;
+        } else if (token == JsonToken.END_ARRAY) {
+            hasNext = false;
+        } else {
+            throw new IOException("Expected a host object at "
+                    + parser.getCurrentLocation());
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return hasNext;
+    }
+
+    @Override
+    public Host next() {
+        if (!hasNext) {
+            throw new NoSuchElementException();
+        }
+        try {
+            Host result = HOST_READER.readValue(parser);
+            advance();
+            return result;
+        } catch (IOException ex) {
+            hasNext = false;
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        hasNext = false;
+        parser.close();
+    }
+}
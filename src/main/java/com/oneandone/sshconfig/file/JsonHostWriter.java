@@ -0,0 +1,85 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.file;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.oneandone.sshconfig.bind.Host;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * Writes a JSON array of {@link Host} records one host at a time.
+ * The output is the same as serializing the whole list at once.
+ * The target is flushed, but not closed, when this writer is closed.
+ * @author Stephan Fuhrmann
+ */
+public final class JsonHostWriter implements HostWriter {
+    /** The writer for a single host. */
+    private static final ObjectWriter HOST_WRITER = JsonHostReader.MAPPER
+            .writerFor(Host.class)
+            .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+    /** The generator of the JSON output. */
+    private final JsonGenerator generator;
+
+    /** Creates a writer for JSON text.
+     * @param writer the output to write to.
+     * @throws IOException if writing the array start fails.
+     */
+    public JsonHostWriter(final Writer writer) throws IOException {
+        this(JsonHostReader.MAPPER.getFactory().createGenerator(writer));
+    }
+
+    /** Creates a writer for UTF-8 encoded JSON bytes.
+     * @param outputStream the output to write to.
+     * @throws IOException if writing the array start fails.
+     */
+    public JsonHostWriter(final OutputStream outputStream)
+            throws IOException {
+        this(JsonHostReader.MAPPER.getFactory().createGenerator(
+                outputStream, JsonEncoding.UTF8));
+    }
+
+    /** Creates a writer on a generator.
+     * @param inGenerator the generator to write to.
+     * @throws IOException if writing the array start fails.
+     */
+    private JsonHostWriter(final JsonGenerator inGenerator)
+            throws IOException {
+        this.generator = inGenerator;
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        generator.writeStartArray();
+    }
+
+    @Override
+    public void write(final Host host) throws IOException {
+        HOST_WRITER.writeValue(generator, host);
+    }
+
+    /** Ends the array and flushes the output.
+     * @throws IOException if writing fails.
+     */
+    @Override
+    public void close() throws IOException {
+        generator.writeEndArray();
+        generator.close();
+    }
+}
@@ -15,24 +15,38 @@
  */
 package com.oneandone.sshconfig.file;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.regex.Pattern;
-import java.util.stream.Stream;
 
 import com.oneandone.sshconfig.bind.Host;
-import com.oneandone.sshconfig.validation.ValidationDelegate;
 import lombok.extern.slf4j.Slf4j;
-import org.jboss.logging.MDC;
 
 /**
  * The SSH configuration file. Separates the tool-maintained  part
  * and the original human-maintained part.
+ * The tool-maintained entries are updated in place, and the file is
+ * only written if its content changes.
  * @author Stephan Fuhrmann
  */
 @Slf4j
@@ -43,42 +57,72 @@ public final class SSHConfig {
     /** The file in which the config is located. */
     private Path file;
 
-    /** Configuration file lines not to process. */
+    /** Configuration file lines in file order. */
     private List<String> lines;
 
-    /** Configuration file lines to process. */
-    private List<String> own;
+    /** The indexes of the {@link #lines} belonging to own entries. */
+    private BitSet own = new BitSet();
 
     /** Pattern for each entry start.
-     * @see #ENTRY_BEGIN_FORMAT
+     * @see #ENTRY_BEGIN_PREFIX
      */
     private static final String ENTRY_BEGIN_PATTERN =
             "# <<< BEGIN\\{[a-fA-F0-9-]*\\}";
 
     /** Pattern for each entry end.
-     * @see #ENTRY_END_FORMAT
+     * @see #ENTRY_END_PREFIX
      */
     private static final String ENTRY_END_PATTERN =
             "# >>> END\\{[a-fA-F0-9-]*\\}";
 
-    /** Format for each entry start.
-     * @see #ENTRY_BEGIN_PATTERN
-     */
-    private static final String ENTRY_BEGIN_FORMAT =
-            "# <<< BEGIN{%s}";
+    /** Constant prefix of {@link #ENTRY_BEGIN_PATTERN},
+     * followed by the id and a closing brace. */
+    static final String ENTRY_BEGIN_PREFIX = "# <<< BEGIN{";
 
-    /** Format for each entry end.
-     * @see #ENTRY_END_PATTERN
-     */
-    private static final String ENTRY_END_FORMAT =
-            "# >>> END{%s}";
+    /** Constant prefix of {@link #ENTRY_END_PATTERN},
+     * followed by the id and a closing brace. */
+    static final String ENTRY_END_PREFIX = "# >>> END{";
+
+    /** Compiled {@link #ENTRY_BEGIN_PATTERN}. */
+    private static final Pattern ENTRY_BEGIN =
+            Pattern.compile(ENTRY_BEGIN_PATTERN);
+
+    /** Compiled {@link #ENTRY_END_PATTERN}. */
+    private static final Pattern ENTRY_END =
+            Pattern.compile(ENTRY_END_PATTERN);
+
+    /** Offset basis of the 64 bit FNV-1a hash. */
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    /** Prime of the 64 bit FNV-1a hash. */
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /** An own entry found in the {@link #lines}. */
+    static final class Entry {
+        /** The lower case id of the host from the begin marker. */
+        private final String id;
+
+        /** The index of the begin marker line. */
+        private final int begin;
 
-    /** Java beans validation delegate. */
-    private ValidationDelegate validationDelegate;
+        /** The index after the end marker line. */
+        private int end;
+
+        /** The {@link #hash(List) hash} of the entry lines. */
+        private long hash;
+
+        /** Creates an entry.
+         * @param inId the lower case id of the host.
+         * @param inBegin the index of the begin marker line.
+         */
+        private Entry(final String inId, final int inBegin) {
+            this.id = inId;
+            this.begin = inBegin;
+        }
+    }
 
     /** Private constructor. */
     private SSHConfig() {
-        this.validationDelegate = new ValidationDelegate();
     }
 
     /**
@@ -110,6 +154,8 @@ public final class SSHConfig {
     }
 
     /** Save the file to the defined location.
+     * Neither the file nor its backup are touched if the file
+     * already has the content to save.
      * @param includeOwnPart include the generated host entries.
      * @param includePlainPart include the non-generated ssh config directives.
      * @param out the path to store the data in.
@@ -118,102 +164,542 @@ public final class SSHConfig {
     public void save(final boolean includeOwnPart,
             final boolean includePlainPart,
             final Path out) throws IOException {
-        Backup.moveToBackup(out);
-        List<String> allLines = new ArrayList<>();
-        if (includePlainPart) {
-            allLines.addAll(lines);
+        List<String> allLines = lines;
+        if (!includeOwnPart || !includePlainPart) {
+            allLines = new ArrayList<>();
+            for (int i = 0; i < lines.size(); i++) {
+                if (own.get(i) == includeOwnPart) {
+                    allLines.add(lines.get(i));
+                }
+            }
         }
-        if (includeOwnPart) {
-            allLines.addAll(own);
+        if (sameContent(out, allLines)) {
+            log.debug("Not writing unchanged {}", out);
+            return;
         }
+        Backup.moveToBackup(out);
         Files.write(out, allLines, Charset.forName(CHARSET));
     }
 
     /**
-     * Set the own configured hosts.
-     * @param hosts the hosts to set.
+     * Set the own configured hosts with the
+     * {@link HostTemplate#DEFAULT default template}.
+     * @param hosts the hosts to set. The hosts are expected to be
+     *              validated by the {@link Database} already.
+     * @see #pushOwn(List, HostTemplate)
      */
     public void pushOwn(
             final List<Host> hosts) {
-        removeOwnEntries();
-        validationDelegate.verify(hosts);
-        own = generateOwnEntries(hosts);
+        pushOwn(hosts, HostTemplate.DEFAULT);
     }
 
     /**
-     * Generate the own configured entries.
+     * Set the own configured hosts.
+     * Entries of hosts that changed are replaced in place,
+     * entries of hosts that are gone or disabled are removed,
+     * and entries of new hosts are appended. The other entries
+     * are kept as they are.
+     * @param hosts the hosts to set. The hosts are expected to be
+     *              validated by the {@link Database} already.
+     * @param template the template of the entries.
+     */
+    public void pushOwn(
+            final List<Host> hosts,
+            final HostTemplate template) {
+        List<Entry> entries = findOwnEntries();
+        Map<String, Host> wanted = new LinkedHashMap<>();
+        int disabled = 0;
+        for (Host h : hosts) {
+            if (Boolean.FALSE.equals(h.getEnabled())) {
+                disabled++;
+            } else {
+                wanted.putIfAbsent(h.getId().toString(), h);
+            }
+        }
+        logDisabled(disabled);
+
+        HostBlockRenderer renderer = new HostBlockRenderer(template);
+        List<String> result = new ArrayList<>(lines.size());
+        BitSet resultOwn = new BitSet(lines.size());
+        int changed = 0;
+        int next = 0;
+        for (Entry e : entries) {
+            result.addAll(lines.subList(next, e.begin));
+            next = e.end;
+            // also drops repeated entries of the same host
+            Host h = wanted.remove(e.id);
+            if (h == null) {
+                changed++;
+                continue;
+            }
+            List<String> entry;
+            if (hash(renderer.render(h)) == e.hash) {
+                entry = lines.subList(e.begin, e.end);
+            } else {
+                entry = renderer.lines();
+                changed++;
+            }
+            resultOwn.set(result.size(), result.size() + entry.size());
+            result.addAll(entry);
+        }
+        result.addAll(lines.subList(next, lines.size()));
+        for (Host h : wanted.values()) {
+            renderer.render(h);
+            List<String> entry = renderer.lines();
+            resultOwn.set(result.size(), result.size() + entry.size());
+            result.addAll(entry);
+            changed++;
+        }
+        log.debug("Changed {} of {} own entries", changed, entries.size());
+
+        lines = result;
+        own = resultOwn;
+    }
+
+    /**
+     * Generate the own configured entries with the
+     * {@link HostTemplate#DEFAULT default template}.
      * @param hosts the hosts to generate.
      * @return the list of lines for the own entries.
      */
-    private static List<String> generateOwnEntries(
+    static List<String> generateOwnEntries(
             final List<Host> hosts) {
         List<String> result = new ArrayList<>();
-
+        HostBlockRenderer renderer =
+                new HostBlockRenderer(HostTemplate.DEFAULT);
+        int disabled = 0;
         for (Host h : hosts) {
-            MDC.put("id", h.getId());
-            MDC.put("name", h.getName());
-            if (!h.getEnabled()) {
-                log.info("Skipping {}, disabled", h.getName());
-                continue;
+            if (Boolean.FALSE.equals(h.getEnabled())) {
+                disabled++;
+            } else {
+                renderer.render(h);
+                result.addAll(renderer.lines());
             }
+        }
+        logDisabled(disabled);
+        return result;
+    }
+
+    /** Logs the number of skipped disabled hosts.
+     * @param disabled the number of disabled hosts.
+     */
+    private static void logDisabled(final int disabled) {
+        if (disabled > 0) {
+            log.info("Skipping {} disabled hosts", disabled);
+        }
+    }
+
+    /**
+     * Rewrites an ssh config file with constant memory and the
+     * {@link HostTemplate#DEFAULT default template}.
+     * @param f the config file to rewrite.
+     * @param hosts the hosts to generate the own entries for.
+     * @throws IOException if reading or writing the configuration
+     * goes wrong.
+     * @see #rewrite(Path, Iterator, HostTemplate)
+     */
+    public static void rewrite(final Path f,
+            final Iterator<Host> hosts) throws IOException {
+        rewrite(f, hosts, HostTemplate.DEFAULT);
+    }
 
-            List<String> hostData = new ArrayList<>();
-            hostData.add(String.format(ENTRY_BEGIN_FORMAT,
-                    h.getId().toString()));
-            hostData.add(String.format("Host %s", h.getName()));
-            hostData.add(String.format("\tHostname %s", h.getFqdn()));
-            Stream.of(h.getIps()).forEach(
-                    ip -> hostData.add(String.format("\tHostname %s", ip)));
-            if (h.getUser() != null) {
-                hostData.add(String.format("\tUser %s", h.getUser()));
+    /**
+     * Rewrites an ssh config file with constant memory.
+     * The result is the same as {@link #fromPath(Path) loading},
+     * {@link #pushOwn(List, HostTemplate) pushing}
+     * and {@link #save() saving}: the own entries are replaced in place,
+     * and the entries of new hosts are appended in database order.
+     * Neither the config nor the hosts are held in memory, only the
+     * ids of the own entries in the file. Their new entries are spooled
+     * to a temporary file until they are copied to their place.
+     * @param f the config file to rewrite. Is backed up before being
+     *          replaced, and is left alone if its content
+     *          does not change.
+     * @param hosts the hosts to generate the own entries for.
+     *              Disabled hosts are skipped.
+     * @param template the template of the entries.
+     * @throws IOException if reading or writing the configuration
+     * goes wrong.
+     */
+    public static void rewrite(final Path f,
+            final Iterator<Host> hosts,
+            final HostTemplate template) throws IOException {
+        Charset charset = Charset.forName(CHARSET);
+        Path tmp = f.resolveSibling(f.getFileName() + ".tmp");
+        Path kept = f.resolveSibling(f.getFileName() + ".kept.tmp");
+        Path added = f.resolveSibling(f.getFileName() + ".added.tmp");
+        int disabled;
+        try (FileChannel keptChannel = FileChannel.open(kept,
+                     StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING,
+                     StandardOpenOption.READ,
+                     StandardOpenOption.WRITE);
+             BufferedWriter addedWriter =
+                     Files.newBufferedWriter(added, charset)) {
+            Map<String, Spooled> spooled = findOwnIds(f, charset);
+            disabled = spool(hosts, template, spooled,
+                    keptChannel, addedWriter, charset);
+            addedWriter.flush();
+            try (BufferedWriter writer =
+                         Files.newBufferedWriter(tmp, charset)) {
+                if (Files.exists(f)) {
+                    try (BufferedReader reader =
+                                 Files.newBufferedReader(f, charset)) {
+                        copyReplacingOwnEntries(reader, writer,
+                                spooled, keptChannel, charset);
+                    }
+                }
+                try (BufferedReader reader =
+                             Files.newBufferedReader(added, charset)) {
+                    copyLines(reader, writer);
+                }
             }
+        } catch (UncheckedIOException ex) {
+            Files.deleteIfExists(tmp);
+            throw ex.getCause();
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(tmp);
+            throw ex;
+        } finally {
+            Files.deleteIfExists(kept);
+            Files.deleteIfExists(added);
+        }
+        logDisabled(disabled);
+        if (sameContent(tmp, f)) {
+            log.debug("Not writing unchanged {}", f);
+            Files.delete(tmp);
+            return;
+        }
+        Backup.moveToBackup(f);
+        Files.move(tmp, f);
+    }
+
+    /** The position of a spooled entry in the temporary file. */
+    private static final class Spooled {
+        /** The byte offset of the entry. */
+        private final long position;
 
-            hostData.add(String.format(ENTRY_END_FORMAT, h.getId().toString()));
+        /** The byte length of the entry. */
+        private final int length;
 
-            log.debug("Host entry: {}", hostData);
-            result.addAll(hostData);
+        /** Creates a spooled entry.
+         * @param inPosition the byte offset of the entry.
+         * @param inLength the byte length of the entry.
+         */
+        private Spooled(final long inPosition, final int inLength) {
+            this.position = inPosition;
+            this.length = inLength;
         }
-        MDC.remove("id");
-        MDC.remove("name");
+    }
 
+    /** Finds the ids of the own entries of a file.
+     * @param f the config file to read.
+     * @param charset the charset of the file.
+     * @return the lower case ids, each mapped to {@code null}.
+     * @throws IOException if reading goes wrong.
+     */
+    private static Map<String, Spooled> findOwnIds(final Path f,
+            final Charset charset) throws IOException {
+        Map<String, Spooled> result = new HashMap<>();
+        if (!Files.exists(f)) {
+            return result;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(f, charset)) {
+            Splitter splitter = new Splitter();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                boolean begin = !splitter.inEntry;
+                if (splitter.isOwn(line) && begin) {
+                    result.put(idOf(line), null);
+                }
+            }
+        }
         return result;
     }
 
-    /** Remove own entries from {@link #lines}. */
-    private void removeOwnEntries() {
-        List<Integer> removeIndexes = new ArrayList<>();
-        List<String> ownEntries = new ArrayList<>();
+    /** Renders the entries of the hosts. Entries of hosts that have an
+     * entry in the file are spooled for
+     * {@link #copyReplacingOwnEntries(BufferedReader, BufferedWriter,
+     * Map, FileChannel, Charset)}, the others are written in order.
+     * @param hosts the hosts to render.
+     * @param template the template of the entries.
+     * @param spooled the ids of the own entries in the file, mapped to
+     *                the spooled entries so far. Gets the positions
+     *                of the spooled entries.
+     * @param kept the temporary file to spool entries to.
+     * @param added the writer for the entries of the other hosts.
+     * @param charset the charset of the file.
+     * @return the number of skipped disabled hosts.
+     * @throws IOException if writing goes wrong.
+     */
+    private static int spool(final Iterator<Host> hosts,
+            final HostTemplate template,
+            final Map<String, Spooled> spooled,
+            final FileChannel kept,
+            final BufferedWriter added,
+            final Charset charset) throws IOException {
+        HostBlockRenderer renderer = new HostBlockRenderer(template);
+        StringWriter entry = new StringWriter();
+        int disabled = 0;
+        while (hosts.hasNext()) {
+            Host h = hosts.next();
+            String id = h.getId().toString();
+            if (Boolean.FALSE.equals(h.getEnabled())) {
+                disabled++;
+            } else if (!spooled.containsKey(id)) {
+                renderer.render(h, added);
+            } else if (spooled.get(id) == null) {
+                // the first of repeated hosts wins like in pushOwn
+                entry.getBuffer().setLength(0);
+                renderer.render(h, entry);
+                ByteBuffer bytes = charset.encode(entry.toString());
+                long position = kept.position();
+                int length = bytes.remaining();
+                while (bytes.hasRemaining()) {
+                    kept.write(bytes);
+                }
+                spooled.put(id, new Spooled(position, length));
+            }
+        }
+        return disabled;
+    }
+
+    /** Copies the plain lines and replaces the own entries with the
+     * spooled entries. Own entries without a spooled entry and
+     * repeated own entries are dropped.
+     * @param reader the config to read.
+     * @param writer the writer to copy to.
+     * @param spooled the spooled entries by lower case id.
+     *                The copied entries are removed.
+     * @param kept the temporary file with the spooled entries.
+     * @param charset the charset of the file.
+     * @throws IOException if reading or writing goes wrong.
+     */
+    private static void copyReplacingOwnEntries(final BufferedReader reader,
+            final BufferedWriter writer,
+            final Map<String, Spooled> spooled,
+            final FileChannel kept,
+            final Charset charset) throws IOException {
+        Splitter splitter = new Splitter();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            boolean begin = !splitter.inEntry;
+            if (!splitter.isOwn(line)) {
+                writer.write(line);
+                writer.newLine();
+            } else if (begin) {
+                Spooled entry = spooled.remove(idOf(line));
+                if (entry != null) {
+                    ByteBuffer bytes = ByteBuffer.allocate(entry.length);
+                    while (bytes.hasRemaining()) {
+                        if (kept.read(bytes,
+                                entry.position + bytes.position()) < 0) {
+                            throw new EOFException("Spooled entry is cut");
+                        }
+                    }
+                    bytes.flip();
+                    writer.append(charset.decode(bytes));
+                }
+            }
+        }
+    }
+
+    /** Copies all lines.
+     * @param reader the lines to read.
+     * @param writer the writer to copy the lines to.
+     * @throws IOException if reading or writing goes wrong.
+     */
+    private static void copyLines(final BufferedReader reader,
+            final BufferedWriter writer) throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            writer.write(line);
+            writer.newLine();
+        }
+    }
+
+    /** Gets the id of a begin marker line.
+     * @param line the begin marker line.
+     * @return the lower case id of the host.
+     */
+    private static String idOf(final String line) {
+        return line.substring(ENTRY_BEGIN_PREFIX.length(),
+                line.length() - 1).toLowerCase(Locale.ROOT);
+    }
+
+    /** Checks whether a file has the content that saving the lines
+     * would give.
+     * @param f the file to compare.
+     * @param expected the lines to compare, without line separators.
+     * @return {@code true} if the file exists and has exactly the
+     * content.
+     * @throws IOException if reading the file goes wrong.
+     */
+    private static boolean sameContent(final Path f,
+            final List<String> expected) throws IOException {
+        if (!Files.exists(f)) {
+            return false;
+        }
+        Charset charset = Charset.forName(CHARSET);
+        byte[] separator = System.lineSeparator().getBytes(charset);
+        byte[] content = Files.readAllBytes(f);
+        int offset = 0;
+        for (String line : expected) {
+            offset = regionMatches(content, offset, line.getBytes(charset));
+            offset = regionMatches(content, offset, separator);
+        }
+        return offset == content.length;
+    }
+    /** Checks whether two files have the same content.
+     * @param f the file to compare.
+     * @param other the other file to compare.
+     * @return {@code true} if the other file exists and has exactly
+     * the content of the file.
+     * @throws IOException if reading the files goes wrong.
+     */
+    private static boolean sameContent(final Path f,
+            final Path other) throws IOException {
+        if (!Files.exists(other) || Files.size(f) != Files.size(other)) {
+            return false;
+        }
+        try (InputStream in =
+                     new BufferedInputStream(Files.newInputStream(f));
+             InputStream otherIn =
+                     new BufferedInputStream(Files.newInputStream(other))) {
+            int b;
+            do {
+                b = in.read();
+                if (b != otherIn.read()) {
+                    return false;
+                }
+            } while (b != -1);
+            return true;
+        }
+    }
+
+    /** Compares bytes of an array.
+     * @param content the array to look at.
+     * @param offset the offset in the array to compare at, or -1.
+     * @param expected the bytes expected at the offset.
+     * @return the offset after the expected bytes, or -1 if the
+     * array has other bytes at the offset.
+     */
+    private static int regionMatches(final byte[] content,
+            final int offset, final byte[] expected) {
+        if (offset == -1 || offset + expected.length > content.length) {
+            return -1;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (content[offset + i] != expected[i]) {
+                return -1;
+            }
+        }
+        return offset + expected.length;
+    }
+
+    /** Calculates the 64 bit FNV-1a hash of the lines of an entry.
+     * @param entry the lines of the entry.
+     * @return the hash of the lines and their line ends.
+     */
+    static long hash(final List<String> entry) {
+        long result = FNV_OFFSET;
+        for (String line : entry) {
+            result = hash(result, line);
+            result = (result ^ '\n') * FNV_PRIME;
+        }
+        return result;
+    }
 
-        Pattern begin = Pattern.compile(ENTRY_BEGIN_PATTERN);
-        Pattern end = Pattern.compile(ENTRY_END_PATTERN);
+    /** Calculates the 64 bit FNV-1a hash of a rendered entry.
+     * @param entry the lines of the entry, each terminated by
+     *              {@code '\n'}.
+     * @return the same hash as {@link #hash(List)} of the lines.
+     */
+    static long hash(final CharSequence entry) {
+        return hash(FNV_OFFSET, entry);
+    }
 
-        boolean inEntry = false;
+    /** Continues the 64 bit FNV-1a hash with characters.
+     * @param hash the hash so far.
+     * @param chars the characters to add.
+     * @return the new hash.
+     */
+    private static long hash(final long hash, final CharSequence chars) {
+        long result = hash;
+        for (int i = 0; i < chars.length(); i++) {
+            result = (result ^ chars.charAt(i)) * FNV_PRIME;
+        }
+        return result;
+    }
+
+    /** Find the own entries in {@link #lines}.
+     * Marks the own lines in {@link #own} and hashes each entry
+     * in a single pass.
+     * @return the own entries in file order.
+     */
+    List<Entry> findOwnEntries() {
+        own = new BitSet(lines.size());
+        List<Entry> entries = new ArrayList<>();
+        Entry current = null;
+
+        Splitter splitter = new Splitter();
         for (int i = 0; i < lines.size(); i++) {
             String line = lines.get(i);
+            if (!splitter.isOwn(line)) {
+                continue;
+            }
+            own.set(i);
+            if (current == null) {
+                current = new Entry(idOf(line), i);
+                entries.add(current);
+            }
+            if (!splitter.inEntry) {
+                current.end = i + 1;
+                current = null;
+            }
+        }
+        if (current != null) {
+            current.end = lines.size();
+        }
+        for (Entry e : entries) {
+            e.hash = hash(lines.subList(e.begin, e.end));
+        }
+
+        log.debug("Found {} own entries in {} lines", entries.size(),
+                own.cardinality());
+        return entries;
+    }
 
-            if (begin.matcher(line).matches()) {
+    /** Tells own entry lines from plain lines, one line after
+     * the other.
+     * Only lines starting with a marker prefix are matched
+     * against the marker patterns.
+     */
+    private static final class Splitter {
+        /** Whether the last line was inside an own entry. */
+        private boolean inEntry;
+
+        /** Checks the next line.
+         * @param line the next line of the config.
+         * @return {@code true} if the line belongs to an own entry,
+         * including the begin and end markers.
+         */
+        private boolean isOwn(final String line) {
+            if (!inEntry
+                    && line.startsWith(ENTRY_BEGIN_PREFIX)
+                    && ENTRY_BEGIN.matcher(line).matches()) {
                 inEntry = true;
                 log.debug("Found start: {}", line);
             }
-
-            if (inEntry) {
-                ownEntries.add(line);
-                removeIndexes.add(i);
+            if (!inEntry) {
+                return false;
             }
-
-            if (end.matcher(line).matches()) {
+            if (line.startsWith(ENTRY_END_PREFIX)
+                    && ENTRY_END.matcher(line).matches()) {
                 inEntry = false;
                 log.debug("Found end: {}", line);
             }
+            return true;
         }
-
-        log.debug("Found {} lines to remove", removeIndexes.size());
-
-        removeIndexes
-                .stream()
-                .sorted(Comparator.comparingInt(a -> -a))
-                .forEach(i -> lines.remove(i.intValue()));
-
-        own = ownEntries;
     }
 }
@@ -0,0 +1,505 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.file;
+
+import com.oneandone.sshconfig.bind.Host;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * A search index file of the host names for shell completion.
+ * The names, fully qualified domain names and groups of the enabled
+ * hosts are the keys, and a query gives the names of the hosts with a
+ * matching key. The file is memory mapped and searched without
+ * creating objects per host, so a query does not need to parse the
+ * database.
+ * <p>
+ * The file starts with the int {@link #MAGIC}, the int
+ * {@link #VERSION}, the int number of names and the int number of
+ * keys. The sorted table of the int name offsets follows, then the
+ * key table of an int key offset and an int name number per key,
+ * sorted by the unsigned UTF-8 bytes of the key. The strings the
+ * offsets point to are an int byte length followed by the UTF-8
+ * bytes. All numbers are big endian.
+ * </p>
+ * @author Stephan Fuhrmann
+ */
+public final class SearchIndex {
+    /** The magic number starting a file, {@code "SCIX"}. */
+    static final int MAGIC = 0x53434958;
+
+    /** The version written. Readers reject other versions. */
+    static final int VERSION = 1;
+
+    /** The position of the version. */
+    private static final int VERSION_POSITION = Integer.BYTES;
+
+    /** The position of the number of names. */
+    private static final int NAMES_POSITION =
+            VERSION_POSITION + Integer.BYTES;
+
+    /** The position of the number of keys. */
+    private static final int KEYS_POSITION = NAMES_POSITION + Integer.BYTES;
+
+    /** The size of the magic, version and counts. */
+    private static final int HEADER_SIZE = KEYS_POSITION + Integer.BYTES;
+
+    /** The size of an entry of the key table. */
+    private static final int KEY_SIZE = 2 * Integer.BYTES;
+
+    /** Suffix for the index file. */
+    private static final String INDEX_SUFFIX = ".idx";
+
+    /** The wildcard of the query patterns. */
+    private static final char WILDCARD = '*';
+
+    /** The mapped file. */
+    private final ByteBuffer buffer;
+
+    /** The number of distinct names. */
+    private final int names;
+
+    /** The number of keys. */
+    private final int keys;
+
+    /** The position of the key table. */
+    private final int keyTable;
+
+    /** The position of the strings. */
+    private final int stringStart;
+
+    /** Creates an index on a mapped file.
+     * @param inBuffer the mapped file.
+     * @throws IOException if the file is no index file or is cut.
+     */
+    private SearchIndex(final ByteBuffer inBuffer) throws IOException {
+        this.buffer = inBuffer;
+        if (buffer.capacity() < HEADER_SIZE
+                || buffer.getInt(0) != MAGIC
+                || buffer.getInt(VERSION_POSITION) != VERSION) {
+            throw new IOException("Not a search index of version "
+                    + VERSION);
+        }
+        this.names = buffer.getInt(NAMES_POSITION);
+        this.keys = buffer.getInt(KEYS_POSITION);
+        if (names < 0 || keys < 0
+                || HEADER_SIZE + (long) names * Integer.BYTES
+                + (long) keys * KEY_SIZE > buffer.capacity()) {
+            throw new IOException("Truncated search index");
+        }
+        this.keyTable = HEADER_SIZE + names * Integer.BYTES;
+        this.stringStart = keyTable + keys * KEY_SIZE;
+        checkTables();
+    }
+
+    /** Checks that the tables point to complete strings and existing
+     * names, so a query never reads beyond the file.
+     * @throws IOException if an offset or a name number is out of
+     * range.
+     */
+    private void checkTables() throws IOException {
+        for (int i = 0; i < names; i++) {
+            checkString(buffer.getInt(HEADER_SIZE + i * Integer.BYTES));
+        }
+        for (int i = 0; i < keys; i++) {
+            checkString(keyOffset(i));
+            if (nameOf(i) < 0 || nameOf(i) >= names) {
+                throw new IOException("Bad name number in search index");
+            }
+        }
+    }
+
+    /** Checks that a string is in the string area.
+     * @param offset the offset of the length of the string.
+     * @throws IOException if the string is not within the file.
+     */
+    private void checkString(final int offset) throws IOException {
+        if (offset < stringStart
+                || offset > buffer.capacity() - Integer.BYTES
+                || buffer.getInt(offset) < 0
+                || (long) offset + Integer.BYTES + buffer.getInt(offset)
+                > buffer.capacity()) {
+            throw new IOException("Truncated search index");
+        }
+    }
+
+    /** Gets the index file of a database file.
+     * @param database the database file.
+     * @return the index file next to the database.
+     */
+    public static Path pathOf(final Path database) {
+        return database.resolveSibling(
+                database.getFileName() + INDEX_SUFFIX);
+    }
+
+    /** Whether an index file has all changes of its database.
+     * @param index the index file.
+     * @param database the database file.
+     * @return {@code true} if the index exists and was written after
+     * the database and its journal.
+     * @throws IOException if the dates of the files can not be read.
+     */
+    public static boolean isCurrent(final Path index, final Path database)
+            throws IOException {
+        if (!Files.exists(index)) {
+            return false;
+        }
+        long written = Files.getLastModifiedTime(index).toMillis();
+        Path journal = database.resolveSibling(
+                database.getFileName() + Journal.JOURNAL_SUFFIX);
+        for (Path source : new Path[] {database, journal}) {
+            if (Files.exists(source)
+                    && Files.getLastModifiedTime(source).toMillis()
+                    > written) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Maps an index file.
+     * @param f the index file.
+     * @return the index.
+     * @throws IOException if the file can not be read or is no
+     * index file.
+     */
+    public static SearchIndex open(final Path f) throws IOException {
+        try (FileChannel channel = FileChannel.open(f,
+                StandardOpenOption.READ)) {
+            return new SearchIndex(channel.map(
+                    FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /** Writes the index of the enabled hosts. The file is written to
+     * a unique temporary file and replaced atomically, so neither
+     * readers of the old file nor concurrent writers are disturbed.
+     * @param f the index file to write.
+     * @param hosts the hosts to index.
+     * @throws IOException if writing fails.
+     */
+    static void write(final Path f, final Iterable<Host> hosts)
+            throws IOException {
+        TreeSet<String> nameSet = new TreeSet<>();
+        List<String[]> entries = new ArrayList<>();
+        for (Host h : hosts) {
+            if (Boolean.FALSE.equals(h.getEnabled())
+                    || h.getName() == null) {
+                continue;
+            }
+            nameSet.add(h.getName());
+            entries.add(new String[] {h.getName(), h.getFqdn(),
+                    h.getGroup()});
+        }
+        Map<String, Integer> nameNumbers = new HashMap<>();
+        for (String name : nameSet) {
+            nameNumbers.put(name, nameNumbers.size());
+        }
+        TreeSet<Key> keySet = new TreeSet<>();
+        for (String[] entry : entries) {
+            int name = nameNumbers.get(entry[0]);
+            for (String key : entry) {
+                if (key != null) {
+                    keySet.add(new Key(key, name));
+                }
+            }
+        }
+
+        int stringStart = HEADER_SIZE + nameSet.size() * Integer.BYTES
+                + keySet.size() * KEY_SIZE;
+        ByteArrayOutputStream strings = new ByteArrayOutputStream();
+        DataOutputStream stringOut = new DataOutputStream(strings);
+        Map<String, Integer> offsets = new HashMap<>();
+        Path tmp = Files.createTempFile(f.toAbsolutePath().getParent(),
+                f.getFileName() + ".", ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(nameSet.size());
+            out.writeInt(keySet.size());
+            for (String name : nameSet) {
+                out.writeInt(stringStart
+                        + offsetOf(name, offsets, stringOut));
+            }
+            for (Key key : keySet) {
+                out.writeInt(stringStart
+                        + offsetOf(key.text, offsets, stringOut));
+                out.writeInt(key.name);
+            }
+            strings.writeTo(out);
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(tmp);
+            throw ex;
+        }
+        Files.move(tmp, f, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Gets the offset of a string in the string area, appending the
+     * string if it is not there yet.
+     * @param text the string.
+     * @param offsets the offsets of the strings appended so far.
+     * @param out the string area.
+     * @return the offset relative to the start of the string area.
+     * @throws IOException if writing fails.
+     */
+    private static int offsetOf(final String text,
+            final Map<String, Integer> offsets,
+            final DataOutputStream out) throws IOException {
+        Integer offset = offsets.get(text);
+        if (offset == null) {
+            offset = out.size();
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            offsets.put(text, offset);
+        }
+        return offset;
+    }
+
+    /** A key of a name, ordered by the unsigned UTF-8 bytes. */
+    private static final class Key implements Comparable<Key> {
+        /** The key. */
+        private final String text;
+
+        /** The UTF-8 bytes of the key. */
+        private final byte[] bytes;
+
+        /** The number of the name. */
+        private final int name;
+
+        /** Creates a key.
+         * @param inText the key.
+         * @param inName the number of the name.
+         */
+        private Key(final String inText, final int inName) {
+            this.text = inText;
+            this.bytes = inText.getBytes(StandardCharsets.UTF_8);
+            this.name = inName;
+        }
+
+        @Override
+        public int compareTo(final Key o) {
+            int n = Math.min(bytes.length, o.bytes.length);
+            for (int i = 0; i < n; i++) {
+                int c = Byte.toUnsignedInt(bytes[i])
+                        - Byte.toUnsignedInt(o.bytes[i]);
+                if (c != 0) {
+                    return c;
+                }
+            }
+            if (bytes.length != o.bytes.length) {
+                return bytes.length - o.bytes.length;
+            }
+            return Integer.compare(name, o.name);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof Key && compareTo((Key) o) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return text.hashCode() * Integer.SIZE + name;
+        }
+    }
+
+    /** Gets the number of distinct names.
+     * @return the number of names.
+     */
+    public int size() {
+        return names;
+    }
+
+    /** Finds the names of the hosts matching a pattern.
+     * A pattern starting with {@code *} matches keys containing the
+     * rest of the pattern, other patterns match keys starting with
+     * them. A trailing {@code *} is ignored.
+     * @param pattern the pattern to match the names, fully qualified
+     *                domain names and groups with.
+     * @return the matching names in ascending order.
+     */
+    public List<String> query(final String pattern) {
+        int start = 0;
+        int end = pattern.length();
+        while (end > 0 && pattern.charAt(end - 1) == WILDCARD) {
+            end--;
+        }
+        boolean contains = false;
+        while (start < end && pattern.charAt(start) == WILDCARD) {
+            start++;
+            contains = true;
+        }
+        byte[] search = pattern.substring(start, end)
+                .getBytes(StandardCharsets.UTF_8);
+        BitSet matches = new BitSet(names);
+        if (contains) {
+            // a scan of all keys is faster on a copy of the strings
+            byte[] strings = new byte[buffer.capacity() - stringStart];
+            ByteBuffer copy = buffer.duplicate();
+            copy.position(stringStart);
+            copy.get(strings);
+            ByteBuffer lengths = ByteBuffer.wrap(strings);
+            for (int i = 0; i < keys; i++) {
+                int offset = keyOffset(i) - stringStart;
+                if (contains(strings, offset + Integer.BYTES,
+                        lengths.getInt(offset), search)) {
+                    matches.set(nameOf(i));
+                }
+            }
+        } else {
+            for (int i = firstKeyNotBelow(search);
+                    i < keys && keyStartsWith(i, search); i++) {
+                matches.set(nameOf(i));
+            }
+        }
+        List<String> result = new ArrayList<>(matches.cardinality());
+        for (int i = matches.nextSetBit(0); i >= 0;
+                i = matches.nextSetBit(i + 1)) {
+            result.add(string(buffer.getInt(HEADER_SIZE
+                    + i * Integer.BYTES)));
+        }
+        return result;
+    }
+
+    /** Gets the offset of the string of a key.
+     * @param key the number of the key.
+     * @return the offset of the length of the string.
+     */
+    private int keyOffset(final int key) {
+        return buffer.getInt(keyTable + key * KEY_SIZE);
+    }
+
+    /** Gets the number of the name of a key.
+     * @param key the number of the key.
+     * @return the number of the name.
+     */
+    private int nameOf(final int key) {
+        return buffer.getInt(keyTable + key * KEY_SIZE + Integer.BYTES);
+    }
+
+    /** Reads a string.
+     * @param offset the offset of the length of the string.
+     * @return the string.
+     */
+    private String string(final int offset) {
+        byte[] bytes = new byte[buffer.getInt(offset)];
+        ByteBuffer copy = buffer.duplicate();
+        copy.position(offset + Integer.BYTES);
+        copy.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Compares a key with bytes like {@link Key#compareTo(Key)}
+     * without the name.
+     * @param key the number of the key.
+     * @param bytes the bytes to compare with.
+     * @return a negative number, zero or a positive number if the key
+     * is less than, equal to or greater than the bytes.
+     */
+    private int compare(final int key, final byte[] bytes) {
+        int offset = keyOffset(key);
+        int length = buffer.getInt(offset);
+        int n = Math.min(length, bytes.length);
+        for (int i = 0; i < n; i++) {
+            int c = Byte.toUnsignedInt(
+                    buffer.get(offset + Integer.BYTES + i))
+                    - Byte.toUnsignedInt(bytes[i]);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return length - bytes.length;
+    }
+
+    /** Finds the first key that is not less than bytes by binary
+     * search.
+     * @param bytes the bytes to look for.
+     * @return the number of the key or the number of keys if all keys
+     * are less.
+     */
+    private int firstKeyNotBelow(final byte[] bytes) {
+        int low = 0;
+        int high = keys;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(mid, bytes) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /** Whether a key starts with bytes.
+     * @param key the number of the key.
+     * @param prefix the bytes to look for.
+     * @return {@code true} if the key starts with the bytes.
+     */
+    private boolean keyStartsWith(final int key, final byte[] prefix) {
+        int offset = keyOffset(key);
+        if (buffer.getInt(offset) < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer.get(offset + Integer.BYTES + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Whether a string contains bytes.
+     * @param strings the copy of the strings.
+     * @param start the offset of the bytes of the string in the copy.
+     * @param length the number of bytes of the string.
+     * @param part the bytes to look for.
+     * @return {@code true} if the string contains the bytes.
+     */
+    private static boolean contains(final byte[] strings, final int start,
+            final int length, final byte[] part) {
+        int last = start + length - part.length;
+        for (int i = start; i <= last; i++) {
+            int j = 0;
+            while (j < part.length && strings[i + j] == part[j]) {
+                j++;
+            }
+            if (j == part.length) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
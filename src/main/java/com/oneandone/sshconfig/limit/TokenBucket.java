@@ -0,0 +1,111 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.limit;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * A token bucket limiting the rate of requests.
+ * Every request takes a token, and tokens are added at a fixed rate
+ * up to a small burst, so requests are spread evenly over time.
+ * Implemented as generic cell rate algorithm, only keeping the point
+ * in time when the bucket would be empty again. Thread safe.
+ * @author Stephan Fuhrmann
+ */
+public final class TokenBucket {
+    /** The fraction of a second of tokens the bucket holds. */
+    private static final int BURST_DIVISOR = 10;
+
+    /** The nanoseconds between two tokens. */
+    private final long interval;
+
+    /** The nanoseconds of tokens the bucket holds. */
+    private final long capacity;
+
+    /** The clock returning the current time in nanoseconds. */
+    private final LongSupplier clock;
+
+    /** The point in time when all taken tokens are paid back,
+     * in {@link #clock} units. */
+    private long paidBack;
+
+    /** Creates a bucket that holds a tenth of a second of tokens,
+     * but at least one token.
+     * @param inRate the number of tokens per second.
+     * @throws IllegalArgumentException if the rate is not positive.
+     */
+    public TokenBucket(final int inRate) {
+        this(inRate, Math.max(1, inRate / BURST_DIVISOR), System::nanoTime);
+    }
+
+    /** Creates a bucket.
+     * @param inRate the number of tokens per second.
+     * @param inBurst the number of tokens the bucket holds.
+     * @param inClock the clock returning the current time in nanoseconds.
+     * @throws IllegalArgumentException if the rate or the burst is not
+     * positive.
+     */
+    TokenBucket(final int inRate, final int inBurst,
+            final LongSupplier inClock) {
+        if (inRate <= 0) {
+            throw new IllegalArgumentException(
+                    "rate must be positive: " + inRate);
+        }
+        if (inBurst <= 0) {
+            throw new IllegalArgumentException(
+                    "burst must be positive: " + inBurst);
+        }
+        this.interval = TimeUnit.SECONDS.toNanos(1) / inRate;
+        this.capacity = interval * inBurst;
+        this.clock = Objects.requireNonNull(inClock);
+        this.paidBack = clock.getAsLong();
+    }
+
+    /** Takes a token if there is one.
+     * @return {@code true} if a token was taken.
+     */
+    public synchronized boolean tryAcquire() {
+        long now = clock.getAsLong();
+        long next = Math.max(paidBack, now) + interval;
+        if (next - now > capacity) {
+            return false;
+        }
+        paidBack = next;
+        return true;
+    }
+
+    /** Takes a token, possibly one that is only added in the future.
+     * @return the nanoseconds to wait before the token may be used,
+     * 0 if it may be used right away.
+     */
+    public synchronized long reserve() {
+        long now = clock.getAsLong();
+        paidBack = Math.max(paidBack, now) + interval;
+        return Math.max(0, paidBack - now - capacity);
+    }
+
+    /** Gets the time until {@link #tryAcquire()} succeeds.
+     * @return the nanoseconds until there is a token, 0 if there is
+     * one now.
+     */
+    public synchronized long nanosUntilAvailable() {
+        long now = clock.getAsLong();
+        return Math.max(0, Math.max(paidBack, now) + interval - now
+                - capacity);
+    }
+}
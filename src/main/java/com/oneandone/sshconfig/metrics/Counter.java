@@ -0,0 +1,65 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A count that only goes up. Thread safe and cheap to increment
+ * from many threads.
+ * @author Stephan Fuhrmann
+ */
+public final class Counter extends Metric {
+    /** The count. */
+    private final LongAdder count = new LongAdder();
+
+    /** Creates a counter.
+     * @param inName the name of the metric.
+     * @param inHelp the description of the metric.
+     * @param inLabelName the name of the label or {@code null}.
+     * @param inLabelValue the value of the label or {@code null}.
+     */
+    Counter(final String inName,
+            final String inHelp,
+            final String inLabelName,
+            final String inLabelValue) {
+        super(inName, inHelp, inLabelName, inLabelValue);
+    }
+
+    /** Adds one. */
+    public void inc() {
+        count.increment();
+    }
+
+    /** Adds to the count.
+     * @param n the number to add, not negative.
+     */
+    public void add(final long n) {
+        count.add(n);
+    }
+
+    /** Gets the count.
+     * @return the sum of all increments.
+     */
+    public long get() {
+        return count.sum();
+    }
+
+    @Override
+    String getType() {
+        return "counter";
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.metrics;
+
+/**
+ * A value that is set, like a duration or a rate. Thread safe.
+ * @author Stephan Fuhrmann
+ */
+public final class Gauge extends Metric {
+    /** The value. */
+    private volatile double value;
+
+    /** Creates a gauge.
+     * @param inName the name of the metric.
+     * @param inHelp the description of the metric.
+     */
+    Gauge(final String inName, final String inHelp) {
+        super(inName, inHelp, null, null);
+    }
+
+    /** Sets the value.
+     * @param inValue the new value.
+     */
+    public void set(final double inValue) {
+        this.value = inValue;
+    }
+
+    /** Gets the value.
+     * @return the value set last, or 0.
+     */
+    public double get() {
+        return value;
+    }
+
+    @Override
+    String getType() {
+        return "gauge";
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The distribution of durations in nanoseconds.
+ * The durations are counted in buckets that split every power of
+ * two into {@link #SUB_BUCKETS} parts, so a quantile is at most
+ * 12.5 percent above the real value, and recording needs neither
+ * locks nor allocations. The maximum is exact.
+ * @author Stephan Fuhrmann
+ */
+public final class Histogram extends Metric {
+    /** The bits of a value that select the bucket within its power
+     * of two. */
+    private static final int SUB_BITS = 3;
+
+    /** The number of buckets per power of two. */
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    /** The number of buckets for all long values. */
+    static final int BUCKETS = (Long.SIZE - SUB_BITS) * SUB_BUCKETS;
+
+    /** The counts of the buckets. */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /** The number of recorded durations. */
+    private final LongAdder count = new LongAdder();
+
+    /** The sum of the recorded durations. */
+    private final LongAdder sum = new LongAdder();
+
+    /** The longest recorded duration. */
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /** Creates a histogram.
+     * @param inName the name of the metric.
+     * @param inHelp the description of the metric.
+     */
+    Histogram(final String inName, final String inHelp) {
+        super(inName, inHelp, null, null);
+    }
+
+    /** Gets the bucket of a value.
+     * @param value the value, not negative.
+     * @return the index of the bucket.
+     */
+    static int bucketOf(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS
+                + (int) ((value >>> (exponent - SUB_BITS)) - SUB_BUCKETS);
+    }
+
+    /** Gets the lowest value of a bucket.
+     * @param bucket the index of the bucket.
+     * @return the lowest value counted in the bucket.
+     */
+    static long lowestOf(final int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS)
+                << (exponent - SUB_BITS);
+    }
+
+    /** Records a duration.
+     * @param nanos the duration in nanoseconds. Negative durations
+     *              are recorded as 0.
+     */
+    public void record(final long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucketOf(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /** Records the duration since a point in time.
+     * @param startNanos the start in {@link System#nanoTime()} units.
+     */
+    public void recordSince(final long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /** Gets the number of recorded durations.
+     * @return the number of durations.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /** Gets the sum of the recorded durations.
+     * @return the sum in nanoseconds.
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /** Gets the longest recorded duration.
+     * @return the maximum in nanoseconds, or 0 if nothing was recorded.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /** Gets a quantile of the recorded durations.
+     * @param quantile the quantile between 0 and 1, like 0.95.
+     * @return the highest value of the bucket of the quantile, but at
+     * most the maximum, in nanoseconds, or 0 if nothing was recorded.
+     */
+    public long quantile(final double quantile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        int bucket = 0;
+        while (bucket < BUCKETS - 1) {
+            seen += snapshot[bucket];
+            if (seen >= rank) {
+                break;
+            }
+            bucket++;
+        }
+        long highest = Long.MAX_VALUE;
+        if (bucket < BUCKETS - 1) {
+            highest = lowestOf(bucket + 1) - 1;
+        }
+        return Math.min(highest, getMax());
+    }
+
+    @Override
+    String getType() {
+        return "summary";
+    }
+}
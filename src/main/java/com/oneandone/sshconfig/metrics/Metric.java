@@ -0,0 +1,64 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.metrics;
+
+import lombok.Getter;
+
+import java.util.Objects;
+
+/**
+ * A named measurement with an optional label.
+ * Create metrics with the factory methods of {@link Metrics}.
+ * @author Stephan Fuhrmann
+ */
+public abstract class Metric {
+    /** The name, like {@code sshconfig_probes_total}. */
+    @Getter
+    private final String name;
+
+    /** The description of the metric. */
+    @Getter
+    private final String help;
+
+    /** The name of the label, or {@code null} if unlabeled. */
+    @Getter
+    private final String labelName;
+
+    /** The value of the label, or {@code null} if unlabeled. */
+    @Getter
+    private final String labelValue;
+
+    /** Creates a metric.
+     * @param inName the name of the metric.
+     * @param inHelp the description of the metric.
+     * @param inLabelName the name of the label or {@code null}.
+     * @param inLabelValue the value of the label or {@code null}.
+     */
+    Metric(final String inName,
+            final String inHelp,
+            final String inLabelName,
+            final String inLabelValue) {
+        this.name = Objects.requireNonNull(inName);
+        this.help = Objects.requireNonNull(inHelp);
+        this.labelName = inLabelName;
+        this.labelValue = inLabelValue;
+    }
+
+    /** Gets the type of the metric in the Prometheus text format.
+     * @return the type, like {@code counter}.
+     */
+    abstract String getType();
+}
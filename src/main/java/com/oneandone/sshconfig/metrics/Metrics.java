@@ -0,0 +1,160 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Function;
+
+/**
+ * The process-wide registry of the metrics.
+ * Like loggers, metrics are usually kept in static fields of the
+ * class that measures, and asking twice for a metric gives the same
+ * instance.
+ * @author Stephan Fuhrmann
+ */
+public final class Metrics {
+    /** The key of unlabeled metrics. */
+    private static final String NO_LABEL = "";
+
+    /** The metrics by name and label value. */
+    private static final Map<String, Map<String, Metric>> REGISTRY =
+            new ConcurrentSkipListMap<>();
+
+    /** No instances. */
+    private Metrics() {
+    }
+
+    /** Gets a metric or registers a new one.
+     * @param name the name of the metric.
+     * @param labelValue the value of the label or {@link #NO_LABEL}.
+     * @param type the class of the metric.
+     * @param factory creates the metric if it is not registered yet.
+     * @param <T> the class of the metric.
+     * @return the registered metric.
+     * @throws IllegalArgumentException if the name is registered with
+     * another type.
+     */
+    private static <T extends Metric> T get(final String name,
+            final String labelValue,
+            final Class<T> type,
+            final Function<String, T> factory) {
+        Map<String, Metric> byLabel = REGISTRY
+                .computeIfAbsent(name, k -> new ConcurrentSkipListMap<>());
+        synchronized (byLabel) {
+            for (Metric metric : byLabel.values()) {
+                if (!type.isInstance(metric)) {
+                    throw new IllegalArgumentException("Metric " + name
+                            + " is a " + metric.getType());
+                }
+            }
+            return type.cast(byLabel.computeIfAbsent(labelValue, factory));
+        }
+    }
+
+    /** Gets a counter.
+     * @param name the name of the counter, ending in {@code _total}.
+     * @param help the description of the counter.
+     * @return the counter.
+     */
+    public static Counter counter(final String name, final String help) {
+        return get(name, NO_LABEL, Counter.class,
+                k -> new Counter(name, help, null, null));
+    }
+
+    /** Gets a counter of a label value, like the failures of a cause.
+     * @param name the name of the counter, ending in {@code _total}.
+     * @param help the description of the counter.
+     * @param labelName the name of the label.
+     * @param labelValue the value of the label.
+     * @return the counter of the label value.
+     */
+    public static Counter counter(final String name,
+            final String help,
+            final String labelName,
+            final String labelValue) {
+        return get(name, labelValue, Counter.class,
+                k -> new Counter(name, help, labelName, labelValue));
+    }
+
+    /** Gets a gauge.
+     * @param name the name of the gauge.
+     * @param help the description of the gauge.
+     * @return the gauge.
+     */
+    public static Gauge gauge(final String name, final String help) {
+        return get(name, NO_LABEL, Gauge.class,
+                k -> new Gauge(name, help));
+    }
+
+    /** Gets a histogram of durations.
+     * @param name the name of the histogram, ending in {@code _seconds}.
+     * @param help the description of the histogram.
+     * @return the histogram.
+     */
+    public static Histogram histogram(final String name,
+            final String help) {
+        return get(name, NO_LABEL, Histogram.class,
+                k -> new Histogram(name, help));
+    }
+
+    /** Gets all metrics.
+     * @return the metrics ordered by name and label value.
+     */
+    public static List<Metric> all() {
+        List<Metric> result = new ArrayList<>();
+        for (Map<String, Metric> byLabel : REGISTRY.values()) {
+            result.addAll(byLabel.values());
+        }
+        return result;
+    }
+
+    /** Writes all metrics to a file. The file is written to a unique
+     * temporary file and replaced atomically, so a scraper never reads
+     * half a report and concurrent runs do not disturb each other.
+     * Unlike {@link Files#createTempFile(Path, String, String,
+     * java.nio.file.attribute.FileAttribute[])}, the temporary file
+     * gets the default permissions, so the scraper can read the file.
+     * @param f the file to write.
+     * @param format the format of the report.
+     * @throws IOException if writing fails.
+     */
+    public static void write(final Path f, final StatsFormat format)
+            throws IOException {
+        Path tmp = f.resolveSibling(f.getFileName() + "."
+                + UUID.randomUUID() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmp,
+                StandardCharsets.UTF_8, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE)) {
+            format.write(all(), writer);
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(tmp);
+            throw ex;
+        }
+        Files.move(tmp, f, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.metrics;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The formats of a {@link Metrics} report.
+ * Histograms are reported with their count, their sum, the
+ * {@link #QUANTILES} and the maximum, all durations in seconds.
+ * @author Stephan Fuhrmann
+ */
+public enum StatsFormat {
+    /** A JSON object with a list of the metrics. */
+    JSON,
+    /** The Prometheus text exposition format. Histograms are
+     * summaries with quantile labels plus a {@code _max} gauge. */
+    PROMETHEUS;
+
+    /** The file name extension of the Prometheus format, as expected
+     * by the textfile collector of the node exporter. */
+    public static final String PROMETHEUS_EXTENSION = ".prom";
+
+    /** The reported quantiles. */
+    static final double[] QUANTILES = {0.5, 0.95, 0.99};
+
+    /** The number of percents. */
+    private static final int HUNDRED = 100;
+
+    /** The nanoseconds of a second. */
+    private static final double NANOS_PER_SECOND =
+            TimeUnit.SECONDS.toNanos(1);
+
+    /** Gets the format of a file from its name.
+     * @param f the file.
+     * @return {@link #PROMETHEUS} if the file name ends with
+     * {@link #PROMETHEUS_EXTENSION}, {@link #JSON} otherwise.
+     */
+    public static StatsFormat forPath(final Path f) {
+        Path name = f.getFileName();
+        if (name != null
+                && name.toString().endsWith(PROMETHEUS_EXTENSION)) {
+            return PROMETHEUS;
+        }
+        return JSON;
+    }
+
+    /** Converts nanoseconds to seconds.
+     * @param nanos the nanoseconds.
+     * @return the seconds.
+     */
+    private static double seconds(final long nanos) {
+        return nanos / NANOS_PER_SECOND;
+    }
+
+    /** Writes metrics.
+     * @param metrics the metrics to write, ordered by name.
+     * @param writer the writer to write to. Will not be closed.
+     * @throws IOException if writing fails.
+     */
+    void write(final List<Metric> metrics, final Writer writer)
+            throws IOException {
+        if (this == JSON) {
+            writeJson(metrics, writer);
+        } else {
+            writePrometheus(metrics, writer);
+        }
+    }
+
+    /** Writes metrics as JSON.
+     * @param metrics the metrics to write.
+     * @param writer the writer to write to.
+     * @throws IOException if writing fails.
+     */
+    private static void writeJson(final List<Metric> metrics,
+            final Writer writer) throws IOException {
+        List<Map<String, Object>> list = new ArrayList<>();
+        for (Metric metric : metrics) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("name", metric.getName());
+            map.put("type", metric.getType());
+            map.put("help", metric.getHelp());
+            if (metric.getLabelName() != null) {
+                map.put("labels", Collections.singletonMap(
+                        metric.getLabelName(), metric.getLabelValue()));
+            }
+            if (metric instanceof Counter) {
+                map.put("value", ((Counter) metric).get());
+            } else if (metric instanceof Gauge) {
+                map.put("value", ((Gauge) metric).get());
+            } else {
+                Histogram h = (Histogram) metric;
+                map.put("count", h.getCount());
+                map.put("sum", seconds(h.getSum()));
+                for (double q : QUANTILES) {
+                    map.put("p" + Math.round(q * HUNDRED),
+                            seconds(h.quantile(q)));
+                }
+                map.put("max", seconds(h.getMax()));
+            }
+            list.add(map);
+        }
+        new ObjectMapper().writerWithDefaultPrettyPrinter()
+                .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                .writeValue(writer,
+                        Collections.singletonMap("metrics", list));
+    }
+
+    /** Writes metrics in the Prometheus text format.
+     * @param metrics the metrics to write, ordered by name.
+     * @param writer the writer to write to.
+     * @throws IOException if writing fails.
+     */
+    private static void writePrometheus(final List<Metric> metrics,
+            final Writer writer) throws IOException {
+        String last = null;
+        for (Metric metric : metrics) {
+            String name = metric.getName();
+            if (!name.equals(last)) {
+                writer.write("# HELP " + name + " "
+                        + escape(metric.getHelp(), false) + "\n");
+                writer.write("# TYPE " + name + " "
+                        + metric.getType() + "\n");
+                last = name;
+            }
+            if (metric instanceof Counter) {
+                sample(writer, name, label(metric),
+                        ((Counter) metric).get());
+            } else if (metric instanceof Gauge) {
+                sample(writer, name, label(metric),
+                        ((Gauge) metric).get());
+            } else {
+                Histogram h = (Histogram) metric;
+                for (double q : QUANTILES) {
+                    sample(writer, name, "{quantile=\"" + q + "\"}",
+                            seconds(h.quantile(q)));
+                }
+                sample(writer, name + "_sum", "", seconds(h.getSum()));
+                sample(writer, name + "_count", "", h.getCount());
+                writer.write("# TYPE " + name + "_max gauge\n");
+                sample(writer, name + "_max", "", seconds(h.getMax()));
+            }
+        }
+    }
+
+    /** Gets the label part of a sample.
+     * @param metric the metric of the sample.
+     * @return the label in braces or an empty string if the metric
+     * has no label.
+     */
+    private static String label(final Metric metric) {
+        if (metric.getLabelName() == null) {
+            return "";
+        }
+        return "{" + metric.getLabelName() + "=\""
+                + escape(metric.getLabelValue(), true) + "\"}";
+    }
+
+    /** Writes a sample line.
+     * @param writer the writer to write to.
+     * @param name the name of the sample.
+     * @param label the label part of the sample.
+     * @param value the value.
+     * @throws IOException if writing fails.
+     */
+    private static void sample(final Writer writer,
+            final String name,
+            final String label,
+            final Object value) throws IOException {
+        writer.write(name + label + " " + value + "\n");
+    }
+
+    /** Escapes a help text or label value.
+     * @param text the text to escape.
+     * @param quotes whether to escape double quotes, too.
+     * @return the escaped text.
+     */
+    private static String escape(final String text, final boolean quotes) {
+        String result = text.replace("\\", "\\\\").replace("\n", "\\n");
+        if (quotes) {
+            result = result.replace("\"", "\\\"");
+        }
+        return result;
+    }
+}
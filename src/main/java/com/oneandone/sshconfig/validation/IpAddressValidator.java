@@ -2,12 +2,12 @@ package com.oneandone.sshconfig.validation;
 
 import javax.validation.ConstraintValidator;
 import javax.validation.ConstraintValidatorContext;
-import java.net.InetAddress;
-import java.net.UnknownHostException;
-import java.util.Arrays;
 import java.util.List;
 
-/** The validator for the IpAddress itself. */
+/** The validator for the IpAddress itself.
+ * Only accepts IP address literals, host names are rejected.
+ * @see IpAddresses
+ */
 public final class IpAddressValidator
         implements ConstraintValidator<IpAddress, Object> {
     @Override
@@ -23,10 +23,21 @@ public final class IpAddressValidator
             return isValid((String) value, constraintContext);
         }
         if (value instanceof String[]) {
-            return isValid(Arrays.asList((String[]) value), constraintContext);
+            for (String s : (String[]) value) {
+                if (!isValid(s, constraintContext)) {
+                    return false;
+                }
+            }
+            return true;
         }
         if (value instanceof List) {
-            return isValid((List<String>) value, constraintContext);
+            for (Object o : (List<?>) value) {
+                if (!(o instanceof String)
+                        || !isValid((String) o, constraintContext)) {
+                    return false;
+                }
+            }
+            return true;
         }
         return true;
     }
@@ -39,12 +50,12 @@ public final class IpAddressValidator
     public boolean isValid(
             final List<String> value,
             final ConstraintValidatorContext constraintContext) {
-        return !value
-                .stream()
-                .map(val -> isValid(val, constraintContext))
-                .filter(r -> !r)
-                .findFirst()
-                .isPresent();
+        for (String s : value) {
+            if (!isValid(s, constraintContext)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /** Check whether address list is valid.
@@ -55,14 +66,6 @@ public final class IpAddressValidator
     public boolean isValid(
             final String value,
             final ConstraintValidatorContext constraintContext) {
-        boolean result = false;
-        try {
-            InetAddress.getByName(value);
-            result = true;
-        } catch (UnknownHostException e) {
-            constraintContext.buildConstraintViolationWithTemplate(
-                    e.getMessage());
-        }
-        return result;
+        return IpAddresses.isLiteral(value);
     }
 }
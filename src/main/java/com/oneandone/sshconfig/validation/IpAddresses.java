@@ -0,0 +1,415 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.validation;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+
+/**
+ * Purely syntactic parser for IPv4 and IPv6 address literals.
+ * Never uses the resolver and parsing does not allocate.
+ * Accepts dotted quad IPv4 addresses and IPv6 addresses in
+ * full, compressed, IPv4-embedded (like {@code ::ffff:10.1.2.3}),
+ * scoped (like {@code fe80::1%eth0}) and bracketed form.
+ * @author Stephan Fuhrmann
+ */
+public final class IpAddresses {
+    /** Length of an IPv4 address in bytes. */
+    public static final int IPV4_LENGTH = 4;
+
+    /** Length of an IPv6 address in bytes. */
+    public static final int IPV6_LENGTH = 16;
+
+    /** Number of 16 bit groups in an IPv6 address. */
+    private static final int IPV6_GROUPS = 8;
+
+    /** Maximum value of an IPv4 address part. */
+    private static final int MAX_OCTET = 255;
+
+    /** Maximum number of hex digits in an IPv6 group. */
+    private static final int MAX_GROUP_DIGITS = 4;
+
+    /** Maximum number of decimal digits in an IPv4 part. */
+    private static final int MAX_OCTET_DIGITS = 3;
+
+    /** Bits per hex digit. */
+    private static final int HEX_BITS = 4;
+
+    /** Bits per byte. */
+    private static final int BYTE_BITS = 8;
+
+    /** Radix of decimal numbers. */
+    private static final int DECIMAL = 10;
+
+    /** Value of the hex digit 'a'. */
+    private static final int HEX_A = 10;
+
+    /** Mask of the lowest byte. */
+    private static final int BYTE_MASK = 0xff;
+
+    /** The number of bytes of an IPv4 subnet prefix. */
+    private static final int IPV4_SUBNET_BYTES = 3;
+
+    /** No instance allowed. */
+    private IpAddresses() {
+        // no instance
+    }
+
+    /** Checks whether the text is an IPv4 or IPv6 literal.
+     * @param text the text to check.
+     * @return {@code true} if the text is an address literal.
+     */
+    public static boolean isLiteral(final CharSequence text) {
+        return parse(text, null) != -1;
+    }
+
+    /** Converts an address literal to an address without using the
+     * resolver.
+     * @param host the host name to attach to the address,
+     *             or {@code null}.
+     * @param literal the address literal. May be {@code null}.
+     * @return the address or {@code null} if the text is no address
+     * literal.
+     */
+    public static InetAddress toInetAddress(final String host,
+            final CharSequence literal) {
+        byte[] dst = new byte[IPV6_LENGTH];
+        int length = parse(literal, dst);
+        if (length == -1) {
+            return null;
+        }
+        try {
+            return InetAddress.getByAddress(host, Arrays.copyOf(dst, length));
+        } catch (UnknownHostException ex) {
+            // only thrown for illegal lengths
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /** Formats address bytes as a literal.
+     * IPv4 addresses are formatted as dotted quad, IPv6 addresses as
+     * lower case groups without leading zeros, like
+     * {@link InetAddress#getHostAddress()} does.
+     * @param address the 4 or 16 address bytes.
+     * @param compress whether to replace the longest run of at least
+     *                 two zero groups of an IPv6 address with
+     *                 {@code ::} as recommended by RFC 5952.
+     * @return the literal.
+     * @throws IllegalArgumentException if the address has another length.
+     */
+    public static String format(final byte[] address,
+            final boolean compress) {
+        StringBuilder result = new StringBuilder();
+        if (address.length == IPV4_LENGTH) {
+            for (int i = 0; i < IPV4_LENGTH; i++) {
+                if (i > 0) {
+                    result.append('.');
+                }
+                result.append(address[i] & BYTE_MASK);
+            }
+            return result.toString();
+        }
+        if (address.length != IPV6_LENGTH) {
+            throw new IllegalArgumentException("Illegal address length "
+                    + address.length);
+        }
+        int[] groups = new int[IPV6_GROUPS];
+        for (int i = 0; i < IPV6_GROUPS; i++) {
+            groups[i] = ((address[2 * i] & BYTE_MASK) << BYTE_BITS)
+                    | (address[2 * i + 1] & BYTE_MASK);
+        }
+        int runStart = -1;
+        int runLength = 1;
+        for (int i = 0; compress && i < IPV6_GROUPS; i++) {
+            int length = 0;
+            while (i + length < IPV6_GROUPS && groups[i + length] == 0) {
+                length++;
+            }
+            if (length > runLength) {
+                runStart = i;
+                runLength = length;
+            }
+        }
+        for (int i = 0; i < IPV6_GROUPS; i++) {
+            if (i == runStart) {
+                result.append("::");
+                i += runLength - 1;
+                continue;
+            }
+            if (result.length() > 0
+                    && result.charAt(result.length() - 1) != ':') {
+                result.append(':');
+            }
+            result.append(Integer.toHexString(groups[i]));
+        }
+        return result.toString();
+    }
+
+    /** Gets a key of the /24 IPv4 or /64 IPv6 subnet of an address.
+     * IPv4 keys are the /24 prefix with all upper bits set, which is
+     * no global unicast IPv6 /64 prefix.
+     * @param address the address bytes.
+     * @param length the number of address bytes, 4 or 16.
+     * @return the key of the subnet.
+     */
+    public static long subnet(final byte[] address, final int length) {
+        if (length == IPV4_LENGTH) {
+            long prefix = 0;
+            for (int i = 0; i < IPV4_SUBNET_BYTES; i++) {
+                prefix = (prefix << BYTE_BITS) | (address[i] & BYTE_MASK);
+            }
+            return ~prefix;
+        }
+        long prefix = 0;
+        for (int i = 0; i < Long.BYTES; i++) {
+            prefix = (prefix << BYTE_BITS) | (address[i] & BYTE_MASK);
+        }
+        return prefix;
+    }
+
+    /** Parses an IPv4 or IPv6 literal.
+     * A scope of an IPv6 address is checked, but not stored.
+     * @param text the text to parse. May be {@code null}.
+     * @param dst the array to write the address bytes to, or
+     *            {@code null} to only check the syntax.
+     *            Needs room for 16 bytes.
+     * @return the number of address bytes, that is 4 for
+     * IPv4 and 16 for IPv6, or -1 if the text is no address literal.
+     */
+    public static int parse(final CharSequence text, final byte[] dst) {
+        if (text == null) {
+            return -1;
+        }
+        int start = 0;
+        int end = text.length();
+        if (end >= 2 && text.charAt(0) == '['
+                && text.charAt(end - 1) == ']') {
+            start = 1;
+            end--;
+            if (!isIpv6(text, start, end)) {
+                return -1;
+            }
+        }
+        if (parseIpv4(text, start, end, dst, 0)) {
+            return IPV4_LENGTH;
+        }
+        if (parseIpv6(text, start, end, dst)) {
+            return IPV6_LENGTH;
+        }
+        return -1;
+    }
+
+    /** Quick check whether the range looks like IPv6.
+     * @param text the text to check.
+     * @param start the start index, inclusive.
+     * @param end the end index, exclusive.
+     * @return {@code true} if there is a colon in the range.
+     */
+    private static boolean isIpv6(final CharSequence text,
+            final int start, final int end) {
+        for (int i = start; i < end; i++) {
+            if (text.charAt(i) == ':') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Parses a dotted quad IPv4 address.
+     * @param text the text to parse.
+     * @param start the start index, inclusive.
+     * @param end the end index, exclusive.
+     * @param dst the array to write to or {@code null}.
+     * @param offset the offset in the array to write to.
+     * @return {@code true} if the range is a dotted quad.
+     */
+    private static boolean parseIpv4(final CharSequence text,
+            final int start, final int end,
+            final byte[] dst, final int offset) {
+        int part = 0;
+        int value = 0;
+        int digits = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                value = value * DECIMAL + (c - '0');
+                digits++;
+                if (digits > MAX_OCTET_DIGITS || value > MAX_OCTET) {
+                    return false;
+                }
+            } else if (c == '.') {
+                if (digits == 0 || part == IPV4_LENGTH - 1) {
+                    return false;
+                }
+                if (dst != null) {
+                    dst[offset + part] = (byte) value;
+                }
+                part++;
+                value = 0;
+                digits = 0;
+            } else {
+                return false;
+            }
+        }
+        if (digits == 0 || part != IPV4_LENGTH - 1) {
+            return false;
+        }
+        if (dst != null) {
+            dst[offset + part] = (byte) value;
+        }
+        return true;
+    }
+
+    /** Gets the value of a hex digit.
+     * @param c the character.
+     * @return the value or -1 if the character is no hex digit.
+     */
+    private static int hexValue(final char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + HEX_A;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + HEX_A;
+        }
+        return -1;
+    }
+
+    /** Checks an IPv6 scope id like {@code eth0} or {@code 3}.
+     * @param text the text to check.
+     * @param start the start index, inclusive.
+     * @param end the end index, exclusive.
+     * @return {@code true} if the scope is valid.
+     */
+    private static boolean isScope(final CharSequence text,
+            final int start, final int end) {
+        if (start >= end) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c) || c == '%' || c == ']') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Parses an IPv6 address.
+     * @param text the text to parse.
+     * @param start the start index, inclusive.
+     * @param end the end index, exclusive.
+     * @param dst the array to write to or {@code null}.
+     * @return {@code true} if the range is an IPv6 address.
+     */
+    private static boolean parseIpv6(final CharSequence text,
+            final int start, final int end, final byte[] dst) {
+        int addressEnd = end;
+        for (int i = start; i < end; i++) {
+            if (text.charAt(i) == '%') {
+                if (!isScope(text, i + 1, end)) {
+                    return false;
+                }
+                addressEnd = i;
+                break;
+            }
+        }
+        if (addressEnd - start < 2) {
+            return false;
+        }
+
+        int group = 0;
+        int compressAt = -1;
+        int i = start;
+        if (text.charAt(i) == ':') {
+            if (text.charAt(i + 1) != ':') {
+                return false;
+            }
+            compressAt = 0;
+            i += 2;
+        }
+        while (i < addressEnd) {
+            if (group == IPV6_GROUPS) {
+                return false;
+            }
+            int groupStart = i;
+            int value = 0;
+            int digits = 0;
+            int hex;
+            while (i < addressEnd
+                    && (hex = hexValue(text.charAt(i))) != -1) {
+                value = (value << HEX_BITS) | hex;
+                digits++;
+                i++;
+            }
+            if (i < addressEnd && text.charAt(i) == '.') {
+                // embedded IPv4 address in the last 32 bits
+                if (group > IPV6_GROUPS - 2
+                        || !parseIpv4(text, groupStart, addressEnd,
+                                dst, group * 2)) {
+                    return false;
+                }
+                group += 2;
+                i = addressEnd;
+                break;
+            }
+            if (digits == 0 || digits > MAX_GROUP_DIGITS) {
+                return false;
+            }
+            if (dst != null) {
+                dst[group * 2] = (byte) (value >>> BYTE_BITS);
+                dst[group * 2 + 1] = (byte) (value & BYTE_MASK);
+            }
+            group++;
+            if (i == addressEnd) {
+                break;
+            }
+            if (text.charAt(i) != ':') {
+                return false;
+            }
+            i++;
+            if (i < addressEnd && text.charAt(i) == ':') {
+                if (compressAt != -1) {
+                    return false;
+                }
+                compressAt = group;
+                i++;
+            } else if (i == addressEnd) {
+                return false; // trailing single colon
+            }
+        }
+
+        if (compressAt == -1) {
+            return group == IPV6_GROUPS;
+        }
+        if (group == IPV6_GROUPS) {
+            return false;
+        }
+        if (dst != null) {
+            int moved = (group - compressAt) * 2;
+            int gap = (IPV6_GROUPS - group) * 2;
+            System.arraycopy(dst, compressAt * 2,
+                    dst, compressAt * 2 + gap, moved);
+            for (int k = 0; k < gap; k++) {
+                dst[compressAt * 2 + k] = 0;
+            }
+        }
+        return true;
+    }
+}
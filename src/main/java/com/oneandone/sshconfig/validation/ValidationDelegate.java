@@ -13,6 +13,10 @@ import java.util.Set;
 
 /**
  * Validates an object tree using Bean validation.
+ * All instances share one process-wide {@link Validator}. It is
+ * bootstrapped on the first validation, so creating a delegate
+ * is cheap and code paths that never validate anything don't pay
+ * for the bean validation bootstrap.
  *
  * @author Stephan Fuhrmann
  */
@@ -20,16 +24,37 @@ import java.util.Set;
 public class ValidationDelegate {
 
     /**
-     * Bean validator to use.
+     * Lazy holder of the shared bean validator. The JVM initializes
+     * the holder class on first access only.
      */
-    private final Validator validator;
+    private static final class ValidatorHolder {
+        /**
+         * The shared bean validator. Validators are thread safe.
+         */
+        private static final Validator VALIDATOR = buildValidator();
+
+        /** No instance allowed. */
+        private ValidatorHolder() {
+        }
+
+        /** Bootstraps the bean validation provider.
+         * @return the validator of the default factory.
+         */
+        private static Validator buildValidator() {
+            log.debug("Bootstrapping bean validation");
+            ValidatorFactory factory =
+                    Validation.buildDefaultValidatorFactory();
+            return factory.getValidator();
+        }
+    }
 
     /**
-     * Creates a new instance.
+     * Gets the process-wide shared validator, bootstrapping it
+     * if needed.
+     * @return the shared validator.
      */
-    public ValidationDelegate() {
-        ValidatorFactory factory = Validation.buildDefaultValidatorFactory();
-        validator = factory.getValidator();
+    public static Validator getValidator() {
+        return ValidatorHolder.VALIDATOR;
     }
 
     /** Formats a violation to a String.
@@ -73,7 +98,8 @@ public class ValidationDelegate {
      * @return the set of constraint violations detected.
      */
     public final <T> Set<ConstraintViolation<T>> validate(final T o) {
-        final Set<ConstraintViolation<T>> violations = validator.validate(o);
+        final Set<ConstraintViolation<T>> violations =
+                getValidator().validate(o);
         if (!violations.isEmpty()) {
             log.error("Got {} validation errors", violations.size());
             violations.forEach(u -> log.error(format(u)));
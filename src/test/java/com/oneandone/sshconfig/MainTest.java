@@ -0,0 +1,119 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.oneandone.sshconfig.bind.Host;
+import com.oneandone.sshconfig.daemon.DaemonCommand;
+import com.oneandone.sshconfig.daemon.DaemonRequest;
+import com.oneandone.sshconfig.daemon.DaemonServer;
+import com.oneandone.sshconfig.file.Database;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test for {@link Main} running against a daemon.
+ * @author Stephan Fuhrmann
+ */
+public class MainTest {
+
+    private Path dir;
+
+    private Path db;
+
+    private DaemonServer server;
+
+    private Thread thread;
+
+    private final List<DaemonRequest> handled = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void init() throws IOException {
+        dir = Files.createTempDirectory("main");
+        db = dir.resolve("db.json");
+        Host h = new Host();
+        h.setId(UUID.randomUUID());
+        h.setName("web1");
+        h.setFqdn("web1.example.com");
+        h.setIps(new String[] {"127.0.0.1"});
+        h.setEnabled(true);
+        h.setCreatedAt(new Date());
+        h.setUpdatedAt(h.getCreatedAt());
+        try (Database database = Database.fromPath(db)) {
+            database.update(Collections.singletonList(h));
+            database.save();
+        }
+
+        server = DaemonServer.start(DaemonServer.pathOf(db));
+        thread = new Thread(() -> {
+            try {
+                server.serve((request, out) -> handled.add(request), 0);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        thread.start();
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        server.close();
+        thread.join(TimeUnit.SECONDS.toMillis(5));
+        assertFalse(thread.isAlive());
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path p : files.sorted(Comparator.reverseOrder())
+                    .collect(Collectors.toList())) {
+                Files.delete(p);
+            }
+        }
+    }
+
+    @Test
+    public void forwardedUpdateStillWritesConfigAndStats()
+            throws IOException {
+        Path config = dir.resolve("config");
+        Path stats = dir.resolve("run.prom");
+
+        Main.main(new String[] {"-D", db.toString(), "-u",
+                "-max-age", "60", "-time-budget", "5",
+                "-s", config.toString(), "-stats", stats.toString()});
+
+        assertEquals(1, handled.size());
+        DaemonRequest request = handled.get(0);
+        assertEquals(DaemonCommand.REFRESH, request.getCommand());
+        assertEquals(Long.valueOf(60), request.getMaxAge());
+        assertEquals(Long.valueOf(5), request.getTimeBudget());
+        assertTrue(Files.readAllLines(config, StandardCharsets.UTF_8)
+                .contains("Host web1"));
+        assertTrue(Files.readAllLines(stats, StandardCharsets.UTF_8)
+                .contains("sshconfig_run_success 1.0"));
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import com.oneandone.sshconfig.bind.Host;
+import static org.junit.Assert.*;
+
+/**
+ * Test for {@link ProbeTimeouts}.
+ * @author Stephan Fuhrmann
+ */
+public class ProbeTimeoutsTest {
+
+    private static final long DEFAULT = SSHHostData.TIMEOUT;
+
+    private static Host host(String ip, int... latencies) {
+        Host h = new Host();
+        h.setIps(new String[] {ip});
+        if (latencies.length > 0) {
+            h.setLatencies(latencies);
+        }
+        return h;
+    }
+
+    private static InetAddress address(String ip) throws Exception {
+        return InetAddress.getByName(ip);
+    }
+
+    @Test
+    public void hostWithHistoryFailsFast() throws Exception {
+        Host fast = host("10.0.0.1", 2, 1, 3, 2);
+        Host slow = host("10.0.0.2", 900, 1000, 1100);
+        Host wild = host("10.0.0.3", 4000, 10, 10);
+        ProbeTimeouts timeouts = new ProbeTimeouts(
+                Arrays.asList(fast, slow, wild), DEFAULT);
+
+        assertEquals(ProbeTimeouts.FLOOR_MILLIS,
+                timeouts.timeoutFor(fast, address("10.0.0.1")));
+        assertEquals(1100 * ProbeTimeouts.FACTOR,
+                timeouts.timeoutFor(slow, address("10.0.0.2")));
+        assertEquals(DEFAULT,
+                timeouts.timeoutFor(wild, address("10.0.0.3")));
+    }
+
+    @Test
+    public void newHostGetsTimeoutOfSubnet() throws Exception {
+        List<Host> known = Arrays.asList(
+                host("10.0.0.1", 100, 200),
+                host("10.0.0.2", 500),
+                host("2001:db8::1", 10, 10, 10));
+        ProbeTimeouts timeouts = new ProbeTimeouts(known, DEFAULT);
+        Host fresh = host("10.0.0.99");
+
+        assertEquals(500 * ProbeTimeouts.FACTOR,
+                timeouts.timeoutFor(fresh, address("10.0.0.99")));
+        assertEquals(ProbeTimeouts.FLOOR_MILLIS,
+                timeouts.timeoutFor(fresh, address("2001:db8::ff")));
+        assertEquals(DEFAULT,
+                timeouts.timeoutFor(fresh, address("10.0.1.1")));
+        assertEquals(DEFAULT,
+                timeouts.timeoutFor(fresh, address("2001:db8:0:1::1")));
+        assertEquals(DEFAULT, timeouts.timeoutFor(fresh, null));
+    }
+
+    @Test
+    public void failingHostGetsDefault() throws Exception {
+        Host h = host("10.0.0.1", 1, 1, 1);
+        h.setFailures(1);
+        ProbeTimeouts timeouts = new ProbeTimeouts(
+                Collections.singletonList(h), DEFAULT);
+
+        assertEquals(DEFAULT, timeouts.timeoutFor(h, address("10.0.0.1")));
+        assertTrue(timeouts.isFull(DEFAULT));
+        h.setFailures(0);
+        assertEquals(ProbeTimeouts.FLOOR_MILLIS,
+                timeouts.timeoutFor(h, address("10.0.0.1")));
+        assertFalse(timeouts.isFull(ProbeTimeouts.FLOOR_MILLIS));
+    }
+
+    @Test
+    public void hostKeepsLastLatencies() {
+        Host h = new Host();
+        for (int i = 0; i < Host.MAX_LATENCIES + 2; i++) {
+            h.addLatency(i);
+        }
+        assertEquals(Host.MAX_LATENCIES, h.getLatencies().length);
+        assertEquals(2, h.getLatencies()[0]);
+        assertEquals(Host.MAX_LATENCIES + 1,
+                h.getLatencies()[Host.MAX_LATENCIES - 1]);
+    }
+}
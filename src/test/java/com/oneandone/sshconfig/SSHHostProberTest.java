@@ -0,0 +1,295 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.oneandone.sshconfig.limit.TokenBucket;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test for {@link SSHHostProber}.
+ * @author Stephan Fuhrmann
+ */
+public class SSHHostProberTest {
+
+    private ServerSocket serverSocket;
+    private Thread serverThread;
+
+    @Before
+    public void init() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        serverSocket.close();
+        if (serverThread != null) {
+            serverThread.join();
+        }
+    }
+
+    private InetSocketAddress serverAddress() {
+        return new InetSocketAddress(
+                InetAddress.getLoopbackAddress(),
+                serverSocket.getLocalPort());
+    }
+
+    /** Serves the given text to every client. */
+    private void serve(String text) {
+        serverThread = new Thread(() -> {
+            try {
+                while (true) {
+                    try (Socket s = serverSocket.accept()) {
+                        OutputStream os = s.getOutputStream();
+                        os.write(text.getBytes(StandardCharsets.US_ASCII));
+                        os.flush();
+                    }
+                }
+            } catch (IOException e) {
+                // closed
+            }
+        });
+        serverThread.start();
+    }
+
+    @Test
+    public void probeWithBanner() throws Exception {
+        serve("SSH-2.0-OpenSSH_7.4\r\nrest");
+        try (SSHHostProber prober = new SSHHostProber()) {
+            SSHHostData data = prober.probe(serverAddress()).get();
+            assertEquals("SSH-2.0-OpenSSH_7.4", data.getServerId());
+            assertEquals(serverAddress(), data.getAddress());
+        }
+    }
+
+    @Test
+    public void probeWithoutLinefeed() throws Exception {
+        serve("SSH-2.0-Foo");
+        try (SSHHostProber prober = new SSHHostProber()) {
+            assertEquals("SSH-2.0-Foo",
+                    prober.probe(serverAddress()).get().getServerId());
+        }
+    }
+
+    @Test
+    public void probeManyWithSmallSocketLimit() throws Exception {
+        serve("SSH-2.0-Many\n");
+        try (SSHHostProber prober = new SSHHostProber(2, 5000)) {
+            List<CompletableFuture<SSHHostData>> futures = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                futures.add(prober.probe(serverAddress()));
+            }
+            for (CompletableFuture<SSHHostData> f : futures) {
+                assertEquals("SSH-2.0-Many", f.get().getServerId());
+            }
+        }
+    }
+
+    @Test
+    public void probeWithSilentServer() throws Exception {
+        // the server accepts via backlog, but never sends a banner
+        try (SSHHostProber prober = new SSHHostProber(1, 200)) {
+            prober.probe(serverAddress()).get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof SocketTimeoutException);
+        }
+    }
+
+    @Test
+    public void probeWithTimeoutOfItsOwn() throws Exception {
+        // the server accepts via backlog, but never sends a banner
+        try (SSHHostProber prober = new SSHHostProber()) {
+            long start = System.nanoTime();
+            try {
+                prober.probe(serverAddress(), 200).get();
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof SocketTimeoutException);
+            }
+            assertTrue(System.nanoTime() - start
+                    < TimeUnit.MILLISECONDS.toNanos(SSHHostData.TIMEOUT));
+        }
+    }
+
+    @Test
+    public void probeWithClosedPort() throws Exception {
+        InetSocketAddress address = serverAddress();
+        serverSocket.close();
+        try (SSHHostProber prober = new SSHHostProber()) {
+            prober.probe(address).get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void probeWithUnresolved() throws Exception {
+        try (SSHHostProber prober = new SSHHostProber()) {
+            prober.probe(InetSocketAddress.createUnresolved("foo.invalid", 22))
+                    .get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    /** An address nothing listens on. */
+    private static InetSocketAddress closedAddress() throws IOException {
+        try (ServerSocket closed = new ServerSocket(0, 1,
+                InetAddress.getLoopbackAddress())) {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                    closed.getLocalPort());
+        }
+    }
+
+    @Test
+    public void probeAnyFallsBackToWorkingAddress() throws Exception {
+        serve("SSH-2.0-Second\n");
+        InetSocketAddress dead = closedAddress();
+        try (SSHHostProber prober = new SSHHostProber()) {
+            SSHHostData data = prober.probeAny(
+                    Arrays.asList(dead, serverAddress()), 5000).get();
+            assertEquals("SSH-2.0-Second", data.getServerId());
+            assertEquals(serverAddress(), data.getAddress());
+            assertEquals(Collections.singletonList(dead),
+                    data.getUnreachable());
+        }
+    }
+
+    @Test
+    public void probeAnyStartsNextAddressWhileFirstHangs() throws Exception {
+        // the first server accepts via backlog, but never sends a banner
+        InetSocketAddress silent = serverAddress();
+        try (ServerSocket second = new ServerSocket(0, 50,
+                InetAddress.getLoopbackAddress());
+             SSHHostProber prober = new SSHHostProber()) {
+            Thread server = new Thread(() -> {
+                try (Socket s = second.accept()) {
+                    s.getOutputStream().write(
+                            "SSH-2.0-Fast\n".getBytes(StandardCharsets.US_ASCII));
+                } catch (IOException e) {
+                    // closed
+                }
+            });
+            server.start();
+            long start = System.nanoTime();
+            SSHHostData data = prober.probeAny(Arrays.asList(silent,
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                            second.getLocalPort())), 5000).get();
+            long millis = TimeUnit.NANOSECONDS.toMillis(
+                    System.nanoTime() - start);
+            server.join();
+
+            assertEquals("SSH-2.0-Fast", data.getServerId());
+            assertTrue(millis >= SSHHostProber.STAGGER_MILLIS);
+            assertTrue(millis < 5000);
+            assertTrue(data.getUnreachable().isEmpty());
+        }
+    }
+
+    @Test
+    public void probeAnyFailsIfNoAddressAnswers() throws Exception {
+        try (SSHHostProber prober = new SSHHostProber()) {
+            prober.probeAny(Arrays.asList(closedAddress(),
+                    InetSocketAddress.createUnresolved("foo.invalid", 22)),
+                    5000).get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void interleaveAlternatesFamilies() throws Exception {
+        InetSocketAddress v4a = new InetSocketAddress(
+                InetAddress.getByName("10.0.0.1"), 22);
+        InetSocketAddress v4b = new InetSocketAddress(
+                InetAddress.getByName("10.0.0.2"), 22);
+        InetSocketAddress v6a = new InetSocketAddress(
+                InetAddress.getByName("2001:db8::1"), 22);
+        InetSocketAddress v6b = new InetSocketAddress(
+                InetAddress.getByName("2001:db8::2"), 22);
+
+        assertEquals(Arrays.asList(v6a, v4a, v6b, v4b),
+                SSHHostProber.interleave(Arrays.asList(v6a, v6b, v4a, v4b)));
+        assertEquals(Arrays.asList(v4b, v6a, v4a),
+                SSHHostProber.interleave(Arrays.asList(v4b, v4a, v6a)));
+    }
+
+    @Test
+    public void probeWithSubnetLimit() throws Exception {
+        // the server accepts via backlog, but never sends a banner
+        try (SSHHostProber prober = new SSHHostProber(
+                SSHHostProber.DEFAULT_MAX_SOCKETS, 200, null, 2)) {
+            long start = System.nanoTime();
+            List<CompletableFuture<SSHHostData>> futures = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                futures.add(prober.probe(serverAddress()));
+            }
+            for (CompletableFuture<SSHHostData> f : futures) {
+                try {
+                    f.get();
+                    fail();
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof SocketTimeoutException);
+                }
+            }
+            // three rounds of two probes timing out
+            assertTrue(System.nanoTime() - start
+                    >= TimeUnit.MILLISECONDS.toNanos(3 * 200));
+        }
+    }
+
+    @Test
+    public void probeWithRateLimit() throws Exception {
+        serve("SSH-2.0-Rated\n");
+        try (SSHHostProber prober = new SSHHostProber(
+                SSHHostProber.DEFAULT_MAX_SOCKETS, 5000,
+                new TokenBucket(20), 0)) {
+            long start = System.nanoTime();
+            List<CompletableFuture<SSHHostData>> futures = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                futures.add(prober.probe(serverAddress()));
+            }
+            for (CompletableFuture<SSHHostData> f : futures) {
+                assertEquals("SSH-2.0-Rated", f.get().getServerId());
+            }
+            // two tokens up front, then one every 50 ms
+            assertTrue(System.nanoTime() - start
+                    >= TimeUnit.MILLISECONDS.toNanos(4 * 50 - 10));
+        }
+    }
+}
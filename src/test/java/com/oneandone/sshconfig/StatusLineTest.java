@@ -0,0 +1,90 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test for {@link StatusLine}.
+ * @author Stephan Fuhrmann
+ */
+public class StatusLineTest {
+
+    private final AtomicLong now = new AtomicLong(1_000_000_000L);
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    private StatusLine statusLine(boolean enabled) {
+        return new StatusLine(new PrintStream(bytes), enabled, now::get);
+    }
+
+    @Test
+    public void rendersRateFailuresAndEta() {
+        StatusLine statusLine = statusLine(false);
+        statusLine.begin("update", 1000);
+        assertEquals("update: 0/1000, 0.0/s, 0 failed, ETA ?",
+                statusLine.render(now.get()));
+
+        for (int i = 0; i < 250; i++) {
+            statusLine.done();
+        }
+        statusLine.failed();
+        now.addAndGet(TimeUnit.SECONDS.toNanos(2));
+        assertEquals("update: 251/1000, 125.5/s, 1 failed, ETA 0:06",
+                statusLine.render(now.get()));
+
+        now.addAndGet(TimeUnit.HOURS.toNanos(1));
+        assertEquals("update: 251/1000, 0.1/s, 1 failed, ETA 2:59:09",
+                statusLine.render(now.get()));
+    }
+
+    @Test
+    public void beginResetsTheCounters() {
+        StatusLine statusLine = statusLine(false);
+        statusLine.begin("discover", 1);
+        statusLine.failed();
+        statusLine.begin("update", 2);
+        assertEquals("update: 0/2, 0.0/s, 0 failed, ETA ?",
+                statusLine.render(now.get()));
+    }
+
+    @Test
+    public void drawsNothingWithoutConsole() {
+        try (StatusLine statusLine = statusLine(false)) {
+            statusLine.begin("update", 1);
+            statusLine.done();
+        }
+        assertEquals(0, bytes.size());
+    }
+
+    @Test
+    public void endDrawsTheLastFrame() {
+        try (StatusLine statusLine = statusLine(true)) {
+            statusLine.begin("update", 1);
+            statusLine.done();
+            statusLine.end();
+            String text = bytes.toString();
+            assertTrue(text, text.endsWith(
+                    "\rupdate: 1/1, 0.0/s, 0 failed, ETA 0:00\n"));
+        }
+    }
+}
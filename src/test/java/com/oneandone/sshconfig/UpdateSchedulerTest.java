@@ -0,0 +1,88 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+import com.oneandone.sshconfig.bind.Host;
+import static org.junit.Assert.*;
+
+/**
+ * Test for {@link UpdateScheduler}.
+ * @author Stephan Fuhrmann
+ */
+public class UpdateSchedulerTest {
+
+    private static final long NOW = 1_000_000_000L;
+
+    private static Host host(String name, long checkedAgo,
+            Integer failures) {
+        Host h = new Host();
+        h.setName(name);
+        h.setUpdatedAt(new Date(0));
+        if (checkedAgo >= 0) {
+            h.setCheckedAt(new Date(NOW - checkedAgo));
+        }
+        h.setFailures(failures);
+        return h;
+    }
+
+    private static List<String> names(UpdateScheduler scheduler) {
+        List<String> result = new ArrayList<>();
+        while (scheduler.hasNext()) {
+            result.add(scheduler.next().getName());
+        }
+        return result;
+    }
+
+    @Test
+    public void stalestHostsFirst() {
+        List<Host> hosts = Arrays.asList(
+                host("fresh", 10, 0),
+                host("never", -1, null),
+                host("old", 1000, 0),
+                host("failing", 4000, 3));
+
+        UpdateScheduler scheduler = new UpdateScheduler(hosts, 0, NOW);
+        assertEquals(4, scheduler.size());
+        assertEquals(Arrays.asList("never", "old", "failing", "fresh"),
+                names(scheduler));
+    }
+
+    @Test
+    public void maxAgeSkipsRecentHosts() {
+        List<Host> hosts = Arrays.asList(
+                host("fresh", 10, 0),
+                host("old", 1000, 0),
+                host("failing", 1000, 1));
+
+        assertEquals(Arrays.asList("old"),
+                names(new UpdateScheduler(hosts, 600, NOW)));
+    }
+
+    @Test
+    public void backoffIsLimited() {
+        Host h = host("failing", 1 << 10, 100);
+        assertEquals(1 << (10 - UpdateScheduler.MAX_BACKOFF),
+                UpdateScheduler.staleness(h, NOW));
+        assertEquals(0, UpdateScheduler.staleness(
+                host("future", -1, null), -1));
+    }
+}
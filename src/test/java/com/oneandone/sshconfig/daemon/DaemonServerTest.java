@@ -0,0 +1,232 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.daemon;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test for {@link DaemonServer} and {@link DaemonClient}.
+ * @author Stephan Fuhrmann
+ */
+public class DaemonServerTest {
+
+    private Path dir;
+
+    private Path file;
+
+    private DaemonServer server;
+
+    private Thread thread;
+
+    private final List<DaemonRequest> handled = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void init() throws IOException {
+        dir = Files.createTempDirectory("daemon");
+        file = DaemonServer.pathOf(dir.resolve("db.json"));
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        if (server != null) {
+            server.close();
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+            assertFalse(thread.isAlive());
+        }
+        Files.deleteIfExists(file);
+        Files.delete(dir);
+    }
+
+    private void start(DaemonServer.Handler handler, long refreshMillis)
+            throws IOException {
+        server = DaemonServer.start(file);
+        thread = new Thread(() -> {
+            try {
+                server.serve(handler, refreshMillis);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        thread.start();
+    }
+
+    private static DaemonRequest request(DaemonCommand command,
+            String... arguments) {
+        return new DaemonRequest(command, "admin", null,
+                Arrays.asList(arguments));
+    }
+
+    @Test
+    public void sendRunsRequestOnServer() throws IOException {
+        start((request, out) -> {
+            handled.add(request);
+            out.write(request.getUser() + " " + request.getArguments());
+        }, 0);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertTrue(DaemonClient.send(file,
+                request(DaemonCommand.DISCOVER, "a.example.com", "b"), out));
+
+        assertEquals("admin [a.example.com, b]",
+                new String(out.toByteArray(), StandardCharsets.UTF_8));
+        assertEquals(1, handled.size());
+        assertEquals(DaemonCommand.DISCOVER, handled.get(0).getCommand());
+        assertNull(handled.get(0).getGroup());
+    }
+
+    @Test
+    public void largeOutputIsStreamedInFrames() throws IOException {
+        char[] chars = new char[5 * FramedOutputStream.FRAME_SIZE + 7];
+        Arrays.fill(chars, '\u00e4');
+        start((request, out) -> out.write(chars), 0);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertTrue(DaemonClient.send(file,
+                request(DaemonCommand.EXPORT), out));
+
+        assertEquals(new String(chars),
+                new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void failureOfCommandIsReported() throws IOException {
+        start((request, out) -> {
+            out.write("partial");
+            throw new IOException("disk full");
+        }, 0);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        try {
+            DaemonClient.send(file, request(DaemonCommand.REFRESH), out);
+            fail("Failure not reported");
+        } catch (IOException e) {
+            assertEquals("disk full", e.getMessage());
+        }
+        assertEquals("partial",
+                new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void wrongTokenIsRejected() throws IOException {
+        start((request, out) -> handled.add(request), 0);
+        List<String> lines = Files.readAllLines(file);
+        Files.write(file, Arrays.asList(lines.get(0), "guessed"));
+
+        try {
+            DaemonClient.send(file, request(DaemonCommand.EXPORT),
+                    new ByteArrayOutputStream());
+            fail("Wrong token accepted");
+        } catch (IOException e) {
+            assertEquals("Wrong token", e.getMessage());
+        }
+        assertTrue(handled.isEmpty());
+    }
+
+    @Test
+    public void fileIsOnlyReadableByOwnerAndDeletedOnClose()
+            throws IOException {
+        start((request, out) -> { }, 0);
+        if (file.getFileSystem().supportedFileAttributeViews()
+                .contains("posix")) {
+            assertEquals("rw-------", PosixFilePermissions.toString(
+                    Files.getPosixFilePermissions(file)));
+        }
+        assertEquals(Integer.toString(server.getPort()),
+                Files.readAllLines(file).get(0));
+
+        server.close();
+
+        assertFalse(Files.exists(file));
+        assertFalse(DaemonClient.send(file, request(DaemonCommand.EXPORT),
+                new ByteArrayOutputStream()));
+    }
+
+    @Test
+    public void staleFileIsIgnored() throws IOException {
+        start((request, out) -> { }, 0);
+        List<String> lines = Files.readAllLines(file);
+        server.close();
+        Files.write(file, lines);
+
+        assertFalse(DaemonClient.send(file, request(DaemonCommand.EXPORT),
+                new ByteArrayOutputStream()));
+    }
+
+    @Test
+    public void serverRefreshesPeriodically() throws Exception {
+        CountDownLatch refreshes = new CountDownLatch(2);
+        start((request, out) -> {
+            handled.add(request);
+            refreshes.countDown();
+        }, 50);
+
+        assertTrue(refreshes.await(5, TimeUnit.SECONDS));
+        assertEquals(DaemonCommand.REFRESH, handled.get(0).getCommand());
+        assertEquals(Collections.emptyList(),
+                handled.get(0).getArguments());
+    }
+
+    @Test
+    public void stopFinishesRunningRequest() throws Exception {
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        start((request, out) -> {
+            running.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            handled.add(request);
+        }, 0);
+        Thread client = new Thread(() -> {
+            try {
+                DaemonClient.send(file, request(DaemonCommand.REFRESH),
+                        new ByteArrayOutputStream());
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        client.start();
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+
+        server.stop();
+        assertTrue(thread.isAlive());
+        release.countDown();
+        thread.join(TimeUnit.SECONDS.toMillis(5));
+        client.join(TimeUnit.SECONDS.toMillis(5));
+
+        assertFalse(thread.isAlive());
+        assertEquals(1, handled.size());
+        assertTrue(Files.exists(file));
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.dns;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test for {@link CachingResolver}.
+ * @author Stephan Fuhrmann
+ */
+public class CachingResolverTest {
+
+    private static final long TTL = 1000;
+    private static final long NEGATIVE_TTL = 100;
+
+    /** Resolver that completes lookups only when told to. */
+    private static class ManualResolver implements Resolver {
+        private final List<String> lookups = new ArrayList<>();
+        private final List<CompletableFuture<InetAddress[]>> pending =
+                new ArrayList<>();
+
+        @Override
+        public CompletableFuture<InetAddress[]> lookup(String name) {
+            lookups.add(name);
+            CompletableFuture<InetAddress[]> result =
+                    new CompletableFuture<>();
+            pending.add(result);
+            return result;
+        }
+
+        @Override
+        public CompletableFuture<String> reverse(InetAddress address) {
+            lookups.add(address.getHostAddress());
+            return CompletableFuture.completedFuture("host.example.com");
+        }
+    }
+
+    private ManualResolver delegate;
+    private AtomicLong now;
+    private Path file;
+
+    @Before
+    public void create() throws IOException {
+        delegate = new ManualResolver();
+        now = new AtomicLong(1_000_000);
+        file = Files.createTempFile("dns", ".json");
+        Files.delete(file);
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    private CachingResolver newResolver() {
+        return new CachingResolver(delegate, file, TTL, NEGATIVE_TTL,
+                now::get);
+    }
+
+    private static InetAddress[] address(String ip)
+            throws UnknownHostException {
+        return new InetAddress[] {InetAddress.getByName(ip)};
+    }
+
+    @Test
+    public void concurrentLookupsShareOneQuery() throws Exception {
+        CachingResolver resolver = newResolver();
+        CompletableFuture<InetAddress[]> first =
+                resolver.lookup("host.example.com");
+        CompletableFuture<InetAddress[]> second =
+                resolver.lookup("HOST.example.com");
+        assertEquals(1, delegate.lookups.size());
+
+        delegate.pending.get(0).complete(address("10.1.2.3"));
+        assertEquals("10.1.2.3", first.get()[0].getHostAddress());
+        assertEquals("10.1.2.3", second.get()[0].getHostAddress());
+
+        InetAddress[] cached = resolver.lookup("host.example.com").get();
+        assertEquals(1, delegate.lookups.size());
+        assertEquals("host.example.com", cached[0].getHostName());
+        assertEquals("10.1.2.3", cached[0].getHostAddress());
+    }
+
+    @Test
+    public void expiredEntriesAreLookedUpAgain() throws Exception {
+        CachingResolver resolver = newResolver();
+        resolver.lookup("host.example.com");
+        delegate.pending.get(0).complete(address("10.1.2.3"));
+
+        now.addAndGet(TTL - 1);
+        resolver.lookup("host.example.com");
+        assertEquals(1, delegate.lookups.size());
+
+        now.addAndGet(1);
+        resolver.lookup("host.example.com");
+        assertEquals(2, delegate.lookups.size());
+    }
+
+    @Test
+    public void failedLookupsAreCachedShortly() throws Exception {
+        CachingResolver resolver = newResolver();
+        resolver.lookup("gone.example.com");
+        delegate.pending.get(0).completeExceptionally(
+                new UnknownHostException("gone.example.com"));
+
+        try {
+            resolver.lookup("gone.example.com").join();
+            fail();
+        } catch (CompletionException ex) {
+            assertTrue(ex.getCause() instanceof UnknownHostException);
+        }
+        assertEquals(1, delegate.lookups.size());
+
+        now.addAndGet(NEGATIVE_TTL);
+        resolver.lookup("gone.example.com");
+        assertEquals(2, delegate.lookups.size());
+    }
+
+    @Test
+    public void saveAndLoad() throws Exception {
+        CachingResolver resolver = newResolver();
+        resolver.lookup("host.example.com");
+        delegate.pending.get(0).complete(address("10.1.2.3"));
+        assertEquals("host.example.com",
+                resolver.reverse(address("10.1.2.3")[0]).get());
+        resolver.save();
+        assertTrue(Files.exists(file));
+
+        delegate = new ManualResolver();
+        CachingResolver loaded = newResolver();
+        loaded.load();
+        assertEquals("10.1.2.3", loaded.lookup("host.example.com")
+                .get()[0].getHostAddress());
+        assertEquals("host.example.com",
+                loaded.reverse(address("10.1.2.3")[0]).get());
+        assertEquals(0, delegate.lookups.size());
+    }
+
+    @Test
+    public void failedSaveIsRepeated() throws Exception {
+        CachingResolver resolver = newResolver();
+        resolver.lookup("host.example.com");
+        delegate.pending.get(0).complete(address("10.1.2.3"));
+        Path blocker = file.resolve("blocker");
+        Files.createDirectories(blocker);
+        try {
+            resolver.save();
+            fail();
+        } catch (IOException ex) {
+            // expected, the file is a directory that is not empty
+        } finally {
+            Files.delete(blocker);
+            Files.delete(file);
+        }
+        try (java.util.stream.Stream<Path> files =
+                     Files.list(file.getParent())) {
+            assertFalse(files.anyMatch(p -> p.getFileName().toString()
+                    .startsWith(file.getFileName() + ".")));
+        }
+
+        resolver.save();
+        assertTrue(Files.isRegularFile(file));
+    }
+
+    @Test
+    public void loadReadsTheFileOnce() throws Exception {
+        CachingResolver first = newResolver();
+        first.lookup("host.example.com");
+        delegate.pending.get(0).complete(address("10.1.2.3"));
+        first.save();
+        CachingResolver loaded = newResolver();
+        loaded.load();
+
+        CachingResolver second = newResolver();
+        second.lookup("host.example.com");
+        delegate.pending.get(1).complete(address("10.9.9.9"));
+        second.save();
+        loaded.load();
+
+        assertEquals("10.1.2.3", loaded.lookup("host.example.com")
+                .get()[0].getHostAddress());
+        assertEquals(2, delegate.lookups.size());
+    }
+}
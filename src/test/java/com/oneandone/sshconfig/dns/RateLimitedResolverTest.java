@@ -0,0 +1,97 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.dns;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import com.oneandone.sshconfig.limit.TokenBucket;
+import static org.junit.Assert.*;
+
+/**
+ * Test for {@link RateLimitedResolver}.
+ * @author Stephan Fuhrmann
+ */
+public class RateLimitedResolverTest {
+
+    /** Resolver that answers every lookup with the loopback address. */
+    private static class LoopbackResolver implements Resolver {
+        private final List<Long> times = new ArrayList<>();
+
+        @Override
+        public synchronized CompletableFuture<InetAddress[]> lookup(
+                String name) {
+            times.add(System.nanoTime());
+            if (name.endsWith(".invalid")) {
+                CompletableFuture<InetAddress[]> result =
+                        new CompletableFuture<>();
+                result.completeExceptionally(
+                        new UnknownHostException(name));
+                return result;
+            }
+            return CompletableFuture.completedFuture(
+                    new InetAddress[] {InetAddress.getLoopbackAddress()});
+        }
+
+        @Override
+        public synchronized CompletableFuture<String> reverse(
+                InetAddress address) {
+            times.add(System.nanoTime());
+            return CompletableFuture.completedFuture("localhost");
+        }
+    }
+
+    @Test
+    public void lookupsAreSpreadOverTime() throws Exception {
+        LoopbackResolver delegate = new LoopbackResolver();
+        try (RateLimitedResolver resolver = new RateLimitedResolver(
+                delegate, new TokenBucket(20))) {
+            long start = System.nanoTime();
+            List<CompletableFuture<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                futures.add(resolver.lookup("host" + i));
+            }
+            futures.add(resolver.reverse(InetAddress.getLoopbackAddress()));
+            for (CompletableFuture<?> f : futures) {
+                f.get();
+            }
+
+            assertEquals(6, delegate.times.size());
+            // two tokens up front, then one every 50 ms
+            assertTrue(delegate.times.get(5) - start
+                    >= TimeUnit.MILLISECONDS.toNanos(4 * 50 - 10));
+        }
+    }
+
+    @Test
+    public void delayedFailureIsPassedOn() throws Exception {
+        // a single token, so the second lookup is delayed
+        try (RateLimitedResolver resolver = new RateLimitedResolver(
+                new LoopbackResolver(), new TokenBucket(10))) {
+            resolver.lookup("first.example.com");
+            resolver.lookup("foo.invalid").get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof UnknownHostException);
+        }
+    }
+}
@@ -0,0 +1,368 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.dns;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test for {@link StubResolver} against an in-process DNS server.
+ * @author Stephan Fuhrmann
+ */
+public class StubResolverTest {
+
+    /** Minimal DNS server answering from a fixed zone. */
+    private static class FakeDnsServer implements AutoCloseable {
+        private final DatagramSocket udp;
+        private final ServerSocket tcp;
+        private final Map<String, List<byte[]>> records =
+                new ConcurrentHashMap<>();
+        private final Map<String, String> ptr = new ConcurrentHashMap<>();
+        private final AtomicInteger queries = new AtomicInteger();
+        private volatile int dropFirst;
+        private volatile String truncate;
+        private volatile int dropType;
+
+        FakeDnsServer() throws IOException {
+            tcp = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            udp = new DatagramSocket(tcp.getLocalPort(),
+                    InetAddress.getLoopbackAddress());
+            Thread udpThread = new Thread(this::serveUdp, "fake-dns-udp");
+            udpThread.setDaemon(true);
+            udpThread.start();
+            Thread tcpThread = new Thread(this::serveTcp, "fake-dns-tcp");
+            tcpThread.setDaemon(true);
+            tcpThread.start();
+        }
+
+        InetSocketAddress address() {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                    udp.getLocalPort());
+        }
+
+        void add(String name, int type, byte[] data) {
+            records.computeIfAbsent(name + "/" + type,
+                    k -> Collections.synchronizedList(new ArrayList<>()))
+                    .add(data);
+        }
+
+        private void serveUdp() {
+            byte[] buffer = new byte[DnsMessage.MAX_UDP_SIZE];
+            while (!udp.isClosed()) {
+                try {
+                    DatagramPacket packet =
+                            new DatagramPacket(buffer, buffer.length);
+                    udp.receive(packet);
+                    if (queries.incrementAndGet() <= dropFirst
+                            || typeOf(packet) == dropType) {
+                        continue;
+                    }
+                    byte[] answer = answer(Arrays.copyOf(
+                            packet.getData(), packet.getLength()), true);
+                    udp.send(new DatagramPacket(answer, answer.length,
+                            packet.getSocketAddress()));
+                } catch (IOException ex) {
+                    // closed
+                }
+            }
+        }
+
+        private int typeOf(DatagramPacket packet) {
+            ByteBuffer in = ByteBuffer.wrap(
+                    packet.getData(), 0, packet.getLength());
+            int offset = 12;
+            while (in.get(offset) != 0) {
+                offset += (in.get(offset) & 0xff) + 1;
+            }
+            return in.getShort(offset + 1) & 0xffff;
+        }
+
+        private void serveTcp() {
+            while (!tcp.isClosed()) {
+                try (Socket socket = tcp.accept()) {
+                    DataInputStream in =
+                            new DataInputStream(socket.getInputStream());
+                    byte[] query = new byte[in.readUnsignedShort()];
+                    in.readFully(query);
+                    byte[] answer = answer(query, false);
+                    DataOutputStream out =
+                            new DataOutputStream(socket.getOutputStream());
+                    out.writeShort(answer.length);
+                    out.write(answer);
+                    out.flush();
+                } catch (IOException ex) {
+                    // closed
+                }
+            }
+        }
+
+        private byte[] answer(byte[] query, boolean udpTransport) {
+            ByteBuffer in = ByteBuffer.wrap(query);
+            int questionEnd = 12;
+            StringBuilder name = new StringBuilder();
+            int length;
+            while ((length = query[questionEnd]) != 0) {
+                if (name.length() > 0) {
+                    name.append('.');
+                }
+                name.append(new String(query, questionEnd + 1, length,
+                        StandardCharsets.US_ASCII));
+                questionEnd += length + 1;
+            }
+            questionEnd += 1;
+            int type = in.getShort(questionEnd) & 0xffff;
+            questionEnd += 4;
+
+            String key = name.toString().toLowerCase();
+            List<byte[]> data = new ArrayList<>();
+            if (type == DnsMessage.TYPE_PTR && ptr.containsKey(key)) {
+                data.add(encodeName(ptr.get(key)));
+            } else if (records.containsKey(key + "/" + type)) {
+                data.addAll(records.get(key + "/" + type));
+            }
+            boolean exists = ptr.containsKey(key)
+                    || records.containsKey(key + "/1")
+                    || records.containsKey(key + "/28");
+            boolean truncated = udpTransport && key.equals(truncate);
+
+            ByteBuffer out = ByteBuffer.allocate(DnsMessage.MAX_SIZE);
+            out.put(query, 0, 2);
+            int flags = 0x8180;
+            if (!exists) {
+                flags |= DnsMessage.RCODE_NXDOMAIN;
+            }
+            if (truncated) {
+                flags |= 0x0200;
+            }
+            out.putShort((short) flags);
+            out.putShort((short) 1);
+            if (truncated) {
+                out.putShort((short) 0);
+            } else {
+                out.putShort((short) data.size());
+            }
+            out.putShort((short) 0);
+            out.putShort((short) 0);
+            out.put(query, 12, questionEnd - 12);
+            if (!truncated) {
+                for (byte[] rdata : data) {
+                    out.putShort((short) 0xc00c);
+                    out.putShort((short) type);
+                    out.putShort((short) 1);
+                    out.putInt(300);
+                    out.putShort((short) rdata.length);
+                    out.put(rdata);
+                }
+            }
+            return Arrays.copyOf(out.array(), out.position());
+        }
+
+        private static byte[] encodeName(String name) {
+            ByteBuffer out = ByteBuffer.allocate(256);
+            for (String label : name.split("\\.")) {
+                out.put((byte) label.length());
+                out.put(label.getBytes(StandardCharsets.US_ASCII));
+            }
+            out.put((byte) 0);
+            return Arrays.copyOf(out.array(), out.position());
+        }
+
+        @Override
+        public void close() throws IOException {
+            udp.close();
+            tcp.close();
+        }
+    }
+
+    private FakeDnsServer server;
+    private ExecutorService executor;
+    private StubResolver resolver;
+
+    @Before
+    public void create() throws IOException {
+        server = new FakeDnsServer();
+        server.add("host.example.com", DnsMessage.TYPE_A,
+                new byte[] {10, 1, 2, 3});
+        server.add("host.example.com", DnsMessage.TYPE_AAAA,
+                InetAddress.getByName("2001:db8::1").getAddress());
+        executor = Executors.newCachedThreadPool();
+        ResolvConf conf = new ResolvConf(
+                Collections.singletonList(server.address()),
+                Collections.singletonList("example.com"), 1);
+        resolver = new StubResolver(conf, executor, 16, 200, 3);
+    }
+
+    @After
+    public void close() throws IOException {
+        resolver.close();
+        server.close();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void lookupReturnsIpv4First() throws Exception {
+        InetAddress[] all = resolver.lookup("host.example.com").get();
+        assertEquals(2, all.length);
+        assertEquals("10.1.2.3", all[0].getHostAddress());
+        assertEquals(InetAddress.getByName("2001:db8::1"), all[1]);
+        assertEquals("host.example.com", all[0].getHostName());
+    }
+
+    @Test
+    public void lookupUsesSearchDomains() throws Exception {
+        InetAddress[] all = resolver.lookup("host").get();
+        assertEquals("10.1.2.3", all[0].getHostAddress());
+    }
+
+    @Test
+    public void lookupOfLiteralSkipsServer() throws Exception {
+        InetAddress[] all = resolver.lookup("10.9.8.7").get();
+        assertEquals("10.9.8.7", all[0].getHostAddress());
+        assertEquals(0, server.queries.get());
+    }
+
+    @Test
+    public void unknownHostFails() {
+        try {
+            resolver.lookup("gone.example.com").join();
+            fail();
+        } catch (CompletionException ex) {
+            assertTrue(ex.getCause() instanceof UnknownHostException);
+        }
+    }
+
+    @Test
+    public void lookupSurvivesFailedFamily() throws Exception {
+        server.dropType = DnsMessage.TYPE_AAAA;
+        InetAddress[] all = resolver.lookup("host.example.com").get();
+        assertEquals(1, all.length);
+        assertEquals("10.1.2.3", all[0].getHostAddress());
+    }
+
+    @Test
+    public void lookupFailsIfBothFamiliesFail() {
+        server.dropFirst = Integer.MAX_VALUE;
+        try {
+            resolver.lookup("host.example.com").join();
+            fail();
+        } catch (CompletionException ex) {
+            assertTrue(ex.getCause() instanceof SocketTimeoutException);
+        }
+    }
+
+    @Test
+    public void manyLookupsArePipelined() throws Exception {
+        List<CompletableFuture<InetAddress[]>> futures = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            String name = "h" + i + ".example.com";
+            server.add(name, DnsMessage.TYPE_A,
+                    new byte[] {10, 0, (byte) (i >> 8), (byte) i});
+            futures.add(resolver.lookup(name));
+        }
+        for (int i = 0; i < 200; i++) {
+            assertEquals((byte) i, futures.get(i).get()[0].getAddress()[3]);
+        }
+    }
+
+    @Test
+    public void lostQueriesAreRetried() throws Exception {
+        server.dropFirst = 2;
+        InetAddress[] all = resolver.lookup("host.example.com").get();
+        assertEquals(2, all.length);
+        assertTrue(server.queries.get() >= 4);
+    }
+
+    @Test
+    public void unansweredQueriesTimeOut() {
+        server.dropFirst = Integer.MAX_VALUE;
+        try {
+            resolver.query("host.example.com", DnsMessage.TYPE_A).join();
+            fail();
+        } catch (CompletionException ex) {
+            assertTrue(ex.getCause() instanceof SocketTimeoutException);
+        }
+        assertEquals(3, server.queries.get());
+    }
+
+    @Test
+    public void truncatedResponsesAreRepeatedOverTcp() throws Exception {
+        server.truncate = "host.example.com";
+        InetAddress[] all = resolver.lookup("host.example.com").get();
+        assertEquals(2, all.length);
+    }
+
+    @Test
+    public void reverseIsConfirmedByForwardLookup() throws Exception {
+        server.ptr.put("3.2.1.10.in-addr.arpa", "host.example.com");
+        server.ptr.put("4.2.1.10.in-addr.arpa", "liar.example.com");
+        assertEquals("host.example.com", resolver.reverse(
+                InetAddress.getByName("10.1.2.3")).get());
+        assertEquals("10.1.2.4", resolver.reverse(
+                InetAddress.getByName("10.1.2.4")).get());
+        assertEquals("10.1.2.5", resolver.reverse(
+                InetAddress.getByName("10.1.2.5")).get());
+    }
+
+    @Test
+    public void reverseNames() throws UnknownHostException {
+        assertEquals("3.2.1.10.in-addr.arpa", DnsMessage.reverseName(
+                InetAddress.getByName("10.1.2.3")));
+        assertEquals("1.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0"
+                + ".0.0.0.0.0.0.0.0.8.b.d.0.1.0.0.2.ip6.arpa",
+                DnsMessage.reverseName(
+                        InetAddress.getByName("2001:db8::1")));
+    }
+
+    @Test
+    public void nameserverAddresses() throws SocketException {
+        assertEquals(new InetSocketAddress("10.0.0.1", 53),
+                ResolvConf.parseNameserver("10.0.0.1"));
+        assertEquals(new InetSocketAddress("10.0.0.1", 5353),
+                ResolvConf.parseNameserver("10.0.0.1:5353"));
+        assertEquals(new InetSocketAddress("::1", 5353),
+                ResolvConf.parseNameserver("[::1]:5353"));
+        assertEquals(new InetSocketAddress("::1", 53),
+                ResolvConf.parseNameserver("::1"));
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.file;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.Test;
+import com.oneandone.sshconfig.bind.Host;
+import static org.junit.Assert.*;
+
+/**
+ * Test for {@link CompactHostList} and {@link HostIndex}.
+ * @author Stephan Fuhrmann
+ */
+public class CompactHostListTest {
+
+    private static Host host(String name, String fqdn, String... ips) {
+        Host h = new Host();
+        h.setName(name);
+        h.setFqdn(fqdn);
+        h.setIps(ips);
+        return h;
+    }
+
+    private static void assertSameHost(Host expected, Host actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getFqdn(), actual.getFqdn());
+        assertArrayEquals(expected.getIps(), actual.getIps());
+        assertEquals(expected.getCreatedAt(), actual.getCreatedAt());
+        assertEquals(expected.getUpdatedAt(), actual.getUpdatedAt());
+        assertEquals(expected.getEnabled(), actual.getEnabled());
+        assertEquals(expected.getUser(), actual.getUser());
+        assertEquals(expected.getGroup(), actual.getGroup());
+        assertEquals(expected.getSshServerVersion(),
+                actual.getSshServerVersion());
+        assertEquals(expected.getCheckedAt(), actual.getCheckedAt());
+        assertEquals(expected.getFailures(), actual.getFailures());
+        assertArrayEquals(expected.getLatencies(), actual.getLatencies());
+        assertEquals(expected.getReachableIp(), actual.getReachableIp());
+        assertArrayEquals(expected.getUnreachableIps(),
+                actual.getUnreachableIps());
+    }
+
+    @Test
+    public void hostsKeepAllFields() {
+        Host label = host("www", "www.example.com", "10.0.0.1",
+                "2001:db8::1", "2001:db8:0:0:0:0:0:2", "fe80::1%eth0",
+                "010.1.2.3");
+        label.setUser("root");
+        label.setGroup("web");
+        label.setSshServerVersion("SSH-2.0-OpenSSH_9.6");
+        label.setUpdatedAt(new Date(0));
+        label.setCheckedAt(new Date(1));
+        label.setFailures(3);
+        label.setLatencies(new int[] {2, 1});
+        label.setReachableIp("2001:db8::1");
+        label.setUnreachableIps(new String[] {"10.0.0.1", "010.1.2.3"});
+        Host fqdn = host("www.example.com", "www.example.com");
+        fqdn.setUnreachableIps(new String[0]);
+        fqdn.setEnabled(false);
+        Host sparse = host(null, null);
+        sparse.setId(null);
+        sparse.setIps(null);
+        sparse.setEnabled(null);
+        sparse.setCreatedAt(null);
+        sparse.setUpdatedAt(null);
+        List<Host> hosts = Arrays.asList(label, fqdn, sparse,
+                host("", ".example.com"));
+
+        CompactHostList list = new CompactHostList();
+        list.addAll(hosts);
+        assertEquals(hosts.size(), list.size());
+        for (int i = 0; i < hosts.size(); i++) {
+            assertSameHost(hosts.get(i), list.get(i));
+            assertEquals(Objects.hashCode(hosts.get(i).getName()),
+                    list.nameHash(i));
+            assertTrue(list.nameEquals(i, hosts.get(i).getName()));
+            assertFalse(list.nameEquals(i, "ww"));
+        }
+
+        list.set(0, sparse);
+        assertSameHost(sparse, list.get(0));
+        list.add(1, label);
+        assertSameHost(label, list.get(1));
+        assertSameHost(fqdn, list.get(2));
+    }
+
+    @Test
+    public void indexFollowsChanges() {
+        CompactHostList list = new CompactHostList();
+        HostIndex index = new HostIndex(list);
+        Random random = new Random(1);
+        for (int i = 0; i < 1000; i++) {
+            list.add(host("n" + random.nextInt(20),
+                    "h" + i + ".example.com"));
+            index.add(i);
+        }
+        for (int i = 0; i < 3000; i++) {
+            int row = random.nextInt(list.size());
+            Host h = list.get(row);
+            h.setName("n" + random.nextInt(20));
+            if (random.nextBoolean()) {
+                h.setFqdn("h" + (1000 + i) + ".example.com");
+            }
+            if (random.nextBoolean()) {
+                h.setId(UUID.randomUUID());
+            }
+            index.remove(row);
+            list.set(row, h);
+            index.add(row);
+        }
+
+        for (int i = 0; i < 4000; i++) {
+            String fqdn = "h" + i + ".example.com";
+            Integer expected = null;
+            for (int row = 0; row < list.size(); row++) {
+                if (fqdn.equals(list.fqdn(row))) {
+                    expected = row;
+                }
+            }
+            assertEquals(expected, index.rowByFqdn(fqdn));
+        }
+        for (int i = 0; i < 20; i++) {
+            List<Integer> expected = new ArrayList<>();
+            for (int row = 0; row < list.size(); row++) {
+                if (("n" + i).equals(list.name(row))) {
+                    expected.add(row);
+                }
+            }
+            assertEquals(expected, index.rowsByName("n" + i));
+        }
+        for (int row = 0; row < list.size(); row++) {
+            Integer actual = index.rowById(list.get(row).getId());
+            assertEquals(Integer.valueOf(row), actual);
+        }
+    }
+
+    @Test
+    public void duplicateKeysTakeOverWhenTheFirstChanges() {
+        CompactHostList list = new CompactHostList();
+        HostIndex index = new HostIndex(list);
+        UUID id = UUID.randomUUID();
+        for (int i = 0; i < 3; i++) {
+            Host h = host("dup", "dup.example.com");
+            h.setId(id);
+            list.add(h);
+            index.add(i);
+        }
+        assertEquals(Integer.valueOf(0), index.rowById(id));
+        assertEquals(Integer.valueOf(0), index.rowByFqdn("dup.example.com"));
+
+        Host changed = list.get(0);
+        changed.setId(UUID.randomUUID());
+        changed.setFqdn("other.example.com");
+        index.remove(0);
+        list.set(0, changed);
+        index.add(0);
+        assertEquals(Integer.valueOf(1), index.rowById(id));
+        assertEquals(Integer.valueOf(1), index.rowByFqdn("dup.example.com"));
+
+        index.remove(1);
+        list.set(1, changed);
+        index.add(1);
+        assertEquals(Integer.valueOf(2), index.rowById(id));
+        assertEquals(Integer.valueOf(0),
+                index.rowByFqdn("other.example.com"));
+    }
+}
@@ -18,15 +18,25 @@ package com.oneandone.sshconfig.file;
 import com.oneandone.sshconfig.file.Database;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import com.oneandone.sshconfig.bind.Host;
 import javax.validation.ValidationException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import static org.junit.Assert.*;
 
 /**
@@ -56,6 +66,10 @@ public class DatabaseTest {
     @After
     public void cleanup() throws IOException {
         tmp.delete();
+        new File(tmp.getPath() + ".bak").delete();
+        new File(tmp.getPath() + ".journal").delete();
+        new File(tmp.getPath() + ".idx").delete();
+        new File(tmp.getPath() + ".lock").delete();
         tmp = null;
     }
 
@@ -110,4 +124,354 @@ public class DatabaseTest {
         db.update(Collections.singletonList(h));
         db.save();
     }
+
+    private Host copyOf(Host h) {
+        Host result = new Host(h.getId(), h.getFqdn(), h.getName(),
+                h.getCreatedAt(), h.getUpdatedAt(), h.getUser());
+        result.setIps(h.getIps());
+        result.setEnabled(h.getEnabled());
+        return result;
+    }
+
+    @Test
+    public void findByIdAndFqdnAndName() throws IOException {
+        Database db = Database.fromPath(tmp.toPath());
+        Host other = copyOf(validHost);
+        other.setId(UUID.randomUUID());
+        other.setFqdn("www.bbc.co.uk");
+        db.update(Arrays.asList(validHost, other));
+
+        assertEquals(validHost.getFqdn(),
+                db.findById(validHost.getId()).get().getFqdn());
+        assertEquals(other.getId(),
+                db.findByFqdn("www.bbc.co.uk").get().getId());
+        assertEquals(Arrays.asList(validHost, other), db.findByName("foo"));
+        assertFalse(db.findById(UUID.randomUUID()).isPresent());
+        assertFalse(db.findByFqdn("www.example.com").isPresent());
+        assertTrue(db.findByName("bar").isEmpty());
+    }
+
+    @Test
+    public void updateMergesByFqdn() throws IOException {
+        Database db = Database.fromPath(tmp.toPath());
+        db.update(Collections.singletonList(validHost));
+        Host update = copyOf(validHost);
+        update.setId(UUID.randomUUID());
+        update.setName("bar");
+        db.update(Collections.singletonList(update));
+
+        assertEquals(1, db.getList().size());
+        assertEquals("bar", db.getList().get(0).getName());
+        assertTrue(db.findByName("foo").isEmpty());
+        assertEquals(1, db.findByName("bar").size());
+    }
+
+    @Test
+    public void updateWithChangedFqdn() throws IOException {
+        Database db = Database.fromPath(tmp.toPath());
+        db.update(Collections.singletonList(validHost));
+        Host update = copyOf(validHost);
+        update.setFqdn("www.bbc.co.uk");
+        db.update(Collections.singletonList(update));
+
+        assertEquals(1, db.getList().size());
+        assertFalse(db.findByFqdn("www.cnn.com").isPresent());
+        assertEquals(validHost.getId(),
+                db.findByFqdn("www.bbc.co.uk").get().getId());
+        assertEquals("www.bbc.co.uk",
+                db.findById(validHost.getId()).get().getFqdn());
+    }
+
+    @Test
+    public void saveToWriterLikeObjectMapper() throws IOException {
+        Host other = copyOf(validHost);
+        other.setFqdn("www.bbc.co.uk");
+        StringWriter writer = new StringWriter();
+        Database.save(writer, Arrays.asList(validHost, other));
+
+        assertEquals(new ObjectMapper().writeValueAsString(
+                Arrays.asList(validHost, other)), writer.toString());
+    }
+
+    @Test
+    public void readListFromSavedWriter() throws IOException {
+        StringWriter writer = new StringWriter();
+        Database.save(writer, Arrays.asList(validHost, validHost));
+
+        assertEquals(2, Database.readList(
+                new StringReader(writer.toString())).size());
+        assertEquals(0, Database.readList(
+                new StringReader("[]")).size());
+    }
+
+    @Test(expected = IOException.class)
+    public void readListWithNoArray() throws IOException {
+        Database.readList(new StringReader("{}"));
+    }
+
+    @Test
+    public void streamMissingFile() throws IOException {
+        try (HostReader reader = Database.stream(tmp.toPath())) {
+            assertFalse(reader.hasNext());
+        }
+    }
+
+    @Test
+    public void saveSkippedWhenClean() throws IOException {
+        Database db = Database.fromPath(tmp.toPath());
+        db.update(Collections.singletonList(validHost));
+        assertTrue(db.isDirty());
+        db.save();
+        assertFalse(db.isDirty());
+
+        Database db2 = Database.fromPath(tmp.toPath());
+        assertFalse(db2.isDirty());
+        assertEquals(0, db2.update(
+                Collections.singletonList(copyOf(validHost))));
+        assertFalse(db2.isDirty());
+        db2.save();
+        assertFalse(new File(tmp.getPath() + ".bak").exists());
+    }
+
+    @Test
+    public void updateReportsChanges() throws IOException {
+        Database db = Database.fromPath(tmp.toPath());
+        Date updatedAt = new Date(0);
+        validHost.setUpdatedAt(updatedAt);
+        db.update(Collections.singletonList(validHost));
+
+        Host same = copyOf(validHost);
+        assertTrue(validHost.updateHostFrom(same).isEmpty());
+        assertEquals(updatedAt, validHost.getUpdatedAt());
+
+        Host changed = copyOf(validHost);
+        changed.setIps(new String[] {"127.0.0.2"});
+        changed.setEnabled(false);
+        assertEquals(1, db.update(Collections.singletonList(changed)));
+        Host stored = db.findById(validHost.getId()).get();
+        assertNotEquals(updatedAt, stored.getUpdatedAt());
+        assertFalse(stored.getEnabled());
+        assertArrayEquals(new String[] {"127.0.0.2"}, stored.getIps());
+    }
+
+    @Test
+    public void probingIsSavedButNoChange() throws IOException {
+        Database db = Database.fromPath(tmp.toPath());
+        db.update(Collections.singletonList(validHost));
+        db.save();
+
+        Host probed = copyOf(validHost);
+        probed.setCheckedAt(new Date());
+        probed.setFailures(0);
+        probed.addLatency(12);
+        assertEquals(0, db.update(Collections.singletonList(probed)));
+        assertTrue(db.isDirty());
+        db.save();
+
+        Host stored = Database.fromPath(tmp.toPath())
+                .findById(validHost.getId()).get();
+        assertArrayEquals(new int[] {12}, stored.getLatencies());
+        assertEquals(validHost.getUpdatedAt(), stored.getUpdatedAt());
+    }
+
+    /** Hosts with every kind of field the binary format special cases. */
+    private List<Host> oddHosts() {
+        Host labelName = copyOf(validHost);
+        labelName.setId(UUID.randomUUID());
+        labelName.setName("www");
+        labelName.setFqdn("www.example.com");
+        labelName.setIps(new String[] {"2001:db8::1",
+            "2001:db8:0:0:0:0:0:2", "::ffff:10.1.2.3", "fe80::1%eth0",
+            "010.1.2.3", "FE80::1"});
+        labelName.setUser("root");
+        labelName.setGroup("web");
+        labelName.setSshServerVersion("SSH-2.0-OpenSSH_9.6");
+        labelName.setCheckedAt(new Date(0));
+        labelName.setFailures(0);
+        labelName.setLatencies(new int[] {0, 3, 200, 4999});
+        labelName.setReachableIp("2001:db8::1");
+        labelName.setUnreachableIps(new String[] {"010.1.2.3", "FE80::1"});
+
+        Host fqdnName = copyOf(labelName);
+        fqdnName.setId(UUID.randomUUID());
+        fqdnName.setName("www.example.com");
+        fqdnName.setEnabled(false);
+        fqdnName.setUser(null);
+        fqdnName.setFailures(300);
+        fqdnName.setReachableIp("10.1.2.3");
+        fqdnName.setUnreachableIps(new String[0]);
+
+        Host sparse = new Host();
+        sparse.setName("gr\u00fc\u00dfe");
+        sparse.setEnabled(null);
+        sparse.setCreatedAt(null);
+        return Arrays.asList(validHost, labelName, fqdnName, sparse);
+    }
+
+    @Test
+    public void binaryConversionIsLossless() throws IOException {
+        Path dir = Files.createTempDirectory("db");
+        try {
+            Path json = dir.resolve("db.json");
+            Path bin = dir.resolve("db.bin");
+            Path back = dir.resolve("back.json");
+            try (Writer writer = Files.newBufferedWriter(json)) {
+                Database.save(writer, oddHosts());
+            }
+
+            assertEquals(4, Database.convert(json, DatabaseFormat.JSON,
+                    bin, DatabaseFormat.BINARY));
+            assertEquals(4, Database.convert(bin, DatabaseFormat.BINARY,
+                    back, DatabaseFormat.JSON));
+
+            assertEquals(new String(Files.readAllBytes(json), "UTF-8"),
+                    new String(Files.readAllBytes(back), "UTF-8"));
+            assertTrue(Files.size(bin) < Files.size(json) / 2);
+        } finally {
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path f : (Iterable<Path>) files::iterator) {
+                    Files.delete(f);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void binaryDatabaseSavesAndLoads() throws IOException {
+        File bin = new File(tmp.getPath() + DatabaseFormat.BINARY_EXTENSION);
+        try {
+            Database db = Database.fromPath(bin.toPath());
+            db.update(Collections.singletonList(validHost));
+            db.save();
+
+            Database db2 = Database.fromPath(bin.toPath());
+            assertEquals(1, db2.getList().size());
+            Host h = db2.getList().get(0);
+            assertEquals(validHost.getId(), h.getId());
+            assertEquals(validHost.getFqdn(), h.getFqdn());
+            assertEquals(validHost.getName(), h.getName());
+            assertEquals(validHost.getCreatedAt(), h.getCreatedAt());
+            assertArrayEquals(validHost.getIps(), h.getIps());
+            assertFalse(db2.isDirty());
+        } finally {
+            bin.delete();
+            new File(bin.getPath() + ".idx").delete();
+        }
+    }
+
+    @Test
+    public void binaryDatabaseDetectsDamage() throws IOException {
+        Path bin = tmp.toPath();
+        try (OutputStream os = Files.newOutputStream(bin);
+             HostWriter writer = DatabaseFormat.BINARY.writer(os)) {
+            for (Host h : oddHosts()) {
+                writer.write(h);
+            }
+        }
+        byte[] bytes = Files.readAllBytes(bin);
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(bin, bytes);
+        try {
+            Database.fromPath(bin, DatabaseFormat.BINARY);
+            fail();
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage().contains("Checksum"));
+        }
+    }
+
+    @Test
+    public void journalKeepsChangesWithoutSave() throws IOException {
+        Database db = Database.fromPath(tmp.toPath(), DatabaseFormat.JSON,
+                true);
+        db.update(Collections.singletonList(validHost));
+        Host changed = copyOf(validHost);
+        changed.setIps(new String[] {"127.0.0.2"});
+        db.update(Collections.singletonList(changed));
+        assertFalse(db.isDirty());
+        // no save and no close, like a crash
+
+        try (Database db2 = Database.fromPath(tmp.toPath(),
+                DatabaseFormat.JSON, true)) {
+            assertEquals(1, db2.getList().size());
+            assertArrayEquals(new String[] {"127.0.0.2"},
+                    db2.getList().get(0).getIps());
+        }
+        db.close();
+    }
+
+    @Test
+    public void journalIgnoresDamagedRecord() throws IOException {
+        Path journal = new File(tmp.getPath() + ".journal").toPath();
+        try (Database db = Database.fromPath(tmp.toPath(),
+                DatabaseFormat.JSON, true)) {
+            db.update(Collections.singletonList(validHost));
+            Host other = copyOf(validHost);
+            other.setId(UUID.randomUUID());
+            other.setFqdn("www.example.com");
+            db.update(Collections.singletonList(other));
+        }
+        byte[] bytes = Files.readAllBytes(journal);
+        bytes[bytes.length - 2] ^= 1;
+        Files.write(journal, bytes);
+
+        Database db2 = Database.fromPath(tmp.toPath());
+        assertEquals(1, db2.getList().size());
+        assertEquals(validHost.getId(), db2.getList().get(0).getId());
+    }
+
+    @Test
+    public void journalIsMergedOnSave() throws IOException {
+        try (Database db = Database.fromPath(tmp.toPath(),
+                DatabaseFormat.JSON, true)) {
+            db.update(Collections.singletonList(validHost));
+            db.save();
+            assertFalse(tmp.exists());
+        }
+        assertTrue(Database.hasJournal(tmp.toPath()));
+
+        Database db2 = Database.fromPath(tmp.toPath());
+        assertTrue(db2.isDirty());
+        db2.save();
+        assertFalse(Database.hasJournal(tmp.toPath()));
+        assertEquals(1, Database.fromPath(tmp.toPath()).getList().size());
+    }
+
+    @Test
+    public void readOnlyReplaysJournalInMemory() throws IOException {
+        try (Database db = Database.fromPath(tmp.toPath(),
+                DatabaseFormat.JSON, true)) {
+            db.update(Collections.singletonList(validHost));
+        }
+        Path journal = new File(tmp.getPath() + ".journal").toPath();
+        byte[] before = Files.readAllBytes(journal);
+
+        try (Database db2 = Database.readOnly(tmp.toPath(),
+                DatabaseFormat.JSON)) {
+            assertEquals(1, db2.getList().size());
+            assertFalse(db2.isDirty());
+            try {
+                db2.save();
+                fail();
+            } catch (IllegalStateException e) {
+                // expected
+            }
+        }
+        assertFalse(tmp.exists());
+        assertArrayEquals(before, Files.readAllBytes(journal));
+    }
+
+    @Test
+    public void lockIsExclusive() throws IOException {
+        try (DatabaseLock lock = DatabaseLock.acquire(tmp.toPath())) {
+            assertNotNull(lock);
+            try {
+                DatabaseLock.acquire(tmp.toPath());
+                fail();
+            } catch (IOException e) {
+                // expected
+            }
+        }
+        DatabaseLock.acquire(tmp.toPath()).close();
+    }
 }
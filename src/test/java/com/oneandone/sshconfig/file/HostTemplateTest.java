@@ -0,0 +1,127 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.file;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Test;
+import com.oneandone.sshconfig.bind.Host;
+import static org.junit.Assert.*;
+
+/**
+ * Test for {@link HostTemplate} and {@link HostBlockRenderer}.
+ * @author Stephan Fuhrmann
+ */
+public class HostTemplateTest {
+
+    private static final String ID = "a7369847-e833-49bd-af95-e0d1292b3ed6";
+
+    private static Host host() {
+        Host h = new Host();
+        h.setId(UUID.fromString(ID));
+        h.setName("web1");
+        h.setFqdn("web1.example.com");
+        h.setIps(new String[] {"10.0.0.1", "2001:db8::1"});
+        return h;
+    }
+
+    private static List<String> render(HostTemplate template, Host h) {
+        HostBlockRenderer renderer = new HostBlockRenderer(template);
+        renderer.render(h);
+        return renderer.lines();
+    }
+
+    @Test
+    public void defaultTemplateGivesClassicEntries() {
+        Host h = host();
+        h.setUser("admin");
+
+        assertEquals(Arrays.asList(
+                "# <<< BEGIN{" + ID + "}",
+                "Host web1",
+                "\tHostname web1.example.com",
+                "\tHostname 10.0.0.1",
+                "\tHostname 2001:db8::1",
+                "\tUser admin",
+                "# >>> END{" + ID + "}"),
+                render(HostTemplate.DEFAULT, h));
+    }
+
+    @Test
+    public void linesWithMissingValuesAreLeftOut() {
+        Host h = host();
+        h.setIps(null);
+
+        assertEquals(Arrays.asList(
+                "# <<< BEGIN{" + ID + "}",
+                "Host web1",
+                "\tHostname web1.example.com",
+                "# >>> END{" + ID + "}"),
+                render(HostTemplate.DEFAULT, h));
+    }
+
+    @Test
+    public void groupLinesAreAddedForTheGroup() {
+        HostTemplate template = HostTemplate.parse(Arrays.asList(
+                "Host {name} {ip}",
+                "",
+                "@group web",
+                "\tPort 2222",
+                "\tIdentityFile ~/.ssh/{group}_{name}",
+                "@group dmz",
+                "\tProxyJump bastion"));
+        Host h = host();
+        h.setGroup("web");
+
+        assertEquals(Arrays.asList(
+                "# <<< BEGIN{" + ID + "}",
+                "Host web1 10.0.0.1",
+                "Host web1 2001:db8::1",
+                "\tPort 2222",
+                "\tIdentityFile ~/.ssh/web_web1",
+                "# >>> END{" + ID + "}"),
+                render(template, h));
+
+        h.setGroup(null);
+        assertEquals(4, render(template, h).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownPlaceholderFails() {
+        HostTemplate.parse(Collections.singletonList("Host {nmae}"));
+    }
+
+    @Test
+    public void writtenEntryEqualsLines() throws IOException {
+        HostBlockRenderer renderer =
+                new HostBlockRenderer(HostTemplate.DEFAULT);
+        StringWriter writer = new StringWriter();
+        renderer.render(host(), writer);
+
+        StringBuilder expected = new StringBuilder();
+        for (String line : renderer.lines()) {
+            expected.append(line).append(System.lineSeparator());
+        }
+        assertEquals(expected.toString(), writer.toString());
+        assertEquals(SSHConfig.hash(renderer.lines()),
+                SSHConfig.hash(renderer.render(host())));
+    }
+}
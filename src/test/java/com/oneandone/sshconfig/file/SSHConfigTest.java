@@ -0,0 +1,322 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.file;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import com.oneandone.sshconfig.bind.Host;
+import static org.junit.Assert.*;
+
+/**
+ * Test for {@link SSHConfig}.
+ * @author Stephan Fuhrmann
+ */
+public class SSHConfigTest {
+
+    private static final String ID1 = "a7369847-e833-49bd-af95-e0d1292b3ed6";
+    private static final String ID2 = "0d3ec7f6-57a1-4ef4-a4c3-1d2b8e0a11c3";
+
+    private Path dir;
+
+    @Before
+    public void init() throws IOException {
+        dir = Files.createTempDirectory("sshconfig");
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        try (java.util.stream.Stream<Path> files = Files.list(dir)) {
+            for (Path p : (Iterable<Path>) files::iterator) {
+                Files.delete(p);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    private SSHConfig load(String... lines) throws IOException {
+        Path config = dir.resolve("config");
+        Files.write(config, Arrays.asList(lines), StandardCharsets.UTF_8);
+        return SSHConfig.fromPath(config);
+    }
+
+    private static Host host(String id, String name) {
+        Host h = new Host();
+        h.setId(UUID.fromString(id));
+        h.setName(name);
+        h.setFqdn(name + ".example.com");
+        h.setIps(new String[0]);
+        h.setEnabled(true);
+        return h;
+    }
+
+    private static List<String> entry(String id, String name) {
+        return Arrays.asList(
+                "# <<< BEGIN{" + id + "}",
+                "Host " + name,
+                "\tHostname " + name + ".example.com",
+                "# >>> END{" + id + "}");
+    }
+
+    private List<String> saved(SSHConfig config, boolean own, boolean plain)
+            throws IOException {
+        Path out = dir.resolve("out");
+        config.save(own, plain, out);
+        return Files.readAllLines(out, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void findOwnEntriesSplitsPlainAndOwn() throws IOException {
+        SSHConfig config = load(
+                "Host a",
+                "# <<< BEGIN{" + ID1 + "}",
+                "Host one",
+                "\tHostname one.example.com",
+                "# >>> END{" + ID1 + "}",
+                "Host b",
+                "# <<< BEGIN{" + ID2 + "}",
+                "Host two",
+                "# >>> END{" + ID2 + "}",
+                "Host c");
+        config.findOwnEntries();
+
+        assertEquals(Arrays.asList("Host a", "Host b", "Host c"),
+                saved(config, false, true));
+        assertEquals(Arrays.asList(
+                "# <<< BEGIN{" + ID1 + "}",
+                "Host one",
+                "\tHostname one.example.com",
+                "# >>> END{" + ID1 + "}",
+                "# <<< BEGIN{" + ID2 + "}",
+                "Host two",
+                "# >>> END{" + ID2 + "}"),
+                saved(config, true, false));
+    }
+
+    @Test
+    public void findOwnEntriesKeepsLookalikes() throws IOException {
+        SSHConfig config = load(
+                "# >>> END{" + ID1 + "}",
+                "# <<< BEGIN{not-a-uuid!}",
+                "# <<< BEGIN{" + ID1 + "} trailing",
+                "Host a");
+        config.findOwnEntries();
+
+        assertEquals(4, saved(config, false, true).size());
+        assertEquals(0, saved(config, true, false).size());
+    }
+
+    @Test
+    public void findOwnEntriesUnterminated() throws IOException {
+        SSHConfig config = load(
+                "Host a",
+                "# <<< BEGIN{" + ID1 + "}",
+                "Host one");
+        config.findOwnEntries();
+
+        assertEquals(Collections.singletonList("Host a"),
+                saved(config, false, true));
+        assertEquals(2, saved(config, true, false).size());
+    }
+
+    @Test
+    public void pushOwnReplacesOwnEntries() throws IOException {
+        Host h = new Host();
+        h.setId(UUID.fromString(ID2));
+        h.setName("two");
+        h.setFqdn("two.example.com");
+        h.setIps(new String[] {"10.0.0.2"});
+        h.setEnabled(true);
+        h.setCreatedAt(new Date());
+        h.setUpdatedAt(h.getCreatedAt());
+
+        SSHConfig config = load(
+                "Host a",
+                "# <<< BEGIN{" + ID1 + "}",
+                "Host one",
+                "# >>> END{" + ID1 + "}");
+        config.pushOwn(Collections.singletonList(h));
+
+        assertEquals(Arrays.asList(
+                "Host a",
+                "# <<< BEGIN{" + ID2 + "}",
+                "Host two",
+                "\tHostname two.example.com",
+                "\tHostname 10.0.0.2",
+                "# >>> END{" + ID2 + "}"),
+                saved(config, true, true));
+    }
+
+    @Test
+    public void pushOwnUpdatesEntriesInPlace() throws IOException {
+        String id3 = "5b9e8f7c-3c1d-4a57-9a0f-6a2f3b4c5d6e";
+        List<String> lines = new java.util.ArrayList<>();
+        lines.add("Host a");
+        lines.addAll(entry(ID1, "one"));
+        lines.add("Host b");
+        lines.addAll(entry(ID2, "old"));
+        lines.add("Host c");
+        lines.addAll(entry(id3, "gone"));
+        lines.add("Host d");
+        SSHConfig config = load(lines.toArray(new String[0]));
+
+        String id4 = "c0ffee00-0000-4000-8000-000000000004";
+        config.pushOwn(Arrays.asList(host(id4, "four"),
+                host(ID2, "two"), host(ID1, "one")));
+
+        List<String> expected = new java.util.ArrayList<>();
+        expected.add("Host a");
+        expected.addAll(entry(ID1, "one"));
+        expected.add("Host b");
+        expected.addAll(entry(ID2, "two"));
+        expected.add("Host c");
+        expected.add("Host d");
+        expected.addAll(entry(id4, "four"));
+        assertEquals(expected, saved(config, true, true));
+    }
+
+    @Test
+    public void pushOwnRemovesRepeatedEntries() throws IOException {
+        List<String> lines = new java.util.ArrayList<>(entry(ID1, "one"));
+        lines.add("Host a");
+        lines.addAll(entry(ID1, "one"));
+        SSHConfig config = load(lines.toArray(new String[0]));
+
+        config.pushOwn(Collections.singletonList(host(ID1, "one")));
+
+        List<String> expected = new java.util.ArrayList<>(entry(ID1, "one"));
+        expected.add("Host a");
+        assertEquals(expected, saved(config, true, true));
+    }
+
+    @Test
+    public void saveSkipsUnchangedFile() throws IOException {
+        List<String> lines = new java.util.ArrayList<>();
+        lines.add("Host a");
+        lines.addAll(entry(ID1, "one"));
+        SSHConfig config = load(lines.toArray(new String[0]));
+        Path file = dir.resolve("config");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(0));
+
+        config.pushOwn(Collections.singletonList(host(ID1, "one")));
+        config.save();
+        assertFalse(Files.exists(dir.resolve("config.bak")));
+        assertEquals(0, Files.getLastModifiedTime(file).toMillis());
+
+        config.pushOwn(Collections.singletonList(host(ID1, "uno")));
+        config.save();
+        assertEquals(lines, Files.readAllLines(
+                dir.resolve("config.bak"), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void rewriteSkipsUnchangedFile() throws IOException {
+        List<String> lines = new java.util.ArrayList<>();
+        lines.add("Host a");
+        lines.addAll(entry(ID1, "one"));
+        load(lines.toArray(new String[0]));
+        Path file = dir.resolve("config");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(0));
+
+        SSHConfig.rewrite(file,
+                Collections.singletonList(host(ID1, "one")).iterator());
+        assertFalse(Files.exists(dir.resolve("config.bak")));
+        assertFalse(Files.exists(dir.resolve("config.tmp")));
+        assertEquals(0, Files.getLastModifiedTime(file).toMillis());
+    }
+
+    @Test
+    public void rewriteEqualsPushOwnAndSave() throws IOException {
+        List<Host> hosts = new java.util.ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Host h = new Host();
+            h.setId(new UUID(0, i));
+            h.setName("host" + i);
+            h.setFqdn("host" + i + ".example.com");
+            h.setIps(new String[] {"10.0.0." + i, "::" + i});
+            h.setUser("user" + i);
+            h.setEnabled(i != 1);
+            hosts.add(h);
+        }
+        String[] lines = {
+            "Host a",
+            "# <<< BEGIN{" + ID1 + "}",
+            "Host one",
+            "# >>> END{" + ID1 + "}",
+            "",
+            "Host b"};
+
+        SSHConfig config = load(lines);
+        config.pushOwn(hosts);
+        List<String> expected = saved(config, true, true);
+
+        Path file = dir.resolve("config");
+        SSHConfig.rewrite(file, hosts.iterator());
+        assertEquals(expected,
+                Files.readAllLines(file, StandardCharsets.UTF_8));
+        assertEquals(Arrays.asList(lines), Files.readAllLines(
+                dir.resolve("config.bak"), StandardCharsets.UTF_8));
+        assertFalse(Files.exists(dir.resolve("config.tmp")));
+    }
+
+    @Test
+    public void rewriteUpdatesEntriesInPlace() throws IOException {
+        String id3 = "5b9e8f7c-3c1d-4a57-9a0f-6a2f3b4c5d6e";
+        List<String> lines = new java.util.ArrayList<>();
+        lines.add("Host a");
+        lines.addAll(entry(ID1, "one"));
+        lines.add("Host b");
+        lines.addAll(entry(ID2, "old"));
+        lines.add("Host c");
+        lines.addAll(entry(id3, "gone"));
+        lines.add("Host d");
+        lines.addAll(entry(ID1, "one"));
+        SSHConfig config = load(lines.toArray(new String[0]));
+
+        String id4 = "c0ffee00-0000-4000-8000-000000000004";
+        List<Host> hosts = Arrays.asList(host(id4, "four"),
+                host(ID2, "two"), host(ID1, "one"));
+        config.pushOwn(hosts);
+        List<String> expected = saved(config, true, true);
+
+        Path file = dir.resolve("config");
+        SSHConfig.rewrite(file, hosts.iterator());
+        assertEquals(expected,
+                Files.readAllLines(file, StandardCharsets.UTF_8));
+        assertEquals("Host b", expected.get(5));
+        assertFalse(Files.exists(dir.resolve("config.kept.tmp")));
+        assertFalse(Files.exists(dir.resolve("config.added.tmp")));
+    }
+
+    @Test
+    public void rewriteCreatesMissingFile() throws IOException {
+        Path file = dir.resolve("missing");
+        SSHConfig.rewrite(file, Collections.<Host>emptyIterator());
+        assertTrue(Files.exists(file));
+        assertEquals(0, Files.size(file));
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.file;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import com.oneandone.sshconfig.bind.Host;
+import static org.junit.Assert.*;
+
+/**
+ * Test for {@link SearchIndex}.
+ * @author Stephan Fuhrmann
+ */
+public class SearchIndexTest {
+
+    private Path dir;
+
+    @Before
+    public void init() throws IOException {
+        dir = Files.createTempDirectory("index");
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        try (java.util.stream.Stream<Path> files = Files.list(dir)) {
+            for (Path p : (Iterable<Path>) files::iterator) {
+                Files.delete(p);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    private static Host host(String name, String fqdn, String group) {
+        Host h = new Host();
+        h.setId(UUID.randomUUID());
+        h.setName(name);
+        h.setFqdn(fqdn);
+        h.setGroup(group);
+        h.setIps(new String[] {"10.0.0.1"});
+        h.setEnabled(true);
+        return h;
+    }
+
+    private SearchIndex index(Host... hosts) throws IOException {
+        Path f = dir.resolve("db.json.idx");
+        SearchIndex.write(f, Arrays.asList(hosts));
+        return SearchIndex.open(f);
+    }
+
+    @Test
+    public void prefixMatchesNameFqdnAndGroup() throws IOException {
+        SearchIndex index = index(
+                host("db-fra-1", "db-fra-1.example.com", "db"),
+                host("db-fra-2", "db-fra-2.example.com", null),
+                host("web1", "www.example.com", "web"),
+                host("mail", "db-fra-mx.example.com", "mx"));
+
+        assertEquals(4, index.size());
+        assertEquals(Arrays.asList("db-fra-1", "db-fra-2", "mail"),
+                index.query("db-fra"));
+        assertEquals(Arrays.asList("web1"), index.query("we*"));
+        assertEquals(Arrays.asList("web1"), index.query("www."));
+        assertEquals(Collections.emptyList(), index.query("x"));
+        assertEquals(Arrays.asList("db-fra-1", "db-fra-2", "mail", "web1"),
+                index.query(""));
+    }
+
+    @Test
+    public void leadingWildcardMatchesSubstrings() throws IOException {
+        SearchIndex index = index(
+                host("db-fra-1", "db-fra-1.example.com", "db"),
+                host("web1", "www.example.org", "web"),
+                host("mail", "mx.example.com", "mx"));
+
+        assertEquals(Arrays.asList("db-fra-1", "mail"),
+                index.query("*.com"));
+        assertEquals(Arrays.asList("db-fra-1"), index.query("*fra*"));
+        assertEquals(Collections.emptyList(), index.query("*fra2"));
+    }
+
+    @Test
+    public void namesAreUniqueAndSortedByBytes() throws IOException {
+        Host disabled = host("zz-disabled", "zz.example.com", null);
+        disabled.setEnabled(false);
+        SearchIndex index = index(
+                host("\u00e4pfel", "a1.example.com", null),
+                host("b", "b1.example.com", null),
+                host("b", "b2.example.com", null),
+                host("a", "a2.example.com", null),
+                disabled);
+
+        assertEquals(Arrays.asList("a", "\u00e4pfel"), index.query("a"));
+        assertEquals(Arrays.asList("\u00e4pfel"), index.query("\u00e4"));
+        assertEquals(Arrays.asList("b"), index.query("b"));
+        assertEquals(Collections.emptyList(), index.query("zz"));
+    }
+
+    @Test
+    public void cutIndexIsRejected() throws IOException {
+        Path f = dir.resolve("db.json.idx");
+        SearchIndex.write(f, Arrays.asList(
+                host("web1", "web1.example.com", "web"),
+                host("mail", "mail.example.com", null)));
+        byte[] content = Files.readAllBytes(f);
+        Files.write(f, Arrays.copyOf(content, content.length - 3));
+        try {
+            SearchIndex.open(f);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void writeLeavesNoTemporaryFile() throws IOException {
+        index(host("web1", "web1.example.com", null));
+        try (java.util.stream.Stream<Path> files = Files.list(dir)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    public void databaseSaveKeepsIndexCurrent() throws IOException {
+        Path f = dir.resolve("db.json");
+        Path indexFile = SearchIndex.pathOf(f);
+        Database db = Database.fromPath(f);
+        Host h = host("web1", "web1.example.com", null);
+        h.setCreatedAt(new java.util.Date());
+        h.setUpdatedAt(h.getCreatedAt());
+        db.update(Collections.singletonList(h));
+        db.save();
+
+        assertTrue(SearchIndex.isCurrent(indexFile, f));
+        assertEquals(Arrays.asList("web1"),
+                SearchIndex.open(indexFile).query("web"));
+
+        List<Host> more = new ArrayList<>(db.getList());
+        Host h2 = host("web2", "web2.example.com", null);
+        h2.setCreatedAt(h.getCreatedAt());
+        h2.setUpdatedAt(h.getCreatedAt());
+        more.add(h2);
+        db.replace(more);
+        db.save();
+
+        assertEquals(Arrays.asList("web1", "web2"),
+                SearchIndex.open(indexFile).query("web"));
+        Files.setLastModifiedTime(f, java.nio.file.attribute.FileTime
+                .fromMillis(System.currentTimeMillis() + 1000));
+        assertFalse(SearchIndex.isCurrent(indexFile, f));
+    }
+}
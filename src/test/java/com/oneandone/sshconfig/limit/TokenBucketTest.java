@@ -0,0 +1,75 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.limit;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test for {@link TokenBucket}.
+ * @author Stephan Fuhrmann
+ */
+public class TokenBucketTest {
+
+    private static final long INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final AtomicLong now = new AtomicLong(1_000_000_000L);
+
+    private final TokenBucket bucket = new TokenBucket(10, 2, now::get);
+
+    @Test
+    public void burstThenRate() {
+        assertTrue(bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+        assertEquals(INTERVAL, bucket.nanosUntilAvailable());
+
+        now.addAndGet(INTERVAL / 2);
+        assertFalse(bucket.tryAcquire());
+        assertEquals(INTERVAL / 2, bucket.nanosUntilAvailable());
+
+        now.addAndGet(INTERVAL / 2);
+        assertEquals(0, bucket.nanosUntilAvailable());
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+    }
+
+    @Test
+    public void idleTimeFillsOnlyTheBurst() {
+        now.addAndGet(TimeUnit.SECONDS.toNanos(60));
+        assertTrue(bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+    }
+
+    @Test
+    public void reserveQueuesIntoTheFuture() {
+        assertEquals(0, bucket.reserve());
+        assertEquals(0, bucket.reserve());
+        assertEquals(INTERVAL, bucket.reserve());
+        assertEquals(2 * INTERVAL, bucket.reserve());
+        assertFalse(bucket.tryAcquire());
+        assertEquals(3 * INTERVAL, bucket.nanosUntilAvailable());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rateMustBePositive() {
+        new TokenBucket(0);
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.metrics;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test for {@link Histogram}, {@link Metrics} and {@link StatsFormat}.
+ * @author Stephan Fuhrmann
+ */
+public class MetricsTest {
+
+    @Test
+    public void bucketsCoverAllValues() {
+        assertEquals(0, Histogram.bucketOf(0));
+        assertEquals(Histogram.BUCKETS - 1,
+                Histogram.bucketOf(Long.MAX_VALUE));
+        for (long value : new long[] {1, 7, 8, 9, 1000, 123456789L}) {
+            int bucket = Histogram.bucketOf(value);
+            assertTrue(Histogram.lowestOf(bucket) <= value);
+            assertTrue(Histogram.lowestOf(bucket + 1) > value);
+            // the buckets are at most 1/8 of their values wide
+            assertTrue(Histogram.lowestOf(bucket + 1)
+                    - Histogram.lowestOf(bucket) <= Math.max(1, value / 8));
+        }
+    }
+
+    @Test
+    public void quantilesAreWithinTheBucketWidth() {
+        Histogram h = new Histogram("test_quantiles", "Test.");
+        for (int i = 1; i <= 100; i++) {
+            h.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+
+        assertEquals(100, h.getCount());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(5050), h.getSum());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), h.getMax());
+        for (double q : new double[] {0.5, 0.95, 0.99}) {
+            double expected = TimeUnit.MILLISECONDS.toNanos(
+                    Math.round(q * 100));
+            double actual = h.quantile(q);
+            assertTrue(q + ": " + actual, actual >= expected);
+            assertTrue(q + ": " + actual, actual <= expected * 1.125);
+        }
+        assertEquals(h.getMax(), h.quantile(1));
+        assertEquals(0, new Histogram("test_empty", "Test.").quantile(0.5));
+    }
+
+    @Test
+    public void registryReturnsTheSameMetric() {
+        Counter counter = Metrics.counter("test_registry_total", "Test.",
+                "cause", "a");
+        assertSame(counter, Metrics.counter("test_registry_total", "Test.",
+                "cause", "a"));
+        assertNotSame(counter, Metrics.counter("test_registry_total",
+                "Test.", "cause", "b"));
+        try {
+            Metrics.gauge("test_registry_total", "Test.");
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void prometheusFormat() throws IOException {
+        Counter a = new Counter("test_prom_total", "Help \\ text.",
+                "cause", "a\"b");
+        a.add(3);
+        Counter b = new Counter("test_prom_total", "Help \\ text.",
+                "cause", "c");
+        b.inc();
+        Histogram h = new Histogram("test_prom_seconds", "Time.");
+        h.record(TimeUnit.MILLISECONDS.toNanos(2));
+        StringWriter writer = new StringWriter();
+
+        StatsFormat.PROMETHEUS.write(Arrays.asList(a, b, h), writer);
+
+        assertEquals("# HELP test_prom_total Help \\\\ text.\n"
+                + "# TYPE test_prom_total counter\n"
+                + "test_prom_total{cause=\"a\\\"b\"} 3\n"
+                + "test_prom_total{cause=\"c\"} 1\n"
+                + "# HELP test_prom_seconds Time.\n"
+                + "# TYPE test_prom_seconds summary\n"
+                + "test_prom_seconds{quantile=\"0.5\"} 0.002\n"
+                + "test_prom_seconds{quantile=\"0.95\"} 0.002\n"
+                + "test_prom_seconds{quantile=\"0.99\"} 0.002\n"
+                + "test_prom_seconds_sum 0.002\n"
+                + "test_prom_seconds_count 1\n"
+                + "# TYPE test_prom_seconds_max gauge\n"
+                + "test_prom_seconds_max 0.002\n",
+                writer.toString());
+    }
+
+    @Test
+    public void jsonFormat() throws IOException {
+        Gauge g = new Gauge("test_json_rate", "Rate.");
+        g.set(1.5);
+        Histogram h = new Histogram("test_json_seconds", "Time.");
+        h.record(TimeUnit.SECONDS.toNanos(1));
+        StringWriter writer = new StringWriter();
+
+        StatsFormat.JSON.write(Arrays.asList(g, h), writer);
+
+        JsonNode metrics = new ObjectMapper().readTree(writer.toString())
+                .get("metrics");
+        assertEquals(2, metrics.size());
+        assertEquals("gauge", metrics.get(0).get("type").asText());
+        assertEquals(1.5, metrics.get(0).get("value").asDouble(), 0);
+        assertEquals(1, metrics.get(1).get("count").asLong());
+        assertEquals(1.0, metrics.get(1).get("p99").asDouble(), 0);
+        assertEquals(StatsFormat.PROMETHEUS,
+                StatsFormat.forPath(Paths.get("sshconfig.prom")));
+        assertEquals(StatsFormat.JSON,
+                StatsFormat.forPath(Paths.get("sshconfig.json")));
+    }
+}
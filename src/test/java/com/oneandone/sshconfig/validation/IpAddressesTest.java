@@ -0,0 +1,156 @@
+/*
+ * Copyright 2018 1&1 Internet SE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oneandone.sshconfig.validation;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test for {@link IpAddresses}.
+ * @author Stephan Fuhrmann
+ */
+public class IpAddressesTest {
+
+    private static final String[] VALID = {
+        "127.0.0.1",
+        "0.0.0.0",
+        "255.255.255.255",
+        "10.001.02.3",
+        "::",
+        "::1",
+        "1::",
+        "1:2:3:4:5:6:7:8",
+        "1:2:3:4:5:6:7::",
+        "::2:3:4:5:6:7:8",
+        "fe80::1",
+        "FE80::ABCD:ef01",
+        "2001:db8::8a2e:370:7334",
+        "0:0:0:0:0:0:0:1",
+        "2001:0db8:0000:0000:0000:ff00:0042:8329",
+        "::ffff:10.1.2.3",
+        "::10.1.2.3",
+        "1:2:3:4:5:6:1.2.3.4",
+        "[::1]",
+    };
+
+    private static final String[] INVALID = {
+        "",
+        "localhost",
+        "www.cnn.com",
+        ":-)))",
+        "1.2.3",
+        "1.2.3.4.5",
+        "1.2.3.256",
+        "1.2.3.",
+        ".1.2.3",
+        "1..2.3",
+        "1.2.3.4 ",
+        "0001.2.3.4",
+        "[1.2.3.4]",
+        ":",
+        ":::",
+        ":1::",
+        "1:::2",
+        "1::2::3",
+        "1:2:3:4:5:6:7:8:9",
+        "1:2:3:4:5:6:7",
+        "1::2:3:4:5:6:7:8",
+        "12345::",
+        "1:",
+        "g::1",
+        "::1.2.3",
+        "1:2:3:4:5:6:7:1.2.3.4",
+        "::1.2.3.4:5",
+        "fe80::1%",
+        "fe80::1% eth0",
+        "[::1",
+    };
+
+    @Test
+    public void validLiterals() throws UnknownHostException {
+        for (String s : VALID) {
+            assertTrue(s, IpAddresses.isLiteral(s));
+            byte[] dst = new byte[IpAddresses.IPV6_LENGTH];
+            int len = IpAddresses.parse(s, dst);
+            byte[] expected = InetAddress.getByName(s).getAddress();
+            byte[] actual = new byte[expected.length];
+            // the JDK turns IPv4-mapped IPv6 addresses into IPv4 addresses
+            System.arraycopy(dst, len - expected.length,
+                    actual, 0, expected.length);
+            assertArrayEquals(s, expected, actual);
+        }
+    }
+
+    @Test
+    public void invalidLiterals() {
+        for (String s : INVALID) {
+            assertFalse(s, IpAddresses.isLiteral(s));
+        }
+        assertFalse(IpAddresses.isLiteral(null));
+    }
+
+    @Test
+    public void scopedLiterals() {
+        assertEquals(16, IpAddresses.parse("fe80::1%eth0", null));
+        assertEquals(16, IpAddresses.parse("fe80::1%3", null));
+        assertEquals(16, IpAddresses.parse("[fe80::1%eth0]", null));
+    }
+
+    @Test
+    public void formatLikeJdkAndRfc5952() throws UnknownHostException {
+        for (String s : VALID) {
+            byte[] address = new byte[16];
+            int length = IpAddresses.parse(s, address);
+            byte[] bytes = java.util.Arrays.copyOf(address, length);
+            if (length == 16) {
+                // the JDK turns mapped addresses into IPv4 addresses
+                assertEquals(s, Inet6Address.getByAddress(null, bytes, null)
+                        .getHostAddress().replace("%0", ""),
+                        IpAddresses.format(bytes, false));
+            } else {
+                assertEquals(s, InetAddress.getByAddress(bytes)
+                        .getHostAddress(), IpAddresses.format(bytes, false));
+            }
+        }
+        assertEquals("2001:db8::1", IpAddresses.format(
+                InetAddress.getByName("2001:db8:0:0:0:0:0:1").getAddress(),
+                true));
+        assertEquals("1:0:0:1::1", IpAddresses.format(
+                InetAddress.getByName("1:0:0:1:0:0:0:1").getAddress(),
+                true));
+        assertEquals("1::1:0:0:1:1", IpAddresses.format(
+                InetAddress.getByName("1:0:0:1:0:0:1:1").getAddress(),
+                true));
+        assertEquals("::", IpAddresses.format(new byte[16], true));
+        assertEquals("1:0:1:0:1:0:1:0", IpAddresses.format(
+                InetAddress.getByName("1:0:1:0:1:0:1:0").getAddress(),
+                true));
+    }
+
+    @Test
+    public void validatorRejectsHostNames() {
+        IpAddressValidator validator = new IpAddressValidator();
+        assertTrue(validator.isValid(
+                new String[] {"10.1.2.3", "::1"}, null));
+        assertFalse(validator.isValid(
+                new String[] {"10.1.2.3", "localhost"}, null));
+        assertFalse(validator.isValid(new String[] {null}, null));
+    }
+}